@@ -22,6 +22,12 @@ create index x_ctr_t on concept_tree_positions (terminology);
 create index x_dtr_t on descriptor_tree_positions (terminology);
 create index x_cdtr_t on code_tree_positions (terminology);
 
+-- Create ancestor path indexes for tree position children lookups
+create index x_atr_ap on atom_tree_positions (ancestorPath(255));
+create index x_ctr_ap on concept_tree_positions (ancestorPath(255));
+create index x_dtr_ap on descriptor_tree_positions (ancestorPath(255));
+create index x_cdtr_ap on code_tree_positions (ancestorPath(255));
+
 -- Create indexes on relationships
 create index x_ar_t on atom_relationships (terminology);
 create index x_cr_t on concept_relationships(terminology);
@@ -41,4 +47,13 @@ CREATE VIEW ambig_concepts AS SELECT DISTINCT c1.id conceptId1, c2.id conceptId2
 
 -- Fact tables for helping speed up queries that rely on deep_relationships
 CREATE TABLE deep_atom_relationships (relationship_id BIGINT(20), component_type VARCHAR(255), terminologyId VARCHAR(255), terminology VARCHAR(255), version VARCHAR(255), relationshipType VARCHAR(255), additionalRelationshipType VARCHAR(255), obsolete BIT(1), suppressible BIT(1), published BIT(1), publishable BIT(1), workflowStatus VARCHAR(255), lastModifiedby VARCHAR(255), lastModified DATETIME, from_atoms_id BIGINT(20), to_atoms_id BIGINT(20),  INDEX x_from_id (from_atoms_id),  INDEX x_to_id (to_atoms_id) ) ENGINE=INNODB;
-CREATE TABLE deep_concept_relationships (relationship_id BIGINT(20), component_type VARCHAR(255), terminologyId VARCHAR(255), terminology VARCHAR(255), version VARCHAR(255), relationshipType VARCHAR(255), additionalRelationshipType VARCHAR(255), obsolete BIT(1), suppressible BIT(1), published BIT(1), publishable BIT(1), workflowStatus VARCHAR(255), lastModifiedby VARCHAR(255), lastModified DATETIME, from_concepts_id BIGINT(20), to_concepts_id BIGINT(20),  INDEX x_from_id (from_concepts_id),  INDEX x_to_id (to_concepts_id) ) ENGINE=INNODB;
\ No newline at end of file
+CREATE TABLE deep_concept_relationships (relationship_id BIGINT(20), component_type VARCHAR(255), terminologyId VARCHAR(255), terminology VARCHAR(255), version VARCHAR(255), relationshipType VARCHAR(255), additionalRelationshipType VARCHAR(255), obsolete BIT(1), suppressible BIT(1), published BIT(1), publishable BIT(1), workflowStatus VARCHAR(255), lastModifiedby VARCHAR(255), lastModified DATETIME, from_concepts_id BIGINT(20), to_concepts_id BIGINT(20),  INDEX x_from_id (from_concepts_id),  INDEX x_to_id (to_concepts_id) ) ENGINE=INNODB;
+
+-- Deep relationship projection table (keyed by concept, both directions), see DeepRelationshipUtility
+CREATE TABLE deep_concept_rel_projections (concept_id BIGINT(20), inverse BIT(1), relationship_id BIGINT(20), component_type VARCHAR(255), terminologyId VARCHAR(255), terminology VARCHAR(255), version VARCHAR(255), relationshipType VARCHAR(255), additionalRelationshipType VARCHAR(255), obsolete BIT(1), suppressible BIT(1), published BIT(1), publishable BIT(1), workflowStatus VARCHAR(255), lastModifiedBy VARCHAR(255), lastModified DATETIME, related_concept_id BIGINT(20), related_terminologyId VARCHAR(255), related_name VARCHAR(4000),  INDEX x_concept_id (concept_id, inverse),  INDEX x_related_id (related_concept_id),  INDEX x_related_tid (concept_id, inverse, related_terminologyId(100)) ) ENGINE=INNODB;
+
+-- Maintained component counters (per terminology, version, type), see ComponentStatsUtility
+CREATE TABLE component_stats (terminology VARCHAR(255), version VARCHAR(255), type VARCHAR(255), slot INT, total INT, active INT, component INT, UNIQUE INDEX ux_component_stats (terminology(100), version(100), type(100), slot));
+
+-- Hashes of the source rows components were last loaded from, see ContentHashUtility
+CREATE TABLE content_hashes (terminology VARCHAR(255), version VARCHAR(255), terminologyId VARCHAR(255), hash BIGINT(20), UNIQUE INDEX ux_content_hashes (terminology(100), version(100), terminologyId(100)));
@@ -0,0 +1,17 @@
+-- Patch 20171101 - component stats counters keyed by
+-- (terminology, version, type, slot), see ComponentStatsUtility.
+-- Run manually against an existing database before enabling
+-- content.service.component.stats.table. The counters are recomputed
+-- on first use (or by the COMPONENTSTATS algorithm), so any existing
+-- table is simply replaced.
+DROP TABLE IF EXISTS component_stats;
+CREATE TABLE component_stats (terminology VARCHAR(255), version VARCHAR(255), type VARCHAR(255), slot INT, total INT, active INT, component INT, UNIQUE INDEX ux_component_stats (terminology(100), version(100), type(100), slot));
+
+-- Content hashes keyed uniquely by (terminology, version, terminologyId),
+-- see ContentHashUtility. Hashes are upserted, so the key must be unique.
+CREATE TABLE IF NOT EXISTS content_hashes (terminology VARCHAR(255), version VARCHAR(255), terminologyId VARCHAR(255), hash BIGINT(20), UNIQUE INDEX ux_content_hashes (terminology(100), version(100), terminologyId(100)));
+
+-- Deep relationship projection table, see DeepRelationshipUtility. Run
+-- BuildDeepRelTablesAlgorithm to populate it before enabling
+-- content.service.deep.relationships.table.
+CREATE TABLE IF NOT EXISTS deep_concept_rel_projections (concept_id BIGINT(20), inverse BIT(1), relationship_id BIGINT(20), component_type VARCHAR(255), terminologyId VARCHAR(255), terminology VARCHAR(255), version VARCHAR(255), relationshipType VARCHAR(255), additionalRelationshipType VARCHAR(255), obsolete BIT(1), suppressible BIT(1), published BIT(1), publishable BIT(1), workflowStatus VARCHAR(255), lastModifiedBy VARCHAR(255), lastModified DATETIME, related_concept_id BIGINT(20), related_terminologyId VARCHAR(255), related_name VARCHAR(4000),  INDEX x_concept_id (concept_id, inverse),  INDEX x_related_id (related_concept_id),  INDEX x_related_tid (concept_id, inverse, related_terminologyId(100)) ) ENGINE=INNODB;
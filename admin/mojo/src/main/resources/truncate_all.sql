@@ -21,4 +21,7 @@ drop view if exists auis_m4;
 drop view if exists ruis_m4;
 drop view if exists ambig_concepts;
 drop table if exists deep_atom_relationships;
-drop table if exists deep_concept_relationships;
\ No newline at end of file
+drop table if exists deep_concept_relationships;
+drop table if exists deep_concept_rel_projections;
+drop table if exists component_stats;
+drop table if exists content_hashes;
\ No newline at end of file
@@ -3,7 +3,9 @@
  */
 package com.wci.umls.server.custom;
 
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Properties;
 
 import com.wci.umls.server.services.handlers.NormalizedStringHandler;
@@ -23,8 +25,11 @@ public class LvgNormalizedStringHandler implements NormalizedStringHandler {
   /** The lvg dir. */
   private String LVG_DIR;
 
-  /** The api. */
-  private LuiNormApi api;
+  /** The api properties. */
+  private Hashtable<String, String> properties;
+
+  /** The per thread api, as the LVG api is not thread safe. */
+  private ThreadLocal<LuiNormApi> api;
 
   /* see superclass */
   @Override
@@ -39,17 +44,53 @@ public class LvgNormalizedStringHandler implements NormalizedStringHandler {
   public void setProperties(Properties p) throws Exception {
 
     LVG_DIR = p.getProperty("lvg.dir");
-    Hashtable<String, String> properties = new Hashtable<String, String>();
+    properties = new Hashtable<String, String>();
     properties.put(gov.nih.nlm.nls.lvg.Lib.Configuration.LVG_DIR,
         LVG_DIR + "/");
-    // Use default config
-    api = new LuiNormApi(LVG_DIR + "/data/config/lvg.properties", properties);
+    api = new ThreadLocal<>();
+    // Fail early on a bad configuration
+    getApi();
+  }
+
+  /**
+   * Returns the api of the current thread, creating it if needed.
+   *
+   * @return the api
+   * @throws Exception the exception
+   */
+  private LuiNormApi getApi() throws Exception {
+    LuiNormApi threadApi = api.get();
+    if (threadApi == null) {
+      // Use default config
+      threadApi =
+          new LuiNormApi(LVG_DIR + "/data/config/lvg.properties", properties);
+      api.set(threadApi);
+    }
+    return threadApi;
   }
 
   /* see superclass */
   @Override
   public String getNormalizedString(String string) throws Exception {
-    return api.Mutate(string);
+    return getApi().Mutate(string);
+  }
+
+  /* see superclass */
+  @Override
+  public String getNormalizedString(String string, String stringClassId)
+    throws Exception {
+    return getNormalizedString(string);
+  }
+
+  /* see superclass */
+  @Override
+  public List<String> normalizeAll(Iterable<String> strings)
+    throws Exception {
+    final List<String> results = new ArrayList<>();
+    for (final String string : strings) {
+      results.add(getNormalizedString(string));
+    }
+    return results;
   }
 
   /* see superclass */
@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.test.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.wci.umls.server.helpers.Branch;
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.jpa.content.AtomJpa;
+import com.wci.umls.server.jpa.services.ContentServiceJpa;
+import com.wci.umls.server.model.content.Atom;
+import com.wci.umls.server.test.helpers.IntegrationUnitSupport;
+
+/**
+ * Integration testing for indexing of the atom terminology id maps, which are
+ * indexed from getters other than the persistent ones (see
+ * {@link AtomJpa#getIndexedAlternateTerminologyIds()}).
+ */
+public class AtomTerminologyIdsIndexTest extends IntegrationUnitSupport {
+
+  /** The service. */
+  private ContentServiceJpa contentService;
+
+  /** The atom. */
+  private Atom atom;
+
+  /**
+   * Setup.
+   *
+   * @throws Exception the exception
+   */
+  @Before
+  public void setup() throws Exception {
+    contentService = new ContentServiceJpa();
+    contentService.setLastModifiedBy("admin");
+    contentService.setMolecularActionFlag(false);
+
+    // Copy an existing atom to avoid messing with actual database data
+    final Atom existing = contentService
+        .getAtoms("", "MSH", "2016_2016_02_26").getObjects().get(0);
+    Atom createAtom = new AtomJpa(existing);
+    createAtom.setId(null);
+    createAtom.getAlternateTerminologyIds().put("TEST", "OLD-TEST-ID");
+    createAtom = contentService.addAtom(createAtom);
+    atom = createAtom;
+  }
+
+  /**
+   * Test that a changed map entry is reindexed.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testUpdateAlternateTerminologyId() throws Exception {
+    Logger.getLogger(getClass()).info("TEST " + name.getMethodName());
+
+    assertEquals(1, findAtoms("OLD-TEST-ID").size());
+
+    // Change only the map entry, in a transaction
+    contentService = new ContentServiceJpa();
+    contentService.setLastModifiedBy("admin");
+    contentService.setMolecularActionFlag(false);
+    contentService.setTransactionPerOperation(false);
+    contentService.beginTransaction();
+    final Atom managed = contentService.getAtom(atom.getId());
+    assertNotNull(managed);
+    managed.getAlternateTerminologyIds().put("TEST", "NEW-TEST-ID");
+    contentService.updateAtom(managed);
+    contentService.commit();
+
+    // The atom is found by the new value only
+    contentService = new ContentServiceJpa();
+    final List<AtomJpa> results = findAtoms("NEW-TEST-ID");
+    assertEquals(1, results.size());
+    assertEquals(atom.getId(), results.get(0).getId());
+    assertEquals(0, findAtoms("OLD-TEST-ID").size());
+  }
+
+  /**
+   * Find atoms by their "TEST" alternate terminology id.
+   *
+   * @param terminologyId the terminology id
+   * @return the atoms
+   * @throws Exception the exception
+   */
+  private List<AtomJpa> findAtoms(String terminologyId) throws Exception {
+    return contentService.getSearchHandler(ConfigUtility.DEFAULT)
+        .getQueryResults(null, null, Branch.ROOT,
+            "alternateTerminologyIds:\"TEST=" + terminologyId + "\"", null,
+            AtomJpa.class, null, new int[1], contentService.getEntityManager());
+  }
+
+  /**
+   * Teardown.
+   *
+   * @throws Exception the exception
+   */
+  @After
+  public void teardown() throws Exception {
+    if (atom != null) {
+      contentService = new ContentServiceJpa();
+      contentService.setLastModifiedBy("admin");
+      contentService.setMolecularActionFlag(false);
+      contentService.removeAtom(atom.getId());
+    }
+    contentService.close();
+  }
+}
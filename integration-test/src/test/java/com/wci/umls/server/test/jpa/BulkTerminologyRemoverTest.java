@@ -0,0 +1,415 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.test.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.persister.collection.AbstractCollectionPersister;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.EntityType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.wci.umls.server.helpers.Branch;
+import com.wci.umls.server.helpers.HasId;
+import com.wci.umls.server.jpa.algo.BulkTerminologyRemover;
+import com.wci.umls.server.jpa.algo.RemoveTerminologyAlgorithm;
+import com.wci.umls.server.jpa.content.AtomJpa;
+import com.wci.umls.server.jpa.content.AtomRelationshipJpa;
+import com.wci.umls.server.jpa.content.AttributeJpa;
+import com.wci.umls.server.jpa.content.CodeJpa;
+import com.wci.umls.server.jpa.content.ConceptJpa;
+import com.wci.umls.server.jpa.content.ConceptNoteJpa;
+import com.wci.umls.server.jpa.content.ConceptRelationshipJpa;
+import com.wci.umls.server.jpa.content.DefinitionJpa;
+import com.wci.umls.server.jpa.content.DescriptorJpa;
+import com.wci.umls.server.jpa.content.SemanticTypeComponentJpa;
+import com.wci.umls.server.jpa.services.ContentServiceJpa;
+import com.wci.umls.server.model.content.Atom;
+import com.wci.umls.server.model.content.Component;
+import com.wci.umls.server.model.content.Concept;
+import com.wci.umls.server.model.content.Relationship;
+import com.wci.umls.server.model.workflow.WorkflowStatus;
+import com.wci.umls.server.test.helpers.IntegrationUnitSupport;
+
+/**
+ * Integration testing for {@link BulkTerminologyRemover}. Loads a small
+ * sample terminology, one of whose atoms is also held by a UMLS concept, and
+ * removes it in bulk.
+ */
+public class BulkTerminologyRemoverTest extends IntegrationUnitSupport {
+
+  /** The terminology. */
+  private static final String TERMINOLOGY = "BULKTEST";
+
+  /** The version. */
+  private static final String VERSION = "1";
+
+  /** The name of the atom shared with the UMLS concept. */
+  private static final String SHARED_NAME = "Bulk removal shared atom";
+
+  /** The UMLS concept id. */
+  private static final String CONCEPT_ID = "C0000097";
+
+  /** The service. */
+  private ContentServiceJpa service;
+
+  /** The ids of the loaded rows, by entity name. */
+  private Map<String, Set<Long>> ids;
+
+  /** The atom count of the UMLS concept before the load. */
+  private int umlsAtomCt;
+
+  /**
+   * Setup.
+   *
+   * @throws Exception the exception
+   */
+  @Before
+  public void setup() throws Exception {
+    service = new ContentServiceJpa();
+    service.setLastModifiedBy("admin");
+    service.setMolecularActionFlag(false);
+    ids = new HashMap<>();
+
+    // Atoms, one of them also in a UMLS concept
+    final Atom atom = add(service.addAtom(newAtom("1", SHARED_NAME)));
+    final Atom atom2 = add(service.addAtom(newAtom("2", "Bulk removal atom")));
+    final Atom atom3 =
+        add(service.addAtom(newAtom("3", "Bulk removal other atom")));
+
+    final DefinitionJpa definition = init(new DefinitionJpa(), "DEF1");
+    definition.setValue("Bulk removal definition");
+    atom.getDefinitions().add(add(service.addDefinition(definition, atom)));
+    final AttributeJpa atomAttribute = init(new AttributeJpa(), "AT1");
+    atomAttribute.setName("ATOM_ATTRIBUTE");
+    atomAttribute.setValue("1");
+    atom.getAttributes()
+        .add(add(service.addAttribute(atomAttribute, atom)));
+    service.updateAtom(atom);
+
+    final AtomRelationshipJpa atomRel = init(new AtomRelationshipJpa(), "AR1");
+    initRelationship(atomRel);
+    atomRel.setFrom(atom);
+    atomRel.setTo(atom2);
+    add(service.addRelationship(atomRel));
+
+    // Concepts, codes and descriptors holding the atoms
+    final ConceptJpa concept = init(new ConceptJpa(), "C1");
+    concept.setName(SHARED_NAME);
+    concept.setWorkflowStatus(WorkflowStatus.PUBLISHED);
+    concept.getAtoms().add(atom);
+    concept.getAtoms().add(atom2);
+    add(service.addConcept(concept));
+    final ConceptJpa concept2 = init(new ConceptJpa(), "C2");
+    concept2.setName("Bulk removal other atom");
+    concept2.setWorkflowStatus(WorkflowStatus.PUBLISHED);
+    concept2.getAtoms().add(atom3);
+    add(service.addConcept(concept2));
+
+    final SemanticTypeComponentJpa sty =
+        init(new SemanticTypeComponentJpa(), "STY1");
+    sty.setSemanticType("Pharmacologic Substance");
+    sty.setWorkflowStatus(WorkflowStatus.PUBLISHED);
+    concept.getSemanticTypes()
+        .add(add(service.addSemanticTypeComponent(sty, concept)));
+    final AttributeJpa attribute = init(new AttributeJpa(), "AT2");
+    attribute.setName("CONCEPT_ATTRIBUTE");
+    attribute.setValue("1");
+    concept.getAttributes().add(add(service.addAttribute(attribute, concept)));
+    service.updateConcept(concept);
+
+    final ConceptRelationshipJpa conceptRel =
+        init(new ConceptRelationshipJpa(), "CR1");
+    initRelationship(conceptRel);
+    conceptRel.setFrom(concept);
+    conceptRel.setTo(concept2);
+    add(service.addRelationship(conceptRel));
+
+    final ConceptNoteJpa note = new ConceptNoteJpa();
+    note.setNote("Bulk removal note");
+    note.setConcept(concept);
+    add(service.addNote(note));
+
+    final CodeJpa code = init(new CodeJpa(), "CODE1");
+    code.setName(SHARED_NAME);
+    code.setWorkflowStatus(WorkflowStatus.PUBLISHED);
+    code.getAtoms().add(atom);
+    add(service.addCode(code));
+
+    final DescriptorJpa descriptor = init(new DescriptorJpa(), "D1");
+    descriptor.setName("Bulk removal atom");
+    descriptor.setWorkflowStatus(WorkflowStatus.PUBLISHED);
+    descriptor.getAtoms().add(atom2);
+    add(service.addDescriptor(descriptor));
+
+    // The UMLS concept also holds the shared atom
+    final Concept umlsConcept =
+        service.getConcept(CONCEPT_ID, "MTH", "latest", Branch.ROOT);
+    umlsAtomCt = umlsConcept.getAtoms().size();
+    umlsConcept.getAtoms().add(atom);
+    service.updateConcept(umlsConcept);
+  }
+
+  /**
+   * Test that the bulk removal leaves no rows of the terminology in the
+   * content and join tables, and reindexes the UMLS concept.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testBulkRemove() throws Exception {
+    Logger.getLogger(getClass()).info("TEST " + name.getMethodName());
+
+    // The UMLS concept is found by the shared atom
+    assertEquals(1, findUmlsConcepts().size());
+    assertTrue(countRows() > 0);
+
+    removeTerminology();
+
+    // No rows of the terminology are left
+    assertEquals(0, countRows());
+
+    // The UMLS concept was reindexed without the atom
+    final ContentServiceJpa service2 = new ContentServiceJpa();
+    try {
+      assertEquals(umlsAtomCt, service2
+          .getConcept(CONCEPT_ID, "MTH", "latest", Branch.ROOT).getAtoms()
+          .size());
+    } finally {
+      service2.close();
+    }
+    assertEquals(0, findUmlsConcepts().size());
+  }
+
+  /**
+   * Returns the UMLS concepts found by the name of the shared atom.
+   *
+   * @return the search results
+   * @throws Exception the exception
+   */
+  private List<?> findUmlsConcepts() throws Exception {
+    return service.findConceptSearchResults("MTH", "latest", Branch.ROOT,
+        "atoms.nameSort:\"" + SHARED_NAME + "\"", null).getObjects();
+  }
+
+  /**
+   * Removes the terminology in bulk.
+   *
+   * @throws Exception the exception
+   */
+  private void removeTerminology() throws Exception {
+    final RemoveTerminologyAlgorithm algo = new RemoveTerminologyAlgorithm();
+    try {
+      algo.setLastModifiedBy("admin");
+      algo.setTerminology(TERMINOLOGY);
+      algo.setVersion(VERSION);
+      algo.setStandalone(false);
+      algo.compute();
+    } finally {
+      algo.close();
+    }
+  }
+
+  /**
+   * Counts the rows of the terminology in the content tables and the join
+   * table rows owned by or referring to the loaded rows.
+   *
+   * @return the count
+   * @throws Exception the exception
+   */
+  private int countRows() throws Exception {
+    final SessionFactory factory = service.getEntityManager()
+        .unwrap(Session.class).getSessionFactory();
+    int ct = 0;
+
+    // Content tables
+    for (final Object metadata : factory.getAllClassMetadata().values()) {
+      final AbstractEntityPersister persister =
+          (AbstractEntityPersister) metadata;
+      // Skip audit tables, not written by the bulk removal
+      if (persister.getMappedClass() == null) {
+        continue;
+      }
+      final List<String> properties =
+          Arrays.asList(persister.getPropertyNames());
+      if (properties.contains("terminology")
+          && properties.contains("version")) {
+        ct += log(persister.getTableName(),
+            ((Number) service.getEntityManager()
+                .createNativeQuery("SELECT COUNT(*) FROM "
+                    + persister.getTableName()
+                    + " WHERE terminology = :terminology"
+                    + " AND version = :version")
+                .setParameter("terminology", TERMINOLOGY)
+                .setParameter("version", VERSION).getSingleResult())
+                    .intValue());
+      }
+    }
+
+    // Join tables
+    for (final Object metadata : factory.getAllCollectionMetadata()
+        .values()) {
+      final AbstractCollectionPersister collection =
+          (AbstractCollectionPersister) metadata;
+      if (collection.isOneToMany()
+          || collection.getOwnerEntityPersister().getMappedClass() == null) {
+        continue;
+      }
+      final Set<Long> owners =
+          getIds(collection.getOwnerEntityPersister().getEntityName());
+      if (!owners.isEmpty()) {
+        ct += log(collection.getTableName(),
+            count(collection.getTableName(),
+                collection.getKeyColumnNames()[0], owners));
+      }
+      if (collection.getElementType().isEntityType()) {
+        final Set<Long> elements = getIds(((EntityType) collection
+            .getElementType()).getAssociatedEntityName());
+        if (!elements.isEmpty()) {
+          ct += log(collection.getTableName(),
+              count(collection.getTableName(),
+                  collection.getElementColumnNames()[0], elements));
+        }
+      }
+    }
+    return ct;
+  }
+
+  /**
+   * Counts the rows of the table whose column is one of the ids.
+   *
+   * @param table the table
+   * @param column the column
+   * @param rowIds the row ids
+   * @return the count
+   * @throws Exception the exception
+   */
+  private int count(String table, String column, Set<Long> rowIds)
+    throws Exception {
+    return ((Number) service.getEntityManager()
+        .createNativeQuery("SELECT COUNT(*) FROM " + table + " WHERE "
+            + column + " IN (:ids)")
+        .setParameter("ids", rowIds).getSingleResult()).intValue();
+  }
+
+  /**
+   * Logs a non-zero count.
+   *
+   * @param table the table
+   * @param ct the count
+   * @return the count
+   */
+  private int log(String table, int ct) {
+    if (ct > 0) {
+      Logger.getLogger(getClass()).info("  " + table + " count = " + ct);
+    }
+    return ct;
+  }
+
+  /**
+   * Returns the ids of the loaded rows of the entity.
+   *
+   * @param entityName the entity name
+   * @return the ids
+   */
+  private Set<Long> getIds(String entityName) {
+    return ids.containsKey(entityName) ? ids.get(entityName)
+        : new HashSet<>();
+  }
+
+  /**
+   * Records the id of a loaded row.
+   *
+   * @param <T> the type
+   * @param object the object
+   * @return the object
+   */
+  private <T extends HasId> T add(T object) {
+    final String entityName = object.getClass().getName();
+    if (!ids.containsKey(entityName)) {
+      ids.put(entityName, new HashSet<>());
+    }
+    ids.get(entityName).add(object.getId());
+    return object;
+  }
+
+  /**
+   * Returns a new atom of the terminology.
+   *
+   * @param terminologyId the terminology id
+   * @param atomName the atom name
+   * @return the atom
+   */
+  private AtomJpa newAtom(String terminologyId, String atomName) {
+    final AtomJpa atom = init(new AtomJpa(), terminologyId);
+    atom.setName(atomName);
+    atom.setCodeId("CODE1");
+    atom.setConceptId("C1");
+    atom.setDescriptorId("");
+    atom.setLanguage("ENG");
+    atom.setTermType("PT");
+    atom.setLexicalClassId("");
+    atom.setStringClassId("");
+    atom.setWorkflowStatus(WorkflowStatus.PUBLISHED);
+    return atom;
+  }
+
+  /**
+   * Sets the fields every component of the terminology has.
+   *
+   * @param <T> the type
+   * @param component the component
+   * @param terminologyId the terminology id
+   * @return the component
+   */
+  private <T extends Component> T init(T component, String terminologyId) {
+    component.setBranch(Branch.ROOT);
+    component.setTerminology(TERMINOLOGY);
+    component.setVersion(VERSION);
+    component.setTerminologyId(terminologyId);
+    component.setTimestamp(new Date());
+    component.setPublishable(true);
+    return component;
+  }
+
+  /**
+   * Sets the fields every relationship of the terminology has.
+   *
+   * @param relationship the relationship
+   */
+  private void initRelationship(Relationship<?, ?> relationship) {
+    relationship.setRelationshipType("RO");
+    relationship.setAdditionalRelationshipType("");
+    relationship.setWorkflowStatus(WorkflowStatus.PUBLISHED);
+  }
+
+  /**
+   * Teardown.
+   *
+   * @throws Exception the exception
+   */
+  @After
+  public void teardown() throws Exception {
+    // Leave the UMLS concept as it was, even if the test failed early
+    if (service.getConcept("C1", TERMINOLOGY, VERSION, Branch.ROOT) != null) {
+      removeTerminology();
+    }
+    service.close();
+  }
+
+}
@@ -0,0 +1,222 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.test.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.wci.umls.server.helpers.Branch;
+import com.wci.umls.server.helpers.ComponentInfo;
+import com.wci.umls.server.helpers.PfsParameter;
+import com.wci.umls.server.helpers.content.RelationshipList;
+import com.wci.umls.server.jpa.helpers.PfsParameterJpa;
+import com.wci.umls.server.jpa.services.ContentServiceJpa;
+import com.wci.umls.server.jpa.services.helper.DeepRelationshipUtility;
+import com.wci.umls.server.model.content.Concept;
+import com.wci.umls.server.model.content.Relationship;
+import com.wci.umls.server.test.helpers.IntegrationUnitSupport;
+
+/**
+ * Integration testing that the deep relationship projection table returns the
+ * same relationships as the queries against the relationship tables, in the
+ * same sort order and page by page, in both directions.
+ */
+public class DeepRelationshipProjectionTest extends IntegrationUnitSupport {
+
+  /** The concept id. */
+  private static final String CONCEPT_ID = "C0000097";
+
+  /** The page size. */
+  private static final int PAGE_SIZE = 10;
+
+  /** The service. */
+  private ContentServiceJpa service;
+
+  /** The enabled flag before the test. */
+  private boolean enabled;
+
+  /**
+   * Setup.
+   *
+   * @throws Exception the exception
+   */
+  @Before
+  public void setup() throws Exception {
+    enabled = DeepRelationshipUtility.isEnabled();
+    service = new ContentServiceJpa();
+
+    // Build the projection rows of the concept
+    DeepRelationshipUtility.setEnabled(true);
+    final Concept concept =
+        service.getConcept(CONCEPT_ID, "MTH", "latest", Branch.ROOT);
+    service.setTransactionPerOperation(false);
+    service.beginTransaction();
+    DeepRelationshipUtility.refreshConcepts(service.getEntityManager(),
+        Collections.singleton(concept.getId()));
+    service.commit();
+  }
+
+  /**
+   * Test the unpaged results in both directions.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testUnpaged() throws Exception {
+    Logger.getLogger(getClass()).info("TEST " + name.getMethodName());
+
+    for (final boolean inverseFlag : new boolean[] {
+        false, true
+    }) {
+      for (final boolean includeConceptRels : new boolean[] {
+          false, true
+      }) {
+        final RelationshipList expected = find(false, inverseFlag,
+            includeConceptRels, new PfsParameterJpa());
+        final RelationshipList actual = find(true, inverseFlag,
+            includeConceptRels, new PfsParameterJpa());
+        Logger.getLogger(getClass())
+            .info("  inverse = " + inverseFlag + ", concept rels = "
+                + includeConceptRels + ", count = "
+                + expected.getTotalCount());
+        assertTrue(expected.getTotalCount() > 0);
+        assertEquals(expected.getTotalCount(), actual.getTotalCount());
+        assertEquals(getKeys(expected.getObjects()),
+            getKeys(actual.getObjects()));
+      }
+    }
+  }
+
+  /**
+   * Test sorted pages in both directions.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testSortedPages() throws Exception {
+    Logger.getLogger(getClass()).info("TEST " + name.getMethodName());
+
+    for (final boolean inverseFlag : new boolean[] {
+        false, true
+    }) {
+      for (final boolean ascending : new boolean[] {
+          true, false
+      }) {
+        final Set<String> all = getKeys(
+            find(false, inverseFlag, false, new PfsParameterJpa())
+                .getObjects());
+        final Set<String> paged = new HashSet<>();
+        final List<String> expectedTypes = new ArrayList<>();
+        final List<String> actualTypes = new ArrayList<>();
+        for (int start = 0; start < all.size(); start += PAGE_SIZE) {
+          final RelationshipList expected =
+              find(false, inverseFlag, false, getPfs(start, ascending));
+          final RelationshipList actual =
+              find(true, inverseFlag, false, getPfs(start, ascending));
+          assertEquals(all.size(), expected.getTotalCount());
+          assertEquals(all.size(), actual.getTotalCount());
+          assertEquals(expected.size(), actual.size());
+          for (int i = 0; i < expected.size(); i++) {
+            expectedTypes
+                .add(expected.getObjects().get(i).getRelationshipType());
+            actualTypes.add(actual.getObjects().get(i).getRelationshipType());
+          }
+
+          // No row appears on two pages
+          for (final String key : getKeys(actual.getObjects())) {
+            assertTrue("Duplicate " + key, paged.add(key));
+          }
+        }
+        Logger.getLogger(getClass()).info("  inverse = " + inverseFlag
+            + ", ascending = " + ascending + ", count = " + all.size());
+
+        // Same sort order, and the pages together are the whole result
+        assertEquals(expectedTypes, actualTypes);
+        final List<String> sorted = new ArrayList<>(actualTypes);
+        Collections.sort(sorted);
+        if (!ascending) {
+          Collections.reverse(sorted);
+        }
+        assertEquals(sorted, actualTypes);
+        assertEquals(all, paged);
+      }
+    }
+  }
+
+  /**
+   * Finds the deep relationships of the concept, with or without the
+   * projection table.
+   *
+   * @param projectionFlag the projection flag
+   * @param inverseFlag the inverse flag
+   * @param includeConceptRels the include concept rels
+   * @param pfs the pfs
+   * @return the relationship list
+   * @throws Exception the exception
+   */
+  private RelationshipList find(boolean projectionFlag, boolean inverseFlag,
+    boolean includeConceptRels, PfsParameter pfs) throws Exception {
+    DeepRelationshipUtility.setEnabled(projectionFlag);
+    return service.findConceptDeepRelationships(CONCEPT_ID, "MTH", "latest",
+        Branch.ROOT, null, inverseFlag, includeConceptRels, false, false, pfs);
+  }
+
+  /**
+   * Returns a pfs for a page sorted by relationship type.
+   *
+   * @param start the start index
+   * @param ascending the ascending flag
+   * @return the pfs
+   */
+  private PfsParameter getPfs(int start, boolean ascending) {
+    final PfsParameter pfs = new PfsParameterJpa();
+    pfs.setStartIndex(start);
+    pfs.setMaxResults(PAGE_SIZE);
+    pfs.setSortField("relationshipType");
+    pfs.setAscending(ascending);
+    return pfs;
+  }
+
+  /**
+   * Returns the keys the content service de-duplicates relationships by.
+   *
+   * @param rels the relationships
+   * @return the keys
+   */
+  private Set<String> getKeys(
+    List<Relationship<? extends ComponentInfo, ? extends ComponentInfo>> rels) {
+    final Set<String> keys = new HashSet<>();
+    for (final Relationship<? extends ComponentInfo, ? extends ComponentInfo> rel : rels) {
+      keys.add(rel.getFrom().getTerminologyId() + "|"
+          + rel.getTo().getTerminologyId() + "|" + rel.getTerminology() + "|"
+          + rel.getTerminologyId() + "|" + rel.getRelationshipType() + "|"
+          + rel.getAdditionalRelationshipType() + "|" + rel.isObsolete() + "|"
+          + rel.isSuppressible());
+    }
+    return keys;
+  }
+
+  /**
+   * Teardown.
+   *
+   * @throws Exception the exception
+   */
+  @After
+  public void teardown() throws Exception {
+    DeepRelationshipUtility.setEnabled(enabled);
+    service.close();
+  }
+
+}
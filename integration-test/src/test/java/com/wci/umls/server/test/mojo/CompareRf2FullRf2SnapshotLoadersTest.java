@@ -57,7 +57,8 @@ public class CompareRf2FullRf2SnapshotLoadersTest {
    * Run Reindex mojo to clear the indexes
    * Run the RF2-apshot mojo against the sample config/src/main/resources/data/snomedct-20140731-mini" data.
    * Count all data structures (though API) and save data
-   *   TEST: compare the full and shapshot model object counts, they should all be equals.
+   *   TEST: compare the full and shapshot model object counts (except
+   *     component histories), they should all be equals.
    *   TEST: verify each content table exists with the expected number of entries.
    * </pre>
    * @throws Exception the exception
@@ -187,6 +188,13 @@ public class CompareRf2FullRf2SnapshotLoadersTest {
     service.closeFactory();
     Logger.getLogger(getClass()).info("Snap Stats = " + fullStats);
 
+    // Component histories hold the superseded full rows, which a snapshot
+    // does not have
+    fullStats.remove("Total ComponentHistoryJpa");
+    fullStats.remove("Non-obsolete ComponentHistoryJpa");
+    snapStats.remove("Total ComponentHistoryJpa");
+    snapStats.remove("Non-obsolete ComponentHistoryJpa");
+
     // Assert equivalence of counts
     Logger.getLogger(getClass()).info("Verify counts match");
     for (String prop : fullStats.keySet()) {
@@ -44,6 +44,10 @@ public class AlgorithmConfigJpa extends AbstractAlgorithmInfo<ProcessConfig>
   @Column(nullable = false)
   private boolean enabled = true;
 
+  /** The dependencies. */
+  @Column(nullable = true, length = 4000)
+  private String dependencies;
+
   /** the properties */
   @ElementCollection
   @MapKeyColumn(length = 100)
@@ -65,6 +69,7 @@ public class AlgorithmConfigJpa extends AbstractAlgorithmInfo<ProcessConfig>
   public AlgorithmConfigJpa(AlgorithmConfig config) {
     super(config);
     enabled = config.isEnabled();
+    dependencies = config.getDependencies();
     process = config.getProcess();
     properties = new HashMap<>(config.getProperties());
   }
@@ -116,6 +121,18 @@ public class AlgorithmConfigJpa extends AbstractAlgorithmInfo<ProcessConfig>
     this.enabled = enabled;
   }
 
+  /* see superclass */
+  @Override
+  public String getDependencies() {
+    return dependencies;
+  }
+
+  /* see superclass */
+  @Override
+  public void setDependencies(String dependencies) {
+    this.dependencies = dependencies;
+  }
+
   /* see superclass */
   @Override
   @XmlTransient
@@ -141,6 +158,8 @@ public class AlgorithmConfigJpa extends AbstractAlgorithmInfo<ProcessConfig>
         + ((getProcessId() == null) ? 0 : getProcessId().hashCode());
     result =
         prime * result + ((properties == null) ? 0 : properties.hashCode());
+    result = prime * result
+        + ((dependencies == null) ? 0 : dependencies.hashCode());
     return result;
   }
 
@@ -164,6 +183,11 @@ public class AlgorithmConfigJpa extends AbstractAlgorithmInfo<ProcessConfig>
         return false;
     } else if (!properties.equals(other.properties))
       return false;
+    if (dependencies == null) {
+      if (other.dependencies != null)
+        return false;
+    } else if (!dependencies.equals(other.dependencies))
+      return false;
     return true;
   }
 
@@ -171,7 +195,8 @@ public class AlgorithmConfigJpa extends AbstractAlgorithmInfo<ProcessConfig>
   @Override
   public String toString() {
     return "AlgorithmConfigJpa [processId=" + getProcessId() + ", properties="
-        + properties + "] " + super.toString();
+        + properties + ", dependencies=" + dependencies + "] "
+        + super.toString();
   }
 
 }
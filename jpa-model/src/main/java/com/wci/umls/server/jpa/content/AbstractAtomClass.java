@@ -39,6 +39,7 @@ import org.hibernate.search.annotations.TokenizerDef;
 import org.hibernate.search.bridge.builtin.EnumBridge;
 
 import com.wci.umls.server.helpers.Branch;
+import com.wci.umls.server.jpa.helpers.SortableStringBridge;
 import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.AtomClass;
 import com.wci.umls.server.model.workflow.WorkflowStatus;
@@ -152,7 +153,7 @@ public abstract class AbstractAtomClass extends AbstractComponentHasAttributes
   @Override
   @Fields({
       @Field(index = Index.YES, analyze = Analyze.YES, store = Store.NO, analyzer = @Analyzer(definition = "noStopWord")),
-      @Field(name = "nameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO)
+      @Field(name = "nameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   })
   public String getName() {
     return name;
@@ -20,6 +20,7 @@ import org.hibernate.search.annotations.Store;
 import org.hibernate.search.bridge.builtin.LongBridge;
 
 import com.wci.umls.server.helpers.Branch;
+import com.wci.umls.server.jpa.helpers.SortableStringBridge;
 import com.wci.umls.server.model.content.Component;
 import com.wci.umls.server.model.content.ComponentHasAttributes;
 import com.wci.umls.server.model.meta.IdType;
@@ -179,7 +180,7 @@ public abstract class AbstractComponent extends AbstractHasLastModified
 
   /* see superclass */
   @Override
-  @Field(index = Index.YES, analyze = Analyze.NO, store = Store.NO)
+  @Field(index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   public String getBranch() {
     return branch;
   }
@@ -192,7 +193,7 @@ public abstract class AbstractComponent extends AbstractHasLastModified
 
   /* see superclass */
   @Override
-  @Field(index = Index.YES, analyze = Analyze.NO, store = Store.NO)
+  @Field(index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   public String getVersion() {
     return version;
   }
@@ -204,7 +205,7 @@ public abstract class AbstractComponent extends AbstractHasLastModified
   }
 
   /* see superclass */
-  @Field(index = Index.YES, analyze = Analyze.NO, store = Store.NO)
+  @Field(index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   @Override
   public String getTerminology() {
     return terminology;
@@ -218,7 +219,7 @@ public abstract class AbstractComponent extends AbstractHasLastModified
 
   /* see superclass */
   @Override
-  @Field(index = Index.YES, analyze = Analyze.NO, store = Store.NO)
+  @Field(index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   public String getTerminologyId() {
     return terminologyId;
   }
@@ -13,10 +13,12 @@ import javax.persistence.TemporalType;
 import org.hibernate.envers.Audited;
 import org.hibernate.search.annotations.Analyze;
 import org.hibernate.search.annotations.Field;
+import org.hibernate.search.annotations.FieldBridge;
 import org.hibernate.search.annotations.Index;
 import org.hibernate.search.annotations.Store;
 
 import com.wci.umls.server.helpers.HasLastModified;
+import com.wci.umls.server.jpa.helpers.SortableStringBridge;
 
 /**
  * Abstract implementation of {@link HasLastModified} for use with JPA.
@@ -100,7 +102,7 @@ public abstract class AbstractHasLastModified implements HasLastModified {
   }
 
   /* see superclass */
-  @Field(index = Index.YES, analyze = Analyze.NO, store = Store.NO)
+  @Field(index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   @Override
   public String getLastModifiedBy() {
     return lastModifiedBy;
@@ -16,6 +16,7 @@ import javax.persistence.Enumerated;
 import javax.persistence.MapKeyColumn;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 import javax.persistence.UniqueConstraint;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -34,7 +35,9 @@ import org.hibernate.search.bridge.builtin.EnumBridge;
 
 import com.wci.umls.server.helpers.ConfigUtility;
 import com.wci.umls.server.helpers.Note;
+import com.wci.umls.server.jpa.helpers.AtomIndexProfile;
 import com.wci.umls.server.jpa.helpers.MapKeyValueToCsvBridge;
+import com.wci.umls.server.jpa.helpers.SortableStringBridge;
 import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.AtomRelationship;
 import com.wci.umls.server.model.content.AtomSubsetMember;
@@ -268,8 +271,6 @@ public class AtomJpa extends AbstractComponentHasAttributes implements Atom {
    * see superc /* see superclass
    */
   @Override
-  @FieldBridge(impl = MapKeyValueToCsvBridge.class)
-  @Field(name = "conceptTerminologyIds", index = Index.YES, analyze = Analyze.YES, store = Store.NO)
   public Map<String, String> getConceptTerminologyIds() {
     if (conceptTerminologyIds == null) {
       conceptTerminologyIds = new HashMap<>(2);
@@ -277,6 +278,23 @@ public class AtomJpa extends AbstractComponentHasAttributes implements Atom {
     return conceptTerminologyIds;
   }
 
+  /**
+   * Returns the concept terminology ids, if indexed for this terminology.
+   * Marked transient so Hibernate Search turns off its dirty checking for
+   * atoms: otherwise changes to the persistent map (a different collection
+   * role than this getter) would not trigger reindexing.
+   *
+   * @return the concept terminology ids to index
+   */
+  @XmlTransient
+  @Transient
+  @FieldBridge(impl = MapKeyValueToCsvBridge.class)
+  @Field(name = "conceptTerminologyIds", index = Index.YES, analyze = Analyze.YES, store = Store.NO)
+  public Map<String, String> getIndexedConceptTerminologyIds() {
+    return AtomIndexProfile.isIndexed(getTerminology(),
+        "conceptTerminologyIds") ? getConceptTerminologyIds() : null;
+  }
+
   /* see superclass */
   @Override
   public void setConceptTerminologyIds(
@@ -396,14 +414,38 @@ public class AtomJpa extends AbstractComponentHasAttributes implements Atom {
   @Override
   @Fields({
       @Field(name = "name", index = Index.YES, store = Store.NO, analyze = Analyze.YES, analyzer = @Analyzer(definition = "noStopWord")),
-      @Field(name = "nameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO),
-      @Field(name = "edgeNGramName", index = Index.YES, store = Store.NO, analyze = Analyze.YES, analyzer = @Analyzer(definition = "autocompleteEdgeAnalyzer")),
-      @Field(name = "nGramName", index = Index.YES, store = Store.NO, analyze = Analyze.YES, analyzer = @Analyzer(definition = "autocompleteNGramAnalyzer"))
+      @Field(name = "nameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   })
   public String getName() {
     return name;
   }
 
+  /**
+   * Returns the name for edge n-gram autocomplete, if indexed for this
+   * terminology.
+   *
+   * @return the name to index
+   */
+  @XmlTransient
+  @Field(name = "edgeNGramName", index = Index.YES, store = Store.NO, analyze = Analyze.YES, analyzer = @Analyzer(definition = "autocompleteEdgeAnalyzer"))
+  public String getEdgeNGramName() {
+    return AtomIndexProfile.isIndexed(getTerminology(), "edgeNGramName")
+        ? name : null;
+  }
+
+  /**
+   * Returns the name for n-gram autocomplete, if indexed for this
+   * terminology.
+   *
+   * @return the name to index
+   */
+  @XmlTransient
+  @Field(name = "nGramName", index = Index.YES, store = Store.NO, analyze = Analyze.YES, analyzer = @Analyzer(definition = "autocompleteNGramAnalyzer"))
+  public String getNGramName() {
+    return AtomIndexProfile.isIndexed(getTerminology(), "nGramName") ? name
+        : null;
+  }
+
   /**
    * Returns the name norm.
    *
@@ -452,8 +494,6 @@ public class AtomJpa extends AbstractComponentHasAttributes implements Atom {
 
   /* see superclass */
   @Override
-  @FieldBridge(impl = MapKeyValueToCsvBridge.class)
-  @Field(name = "alternateTerminologyIds", index = Index.YES, analyze = Analyze.YES, store = Store.NO)
   public Map<String, String> getAlternateTerminologyIds() {
     if (alternateTerminologyIds == null) {
       alternateTerminologyIds = new HashMap<>(2);
@@ -461,6 +501,22 @@ public class AtomJpa extends AbstractComponentHasAttributes implements Atom {
     return alternateTerminologyIds;
   }
 
+  /**
+   * Returns the alternate terminology ids, if indexed for this terminology.
+   * Transient for the same reason as
+   * {@link #getIndexedConceptTerminologyIds()}.
+   *
+   * @return the alternate terminology ids to index
+   */
+  @XmlTransient
+  @Transient
+  @FieldBridge(impl = MapKeyValueToCsvBridge.class)
+  @Field(name = "alternateTerminologyIds", index = Index.YES, analyze = Analyze.YES, store = Store.NO)
+  public Map<String, String> getIndexedAlternateTerminologyIds() {
+    return AtomIndexProfile.isIndexed(getTerminology(),
+        "alternateTerminologyIds") ? getAlternateTerminologyIds() : null;
+  }
+
   /* see superclass */
   @Override
   public void setAlternateTerminologyIds(
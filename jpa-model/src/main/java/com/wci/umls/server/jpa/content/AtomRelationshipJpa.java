@@ -33,6 +33,7 @@ import org.hibernate.search.annotations.Store;
 import org.hibernate.search.bridge.builtin.LongBridge;
 
 import com.wci.umls.server.jpa.helpers.MapKeyValueToCsvBridge;
+import com.wci.umls.server.jpa.helpers.SortableStringBridge;
 import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.AtomRelationship;
 import com.wci.umls.server.model.content.Relationship;
@@ -165,7 +166,7 @@ public class AtomRelationshipJpa extends AbstractRelationship<Atom, Atom>
    */
   @Fields({
       @Field(index = Index.YES, analyze = Analyze.YES, store = Store.NO, analyzer = @Analyzer(definition = "noStopWord")),
-      @Field(name = "fromNameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO)
+      @Field(name = "fromNameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   })
   public String getFromName() {
     return from == null ? null : from.getName();
@@ -242,7 +243,7 @@ public class AtomRelationshipJpa extends AbstractRelationship<Atom, Atom>
    */
   @Fields({
       @Field(index = Index.YES, analyze = Analyze.YES, store = Store.NO),
-      @Field(name = "toNameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO)
+      @Field(name = "toNameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   })
   public String getToName() {
     return to == null ? null : to.getName();
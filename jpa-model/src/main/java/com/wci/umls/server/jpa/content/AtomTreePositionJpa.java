@@ -24,6 +24,7 @@ import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.Store;
 import org.hibernate.search.bridge.builtin.LongBridge;
 
+import com.wci.umls.server.jpa.helpers.SortableStringBridge;
 import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.AtomTreePosition;
 
@@ -106,7 +107,7 @@ public class AtomTreePositionJpa extends AbstractTreePosition<Atom>
    */
   @Fields({
       @Field(name = "nodeName", index = Index.YES, store = Store.NO, analyze = Analyze.YES, analyzer = @Analyzer(definition = "noStopWord")),
-      @Field(name = "nodeNameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO)
+      @Field(name = "nodeNameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   })
   public String getNodeName() {
     return node == null ? null : node.getName();
@@ -27,6 +27,7 @@ import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.Store;
 
 import com.wci.umls.server.jpa.helpers.MapKeyValueToCsvBridge;
+import com.wci.umls.server.jpa.helpers.SortableStringBridge;
 import com.wci.umls.server.model.content.Code;
 import com.wci.umls.server.model.content.CodeRelationship;
 import com.wci.umls.server.model.content.Relationship;
@@ -190,7 +191,7 @@ public class CodeRelationshipJpa extends AbstractRelationship<Code, Code>
    */
   @Fields({
       @Field(index = Index.YES, analyze = Analyze.YES, store = Store.NO, analyzer = @Analyzer(definition = "noStopWord")),
-      @Field(name = "fromNameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO)
+      @Field(name = "fromNameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   })
   public String getFromName() {
     return from == null ? null : from.getName();
@@ -315,7 +316,7 @@ public class CodeRelationshipJpa extends AbstractRelationship<Code, Code>
    */
   @Fields({
       @Field(index = Index.YES, analyze = Analyze.YES, store = Store.NO),
-      @Field(name = "toNameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO)
+      @Field(name = "toNameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class))
   })
   public String getToName() {
     return to == null ? null : to.getName();
@@ -27,14 +27,18 @@ import org.hibernate.envers.Audited;
 import org.hibernate.search.annotations.Analyze;
 import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.FieldBridge;
+import org.hibernate.search.annotations.FullTextFilterDef;
 import org.hibernate.search.annotations.Index;
 import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.IndexedEmbedded;
 import org.hibernate.search.annotations.Store;
+import org.hibernate.search.filter.ShardSensitiveOnlyFilter;
 
 import com.wci.umls.server.helpers.Note;
 import com.wci.umls.server.helpers.SearchResult;
 import com.wci.umls.server.jpa.helpers.CollectionToCsvBridge;
+import com.wci.umls.server.jpa.helpers.DeferredIndexingInterceptor;
+import com.wci.umls.server.jpa.helpers.TerminologyShardIdentifierProvider;
 import com.wci.umls.server.model.content.ComponentHistory;
 import com.wci.umls.server.model.content.Concept;
 import com.wci.umls.server.model.content.ConceptRelationship;
@@ -58,7 +62,9 @@ import com.wci.umls.server.model.meta.IdType;
 
 @Audited
 @XmlRootElement(name = "concept")
-@Indexed
+@Indexed(interceptor = DeferredIndexingInterceptor.class)
+@FullTextFilterDef(name = TerminologyShardIdentifierProvider.FILTER_NAME,
+    impl = ShardSensitiveOnlyFilter.class)
 public class ConceptJpa extends AbstractAtomClass implements Concept {
 
   /** The definitions. */
@@ -27,6 +27,7 @@ import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.Store;
 
 import com.wci.umls.server.jpa.helpers.MapKeyValueToCsvBridge;
+import com.wci.umls.server.jpa.helpers.SortableStringBridge;
 import com.wci.umls.server.model.content.MapSet;
 import com.wci.umls.server.model.content.Mapping;
 
@@ -134,7 +135,7 @@ public class MapSetJpa extends AbstractComponentHasAttributes
   /* see superclass */
   @Override
   @Fields({
-      @Field(name = "nameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO),
+      @Field(name = "nameSort", index = Index.YES, analyze = Analyze.NO, store = Store.NO, bridge = @FieldBridge(impl = SortableStringBridge.class)),
       @Field(index = Index.YES, analyze = Analyze.YES, store = Store.NO)
   })
   public String getName() {
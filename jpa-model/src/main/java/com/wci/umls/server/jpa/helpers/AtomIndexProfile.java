@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.helpers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.wci.umls.server.helpers.ConfigUtility;
+
+/**
+ * Index profile for the optional atom fields (the autocomplete n-gram names
+ * and the terminology id maps), which dominate the size of the documents
+ * atoms are embedded in. The fields indexed for atoms of a terminology are
+ * configured by "index.atom.fields.TERMINOLOGY", falling back to
+ * "index.atom.fields", as a comma-separated list; when neither is set all
+ * optional fields are indexed. Changes take effect as documents are
+ * reindexed.
+ */
+public class AtomIndexProfile {
+
+  /** The config property prefix. */
+  public static final String FIELDS_PROPERTY = "index.atom.fields";
+
+  /** The optional fields. */
+  public static final Set<String> OPTIONAL_FIELDS =
+      new HashSet<>(Arrays.asList("edgeNGramName", "nGramName",
+          "conceptTerminologyIds", "alternateTerminologyIds"));
+
+  /** The default fields, or null for all. */
+  private static Set<String> defaultFields = null;
+
+  /** The fields, by terminology. */
+  private static Map<String, Set<String>> terminologyFields = null;
+
+  /**
+   * Indicates whether the optional field is indexed for atoms of the
+   * terminology.
+   *
+   * @param terminology the terminology
+   * @param field the field
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   */
+  public static boolean isIndexed(String terminology, String field) {
+    if (terminologyFields == null) {
+      initialize();
+    }
+    final Set<String> fields = terminologyFields.containsKey(terminology)
+        ? terminologyFields.get(terminology) : defaultFields;
+    return fields == null || fields.contains(field);
+  }
+
+  /**
+   * Read the profiles from the config.
+   */
+  private static synchronized void initialize() {
+    if (terminologyFields != null) {
+      return;
+    }
+    final Map<String, Set<String>> map = new HashMap<>();
+    try {
+      final Properties config = ConfigUtility.getConfigProperties();
+      for (final String key : config.stringPropertyNames()) {
+        if (key.equals(FIELDS_PROPERTY)) {
+          defaultFields = getFields(config.getProperty(key));
+        } else if (key.startsWith(FIELDS_PROPERTY + ".")) {
+          map.put(key.substring(FIELDS_PROPERTY.length() + 1),
+              getFields(config.getProperty(key)));
+        }
+      }
+    } catch (Exception e) {
+      // Index everything without a config
+      Logger.getLogger(AtomIndexProfile.class)
+          .warn("Unable to read atom index profiles, indexing all fields");
+    }
+    terminologyFields = map;
+  }
+
+  /**
+   * Returns the fields of a comma-separated list.
+   *
+   * @param value the value
+   * @return the fields
+   */
+  private static Set<String> getFields(String value) {
+    final Set<String> fields = new HashSet<>();
+    for (final String field : value.split(",")) {
+      if (!field.trim().isEmpty()) {
+        fields.add(field.trim());
+      }
+    }
+    return fields;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.helpers;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.hibernate.search.indexes.interceptor.EntityIndexingInterceptor;
+import org.hibernate.search.indexes.interceptor.IndexingOverride;
+
+import com.wci.umls.server.jpa.content.ConceptJpa;
+
+/**
+ * Hibernate search indexing interceptor for concepts. While a thread is
+ * deferring (see {@link #beginDeferring()}), index updates of existing
+ * concepts (including those triggered by changes to embedded atoms) are
+ * skipped and their ids recorded, so the caller can index them later.
+ * Additions and deletions are always applied.
+ */
+public class DeferredIndexingInterceptor
+    implements EntityIndexingInterceptor<ConceptJpa> {
+
+  /** The ids of the concepts whose updates were skipped, per thread. */
+  private static final ThreadLocal<Set<Long>> deferred = new ThreadLocal<>();
+
+  /**
+   * Starts deferring concept index updates on this thread.
+   */
+  public static void beginDeferring() {
+    deferred.set(new LinkedHashSet<>());
+  }
+
+  /**
+   * Stops deferring concept index updates on this thread.
+   *
+   * @return the ids of the concepts whose updates were skipped
+   */
+  public static Set<Long> endDeferring() {
+    final Set<Long> ids = deferred.get();
+    deferred.remove();
+    return ids == null ? Collections.emptySet() : ids;
+  }
+
+  /* see superclass */
+  @Override
+  public IndexingOverride onAdd(ConceptJpa entity) {
+    return IndexingOverride.APPLY_DEFAULT;
+  }
+
+  /* see superclass */
+  @Override
+  public IndexingOverride onUpdate(ConceptJpa entity) {
+    return defer(entity);
+  }
+
+  /* see superclass */
+  @Override
+  public IndexingOverride onDelete(ConceptJpa entity) {
+    return IndexingOverride.APPLY_DEFAULT;
+  }
+
+  /* see superclass */
+  @Override
+  public IndexingOverride onCollectionUpdate(ConceptJpa entity) {
+    return defer(entity);
+  }
+
+  /**
+   * Skips the update if deferring.
+   *
+   * @param entity the entity
+   * @return the indexing override
+   */
+  private IndexingOverride defer(ConceptJpa entity) {
+    final Set<Long> ids = deferred.get();
+    if (ids == null || entity.getId() == null) {
+      return IndexingOverride.APPLY_DEFAULT;
+    }
+    ids.add(entity.getId());
+    return IndexingOverride.SKIP;
+  }
+}
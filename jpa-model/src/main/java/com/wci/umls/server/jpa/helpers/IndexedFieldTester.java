@@ -129,9 +129,11 @@ public class IndexedFieldTester extends ProxyTester {
 
       // check for Field annotation
       if (m.isAnnotationPresent(org.hibernate.search.annotations.Field.class)) {
-        nameAnalyzedPairs.put(fieldName.toLowerCase(),
-            m.getAnnotation(org.hibernate.search.annotations.Field.class)
-                .analyze().equals(Analyze.YES));
+        final org.hibernate.search.annotations.Field f =
+            m.getAnnotation(org.hibernate.search.annotations.Field.class);
+        nameAnalyzedPairs.put(
+            (f.name().equals("") ? fieldName : f.name()).toLowerCase(),
+            f.analyze().equals(Analyze.YES));
       }
 
       // check for Fields annotation
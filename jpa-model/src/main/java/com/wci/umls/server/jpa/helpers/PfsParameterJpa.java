@@ -46,6 +46,12 @@ public class PfsParameterJpa implements PfsParameter {
   /** The inactive only. */
   private boolean inactiveOnly;
 
+  /** The search after value. */
+  private String searchAfter = null;
+
+  /** The search after id. */
+  private Long searchAfterId = null;
+
   /**
    * The default constructor.
    */
@@ -69,6 +75,8 @@ public class PfsParameterJpa implements PfsParameter {
     activeOnly = pfs.getActiveOnly();
     inactiveOnly = pfs.getInactiveOnly();
     expression = pfs.getExpression();
+    searchAfter = pfs.getSearchAfter();
+    searchAfterId = pfs.getSearchAfterId();
   }
 
   @Override
@@ -171,6 +179,30 @@ public class PfsParameterJpa implements PfsParameter {
     this.expression = expression;
   }
 
+  /* see superclass */
+  @Override
+  public String getSearchAfter() {
+    return searchAfter;
+  }
+
+  /* see superclass */
+  @Override
+  public void setSearchAfter(String searchAfter) {
+    this.searchAfter = searchAfter;
+  }
+
+  /* see superclass */
+  @Override
+  public Long getSearchAfterId() {
+    return searchAfterId;
+  }
+
+  /* see superclass */
+  @Override
+  public void setSearchAfterId(Long searchAfterId) {
+    this.searchAfterId = searchAfterId;
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
@@ -183,6 +215,10 @@ public class PfsParameterJpa implements PfsParameter {
     result =
         prime * result
             + ((queryRestriction == null) ? 0 : queryRestriction.hashCode());
+    result =
+        prime * result + ((searchAfter == null) ? 0 : searchAfter.hashCode());
+    result = prime * result
+        + ((searchAfterId == null) ? 0 : searchAfterId.hashCode());
     result = prime * result + ((sortField == null) ? 0 : sortField.hashCode());
     result =
         prime * result + ((sortFields == null) ? 0 : sortFields.hashCode());
@@ -217,6 +253,16 @@ public class PfsParameterJpa implements PfsParameter {
         return false;
     } else if (!queryRestriction.equals(other.queryRestriction))
       return false;
+    if (searchAfter == null) {
+      if (other.searchAfter != null)
+        return false;
+    } else if (!searchAfter.equals(other.searchAfter))
+      return false;
+    if (searchAfterId == null) {
+      if (other.searchAfterId != null)
+        return false;
+    } else if (!searchAfterId.equals(other.searchAfterId))
+      return false;
     if (sortField == null) {
       if (other.sortField != null)
         return false;
@@ -244,7 +290,8 @@ public class PfsParameterJpa implements PfsParameter {
         + startIndex + ", queryRestriction=" + queryRestriction + ", branch="
         + branch + ", sortField=" + sortField + ", sortFields=" + sortFields
         + ", ascending=" + ascending + ", activeOnly=" + activeOnly
-        + ", inactiveOnly=" + inactiveOnly + "]";
+        + ", inactiveOnly=" + inactiveOnly + ", searchAfter=" + searchAfter
+        + ", searchAfterId=" + searchAfterId + "]";
   }
 
 }
@@ -0,0 +1,54 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.helpers;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+import org.hibernate.search.bridge.FieldBridge;
+import org.hibernate.search.bridge.LuceneOptions;
+
+/**
+ * Hibernate search field bridge for untokenized string fields used for
+ * sorting (the "...Sort" name fields and the component terminology id,
+ * terminology, version, branch and last modified by). The value is indexed
+ * as usual and also written as sorted doc values under the same name,
+ * so sorting reads the column-stride doc values instead of un-inverting the
+ * field into the field cache. Embedded (e.g. "atoms.nameSort") and repeated
+ * values are indexed without doc values, as a document can hold only one
+ * sorted value per field.
+ */
+public class SortableStringBridge implements FieldBridge {
+
+  /* see superclass */
+  @Override
+  public void set(String name, Object value, Document document,
+    LuceneOptions luceneOptions) {
+    if (value == null) {
+      return;
+    }
+    final String str = value.toString();
+    luceneOptions.addFieldToDocument(name, str, document);
+    if (name.indexOf('.') == -1 && !hasDocValues(name, document)) {
+      document.add(new SortedDocValuesField(name, new BytesRef(str)));
+    }
+  }
+
+  /**
+   * Indicates whether the document already has doc values for the field.
+   *
+   * @param name the name
+   * @param document the document
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   */
+  private static boolean hasDocValues(String name, Document document) {
+    for (final IndexableField field : document.getFields(name)) {
+      if (field.fieldType().docValueType() != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
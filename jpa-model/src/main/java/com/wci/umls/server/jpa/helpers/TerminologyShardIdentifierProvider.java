@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.helpers;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.hibernate.search.filter.FullTextFilterImplementor;
+import org.hibernate.search.spi.BuildContext;
+import org.hibernate.search.store.ShardIdentifierProviderTemplate;
+
+import com.wci.umls.server.helpers.ConfigUtility;
+
+/**
+ * Hibernate search dynamic sharding by terminology and version. Enable it for
+ * an index with
+ * "hibernate.search.INDEX_NAME.sharding_strategy=" followed by this class
+ * name. Documents go to the shard "TERMINOLOGY_VERSION", stored in
+ * INDEX_NAME.TERMINOLOGY_VERSION under the index base. Queries restricted with
+ * the {@link #FILTER_NAME} filter only search that shard; other queries
+ * search all shards. Shards are found on disk at startup and added as
+ * documents arrive.
+ */
+public class TerminologyShardIdentifierProvider
+    extends ShardIdentifierProviderTemplate {
+
+  /** The shard-selecting filter name. */
+  public static final String FILTER_NAME = "terminologyShard";
+
+  /** The config property suffix that selects the sharding strategy. */
+  private static final String SHARDING_STRATEGY = ".sharding_strategy";
+
+  /* see superclass */
+  @Override
+  protected Set<String> loadInitialShardNames(Properties properties,
+    BuildContext buildContext) {
+    final Set<String> shards = new HashSet<>();
+    final String indexBase = properties.getProperty("indexBase");
+    if (indexBase == null || !new File(indexBase).isDirectory()) {
+      return shards;
+    }
+    // Find the shards of the indexes sharded by terminology
+    for (final String indexName : getShardedIndexNames()) {
+      for (final File dir : new File(indexBase).listFiles()) {
+        if (dir.isDirectory() && dir.getName().startsWith(indexName + ".")) {
+          shards.add(dir.getName().substring(indexName.length() + 1));
+        }
+      }
+    }
+    Logger.getLogger(getClass()).info("  Terminology shards = " + shards);
+    return shards;
+  }
+
+  /* see superclass */
+  @Override
+  public String getShardIdentifier(Class<?> entityType, Serializable id,
+    String idAsString, Document document) {
+    final String shard = getShardIdentifier(document.get("terminology"),
+        document.get("version"));
+    addShard(shard);
+    return shard;
+  }
+
+  /* see superclass */
+  @Override
+  public Set<String> getShardIdentifiersForQuery(
+    FullTextFilterImplementor[] filters) {
+    for (final FullTextFilterImplementor filter : filters) {
+      if (FILTER_NAME.equals(filter.getName())) {
+        final String shard = getShardIdentifier(
+            (String) filter.getParameter("terminology"),
+            (String) filter.getParameter("version"));
+        // Unknown shards have no documents, but fall back to all shards
+        // rather than creating an empty one
+        if (getAllShardIdentifiers().contains(shard)) {
+          return Collections.singleton(shard);
+        }
+      }
+    }
+    return getAllShardIdentifiers();
+  }
+
+  /**
+   * Returns the shard identifier for the terminology and version.
+   *
+   * @param terminology the terminology
+   * @param version the version
+   * @return the shard identifier
+   */
+  public static String getShardIdentifier(String terminology,
+    String version) {
+    // Keep shard names safe for directory names
+    return (terminology + "_" + version).replaceAll("[^A-Za-z0-9._-]", "-");
+  }
+
+  /**
+   * Returns the names of the indexes configured with this strategy.
+   *
+   * @return the sharded index names
+   */
+  public static Set<String> getShardedIndexNames() {
+    final Set<String> indexNames = new HashSet<>();
+    try {
+      final Properties config = ConfigUtility.getConfigProperties();
+      for (final String key : config.stringPropertyNames()) {
+        if (key.startsWith("hibernate.search.")
+            && key.endsWith(SHARDING_STRATEGY)
+            && TerminologyShardIdentifierProvider.class.getName()
+                .equals(config.getProperty(key))) {
+          indexNames.add(key.substring("hibernate.search.".length(),
+              key.length() - SHARDING_STRATEGY.length()));
+        }
+      }
+    } catch (Exception e) {
+      Logger.getLogger(TerminologyShardIdentifierProvider.class)
+          .warn("Unable to read sharded index names", e);
+    }
+    return indexNames;
+  }
+}
@@ -130,6 +130,7 @@ public class AlgorithmConfigJpaUnitTest extends ModelUnitSupport {
     tester.include("description");
     tester.include("process");
     tester.include("properties");
+    tester.include("dependencies");
 
     // This is not a real getter, skip it
     tester.exclude("processId");
@@ -88,6 +88,8 @@ public class PfsParameterJpaUnitTest extends ModelUnitSupport {
     tester.include("inactiveOnly");
     tester.include("maxResults");
     tester.include("queryRestriction");
+    tester.include("searchAfter");
+    tester.include("searchAfterId");
     tester.include("sortField");
     tester.include("sortFields");
     tester.include("startIndex");
@@ -0,0 +1,238 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.algo;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.UUID;
+
+import javax.persistence.Table;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import com.wci.umls.server.AlgorithmParameter;
+import com.wci.umls.server.Project;
+import com.wci.umls.server.ValidationResult;
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.helpers.PrecedenceList;
+import com.wci.umls.server.jpa.ValidationResultJpa;
+import com.wci.umls.server.jpa.content.CodeJpa;
+import com.wci.umls.server.jpa.content.ConceptJpa;
+import com.wci.umls.server.jpa.content.DescriptorJpa;
+import com.wci.umls.server.jpa.services.helper.AutocompleteUtility;
+
+/**
+ * Implementation of an algorithm to build the autocomplete suggesters for a
+ * terminology and version. Should be run after loading (or otherwise changing)
+ * a terminology. Terminologies edited by a project are skipped.
+ */
+public class AutocompleteIndexingAlgorithm extends AbstractAlgorithm {
+
+  /**
+   * Instantiates an empty {@link AutocompleteIndexingAlgorithm}.
+   *
+   * @throws Exception the exception
+   */
+  public AutocompleteIndexingAlgorithm() throws Exception {
+    super();
+    setActivityId(UUID.randomUUID().toString());
+    setWorkId("AUTOCOMPLETE");
+  }
+
+  /* see superclass */
+  @Override
+  public ValidationResult checkPreconditions() throws Exception {
+    final ValidationResult result = new ValidationResultJpa();
+    if (getTerminology() == null || getVersion() == null) {
+      result.addError("Must specify terminology and version");
+    }
+    return result;
+  }
+
+  /* see superclass */
+  @Override
+  public void compute() throws Exception {
+    if (!checkPreconditions().isValid()) {
+      throw new Exception("Must specify terminology and version");
+    }
+    logInfo("Starting " + getName());
+    logInfo("  terminology = " + getTerminology());
+    logInfo("  version = " + getVersion());
+    fireProgressEvent(0, "Starting...");
+
+    // Molecular actions do not update the suggesters, so the terminology of
+    // an editing project is served by the concept indexes instead
+    if (isProjectTerminology()) {
+      logInfo("  Skip terminology edited by a project");
+      AutocompleteUtility.remove(getTerminology(), getVersion());
+      fireProgressEvent(100, "Finished");
+      logInfo("Finished " + getName());
+      return;
+    }
+
+    // Weight names by the term type rank of the terminology precedence list
+    final PrecedenceList list =
+        getPrecedenceList(getTerminology(), getVersion());
+    final Map<String, String> ttyRanks =
+        list == null ? new HashMap<>() : list.getTermTypeRankMap();
+
+    int step = 0;
+    for (final Class<?> clazz : new Class<?>[] {
+        ConceptJpa.class, DescriptorJpa.class, CodeJpa.class
+    }) {
+      checkCancel();
+      fireProgressEvent(step++ * 33, "Build " + clazz.getSimpleName());
+      final ScrollableResults results = getNameResults(clazz);
+      try {
+        AutocompleteUtility.build(clazz, getTerminology(), getVersion(),
+            new NameWeightIterator(results, ttyRanks));
+      } finally {
+        results.close();
+      }
+      commitClearBegin();
+    }
+
+    fireProgressEvent(100, "Finished");
+    logInfo("Finished " + getName());
+  }
+
+  /**
+   * Indicates whether the terminology and version are edited by a project.
+   *
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   * @throws Exception the exception
+   */
+  private boolean isProjectTerminology() throws Exception {
+    for (final Project project : getProjects().getObjects()) {
+      if (getTerminology().equals(project.getTerminology())
+          && getVersion().equals(project.getVersion())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the atom names (with terminology and term type) of
+   * non-suppressible components of the specified type, ordered by name.
+   * Suppressible atoms and components are excluded, matching the autocomplete
+   * index query. The rows are scrolled rather than loaded, so only one name
+   * is held at a time. Names are ordered by their bytes, so equal names are
+   * adjacent regardless of the database collation.
+   *
+   * @param clazz the clazz
+   * @return the name results
+   * @throws Exception the exception
+   */
+  private ScrollableResults getNameResults(Class<?> clazz) throws Exception {
+    final String table = clazz.getAnnotation(Table.class).name();
+    final org.hibernate.Query hQuery = getEntityManager()
+        .unwrap(Session.class)
+        .createSQLQuery("select a.name, a.terminology, a.termType from "
+            + table + " c, " + table + "_atoms ca, atoms a "
+            + "where ca." + table + "_id = c.id and ca.atoms_id = a.id "
+            + "and c.terminology = :terminology and c.version = :version "
+            + "and c.suppressible = 0 and a.suppressible = 0"
+            + (clazz == ConceptJpa.class ? " and c.anonymous = 0" : "")
+            + " order by binary a.name");
+    hQuery.setParameter("terminology", getTerminology());
+    hQuery.setParameter("version", getVersion());
+    // Stream the rows (a MySQL fetch size of MIN_VALUE does not buffer them)
+    hQuery.setReadOnly(true).setFetchSize(Integer.MIN_VALUE)
+        .setCacheable(false);
+    return hQuery.scroll(ScrollMode.FORWARD_ONLY);
+  }
+
+  /**
+   * Iterates over the distinct names of name-ordered results, each weighted
+   * by the best term type rank of any atom with that name.
+   */
+  private static class NameWeightIterator
+      implements Iterator<Map.Entry<String, Long>> {
+
+    /** The results. */
+    private ScrollableResults results;
+
+    /** The tty ranks. */
+    private Map<String, String> ttyRanks;
+
+    /** The first row of the next name, if already read. */
+    private Object[] row;
+
+    /**
+     * Instantiates a {@link NameWeightIterator} from the specified parameters.
+     *
+     * @param results the results
+     * @param ttyRanks the tty ranks
+     */
+    public NameWeightIterator(ScrollableResults results,
+      Map<String, String> ttyRanks) {
+      this.results = results;
+      this.ttyRanks = ttyRanks;
+      row = results.next() ? results.get() : null;
+    }
+
+    /* see superclass */
+    @Override
+    public boolean hasNext() {
+      return row != null;
+    }
+
+    /* see superclass */
+    @Override
+    public Map.Entry<String, Long> next() {
+      if (row == null) {
+        throw new NoSuchElementException();
+      }
+      final String name = row[0].toString();
+      long weight = 0;
+      // Take the best weight of the rows with this name
+      while (row != null && row[0].toString().equals(name)) {
+        final String rank = ttyRanks.get(row[1] + "/" + row[2]);
+        // Unranked term types still get a positive weight
+        weight = Math.max(weight,
+            rank == null ? 1L : Long.parseLong(rank) + 1L);
+        row = results.next() ? results.get() : null;
+      }
+      return new AbstractMap.SimpleEntry<>(name, weight);
+    }
+  }
+
+  /* see superclass */
+  @Override
+  public void reset() throws Exception {
+    // n/a - build replaces the suggester contents
+  }
+
+  /* see superclass */
+  @Override
+  public void checkProperties(Properties p) throws Exception {
+    // n/a
+  }
+
+  /* see superclass */
+  @Override
+  public void setProperties(Properties p) throws Exception {
+    // n/a
+  }
+
+  /* see superclass */
+  @Override
+  public List<AlgorithmParameter> getParameters() throws Exception {
+    return super.getParameters();
+  }
+
+  /* see superclass */
+  @Override
+  public String getDescription() {
+    return ConfigUtility.getNameFromClass(getClass());
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.algo;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.persister.collection.AbstractCollectionPersister;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.search.annotations.Indexed;
+import org.hibernate.search.jpa.FullTextEntityManager;
+import org.hibernate.search.jpa.Search;
+import org.hibernate.type.EntityType;
+
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.jpa.services.helper.IndexUtility;
+import com.wci.umls.server.services.RootService;
+
+/**
+ * Removes the content of a terminology version with set-based native
+ * deletes instead of loading and removing each entity. Each step deletes the
+ * rows of one entity type matching a condition, in id-range chunks: first the
+ * rows of the collection (join) tables owned by or referring to the chunk,
+ * then the entity rows themselves, then the matching index documents (or,
+ * for an index sharded by terminology, the whole terminology shard). Steps
+ * must be run in foreign key dependency order. Envers is bypassed, so no
+ * audit trail is written. Rows of other terminologies whose collections
+ * referred to removed rows (e.g. UMLS concepts holding removed atoms) are
+ * reindexed by {@link #reindex()}.
+ */
+public class BulkTerminologyRemover {
+
+  /** The config property for the id range of a delete chunk. */
+  public static final String CHUNK_SIZE_PROPERTY =
+      "terminology.remove.chunk.size";
+
+  /** The algorithm, for transactions, progress and cancel. */
+  private final AbstractAlgorithm algorithm;
+
+  /** The terminology. */
+  private final String terminology;
+
+  /** The version. */
+  private final String version;
+
+  /** The chunk size. */
+  private long chunkSize = 10000;
+
+  /** The session factory. */
+  private final SessionFactory factory;
+
+  /** The collection persisters that use their own table. */
+  private final List<AbstractCollectionPersister> collections =
+      new ArrayList<>();
+
+  /** The ids of rows to reindex, by class. */
+  private final Map<Class<?>, Set<Long>> reindexIds = new LinkedHashMap<>();
+
+  /**
+   * Instantiates a {@link BulkTerminologyRemover} from the specified
+   * parameters.
+   *
+   * @param algorithm the algorithm
+   * @param terminology the terminology
+   * @param version the version
+   * @throws Exception the exception
+   */
+  public BulkTerminologyRemover(AbstractAlgorithm algorithm,
+    String terminology, String version) throws Exception {
+    this.algorithm = algorithm;
+    this.terminology = terminology;
+    this.version = version;
+    final Properties config = ConfigUtility.getConfigProperties();
+    if (config.getProperty(CHUNK_SIZE_PROPERTY) != null) {
+      chunkSize = Long.parseLong(config.getProperty(CHUNK_SIZE_PROPERTY));
+    }
+    factory = algorithm.getEntityManager().unwrap(Session.class)
+        .getSessionFactory();
+    for (final Object metadata : factory.getAllCollectionMetadata()
+        .values()) {
+      final AbstractCollectionPersister collection =
+          (AbstractCollectionPersister) metadata;
+      // One-to-many collections without a join table live in the element's
+      // table and go away with the element rows
+      if (!collection.isOneToMany()) {
+        collections.add(collection);
+      }
+    }
+  }
+
+  /**
+   * Returns the condition matching rows of the terminology version.
+   *
+   * @return the condition
+   */
+  public String inTerminology() {
+    return "terminology = :terminology AND version = :version";
+  }
+
+  /**
+   * Returns the condition matching rows whose to-one property refers to a
+   * row of the terminology version.
+   *
+   * @param clazz the referring class
+   * @param property the to-one property
+   * @param target the referred class
+   * @return the condition
+   */
+  public String refersTo(Class<?> clazz, String property, Class<?> target) {
+    return getPersister(clazz).getPropertyColumnNames(property)[0]
+        + " IN (SELECT id FROM " + getPersister(target).getTableName()
+        + " WHERE " + inTerminology() + ")";
+  }
+
+  /**
+   * Removes the rows of the class matching the condition, in chunks, with a
+   * commit after each chunk.
+   *
+   * @param clazz the class
+   * @param condition the condition (SQL, using :terminology and :version)
+   * @param pct the percent complete to report
+   * @param note the progress note
+   * @return the number of rows removed
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("unchecked")
+  public int remove(Class<?> clazz, String condition, int pct, String note)
+    throws Exception {
+    algorithm.fireProgressEvent(pct, note);
+    final AbstractEntityPersister persister = getPersister(clazz);
+    final String table = persister.getTableName();
+    final EntityManager manager = algorithm.getEntityManager();
+
+    final Object[] range = (Object[]) bind(manager.createNativeQuery(
+        "SELECT MIN(id), MAX(id) FROM " + table + " WHERE " + condition))
+            .getSingleResult();
+    if (range[0] == null) {
+      return 0;
+    }
+    final long min = ((Number) range[0]).longValue();
+    final long max = ((Number) range[1]).longValue();
+
+    // The rows of a terminology-sharded index all live in its shard, so drop
+    // the shard's documents at once instead of purging each row
+    final boolean purgeShard = condition.equals(inTerminology())
+        && clazz.isAnnotationPresent(Indexed.class)
+        && IndexUtility.isShardedByTerminology(manager, clazz);
+
+    int ct = 0;
+    for (long lo = min; lo <= max; lo += chunkSize) {
+      algorithm.checkCancel();
+      final List<Long> ids = new ArrayList<>();
+      for (final Object id : bind(manager.createNativeQuery("SELECT id FROM "
+          + table + " WHERE (" + condition + ") AND id >= :lo AND id < :hi"))
+              .setParameter("lo", lo).setParameter("hi", lo + chunkSize)
+              .getResultList()) {
+        ids.add(((Number) id).longValue());
+      }
+      if (ids.isEmpty()) {
+        continue;
+      }
+      removeRows(persister, ids, !purgeShard);
+      algorithm.commitClearBegin();
+      ct += ids.size();
+    }
+    if (purgeShard) {
+      IndexUtility.purgeTerminologyShard(manager, clazz, terminology,
+          version);
+    }
+    algorithm.logInfo("    " + table + " count = " + ct);
+    return ct;
+  }
+
+  /**
+   * Removes the entries with the key from a map collection of the class,
+   * e.g. last release CUIs of atoms.
+   *
+   * @param clazz the class
+   * @param property the map property
+   * @param key the key
+   * @return the number of entries removed
+   * @throws Exception the exception
+   */
+  public int removeMapEntries(Class<?> clazz, String property, String key)
+    throws Exception {
+    final AbstractCollectionPersister collection =
+        (AbstractCollectionPersister) factory
+            .getCollectionMetadata(clazz.getName() + "." + property);
+    final String where = " WHERE " + collection.getIndexColumnNames()[0]
+        + " = :key";
+    addReindexIds(clazz, collection.getKeyColumnNames()[0],
+        collection.getTableName() + where, key);
+    final int ct = algorithm.getEntityManager()
+        .createNativeQuery("DELETE FROM " + collection.getTableName() + where)
+        .setParameter("key", key).executeUpdate();
+    algorithm.commitClearBegin();
+    return ct;
+  }
+
+  /**
+   * Reindexes the rows of other terminologies whose collections referred to
+   * removed rows.
+   *
+   * @throws Exception the exception
+   */
+  public void reindex() throws Exception {
+    final FullTextEntityManager fullTextEntityManager =
+        Search.getFullTextEntityManager(algorithm.getEntityManager());
+    int ct = 0;
+    for (final Map.Entry<Class<?>, Set<Long>> entry : reindexIds
+        .entrySet()) {
+      for (final Long id : entry.getValue()) {
+        algorithm.checkCancel();
+        final Object object =
+            algorithm.getEntityManager().find(entry.getKey(), id);
+        // skip rows that were removed themselves
+        if (object != null) {
+          fullTextEntityManager.index(object);
+          algorithm.logAndCommit(++ct, RootService.logCt,
+              RootService.commitCt);
+        }
+      }
+    }
+    algorithm.commitClearBegin();
+    algorithm.logInfo("    reindexed count = " + ct);
+  }
+
+  /**
+   * Removes the rows with the ids, their collection entries, the collection
+   * entries of other rows referring to them, and their index documents.
+   *
+   * @param persister the persister
+   * @param ids the ids
+   * @param purge whether to purge the index documents of the rows
+   * @throws Exception the exception
+   */
+  private void removeRows(AbstractEntityPersister persister, List<Long> ids,
+    boolean purge) throws Exception {
+    final EntityManager manager = algorithm.getEntityManager();
+    for (final AbstractCollectionPersister collection : collections) {
+      final String table = collection.getTableName();
+
+      // Collections owned by the rows
+      if (collection.getOwnerEntityPersister().getEntityName()
+          .equals(persister.getEntityName())) {
+        manager
+            .createNativeQuery("DELETE FROM " + table + " WHERE "
+                + collection.getKeyColumnNames()[0] + " IN (:ids)")
+            .setParameter("ids", ids).executeUpdate();
+      }
+
+      // Collections of other rows containing the rows
+      if (collection.getElementType().isEntityType()
+          && ((EntityType) collection.getElementType())
+              .getAssociatedEntityName().equals(persister.getEntityName())) {
+        final String where = " WHERE "
+            + collection.getElementColumnNames()[0] + " IN (:ids)";
+        addReindexIds(collection.getOwnerEntityPersister().getMappedClass(),
+            collection.getKeyColumnNames()[0], table + where, ids);
+        manager.createNativeQuery("DELETE FROM " + table + where)
+            .setParameter("ids", ids).executeUpdate();
+      }
+    }
+
+    manager
+        .createNativeQuery(
+            "DELETE FROM " + persister.getTableName() + " WHERE id IN (:ids)")
+        .setParameter("ids", ids).executeUpdate();
+
+    // Purge the index documents
+    final Class<?> clazz = persister.getMappedClass();
+    if (purge && clazz.isAnnotationPresent(Indexed.class)) {
+      final FullTextEntityManager fullTextEntityManager =
+          Search.getFullTextEntityManager(manager);
+      for (final Long id : ids) {
+        fullTextEntityManager.purge(clazz, id);
+      }
+    }
+  }
+
+  /**
+   * Records the owners of matching collection entries for reindexing, if
+   * the owner class is indexed.
+   *
+   * @param clazz the owner class
+   * @param keyColumn the key column
+   * @param from the collection table and condition
+   * @param value the value of the condition's parameter
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("unchecked")
+  private void addReindexIds(Class<?> clazz, String keyColumn, String from,
+    Object value) throws Exception {
+    if (!clazz.isAnnotationPresent(Indexed.class)) {
+      return;
+    }
+    final Query query = algorithm.getEntityManager()
+        .createNativeQuery("SELECT DISTINCT " + keyColumn + " FROM " + from);
+    query.setParameter(value instanceof List ? "ids" : "key", value);
+    if (!reindexIds.containsKey(clazz)) {
+      reindexIds.put(clazz, new HashSet<>());
+    }
+    for (final Object id : query.getResultList()) {
+      reindexIds.get(clazz).add(((Number) id).longValue());
+    }
+  }
+
+  /**
+   * Binds the terminology and version (used by every condition).
+   *
+   * @param query the query
+   * @return the query
+   */
+  private Query bind(Query query) {
+    query.setParameter("terminology", terminology);
+    query.setParameter("version", version);
+    return query;
+  }
+
+  /**
+   * Returns the persister for the class.
+   *
+   * @param clazz the class
+   * @return the persister
+   */
+  private AbstractEntityPersister getPersister(Class<?> clazz) {
+    return (AbstractEntityPersister) factory.getClassMetadata(clazz);
+  }
+
+  /**
+   * Returns the number of rows of other terminologies waiting to be
+   * reindexed.
+   *
+   * @return the reindex count
+   */
+  public int getReindexCount() {
+    int ct = 0;
+    for (final Set<Long> ids : reindexIds.values()) {
+      ct += ids.size();
+    }
+    return ct;
+  }
+}
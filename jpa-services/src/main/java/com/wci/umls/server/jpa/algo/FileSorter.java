@@ -32,12 +32,27 @@ public class FileSorter {
    */
   public static void sortFile(String inputFile, String outputFile,
     Comparator<String> comparator) throws Exception {
+    sortFile(inputFile, outputFile, comparator, false);
+  }
+
+  /**
+   * Performs merge sort on a file, optionally dropping duplicate lines (like
+   * "sort -u"). Memory use is bounded by the split segment size.
+   *
+   * @param inputFile the file_in_str
+   * @param outputFile the file_out_str
+   * @param comparator the comp
+   * @param unique whether to drop duplicate lines
+   * @throws Exception if anything goes wrong.
+   */
+  public static void sortFile(String inputFile, String outputFile,
+    Comparator<String> comparator, boolean unique) throws Exception {
 
     // Split the input file into chunks and sort each section
     Logger.getLogger(FileSorter.class).info("  Split " + inputFile);
     List<String> splitFiles =
         splitFile(inputFile, new File(outputFile).getParent(), comparator,
-            32 * 1024 * 1024);
+            32 * 1024 * 1024, unique);
 
     // Iteratively merge split files
     while (splitFiles.size() > 1) {
@@ -45,7 +60,7 @@ public class FileSorter {
       // merge from the end
       String merged_file =
           mergeToTempFile(splitFiles.get(splitFiles.size() - 1),
-              splitFiles.get(splitFiles.size() - 2), comparator);
+              splitFiles.get(splitFiles.size() - 2), comparator, unique);
 
       // remove last two elements of list
       String toRemove = splitFiles.remove(splitFiles.size() - 1);
@@ -147,11 +162,12 @@ public class FileSorter {
    * @param filename1 the file1_str
    * @param filename2 the file2_str
    * @param comparator the comp
+   * @param unique whether to drop duplicate lines
    * @return the string
    * @throws Exception if anything goes wrong
    */
   private static String mergeToTempFile(String filename1, String filename2,
-    Comparator<String> comparator) throws Exception {
+    Comparator<String> comparator, boolean unique) throws Exception {
 
     File file1 = new File(filename1);
     File file2 = new File(filename2);
@@ -167,6 +183,7 @@ public class FileSorter {
     String line2 = reader2.readLine();
 
     String line;
+    String prevLine = null;
 
     // debug testing
     int ctLine1 = 0;
@@ -206,12 +223,13 @@ public class FileSorter {
         ctLine2++;
       }
 
-      // if a header line, do not write
-      if (!line.startsWith("id")) {
+      // if a header line (or a duplicate when unique), do not write
+      if (!line.startsWith("id") && !(unique && line.equals(prevLine))) {
 
         writer.write(line);
         writer.newLine();
       }
+      prevLine = line;
     }
 
     writer.close();
@@ -233,11 +251,13 @@ public class FileSorter {
    * @param dir the directory
    * @param comparator the comparator function by which to compare lines
    * @param segmentSize the segment size
+   * @param unique whether to drop duplicate lines
    * @return a String list of the split filenames
    * @throws Exception the exception
    */
   private static List<String> splitFile(String inputFile, String dir,
-    Comparator<String> comparator, int segmentSize) throws Exception {
+    Comparator<String> comparator, int segmentSize, boolean unique)
+    throws Exception {
 
     // counter for current file size
     int currentSize = 0;
@@ -263,7 +283,7 @@ public class FileSorter {
         Collections.sort(lines, comparator);
 
         // write file
-        splitFiles.add(createSplitFile(lines, fileIn, new File(dir)));
+        splitFiles.add(createSplitFile(lines, fileIn, new File(dir), unique));
 
         // reset line array and size tracker
         lines.clear();
@@ -273,7 +293,7 @@ public class FileSorter {
 
     // write remaining lines to file
     Collections.sort(lines, comparator);
-    splitFiles.add(createSplitFile(lines, fileIn, new File(dir)));
+    splitFiles.add(createSplitFile(lines, fileIn, new File(dir), unique));
 
     reader.close();
     return splitFiles;
@@ -285,11 +305,12 @@ public class FileSorter {
    * @param lines the lines
    * @param fileIn the file_in
    * @param outputDir
+   * @param unique whether to drop duplicate (sorted) lines
    * @return the string
    * @throws IOException Signals that an I/O exception has occurred.
    */
   private static String createSplitFile(List<String> lines, File fileIn,
-    File outputDir) throws IOException {
+    File outputDir, boolean unique) throws IOException {
     // write to array
     File fileTemp =
         File.createTempFile("split_" + fileIn.getName() + "_", ".tmp",
@@ -298,6 +319,9 @@ public class FileSorter {
     BufferedWriter writer = new BufferedWriter(fileWriter);
 
     for (int i = 0; i < lines.size(); i++) {
+      if (unique && i > 0 && lines.get(i).equals(lines.get(i - 1))) {
+        continue;
+      }
       writer.write(lines.get(i));
       writer.newLine();
     }
@@ -3,16 +3,31 @@
  */
 package com.wci.umls.server.jpa.algo;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
 
 import org.apache.log4j.Logger;
 import org.hibernate.CacheMode;
+import org.hibernate.Session;
 import org.hibernate.search.annotations.Indexed;
+import org.hibernate.search.batchindexing.MassIndexerProgressMonitor;
 import org.hibernate.search.jpa.FullTextEntityManager;
 import org.hibernate.search.jpa.Search;
 import org.reflections.Reflections;
@@ -20,21 +35,64 @@ import org.reflections.Reflections;
 import com.wci.umls.server.AlgorithmParameter;
 import com.wci.umls.server.ValidationResult;
 import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.helpers.HasTerminology;
+import com.wci.umls.server.helpers.LocalException;
 import com.wci.umls.server.jpa.AlgorithmParameterJpa;
 import com.wci.umls.server.jpa.ValidationResultJpa;
+import com.wci.umls.server.jpa.services.helper.IndexUtility;
 
 /**
  * Implementation of an algorithm to reindex all classes annotated
- * with @Indexed.
+ * with @Indexed. A full reindex uses the mass indexer for all classes at
+ * once, several types in parallel. Restricting to a terminology/version or
+ * resuming from an id reindexes the matching rows of each class in id order
+ * instead, in batches loaded by parallel threads with their own entity
+ * managers; existing documents are replaced rather than purged first,
+ * except that an index sharded by terminology has the terminology's shard
+ * purged and rebuilt, leaving the other shards untouched. When
+ * a class fails, the id to resume it from (see "startId") is logged.
  */
 public class LuceneReindexAlgorithm extends AbstractAlgorithm {
 
   /** The terminology. */
   private String indexedObjects;
 
+  /** The batch size to load objects. */
+  private int batchSize = 100;
+
+  /** The threads to load objects (per type). */
+  private int threads = 10;
+
+  /** The id fetch size. */
+  private int fetchSize = 100;
+
+  /** The number of types to index in parallel. */
+  private int typesInParallel = 2;
+
+  /** The terminology to restrict to. */
+  private String reindexTerminology;
+
+  /** The version to restrict to. */
+  private String reindexVersion;
+
+  /** The id to resume from. */
+  private Long startId;
+
   /** The full text entity manager. */
   private FullTextEntityManager fullTextEntityManager;
 
+  /** The number of documents indexed. */
+  private final AtomicLong documentCt = new AtomicLong(0);
+
+  /** The number of documents to index. */
+  private final AtomicLong totalCt = new AtomicLong(0);
+
+  /** The number of documents at the last progress event. */
+  private final AtomicLong lastProgressCt = new AtomicLong(0);
+
+  /** The start time (ms). */
+  private long startTime;
+
   /**
    * Instantiates an empty {@link LuceneReindexAlgorithm}.
    * @throws Exception if anything goes wrong
@@ -52,6 +110,63 @@ public class LuceneReindexAlgorithm extends AbstractAlgorithm {
     this.indexedObjects = indexedObjects;
   }
 
+  /**
+   * Sets the batch size to load objects.
+   *
+   * @param batchSize the batch size
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Sets the threads to load objects (per type).
+   *
+   * @param threads the threads
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * Sets the id fetch size.
+   *
+   * @param fetchSize the fetch size
+   */
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * Sets the number of types to index in parallel.
+   *
+   * @param typesInParallel the types in parallel
+   */
+  public void setTypesInParallel(int typesInParallel) {
+    this.typesInParallel = typesInParallel;
+  }
+
+  /**
+   * Sets the terminology and version to restrict to.
+   *
+   * @param reindexTerminology the terminology
+   * @param reindexVersion the version
+   */
+  public void setReindexTerminology(String reindexTerminology,
+    String reindexVersion) {
+    this.reindexTerminology = reindexTerminology;
+    this.reindexVersion = reindexVersion;
+  }
+
+  /**
+   * Sets the id to resume from.
+   *
+   * @param startId the start id
+   */
+  public void setStartId(Long startId) {
+    this.startId = startId;
+  }
+
   /* see superclass */
   @Override
   public void compute() throws Exception {
@@ -122,17 +237,11 @@ public class LuceneReindexAlgorithm extends AbstractAlgorithm {
       Logger.getLogger(getClass()).info("  " + objectToReindex);
     }
 
-    // Reindex each object
+    // Collect the classes
+    final List<Class<?>> classes = new ArrayList<>();
     for (final String key : reindexMap.keySet()) {
-      // Concepts
       if (objectsToReindex.contains(key)) {
-        Logger.getLogger(getClass()).info("  Creating indexes for " + key);
-        fullTextEntityManager.purgeAll(reindexMap.get(key));
-        fullTextEntityManager.flushToIndexes();
-        fullTextEntityManager.createIndexer(reindexMap.get(key))
-            .batchSizeToLoadObjects(100).cacheMode(CacheMode.IGNORE)
-            .idFetchSize(100).threadsToLoadObjects(10).startAndWait();
-        // optimize flags are default true.
+        classes.add(reindexMap.get(key));
         objectsToReindex.remove(key);
       }
     }
@@ -143,10 +252,246 @@ public class LuceneReindexAlgorithm extends AbstractAlgorithm {
               + objectsToReindex.toString());
     }
 
+    startTime = System.currentTimeMillis();
+    if (reindexTerminology == null && startId == null) {
+      massIndex(classes);
+    } else {
+      rangeIndex(classes);
+    }
+    logInfo("  documents = " + documentCt.get() + ", " + getRate()
+        + " docs/sec");
+
     // Cleanup
     Logger.getLogger(getClass()).info("done ...");
   }
 
+  /**
+   * Reindex all rows of the classes with the mass indexer (which purges
+   * each class first).
+   *
+   * @param classes the classes
+   * @throws Exception the exception
+   */
+  private void massIndex(List<Class<?>> classes) throws Exception {
+    Logger.getLogger(getClass()).info("  Creating indexes for " + classes);
+    fullTextEntityManager
+        .createIndexer(classes.toArray(new Class<?>[classes.size()]))
+        .typesToIndexInParallel(typesInParallel)
+        .batchSizeToLoadObjects(batchSize).cacheMode(CacheMode.IGNORE)
+        .idFetchSize(fetchSize).threadsToLoadObjects(threads)
+        .progressMonitor(new ProgressMonitor()).startAndWait();
+    // optimize flags are default true.
+  }
+
+  /**
+   * Reindex the rows of the classes matching the terminology/version and
+   * start id, several classes in parallel.
+   *
+   * @param classes the classes
+   * @throws Exception the exception
+   */
+  private void rangeIndex(List<Class<?>> classes) throws Exception {
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(typesInParallel);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (final Class<?> clazz : classes) {
+        if (reindexTerminology != null
+            && !HasTerminology.class.isAssignableFrom(clazz)) {
+          Logger.getLogger(getClass())
+              .info("  Skipping " + clazz.getSimpleName()
+                  + ", not terminology specific");
+          continue;
+        }
+        futures.add(executor.submit(() -> {
+          rangeIndex(clazz);
+          return null;
+        }));
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Reindex the rows of the class matching the terminology/version and
+   * start id, in id order.
+   *
+   * @param clazz the clazz
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("unchecked")
+  private void rangeIndex(Class<?> clazz) throws Exception {
+    final String name = clazz.getSimpleName();
+    final String where = " where e.id >= :startId"
+        + (reindexTerminology == null ? ""
+            : " and e.terminology = :terminology and e.version = :version");
+    final EntityManagerFactory factory = manager.getEntityManagerFactory();
+
+    // Rebuild a terminology shard from scratch (unless resuming)
+    if (reindexTerminology != null && startId == null
+        && IndexUtility.isShardedByTerminology(manager, clazz)) {
+      IndexUtility.purgeTerminologyShard(manager, clazz, reindexTerminology,
+          reindexVersion);
+    }
+
+    // Count the rows
+    final EntityManager countManager = factory.createEntityManager();
+    try {
+      totalCt.addAndGet((Long) bind(countManager
+          .createQuery("select count(e) from " + name + " e" + where)
+          .setParameter("startId", startId == null ? 0L : startId))
+              .getSingleResult());
+    } finally {
+      countManager.close();
+    }
+    Logger.getLogger(getClass()).info("  Reindexing " + name);
+
+    // Page through the ids, handing batches to the loader threads; the
+    // lowest unfinished batch is where to resume after a failure
+    final ExecutorService loaders = Executors.newFixedThreadPool(threads);
+    final Semaphore available = new Semaphore(threads * 2);
+    final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+    final List<Future<?>> futures = new ArrayList<>();
+    final EntityManager idManager = factory.createEntityManager();
+    long nextId = startId == null ? 0L : startId;
+    try {
+      while (true) {
+        checkCancel();
+        final Query query = bind(idManager
+            .createQuery("select e.id from " + name + " e" + where
+                + " order by e.id")
+            .setParameter("startId", nextId).setMaxResults(batchSize));
+        query.setHint("org.hibernate.fetchSize", fetchSize);
+        final List<Long> ids = query.getResultList();
+        if (ids.isEmpty()) {
+          break;
+        }
+        nextId = ids.get(ids.size() - 1) + 1;
+        idManager.clear();
+
+        available.acquire();
+        pending.add(ids.get(0));
+        futures.add(loaders.submit(() -> {
+          try {
+            indexBatch(factory, name, ids);
+            pending.remove(ids.get(0));
+          } finally {
+            available.release();
+          }
+          return null;
+        }));
+
+        // Drop finished futures, failing on the first exception
+        for (final Iterator<Future<?>> iter = futures.iterator(); iter
+            .hasNext();) {
+          final Future<?> future = iter.next();
+          if (future.isDone()) {
+            future.get();
+            iter.remove();
+          }
+        }
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } catch (Exception e) {
+      loaders.shutdownNow();
+      Logger.getLogger(getClass()).error("  Reindexing " + name
+          + " failed, resume with start id = "
+          + (pending.isEmpty() ? nextId : pending.first()));
+      throw e;
+    } finally {
+      loaders.shutdown();
+      loaders.awaitTermination(1, TimeUnit.MINUTES);
+      idManager.close();
+    }
+  }
+
+  /**
+   * Index a batch of rows with a new entity manager.
+   *
+   * @param factory the factory
+   * @param name the entity name
+   * @param ids the ids
+   * @throws Exception the exception
+   */
+  private void indexBatch(EntityManagerFactory factory, String name,
+    List<Long> ids) throws Exception {
+    final EntityManager batchManager = factory.createEntityManager();
+    try {
+      batchManager.unwrap(Session.class).setCacheMode(CacheMode.IGNORE);
+      final FullTextEntityManager batchFullTextManager =
+          Search.getFullTextEntityManager(batchManager);
+      batchManager.getTransaction().begin();
+      for (final Object object : batchManager
+          .createQuery("select e from " + name + " e where e.id in (:ids)")
+          .setParameter("ids", ids).getResultList()) {
+        batchFullTextManager.index(object);
+      }
+      batchFullTextManager.flushToIndexes();
+      batchManager.getTransaction().commit();
+    } catch (Exception e) {
+      if (batchManager.getTransaction().isActive()) {
+        batchManager.getTransaction().rollback();
+      }
+      throw e;
+    } finally {
+      batchManager.close();
+    }
+    addDocuments(ids.size());
+  }
+
+  /**
+   * Binds the terminology and version, if restricted.
+   *
+   * @param query the query
+   * @return the query
+   */
+  private Query bind(Query query) {
+    if (reindexTerminology != null) {
+      query.setParameter("terminology", reindexTerminology);
+      query.setParameter("version", reindexVersion);
+    }
+    return query;
+  }
+
+  /**
+   * Count indexed documents, firing a progress event with the rate every
+   * 1% (or 10000 documents if the total is not known yet).
+   *
+   * @param ct the count
+   */
+  void addDocuments(long ct) {
+    final long done = documentCt.addAndGet(ct);
+    final long total = totalCt.get();
+    final long step = Math.max(1, total > 0 ? total / 100 : 10000);
+    final long last = lastProgressCt.get();
+    if (done - last >= step && lastProgressCt.compareAndSet(last, done)) {
+      try {
+        fireProgressEvent(
+            total > 0 ? (int) Math.min(99, done * 100 / total) : 0,
+            done + " of " + total + " documents, " + getRate()
+                + " docs/sec");
+      } catch (Exception e) {
+        Logger.getLogger(getClass()).warn("Unable to fire progress event", e);
+      }
+    }
+  }
+
+  /**
+   * Returns the indexing rate.
+   *
+   * @return the rate (docs/sec)
+   */
+  private long getRate() {
+    final long elapsed = System.currentTimeMillis() - startTime;
+    return elapsed == 0 ? 0 : documentCt.get() * 1000 / elapsed;
+  }
+
   /**
    * Clear lucene indexes.
    *
@@ -161,6 +506,42 @@ public class LuceneReindexAlgorithm extends AbstractAlgorithm {
     }
   }
 
+  /**
+   * Mass indexer progress monitor, reporting documents/sec.
+   */
+  private class ProgressMonitor implements MassIndexerProgressMonitor {
+
+    /* see superclass */
+    @Override
+    public void documentsAdded(long increment) {
+      addDocuments(increment);
+    }
+
+    /* see superclass */
+    @Override
+    public void documentsBuilt(int number) {
+      // n/a
+    }
+
+    /* see superclass */
+    @Override
+    public void entitiesLoaded(int size) {
+      // n/a
+    }
+
+    /* see superclass */
+    @Override
+    public void addToTotalCount(long count) {
+      totalCt.addAndGet(count);
+    }
+
+    /* see superclass */
+    @Override
+    public void indexingCompleted() {
+      // n/a
+    }
+  }
+
   /* see superclass */
   @Override
   public ValidationResult checkPreconditions() throws Exception {
@@ -170,7 +551,26 @@ public class LuceneReindexAlgorithm extends AbstractAlgorithm {
   /* see superclass */
   @Override
   public void checkProperties(Properties p) throws Exception {
-    // n/a
+    if (ConfigUtility.isEmpty(p.getProperty("reindexTerminology"))
+        != ConfigUtility.isEmpty(p.getProperty("reindexVersion"))) {
+      throw new LocalException(
+          "Reindex terminology and version must be set together");
+    }
+
+    // Ids are only comparable within one class
+    if (!ConfigUtility.isEmpty(p.getProperty("startId"))) {
+      final String objects = p.getProperty("indexedObjects");
+      if (ConfigUtility.isEmpty(objects) || objects.contains(",")) {
+        throw new LocalException(
+            "Start id requires exactly one indexed object class");
+      }
+      try {
+        Long.parseLong(p.getProperty("startId"));
+      } catch (NumberFormatException e) {
+        throw new LocalException(
+            "Start id must be a number: " + p.getProperty("startId"));
+      }
+    }
   }
 
   /* see superclass */
@@ -179,6 +579,25 @@ public class LuceneReindexAlgorithm extends AbstractAlgorithm {
     if (p.getProperty("indexedObjects") != null) {
       indexedObjects = p.getProperty("indexedObjects");
     }
+    if (p.getProperty("batchSize") != null) {
+      batchSize = Integer.parseInt(p.getProperty("batchSize"));
+    }
+    if (p.getProperty("threads") != null) {
+      threads = Integer.parseInt(p.getProperty("threads"));
+    }
+    if (p.getProperty("fetchSize") != null) {
+      fetchSize = Integer.parseInt(p.getProperty("fetchSize"));
+    }
+    if (p.getProperty("typesInParallel") != null) {
+      typesInParallel = Integer.parseInt(p.getProperty("typesInParallel"));
+    }
+    if (!ConfigUtility.isEmpty(p.getProperty("reindexTerminology"))) {
+      reindexTerminology = p.getProperty("reindexTerminology");
+      reindexVersion = p.getProperty("reindexVersion");
+    }
+    if (!ConfigUtility.isEmpty(p.getProperty("startId"))) {
+      startId = Long.parseLong(p.getProperty("startId"));
+    }
 
   }
 
@@ -191,6 +610,28 @@ public class LuceneReindexAlgorithm extends AbstractAlgorithm {
             "Comma-separated list of simple object class names to reindex.", "",
             255, AlgorithmParameter.Type.STRING, "");
     params.add(param);
+    params.add(new AlgorithmParameterJpa("Batch Size", "batchSize",
+        "Number of objects loaded per batch.", "e.g. 100", 10,
+        AlgorithmParameter.Type.INTEGER, "100"));
+    params.add(new AlgorithmParameterJpa("Threads", "threads",
+        "Number of threads loading objects, per type.", "e.g. 10", 10,
+        AlgorithmParameter.Type.INTEGER, "10"));
+    params.add(new AlgorithmParameterJpa("Fetch Size", "fetchSize",
+        "JDBC fetch size when reading ids.", "e.g. 100", 10,
+        AlgorithmParameter.Type.INTEGER, "100"));
+    params.add(new AlgorithmParameterJpa("Types In Parallel",
+        "typesInParallel", "Number of object types indexed in parallel.",
+        "e.g. 2", 10, AlgorithmParameter.Type.INTEGER, "2"));
+    params.add(new AlgorithmParameterJpa("Reindex Terminology",
+        "reindexTerminology",
+        "Only reindex objects of this terminology (and version).", "", 255,
+        AlgorithmParameter.Type.STRING, ""));
+    params.add(new AlgorithmParameterJpa("Reindex Version", "reindexVersion",
+        "Version of the terminology to reindex.", "", 255,
+        AlgorithmParameter.Type.STRING, ""));
+    params.add(new AlgorithmParameterJpa("Start Id", "startId",
+        "Resume reindexing at this id (from a failed run's log).", "", 20,
+        AlgorithmParameter.Type.STRING, ""));
     return params;
 
   }
@@ -16,21 +16,38 @@ import com.wci.umls.server.AlgorithmParameter;
 import com.wci.umls.server.ValidationResult;
 import com.wci.umls.server.helpers.ConfigUtility;
 import com.wci.umls.server.jpa.ValidationResultJpa;
+import com.wci.umls.server.jpa.content.AtomJpa;
+import com.wci.umls.server.jpa.content.AtomNoteJpa;
 import com.wci.umls.server.jpa.content.AtomRelationshipJpa;
 import com.wci.umls.server.jpa.content.AtomSubsetJpa;
 import com.wci.umls.server.jpa.content.AtomSubsetMemberJpa;
 import com.wci.umls.server.jpa.content.AtomTreePositionJpa;
+import com.wci.umls.server.jpa.content.AttributeJpa;
+import com.wci.umls.server.jpa.content.ComponentHistoryJpa;
+import com.wci.umls.server.jpa.content.CodeJpa;
+import com.wci.umls.server.jpa.content.CodeNoteJpa;
 import com.wci.umls.server.jpa.content.CodeRelationshipJpa;
 import com.wci.umls.server.jpa.content.CodeTransitiveRelationshipJpa;
 import com.wci.umls.server.jpa.content.CodeTreePositionJpa;
+import com.wci.umls.server.jpa.content.ConceptJpa;
+import com.wci.umls.server.jpa.content.ConceptNoteJpa;
 import com.wci.umls.server.jpa.content.ConceptRelationshipJpa;
 import com.wci.umls.server.jpa.content.ConceptSubsetJpa;
 import com.wci.umls.server.jpa.content.ConceptSubsetMemberJpa;
 import com.wci.umls.server.jpa.content.ConceptTransitiveRelationshipJpa;
 import com.wci.umls.server.jpa.content.ConceptTreePositionJpa;
+import com.wci.umls.server.jpa.content.DefinitionJpa;
+import com.wci.umls.server.jpa.content.DescriptorJpa;
+import com.wci.umls.server.jpa.content.DescriptorNoteJpa;
 import com.wci.umls.server.jpa.content.DescriptorRelationshipJpa;
 import com.wci.umls.server.jpa.content.DescriptorTransitiveRelationshipJpa;
 import com.wci.umls.server.jpa.content.DescriptorTreePositionJpa;
+import com.wci.umls.server.jpa.content.MapSetJpa;
+import com.wci.umls.server.jpa.content.MappingJpa;
+import com.wci.umls.server.jpa.content.SemanticTypeComponentJpa;
+import com.wci.umls.server.jpa.services.helper.AutocompleteUtility;
+import com.wci.umls.server.jpa.services.helper.ComponentStatsUtility;
+import com.wci.umls.server.jpa.services.helper.ContentHashUtility;
 import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.AtomRelationship;
 import com.wci.umls.server.model.content.Attribute;
@@ -58,6 +75,12 @@ import com.wci.umls.server.services.RootService;
  */
 public class RemoveTerminologyAlgorithm extends AbstractAlgorithm {
 
+  /**
+   * The config property that selects entity-by-entity content removal, which
+   * leaves an audit trail, instead of the bulk removal.
+   */
+  public static final String AUDIT_PROPERTY = "terminology.remove.audit";
+
   /**
    * Standalone means that it is not also represented as part of a
    * metathesaurus. Default is true.
@@ -103,6 +126,8 @@ public class RemoveTerminologyAlgorithm extends AbstractAlgorithm {
   @Override
   public void compute() throws Exception {
     removeTerminology(getTerminology(), getVersion());
+    clearTreeCache();
+    AutocompleteUtility.remove(getTerminology(), getVersion());
   }
 
   /* see superclass */
@@ -302,9 +327,52 @@ public class RemoveTerminologyAlgorithm extends AbstractAlgorithm {
     }
     commitClearBegin();
 
+    // remove content, in bulk unless an audit trail is required
+    if ("true".equals(
+        ConfigUtility.getConfigProperties().getProperty(AUDIT_PROPERTY))) {
+      removeContent(terminology, version);
+    } else {
+      removeContentInBulk(terminology, version);
+    }
+
+    // remove the component stats
+    logInfo("  Remove component stats");
+    ComponentStatsUtility.remove(manager, terminology, version);
+    ContentHashUtility.remove(manager, terminology, version);
+
+    commit();
+    clear();
+
+    Logger.getLogger(getClass())
+        .info("Finished removing attributes ... " + new Date());
+    // set the transaction strategy based on status starting this routine
+    // setTransactionPerOperation(currentTransactionStrategy);
+
+    logInfo("  Remove expression indexes...");
+
+    ConfigUtility.removeExpressionIndexDirectory(getTerminology(),
+        getVersion());
+
+    fireProgressEvent(100, "Finished...");
+  }
+
+  /**
+   * Remove the content of a terminology version one entity at a time, which
+   * leaves an audit trail.
+   *
+   * @param terminology the terminology
+   * @param version the version
+   * @throws Exception the exception
+   */
+  @SuppressWarnings({
+      "unchecked", "rawtypes"
+  })
+  private void removeContent(String terminology, String version)
+    throws Exception {
+
     // remove concept subset members
     logInfo("  Remove concept subset members");
-    query = manager.createQuery(
+    Query query = manager.createQuery(
         "SELECT a.id FROM ConceptSubsetMemberJpa a WHERE terminology = :terminology "
             + " AND version = :version");
     query.setParameter("terminology", terminology);
@@ -960,20 +1028,110 @@ public class RemoveTerminologyAlgorithm extends AbstractAlgorithm {
     }
     commitClearBegin();
 
-    commit();
-    clear();
-
-    Logger.getLogger(getClass())
-        .info("Finished removing attributes ... " + new Date());
-    // set the transaction strategy based on status starting this routine
-    // setTransactionPerOperation(currentTransactionStrategy);
-
-    logInfo("  Remove expression indexes...");
+    // remove the component histories
+    logInfo("  Remove component histories");
+    query = manager.createQuery(
+        "SELECT a.id FROM ComponentHistoryJpa a WHERE terminology = :terminology "
+            + " AND version = :version");
+    query.setParameter("terminology", terminology);
+    query.setParameter("version", version);
+    ct = 0;
+    for (final Long id : (List<Long>) query.getResultList()) {
+      removeComponentHistory(id);
+      logAndCommit(++ct, RootService.logCt, RootService.commitCt);
+    }
+    commitClearBegin();
+  }
 
-    ConfigUtility.removeExpressionIndexDirectory(getTerminology(),
-        getVersion());
+  /**
+   * Remove the content of a terminology version with set-based deletes. No
+   * audit trail is written.
+   *
+   * @param terminology the terminology
+   * @param version the version
+   * @throws Exception the exception
+   */
+  private void removeContentInBulk(String terminology, String version)
+    throws Exception {
+    final BulkTerminologyRemover remover =
+        new BulkTerminologyRemover(this, terminology, version);
+    final String tv = remover.inTerminology();
 
-    fireProgressEvent(100, "Finished...");
+    // NOTE: do not change the order of steps, they are tuned
+    // to properly handle foreign key dependencies.
+    remover.remove(ConceptSubsetMemberJpa.class, tv, 10,
+        "Remove concept subset members");
+    remover.remove(ConceptSubsetJpa.class, tv, 12, "Remove concept subsets");
+    remover.remove(AtomSubsetMemberJpa.class, tv, 14,
+        "Remove atom subset members");
+    remover.remove(AtomSubsetJpa.class, tv, 16, "Remove atom subsets");
+
+    remover.remove(ConceptRelationshipJpa.class, tv, 18,
+        "Remove concept relationships");
+    remover.remove(ConceptTransitiveRelationshipJpa.class, tv, 22,
+        "Remove concept transitive relationships");
+    remover.remove(ConceptTreePositionJpa.class, tv, 26,
+        "Remove concept tree positions");
+    remover.remove(ConceptNoteJpa.class,
+        remover.refersTo(ConceptNoteJpa.class, "concept", ConceptJpa.class),
+        30, "Remove concept notes");
+    remover.remove(ConceptJpa.class, tv, 32, "Remove concepts");
+
+    // Atom relationships of this terminology and those of other
+    // terminologies connected to its atoms
+    remover.remove(AtomRelationshipJpa.class,
+        tv + " OR "
+            + remover.refersTo(AtomRelationshipJpa.class, "from",
+                AtomJpa.class)
+            + " OR " + remover.refersTo(AtomRelationshipJpa.class, "to",
+                AtomJpa.class),
+        38, "Remove atom relationships");
+    fireProgressEvent(42, "Remove last release CUIs");
+    remover.removeMapEntries(AtomJpa.class, "conceptTerminologyIds",
+        terminology + version);
+
+    remover.remove(DescriptorRelationshipJpa.class, tv, 44,
+        "Remove descriptor relationships");
+    remover.remove(DescriptorTransitiveRelationshipJpa.class, tv, 46,
+        "Remove descriptor transitive relationships");
+    remover.remove(DescriptorTreePositionJpa.class, tv, 48,
+        "Remove descriptor tree positions");
+    remover.remove(DescriptorNoteJpa.class, remover.refersTo(
+        DescriptorNoteJpa.class, "descriptor", DescriptorJpa.class), 50,
+        "Remove descriptor notes");
+    remover.remove(DescriptorJpa.class, tv, 52, "Remove descriptors");
+
+    remover.remove(CodeRelationshipJpa.class, tv, 54,
+        "Remove code relationships");
+    remover.remove(CodeTransitiveRelationshipJpa.class, tv, 56,
+        "Remove code transitive relationships");
+    remover.remove(CodeTreePositionJpa.class, tv, 58,
+        "Remove code tree positions");
+    remover.remove(CodeNoteJpa.class,
+        remover.refersTo(CodeNoteJpa.class, "code", CodeJpa.class), 60,
+        "Remove code notes");
+    remover.remove(CodeJpa.class, tv, 62, "Remove codes");
+
+    // Atoms are also removed from concepts, codes and descriptors of other
+    // terminologies (e.g. when not standalone)
+    remover.remove(AtomTreePositionJpa.class, tv, 64,
+        "Remove atom tree positions");
+    remover.remove(AtomNoteJpa.class,
+        remover.refersTo(AtomNoteJpa.class, "atom", AtomJpa.class), 66,
+        "Remove atom notes");
+    remover.remove(AtomJpa.class, tv, 68, "Remove atoms");
+
+    remover.remove(SemanticTypeComponentJpa.class, tv, 76,
+        "Remove semantic type components");
+    remover.remove(DefinitionJpa.class, tv, 80, "Remove definitions");
+    remover.remove(MappingJpa.class, tv, 82, "Remove mappings");
+    remover.remove(MapSetJpa.class, tv, 84, "Remove mapsets");
+    remover.remove(AttributeJpa.class, tv, 86, "Remove attributes");
+    remover.remove(ComponentHistoryJpa.class, tv, 88,
+        "Remove component histories");
+
+    fireProgressEvent(92, "Reindex components of other terminologies");
+    remover.reindex();
   }
 
   /* see superclass */
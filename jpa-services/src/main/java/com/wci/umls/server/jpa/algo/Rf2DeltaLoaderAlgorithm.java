@@ -43,6 +43,8 @@ import com.wci.umls.server.jpa.meta.GeneralMetadataEntryJpa;
 import com.wci.umls.server.jpa.meta.LanguageJpa;
 import com.wci.umls.server.jpa.meta.PropertyChainJpa;
 import com.wci.umls.server.jpa.meta.TermTypeJpa;
+import com.wci.umls.server.jpa.services.helper.ComponentStatsUtility;
+import com.wci.umls.server.jpa.services.helper.ContentHashUtility;
 import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.AtomSubset;
 import com.wci.umls.server.model.content.AtomSubsetMember;
@@ -93,6 +95,15 @@ public class Rf2DeltaLoaderAlgorithm
   /** The map of terminologyId to id. */
   private Map<String, Long> idMap = new HashMap<>();
 
+  /** The content hashes of rows already loaded, by terminology id. */
+  private Map<String, Long> contentHashes = null;
+
+  /** The content hashes of rows loaded since the last commit. */
+  private Map<String, Long> pendingHashes = new HashMap<>();
+
+  /** The number of rows skipped as unchanged. */
+  private int unchangedCt = 0;
+
   /** The pn recompute ids. */
   private Set<Long> pnRecomputeIds = new HashSet<>();
 
@@ -232,6 +243,13 @@ public class Rf2DeltaLoaderAlgorithm
       readers.openReaders();
     }
 
+    // Load hashes of previously loaded rows, to skip unchanged ones
+    if (ContentHashUtility.isEnabled()) {
+      contentHashes = ContentHashUtility.getHashes(getEntityManager(),
+          getTerminology(), getVersion());
+      logInfo("  content hashes = " + contentHashes.size());
+    }
+
     //
     // Load concepts
     //
@@ -361,6 +379,10 @@ public class Rf2DeltaLoaderAlgorithm
     logInfo("  Committing");
     commitClearBegin();
 
+    if (contentHashes != null) {
+      logInfo("    unchanged = " + unchangedCt);
+    }
+
     //
     // Create ReleaseInfo for this release if it does not already exist
     //
@@ -396,6 +418,9 @@ public class Rf2DeltaLoaderAlgorithm
     // Final logging messages
     logInfo("      elapsed time = " + getTotalElapsedTimeStr(startTimeOrig));
 
+    // Bulk update the component stats
+    ComponentStatsUtility.recompute(getEntityManager(), getTerminology(),
+        getVersion());
     logInfo(getComponentStats(getTerminology(), getVersion(), Branch.ROOT)
         .toString());
     logInfo("Done ...");
@@ -409,6 +434,44 @@ public class Rf2DeltaLoaderAlgorithm
     // do nothing
   }
 
+  /* see superclass */
+  @Override
+  public void commit() throws Exception {
+    // Save the hashes of the loaded rows in the same transaction as the rows
+    if (!pendingHashes.isEmpty()) {
+      ContentHashUtility.putHashes(getEntityManager(), getTerminology(),
+          getVersion(), pendingHashes);
+    }
+    super.commit();
+    if (!pendingHashes.isEmpty()) {
+      contentHashes.putAll(pendingHashes);
+      pendingHashes.clear();
+    }
+  }
+
+  /**
+   * Indicates whether the row is unchanged since it was last loaded, in which
+   * case it can be skipped. Otherwise, records its hash to be saved with the
+   * next commit (see {@link #commit()}).
+   *
+   * @param terminologyId the terminology id
+   * @param line the line
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   */
+  private boolean isUnchanged(String terminologyId, String line) {
+    if (contentHashes == null) {
+      return false;
+    }
+    final long hash = ContentHashUtility.hash(line);
+    final Long previous = contentHashes.get(terminologyId);
+    if (previous != null && previous == hash) {
+      unchangedCt++;
+      return true;
+    }
+    pendingHashes.put(terminologyId, hash);
+    return false;
+  }
+
   /**
    * Loads the concepts from the delta files.
    *
@@ -455,6 +518,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Check if concept exists from before
         Concept concept = idMap.containsKey(fields[0])
             ? getConcept(idMap.get(fields[0])) : null;
@@ -537,14 +605,12 @@ public class Rf2DeltaLoaderAlgorithm
           objectsUpdated++;
         }
 
-        // Log and commit
-        /*
-         * if ((objectsAdded + objectsUpdated) % logCt == 0) {
-         * logAndCommit(objectsAdded + objectsUpdated); }
-         */
+        // Log and commit (in batches, only changed rows get here)
+        logAndCommit(objectsAdded + objectsUpdated, RootService.logCt,
+            RootService.commitCt);
       }
-      commitClearBegin();
     }
+    commitClearBegin();
 
     logAndCommit(objectsAdded + objectsUpdated, RootService.logCt,
         RootService.commitCt);
@@ -600,6 +666,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Get concept from cache or from db
         Concept concept = null;
         if (idMap.containsKey(fields[4])) {
@@ -780,6 +851,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Get concept from cache or from db
         Concept concept = null;
         if (idMap.containsKey(fields[4])) {
@@ -969,6 +1045,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Ensure effective time is set on all appropriate objects
         AtomSubsetMember member = null;
         if (idMap.containsKey(fields[0])) {
@@ -1113,6 +1194,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Ensure effective time is set on all appropriate objects
         ConceptSubsetMember member = null;
         if (idMap.containsKey(fields[0])) {
@@ -1234,6 +1320,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Ensure effective time is set on all appropriate objects
         ConceptSubsetMember member = null;
         if (idMap.containsKey(fields[0])) {
@@ -1406,6 +1497,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Retrieve mapping if it exists
         Mapping mapping = null;
         if (idMap.containsKey(fields[0])) {
@@ -1494,6 +1590,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Ensure effective time is set on all appropriate objects
         ConceptSubsetMember member = null;
         if (idMap.containsKey(fields[0])) {
@@ -1641,6 +1742,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Ensure effective time is set on all appropriate objects
         ConceptSubsetMember member = null;
         if (idMap.containsKey(fields[0])) {
@@ -1800,6 +1906,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Ensure effective time is set on all appropriate objects
         ConceptSubsetMember member = null;
         if (idMap.containsKey(fields[0])) {
@@ -1948,6 +2059,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Is the member a concept
         boolean isConcept = getConcept(idMap.get(fields[5])) != null;
 
@@ -2129,6 +2245,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Retrieve source concept
         Concept associationConcept = null;
         Concept sourceConcept = null;
@@ -2358,6 +2479,11 @@ public class Rf2DeltaLoaderAlgorithm
           break;
         }
 
+        // Skip if the row is unchanged since it was last loaded
+        if (isUnchanged(fields[0], line)) {
+          continue;
+        }
+
         // Retrieve source concept
         Concept sourceConcept = null;
         Concept destinationConcept = null;
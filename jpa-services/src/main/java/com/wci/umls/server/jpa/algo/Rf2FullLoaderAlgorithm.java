@@ -5,15 +5,22 @@ package com.wci.umls.server.jpa.algo;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.persister.collection.AbstractCollectionPersister;
 
 import com.wci.umls.server.AlgorithmParameter;
 import com.wci.umls.server.ReleaseInfo;
@@ -21,13 +28,26 @@ import com.wci.umls.server.ValidationResult;
 import com.wci.umls.server.helpers.ConfigUtility;
 import com.wci.umls.server.helpers.FieldedStringTokenizer;
 import com.wci.umls.server.jpa.AlgorithmParameterJpa;
+import com.wci.umls.server.jpa.ReleaseInfoJpa;
 import com.wci.umls.server.jpa.ValidationResultJpa;
+import com.wci.umls.server.jpa.content.AtomJpa;
+import com.wci.umls.server.jpa.content.ComponentHistoryJpa;
+import com.wci.umls.server.jpa.content.ConceptJpa;
+import com.wci.umls.server.jpa.services.helper.ComponentStatsUtility;
+import com.wci.umls.server.model.content.ComponentHistory;
+import com.wci.umls.server.services.RootService;
 
 /**
- * Implementation of an algorithm to import RF2 snapshot data.
+ * Implementation of an algorithm to import RF2 full data. The full files are
+ * collapsed in a single pass to the final state of each component, which is
+ * loaded once by {@link Rf2SnapshotLoaderAlgorithm}; the superseded concept
+ * and description rows are then loaded as component histories.
  */
 public class Rf2FullLoaderAlgorithm extends AbstractTerminologyLoaderAlgorithm {
 
+  /** The loader. */
+  private final String loader = "loader";
+
   /**
    * Instantiates an empty {@link Rf2FullLoaderAlgorithm}.
    * @throws Exception if anything goes wrong
@@ -45,7 +65,6 @@ public class Rf2FullLoaderAlgorithm extends AbstractTerminologyLoaderAlgorithm {
   }
 
   /* see superclass */
-  @SuppressWarnings("resource")
   @Override
   public void compute() throws Exception {
 
@@ -137,64 +156,154 @@ public class Rf2FullLoaderAlgorithm extends AbstractTerminologyLoaderAlgorithm {
       }
     }
 
-    // Remove any old sorting dir
-    ConfigUtility
-        .deleteDirectory(new File(getInputPath(), "/RF2-sorted-temp/"));
-
-    // Sort files
-    Logger.getLogger(getClass()).info("  Sort RF2 Files");
-    sorter = new Rf2FileSorter();
-    sorter.setSortByEffectiveTime(true);
-    sorter.setRequireAllFiles(true);
-    sorter.setInputDir(getInputPath());
-    sorter.setOutputDir(getInputPath() + "/RF2-sorted-temp/");
-    sorter.compute();
-
-    // Readers will be opened here
-    File outputDir = new File(inputDirFile, "/RF2-sorted-temp/");
-    final Rf2Readers readers = new Rf2Readers(outputDir);
-    readers.openReaders();
+    // Collapse the full files into a snapshot of the last release, keeping
+    // the superseded concept and description rows as history
+    final String snapshotDir = getInputPath() + "/RF2-snapshot-temp/";
+    logInfo("  Collapse RF2 Files");
+    final Rf2HistoryCollapser collapser = new Rf2HistoryCollapser();
+    collapser.setInputDir(getInputPath());
+    collapser.setOutputDir(snapshotDir);
+    collapser.compute();
 
-    // Load initial snapshot, pass in initial release version
-    // and readers and indicate to avoid sorting files
+    // Load the final state of every component in one snapshot load
     final Rf2SnapshotLoaderAlgorithm algorithm =
         new Rf2SnapshotLoaderAlgorithm();
     algorithm.setTerminology(getTerminology());
     algorithm.setVersion(getVersion());
-    algorithm.setInputPath(getInputPath());
-    algorithm.setReleaseVersion(releases.get(0));
-    algorithm.setReaders(readers);
-    algorithm.setSortFiles(false);
+    algorithm.setInputPath(snapshotDir);
+    algorithm.setReleaseVersion(releases.get(releases.size() - 1));
+    algorithm.setSortFiles(true);
     algorithm.compute();
     algorithm.close();
 
-    // Load deltas
-    for (final String release : releases) {
+    // control transaction scope
+    setTransactionPerOperation(false);
+    // Turn of ID computation when loading a terminology
+    setAssignIdentifiersFlag(false);
+    // Let loader set last modified flags.
+    setLastModifiedFlag(false);
+    // Turn off action handling
+    setMolecularActionFlag(false);
+    beginTransaction();
 
-      if (release.equals(releases.get(0))) {
-        continue;
-      }
+    // Add the release infos of the earlier releases
+    for (final String release : releases.subList(0, releases.size() - 1)) {
+      final Date releaseDate = ConfigUtility.DATE_FORMAT.parse(release);
+      final ReleaseInfo info = new ReleaseInfoJpa();
+      info.setName(release);
+      info.setDescription(getTerminology() + " " + release + " release");
+      info.setPlanned(false);
+      info.setPublished(true);
+      info.setReleaseBeginDate(releaseDate);
+      info.setReleaseFinishDate(releaseDate);
+      info.setTerminology(getTerminology());
+      info.setVersion(getVersion());
+      info.setLastModified(releaseDate);
+      info.setLastModifiedBy(loader);
+      info.setTimestamp(new Date());
+      addReleaseInfo(info);
+    }
+    commitClearBegin();
+
+    // Load the history of concepts and atoms
+    logInfo("  Loading Concept History...");
+    loadHistory(collapser.getHistoryFile("sct2_Concept_"), ConceptJpa.class);
+    logInfo("  Loading Atom History...");
+    loadHistory(collapser.getHistoryFile("sct2_Description_"),
+        AtomJpa.class);
+
+    // Bulk update the component stats
+    ComponentStatsUtility.recompute(getEntityManager(), getTerminology(),
+        getVersion());
+    commit();
 
-      // Run loader on each subsequent release
-      // Pass in the release version and the readers
-      Rf2DeltaLoaderAlgorithm algorithm2 = new Rf2DeltaLoaderAlgorithm();
-      algorithm2.setTerminology(getTerminology());
-      algorithm.setInputPath(getInputPath());
-      algorithm2.setVersion(getVersion());
-      algorithm2.setReleaseVersion(release);
-      algorithm2.setReaders(readers);
-      algorithm2.setSortFiles(false);
-      algorithm2.setInputPath(getInputPath());
-      algorithm2.compute();
-      algorithm2.close();
-      algorithm2 = null;
+    // Remove the collapsed files
+    ConfigUtility.deleteDirectory(new File(snapshotDir));
+
+  }
 
+  /**
+   * Load the superseded rows of a history file as component histories of the
+   * loaded components. Histories are inserted in batches and attached with
+   * set-based inserts into the collection table, without loading the
+   * components.
+   *
+   * @param file the history file
+   * @param clazz the component class
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("unchecked")
+  private void loadHistory(File file, Class<?> clazz) throws Exception {
+
+    // Look up component ids
+    final Map<String, Long> idMap = new HashMap<>();
+    final javax.persistence.Query query = getEntityManager()
+        .createQuery("select terminologyId, id from " + clazz.getSimpleName()
+            + " where terminology = :terminology and version = :version");
+    query.setParameter("terminology", getTerminology());
+    query.setParameter("version", getVersion());
+    for (final Object[] result : (List<Object[]>) query.getResultList()) {
+      idMap.put(result[0].toString(), (Long) result[1]);
     }
 
-    // Remove sort directory if sorting was done locally
-    ConfigUtility
-        .deleteDirectory(new File(getInputPath(), "/RF2-sorted-temp/"));
+    // The collection table
+    final AbstractCollectionPersister collection =
+        (AbstractCollectionPersister) getEntityManager()
+            .unwrap(Session.class).getSessionFactory()
+            .getCollectionMetadata(clazz.getName() + ".componentHistories");
+    final String insert = "INSERT INTO " + collection.getTableName() + " ("
+        + collection.getKeyColumnNames()[0] + ", "
+        + collection.getElementColumnNames()[0] + ") VALUES ";
+
+    int objectCt = 0;
+    final StringBuilder values = new StringBuilder();
+    try (final BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final String fields[] = FieldedStringTokenizer.split(line, "\t");
+        final Long componentId = idMap.get(fields[0]);
+        if (componentId == null) {
+          continue;
+        }
+        checkCancel();
+
+        // The row as of its release, without id and effective time
+        final Date date = ConfigUtility.DATE_FORMAT.parse(fields[1]);
+        final ComponentHistory history = new ComponentHistoryJpa();
+        history.setTerminologyId(fields[0]);
+        history.setTerminology(getTerminology());
+        history.setVersion(getVersion());
+        history.setTimestamp(date);
+        history.setLastModified(date);
+        history.setLastModifiedBy(loader);
+        history.setObsolete(fields[2].equals("0"));
+        history.setSuppressible(history.isObsolete());
+        history.setPublished(true);
+        history.setPublishable(true);
+        history.setAssociatedRelease(fields[1]);
+        history.setReason(line.substring(
+            fields[0].length() + fields[1].length() + 2));
+        addComponentHistory(history);
 
+        values.append(values.length() == 0 ? "" : ", ").append("(")
+            .append(componentId).append(", ").append(history.getId())
+            .append(")");
+        if (++objectCt % RootService.commitCt == 0) {
+          getEntityManager().flush();
+          getEntityManager().createNativeQuery(insert + values)
+              .executeUpdate();
+          values.setLength(0);
+        }
+        logAndCommit(objectCt, RootService.logCt, RootService.commitCt);
+      }
+    }
+    if (values.length() > 0) {
+      getEntityManager().flush();
+      getEntityManager().createNativeQuery(insert + values).executeUpdate();
+    }
+    commitClearBegin();
+    logInfo("    count = " + objectCt);
   }
 
   /* see superclass */
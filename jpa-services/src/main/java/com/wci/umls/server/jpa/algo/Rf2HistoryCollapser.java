@@ -0,0 +1,219 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.algo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Comparator;
+
+import org.apache.log4j.Logger;
+
+import com.wci.umls.server.helpers.CancelException;
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.helpers.FieldedStringTokenizer;
+
+/**
+ * Collapser for RF2 full files. Sorts each full file by component id and
+ * effective time, then streams it once, writing the last row of each
+ * component to a snapshot file with the same layout and name (with "Full"
+ * replaced by "Snapshot"). The superseded rows of concepts and descriptions
+ * are written to history files (see {@link #getHistoryFile(String)}), in id
+ * and effective time order.
+ */
+public class Rf2HistoryCollapser {
+
+  /** The input dir. */
+  private String inputDir = null;
+
+  /** The output dir. */
+  private String outputDir = null;
+
+  /** The cancel flag. */
+  private boolean requestCancel = false;
+
+  /** The file prefixes whose superseded rows are kept as history. */
+  private static final String[] historyPrefixes = new String[] {
+      "sct2_Concept_", "sct2_Description_"
+  };
+
+  /**
+   * Instantiates an empty {@link Rf2HistoryCollapser}.
+   *
+   * @throws Exception if anything goes wrong
+   */
+  public Rf2HistoryCollapser() throws Exception {
+    // n/a
+  }
+
+  /**
+   * Sets the input dir.
+   *
+   * @param inputDir the input dir
+   */
+  public void setInputDir(String inputDir) {
+    this.inputDir = inputDir;
+  }
+
+  /**
+   * Sets the output dir.
+   *
+   * @param outputDir the output dir
+   */
+  public void setOutputDir(String outputDir) {
+    this.outputDir = outputDir;
+  }
+
+  /**
+   * Returns the history file for the file prefix, e.g. "sct2_Concept_".
+   *
+   * @param prefix the prefix
+   * @return the history file
+   */
+  public File getHistoryFile(String prefix) {
+    return new File(outputDir, prefix + "History.txt");
+  }
+
+  /**
+   * Collapse the files.
+   *
+   * @throws Exception the exception
+   */
+  public void compute() throws Exception {
+    Logger.getLogger(getClass()).info("Start collapsing files");
+
+    final File outputDirFile = new File(outputDir);
+    Logger.getLogger(getClass()).info("  Remove and remake output dir");
+    ConfigUtility.deleteDirectory(outputDirFile);
+    if (!outputDirFile.mkdirs()) {
+      throw new Exception("Problem making output dir: " + outputDir);
+    }
+
+    if (!new File(inputDir).exists()) {
+      throw new Exception("Input dir does not exist: " + inputDir);
+    }
+
+    final Rf2FileSorter sorter = new Rf2FileSorter();
+    sorter.setRequireAllFiles(true);
+    for (final String key : sorter.dirMap.keySet()) {
+
+      if (requestCancel) {
+        throw new CancelException("Cancel requested");
+      }
+
+      Logger.getLogger(getClass()).info("  Collapsing " + key);
+      final String dir = sorter.dirMap.get(key);
+      final File file = sorter.findFile(new File(inputDir + dir), key);
+      new File(outputDir + dir).mkdirs();
+      final File snapshotFile = new File(outputDir + dir,
+          file.getName().replaceFirst("Full", "Snapshot"));
+      File historyFile = null;
+      for (final String prefix : historyPrefixes) {
+        if (key.equals(prefix)) {
+          historyFile = getHistoryFile(prefix);
+        }
+      }
+      collapseFile(file, snapshotFile, historyFile);
+    }
+
+    Logger.getLogger(getClass()).info("Done...");
+  }
+
+  /**
+   * Collapse a full file into a snapshot file.
+   *
+   * @param fileIn the full file
+   * @param fileOut the snapshot file
+   * @param historyFile the history file, or null to drop superseded rows
+   * @throws Exception the exception
+   */
+  private void collapseFile(File fileIn, File fileOut, File historyFile)
+    throws Exception {
+
+    // Sort by id, then effective time
+    final File sortedFile = new File(outputDir, fileIn.getName() + ".sort");
+    FileSorter.sortFile(fileIn.toString(), sortedFile.toString(),
+        getComparator());
+
+    int rowCt = 0;
+    int componentCt = 0;
+    try (
+        final BufferedReader header = new BufferedReader(new InputStreamReader(
+            new FileInputStream(fileIn), "UTF-8"));
+        final BufferedReader in = new BufferedReader(new InputStreamReader(
+            new FileInputStream(sortedFile), "UTF-8"));
+        final PrintWriter out = new PrintWriter(new OutputStreamWriter(
+            new FileOutputStream(fileOut), "UTF-8"));
+        final PrintWriter history = historyFile == null ? null
+            : new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(historyFile), "UTF-8"))) {
+
+      // Keep the header first
+      final String headerLine = header.readLine();
+      if (headerLine != null) {
+        out.println(headerLine);
+      }
+
+      // Write the last row of each id, and the earlier ones as history
+      String prevId = null;
+      String prevLine = null;
+      String line;
+      while ((line = in.readLine()) != null) {
+        final String id = FieldedStringTokenizer.split(line, "\t")[0];
+        if (id.equals("id")) {
+          continue;
+        }
+        rowCt++;
+        if (prevLine != null) {
+          if (!id.equals(prevId)) {
+            out.println(prevLine);
+            componentCt++;
+          } else if (history != null) {
+            history.println(prevLine);
+          }
+        }
+        prevId = id;
+        prevLine = line;
+      }
+      if (prevLine != null) {
+        out.println(prevLine);
+        componentCt++;
+      }
+    }
+    sortedFile.delete();
+    Logger.getLogger(getClass()).info(
+        "    " + fileOut.getName() + " = " + componentCt + " / " + rowCt);
+  }
+
+  /**
+   * Returns the comparator by id, then effective time.
+   *
+   * @return the comparator
+   */
+  private static Comparator<String> getComparator() {
+    return new Comparator<String>() {
+      @Override
+      public int compare(String s1, String s2) {
+        final String v1[] = s1.split("\t", 3);
+        final String v2[] = s2.split("\t", 3);
+        final int cmp = v1[0].compareTo(v2[0]);
+        if (cmp != 0) {
+          return cmp;
+        }
+        return v1[1].compareTo(v2[1]);
+      }
+    };
+  }
+
+  /**
+   * Cancel.
+   */
+  public void cancel() {
+    requestCancel = true;
+  }
+}
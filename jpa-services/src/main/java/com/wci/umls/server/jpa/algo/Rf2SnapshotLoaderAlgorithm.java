@@ -47,6 +47,7 @@ import com.wci.umls.server.jpa.meta.RelationshipTypeJpa;
 import com.wci.umls.server.jpa.meta.RootTerminologyJpa;
 import com.wci.umls.server.jpa.meta.TermTypeJpa;
 import com.wci.umls.server.jpa.meta.TerminologyJpa;
+import com.wci.umls.server.jpa.services.helper.ComponentStatsUtility;
 import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.AtomSubset;
 import com.wci.umls.server.model.content.AtomSubsetMember;
@@ -398,6 +399,9 @@ public class Rf2SnapshotLoaderAlgorithm
       // Final logging messages
       logInfo("      elapsed time = " + getTotalElapsedTimeStr(startTimeOrig));
 
+      // Bulk update the component stats
+      ComponentStatsUtility.recompute(getEntityManager(), getTerminology(),
+          getVersion());
       logInfo(getComponentStats(getTerminology(), getVersion(), Branch.ROOT)
           .toString());
       logInfo("Loading objects done.");
@@ -69,6 +69,7 @@ import com.wci.umls.server.jpa.meta.RootTerminologyJpa;
 import com.wci.umls.server.jpa.meta.SemanticTypeJpa;
 import com.wci.umls.server.jpa.meta.TermTypeJpa;
 import com.wci.umls.server.jpa.meta.TerminologyJpa;
+import com.wci.umls.server.jpa.services.helper.ComponentStatsUtility;
 import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.AtomClass;
 import com.wci.umls.server.model.content.AtomRelationship;
@@ -429,6 +430,8 @@ public class RrfLoaderAlgorithm extends AbstractTerminologyLoaderAlgorithm {
 
     // Clear concept cache
 
+    // Bulk update the component stats
+    ComponentStatsUtility.recompute(getEntityManager(), null, null);
     logInfo("Log component stats");
     final Map<String, Integer> stats = getComponentStats(null, null, null);
     final List<String> statsList = new ArrayList<>(stats.keySet());
@@ -40,6 +40,7 @@ import com.wci.umls.server.jpa.meta.RootTerminologyJpa;
 import com.wci.umls.server.jpa.meta.SemanticTypeJpa;
 import com.wci.umls.server.jpa.meta.TermTypeJpa;
 import com.wci.umls.server.jpa.meta.TerminologyJpa;
+import com.wci.umls.server.jpa.services.helper.ComponentStatsUtility;
 import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.Component;
 import com.wci.umls.server.model.content.Concept;
@@ -178,6 +179,8 @@ public class SimpleLoaderAlgorithm extends AbstractTerminologyLoaderAlgorithm {
 
     // Clear concept cache
 
+    // Bulk update the component stats
+    ComponentStatsUtility.recompute(getEntityManager(), null, null);
     logInfo("Log component stats");
     final Map<String, Integer> stats = getComponentStats(null, null, null);
     final List<String> statsList = new ArrayList<>(stats.keySet());
@@ -124,6 +124,9 @@ public class TreePositionAlgorithm extends AbstractAlgorithm {
     logInfo("  idType = " + idType);
     fireProgressEvent(0, "Starting...");
 
+    // Cached tree nodes may no longer be valid
+    clearTreeCache();
+
     // Get the root terminology and check "computable" flag
     final RootTerminology rootTerminology =
         getRootTerminology(getTerminology());
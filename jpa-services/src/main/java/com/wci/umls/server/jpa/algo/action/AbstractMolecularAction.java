@@ -22,7 +22,6 @@ import com.wci.umls.server.helpers.ConfigUtility;
 import com.wci.umls.server.helpers.HasId;
 import com.wci.umls.server.helpers.HasLastModified;
 import com.wci.umls.server.helpers.LocalException;
-import com.wci.umls.server.helpers.TrackingRecordList;
 import com.wci.umls.server.jpa.actions.MolecularActionJpa;
 import com.wci.umls.server.jpa.algo.AbstractAlgorithm;
 import com.wci.umls.server.jpa.content.ConceptJpa;
@@ -33,7 +32,6 @@ import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.AtomRelationship;
 import com.wci.umls.server.model.content.Concept;
 import com.wci.umls.server.model.content.ConceptRelationship;
-import com.wci.umls.server.model.workflow.TrackingRecord;
 import com.wci.umls.server.model.workflow.WorkflowStatus;
 
 /**
@@ -42,9 +40,6 @@ import com.wci.umls.server.model.workflow.WorkflowStatus;
 public abstract class AbstractMolecularAction extends AbstractAlgorithm
     implements MolecularActionAlgorithm {
 
-  /** The Constant LOCK. */
-  private final static String LOCK = "lock";
-
   /** The concept id. */
   private Long conceptId;
 
@@ -218,55 +213,57 @@ public abstract class AbstractMolecularAction extends AbstractAlgorithm
     // throw new Exception("Unexpected null concept last modified value");
     // }
 
-    // Global lock to acquire list of concept ids to lock.
-    final List<Long> conceptIdList = new ArrayList<>();
-    synchronized (LOCK) {
-      // Extract concept ids and sort them
-      final Set<Long> conceptIds = new HashSet<>();
-      if (conceptId != null) {
-        conceptIds.add(conceptId);
-      }
-      if (conceptId2 != null && !(conceptId2.equals(conceptId))) {
-        conceptIds.add(conceptId2);
-      }
+    // Acquire list of concept ids to lock
+    final Set<Long> conceptIds = new HashSet<>();
+    if (conceptId != null) {
+      conceptIds.add(conceptId);
+    }
+    if (conceptId2 != null && !(conceptId2.equals(conceptId))) {
+      conceptIds.add(conceptId2);
+    }
 
-      // If locking related concepts, add them to the list
-      if (lockRelatedConcepts()) {
-        for (final Long id : new ArrayList<>(conceptIds)) {
-          final Concept concept = getConcept(id);
-          for (final ConceptRelationship rel : concept.getRelationships()) {
-            conceptIds.add(rel.getTo().getId());
-          }
+    // If locking related concepts, add them to the list
+    if (lockRelatedConcepts()) {
+      for (final Long id : new ArrayList<>(conceptIds)) {
+        final Concept concept = getConcept(id);
+        for (final ConceptRelationship rel : concept.getRelationships()) {
+          conceptIds.add(rel.getTo().getId());
         }
       }
-      conceptIdList.addAll(conceptIds);
-      // Sort in id order for locking
-      Collections.sort(conceptIdList);
     }
+    // Sort in id order for locking
+    final List<Long> conceptIdList = new ArrayList<>(conceptIds);
+    Collections.sort(conceptIdList);
 
     // Clear concept references (this is probably unnecessary)
     this.concept = null;
     this.concept2 = null;
 
-    // Iterate
-    for (final Long i : conceptIdList) {
-      Concept tempConcept = null;
-
-      // Lock on the concept id (in Java)
-      synchronized (i.toString().intern()) {
+    // Lock on the concept ids (in Java), this times out rather than waiting
+    // forever on a concept held by another action
+    final ConceptLockManager.Locks locks;
+    try {
+      locks = ConceptLockManager.getInstance().lock(conceptIdList);
+    } catch (Exception e) {
+      rollback();
+      throw e;
+    }
+    try {
+      // Iterate
+      for (final Long i : conceptIdList) {
 
         // retrieve the concept
-        tempConcept = getConcept(i);
+        final Concept tempConcept = getConcept(i);
 
         // only lock concepts that exist (because in undo/redo they may not)
         if (tempConcept == null) {
           continue;
         }
 
-        if (i == conceptId) {
+        if (i.equals(conceptId)) {
           concept = new ConceptJpa(tempConcept, true);
         }
-        if (i == conceptId2) {
+        if (i.equals(conceptId2)) {
           concept2 = new ConceptJpa(tempConcept, true);
         }
 
@@ -281,7 +278,10 @@ public abstract class AbstractMolecularAction extends AbstractAlgorithm
         lockObject(tempConcept);
 
       }
+    } finally {
+      locks.close();
     }
+
     // Pick up the terminology/version from concept
     if (concept != null) {
       setTerminology(concept.getTerminology());
@@ -628,64 +628,35 @@ public abstract class AbstractMolecularAction extends AbstractAlgorithm
   }
 
   /**
-   * Post action maintenance.
+   * Returns the ids of the concepts that need post-action maintenance.
    *
-   * @throws Exception the exception
+   * @return the maintenance concept ids
    */
-  public void postActionMaintenance() throws Exception {
-
-    final Set<Concept> concepts = new HashSet<>();
+  public Set<Long> getMaintenanceConceptIds() {
+    final Set<Long> conceptIds = new HashSet<>();
     if (getConcept() != null) {
-      concepts.add(getConcept(getConcept().getId()));
+      conceptIds.add(getConcept().getId());
     }
     if (getConcept2() != null) {
-      concepts.add(getConcept(getConcept2().getId()));
+      conceptIds.add(getConcept2().getId());
     }
+    return conceptIds;
+  }
+
+  /**
+   * Post action maintenance.
+   *
+   * @throws Exception the exception
+   */
+  public void postActionMaintenance() throws Exception {
 
     // Start a new action that doesn't create molecular/atomic actions
     beginTransaction();
     setMolecularActionFlag(false);
 
-    // Only concepts that exist and contain atoms will need to go through this
-    // process
-    final Set<Long> recordsSeen = new HashSet<>();
-    for (final Concept c : concepts) {
-      if (c != null && !c.getAtoms().isEmpty()) {
-
-        //
-        // Recompute tracking record workflow status
-        //
-
-        // Any tracking record that references this concept may potentially be
-        // updated.
-        final TrackingRecordList records =
-            findTrackingRecordsForConcept(getProject(), c, null, null);
-
-        // Set trackingRecord to READY_FOR_PUBLICATION if all contained
-        // concepts and atoms are all set to READY_FOR_PUBLICATION.
-        if (records != null) {
-          for (final TrackingRecord record : records.getObjects()) {
-            if (!recordsSeen.contains(record.getId())) {
-              final WorkflowStatus status = computeTrackingRecordStatus(record, false);
-              if (record.getWorkflowStatus() != status) {
-                record.setWorkflowStatus(status);
-                updateTrackingRecord(record);
-              }
-              recordsSeen.add(record.getId());
-            }
-
-          }
-        }
+    PostActionMaintenanceQueue.maintainConcepts(this, getProject(),
+        getMaintenanceConceptIds(), false);
 
-        //
-        // Recompute the concept's preferred name
-        //
-        c.setName(getComputePreferredNameHandler(c.getTerminology())
-            .computePreferredName(c.getAtoms(),
-                getPrecedenceList(c.getTerminology(), c.getVersion())));
-        updateConcept(c);
-      }
-    }
     commit();
   }
 
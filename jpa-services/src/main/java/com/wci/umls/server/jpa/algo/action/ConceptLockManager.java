@@ -0,0 +1,281 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.algo.action;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.helpers.LocalException;
+
+/**
+ * In-memory concept locks for molecular actions. Concept ids map onto a fixed
+ * set of striped {@link ReentrantLock}s. The stripes for an action are always
+ * acquired in ascending order, so two actions can never deadlock, and each
+ * acquisition gives up after a timeout instead of waiting forever. Wait times
+ * and the concepts that had to wait are tracked for monitoring. At most
+ * {@link #MAX_CONTENDED_CONCEPTS} concepts are tracked: when full, all
+ * per-concept counts are halved and those that reach zero are dropped, so
+ * the map keeps the most (and most recently) contended concepts.
+ */
+public class ConceptLockManager {
+
+  /** The config property for the number of lock stripes. */
+  public static final String STRIPES_PROPERTY = "action.lock.stripes";
+
+  /** The config property for the lock timeout (ms). */
+  public static final String TIMEOUT_PROPERTY = "action.lock.timeout";
+
+  /** The max number of contended concepts tracked. */
+  public static final int MAX_CONTENDED_CONCEPTS = 1000;
+
+  /** The shared instance. */
+  private static ConceptLockManager instance = null;
+
+  /** The locks. */
+  private final ReentrantLock[] locks;
+
+  /** The timeout (ms). */
+  private final long timeout;
+
+  /** The number of lock acquisitions. */
+  private final AtomicLong acquisitionCt = new AtomicLong(0);
+
+  /** The number of acquisitions that had to wait. */
+  private final AtomicLong contentionCt = new AtomicLong(0);
+
+  /** The number of acquisitions that timed out. */
+  private final AtomicLong timeoutCt = new AtomicLong(0);
+
+  /** The total wait time (ns). */
+  private final AtomicLong waitTime = new AtomicLong(0);
+
+  /** The max wait time (ns). */
+  private final AtomicLong maxWaitTime = new AtomicLong(0);
+
+  /** The number of waits per concept id (only concepts that had to wait). */
+  private final Map<Long, AtomicLong> conceptContentionMap =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Instantiates a {@link ConceptLockManager} from the specified parameters.
+   *
+   * @param stripes the number of stripes
+   * @param timeout the timeout (ms)
+   */
+  public ConceptLockManager(int stripes, long timeout) {
+    locks = new ReentrantLock[stripes];
+    for (int i = 0; i < stripes; i++) {
+      locks[i] = new ReentrantLock();
+    }
+    this.timeout = timeout;
+  }
+
+  /**
+   * Returns the shared instance, configured from "action.lock.stripes"
+   * (default 1024) and "action.lock.timeout" (default 30000 ms).
+   *
+   * @return the instance
+   * @throws Exception the exception
+   */
+  public static synchronized ConceptLockManager getInstance()
+    throws Exception {
+    if (instance == null) {
+      final Properties config = ConfigUtility.getConfigProperties();
+      int stripes = 1024;
+      long timeout = 30000;
+      if (config.getProperty(STRIPES_PROPERTY) != null) {
+        stripes = Integer.parseInt(config.getProperty(STRIPES_PROPERTY));
+      }
+      if (config.getProperty(TIMEOUT_PROPERTY) != null) {
+        timeout = Long.parseLong(config.getProperty(TIMEOUT_PROPERTY));
+      }
+      instance = new ConceptLockManager(stripes, timeout);
+    }
+    return instance;
+  }
+
+  /**
+   * Locks the concepts, acquiring stripes in ascending order. If any stripe
+   * cannot be acquired within the timeout, the stripes already held are
+   * released and a {@link LocalException} is thrown.
+   *
+   * @param conceptIds the concept ids
+   * @return the locks, to be closed when done
+   * @throws Exception the exception
+   */
+  public Locks lock(Collection<Long> conceptIds) throws Exception {
+    // Map stripes to (one of) their concept ids, in stripe order
+    final TreeMap<Integer, Long> stripes = new TreeMap<>();
+    for (final Long conceptId : conceptIds) {
+      stripes.put(getStripe(conceptId), conceptId);
+    }
+
+    final Locks held = new Locks(stripes.size());
+    try {
+      for (final Map.Entry<Integer, Long> entry : stripes.entrySet()) {
+        final ReentrantLock lock = locks[entry.getKey()];
+        acquisitionCt.incrementAndGet();
+        if (!lock.tryLock()) {
+          // Contended - wait up to the timeout
+          contentionCt.incrementAndGet();
+          if (conceptContentionMap.size() >= MAX_CONTENDED_CONCEPTS) {
+            decayConceptContention();
+          }
+          conceptContentionMap
+              .computeIfAbsent(entry.getValue(), k -> new AtomicLong(0))
+              .incrementAndGet();
+          final long start = System.nanoTime();
+          final boolean acquired =
+              lock.tryLock(timeout, TimeUnit.MILLISECONDS);
+          final long wait = System.nanoTime() - start;
+          waitTime.addAndGet(wait);
+          maxWaitTime.accumulateAndGet(wait, Math::max);
+          if (!acquired) {
+            timeoutCt.incrementAndGet();
+            Logger.getLogger(getClass()).warn("  timed out after " + timeout
+                + " ms waiting to lock concept " + entry.getValue());
+            throw new LocalException("Concept " + entry.getValue()
+                + " is being edited by another action, try again");
+          }
+        }
+        held.add(lock);
+      }
+    } catch (Exception e) {
+      held.close();
+      throw e;
+    }
+    return held;
+  }
+
+  /**
+   * Halves the per-concept contention counts, dropping those that reach zero,
+   * until there is room for another concept.
+   */
+  private synchronized void decayConceptContention() {
+    while (conceptContentionMap.size() >= MAX_CONTENDED_CONCEPTS) {
+      conceptContentionMap.values()
+          .removeIf(count -> count.updateAndGet(c -> c / 2) == 0);
+    }
+  }
+
+  /**
+   * Returns the stripe for the concept id.
+   *
+   * @param conceptId the concept id
+   * @return the stripe
+   */
+  private int getStripe(Long conceptId) {
+    // Spread the bits so consecutive ids don't share low-order patterns
+    final long h = conceptId * 0x9E3779B97F4A7C15L;
+    return (int) ((h >>> 32) % locks.length);
+  }
+
+  /**
+   * Returns the acquisition count.
+   *
+   * @return the acquisition count
+   */
+  public long getAcquisitionCount() {
+    return acquisitionCt.get();
+  }
+
+  /**
+   * Returns the number of acquisitions that had to wait.
+   *
+   * @return the contention count
+   */
+  public long getContentionCount() {
+    return contentionCt.get();
+  }
+
+  /**
+   * Returns the number of acquisitions that timed out.
+   *
+   * @return the timeout count
+   */
+  public long getTimeoutCount() {
+    return timeoutCt.get();
+  }
+
+  /**
+   * Returns the total time spent waiting for contended locks.
+   *
+   * @return the wait time (ms)
+   */
+  public long getWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+  }
+
+  /**
+   * Returns the longest wait for a contended lock.
+   *
+   * @return the max wait time (ms)
+   */
+  public long getMaxWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+  }
+
+  /**
+   * Returns the number of waits per concept id, for the most contended
+   * concepts (decayed as described above).
+   *
+   * @return the concept contention map
+   */
+  public Map<Long, Long> getConceptContentionMap() {
+    final Map<Long, Long> map = new HashMap<>();
+    for (final Map.Entry<Long, AtomicLong> entry : conceptContentionMap
+        .entrySet()) {
+      map.put(entry.getKey(), entry.getValue().get());
+    }
+    return map;
+  }
+
+  /**
+   * The stripes held for one action, released in reverse order on close.
+   */
+  public static class Locks implements AutoCloseable {
+
+    /** The held locks. */
+    private final ReentrantLock[] held;
+
+    /** The number of held locks. */
+    private int size = 0;
+
+    /**
+     * Instantiates a {@link Locks} from the specified parameters.
+     *
+     * @param capacity the capacity
+     */
+    Locks(int capacity) {
+      held = new ReentrantLock[capacity];
+    }
+
+    /**
+     * Adds the lock.
+     *
+     * @param lock the lock
+     */
+    void add(ReentrantLock lock) {
+      held[size++] = lock;
+    }
+
+    /* see superclass */
+    @Override
+    public void close() {
+      while (size > 0) {
+        held[--size].unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,574 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.algo.action;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.wci.umls.server.Project;
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.helpers.TrackingRecordList;
+import com.wci.umls.server.jpa.services.WorkflowServiceJpa;
+import com.wci.umls.server.jpa.services.helper.DeepRelationshipUtility;
+import com.wci.umls.server.jpa.services.helper.ReportFragmentCache;
+import com.wci.umls.server.model.content.Concept;
+import com.wci.umls.server.model.workflow.TrackingRecord;
+import com.wci.umls.server.model.workflow.WorkflowStatus;
+
+/**
+ * Performs molecular action post-action maintenance (tracking record workflow
+ * status, concept preferred names and the deep relationship table) either
+ * inline or, when enabled, on a background thread. Queued concepts are
+ * coalesced so a concept touched by several actions within the delay is
+ * maintained once, and are processed in batches per project in a single
+ * transaction. Tracking record status is therefore eventually consistent,
+ * lagging edits by roughly the configured delay. A failed batch is retried
+ * concept by concept; a concept that keeps failing is re-queued with a
+ * doubling backoff, and after the max attempts it is logged and kept in the
+ * failed set (see {@link #getFailedConceptIds()} and {@link #retryFailed()}).
+ */
+public class PostActionMaintenanceQueue {
+
+  /** The config property that enables background maintenance. */
+  public static final String ENABLED_PROPERTY = "action.maintenance.async";
+
+  /** The config property for the delay between queue passes (ms). */
+  public static final String DELAY_PROPERTY = "action.maintenance.delay";
+
+  /** The config property for the max number of concepts per transaction. */
+  public static final String BATCH_SIZE_PROPERTY =
+      "action.maintenance.batch.size";
+
+  /** The config property for the max attempts to maintain a concept. */
+  public static final String MAX_ATTEMPTS_PROPERTY =
+      "action.maintenance.max.attempts";
+
+  /** The enabled flag. */
+  private static Boolean enabled = null;
+
+  /** The delay. */
+  private static long delay = 1000;
+
+  /** The batch size. */
+  private static int batchSize = 100;
+
+  /** The max attempts. */
+  private static int maxAttempts = 5;
+
+  /** The executor, started on first use. */
+  private static ScheduledExecutorService executor = null;
+
+  /** The pending concepts, by project id then concept id. */
+  private static final Map<Long, Map<Long, PendingConcept>> pending =
+      new HashMap<>();
+
+  /** The concepts that failed every attempt, by project id then concept id. */
+  private static final Map<Long, Map<Long, PendingConcept>> failed =
+      new HashMap<>();
+
+  /** The number of concepts currently being maintained. */
+  private static final AtomicInteger inProgress = new AtomicInteger(0);
+
+  /** The number of concepts maintained. */
+  private static final AtomicLong processedCt = new AtomicLong(0);
+
+  /** The latency of the most recent batch (ms). */
+  private static final AtomicLong lastLatency = new AtomicLong(0);
+
+  /** The max latency seen (ms). */
+  private static final AtomicLong maxLatency = new AtomicLong(0);
+
+  /** The batch processor (replaced by unit tests). */
+  static BatchProcessor batchProcessor =
+      PostActionMaintenanceQueue::processBatch;
+
+  /**
+   * Indicates whether background maintenance is enabled.
+   *
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   * @throws Exception the exception
+   */
+  public static boolean isEnabled() throws Exception {
+    if (enabled == null) {
+      final Properties config = ConfigUtility.getConfigProperties();
+      if (config.getProperty(DELAY_PROPERTY) != null) {
+        delay = Long.parseLong(config.getProperty(DELAY_PROPERTY));
+      }
+      if (config.getProperty(BATCH_SIZE_PROPERTY) != null) {
+        batchSize = Integer.parseInt(config.getProperty(BATCH_SIZE_PROPERTY));
+      }
+      if (config.getProperty(MAX_ATTEMPTS_PROPERTY) != null) {
+        maxAttempts =
+            Integer.parseInt(config.getProperty(MAX_ATTEMPTS_PROPERTY));
+      }
+      enabled = "true".equals(config.getProperty(ENABLED_PROPERTY));
+    }
+    return enabled;
+  }
+
+  /**
+   * Configures the queue without reading the config properties, e.g. for
+   * unit tests. Takes effect if called before the executor starts.
+   *
+   * @param delay the delay between queue passes (ms)
+   * @param batchSize the batch size
+   * @param maxAttempts the max attempts
+   */
+  static void configure(long delay, int batchSize, int maxAttempts) {
+    PostActionMaintenanceQueue.delay = delay;
+    PostActionMaintenanceQueue.batchSize = batchSize;
+    PostActionMaintenanceQueue.maxAttempts = maxAttempts;
+    enabled = true;
+  }
+
+  /**
+   * Queues the concepts for maintenance. Concepts already waiting keep their
+   * original enqueue time and take the latest user.
+   *
+   * @param projectId the project id
+   * @param conceptIds the concept ids
+   * @param userName the user name
+   */
+  public static void enqueue(Long projectId, Collection<Long> conceptIds,
+    String userName) {
+    final long now = System.currentTimeMillis();
+    synchronized (pending) {
+      startExecutor();
+      Map<Long, PendingConcept> projectPending = pending.get(projectId);
+      if (projectPending == null) {
+        projectPending = new LinkedHashMap<>();
+        pending.put(projectId, projectPending);
+      }
+      for (final Long conceptId : conceptIds) {
+        final PendingConcept concept = projectPending.get(conceptId);
+        if (concept == null) {
+          projectPending.put(conceptId, new PendingConcept(userName, now));
+        } else {
+          concept.userName = userName;
+        }
+      }
+    }
+  }
+
+  /**
+   * Start the executor, if not started yet. Callers synchronize on pending.
+   */
+  private static void startExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "post-action-maintenance");
+        thread.setDaemon(true);
+        return thread;
+      });
+      executor.scheduleWithFixedDelay(() -> processQueue(), delay, delay,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Re-queue a concept whose maintenance failed, after a backoff that doubles
+   * with each attempt. A concept that was queued again by a newer action in
+   * the meantime is left to that entry. After the max attempts the concept is
+   * moved to the failed set.
+   *
+   * @param projectId the project id
+   * @param conceptId the concept id
+   * @param concept the pending concept
+   */
+  private static void requeue(Long projectId, Long conceptId,
+    PendingConcept concept) {
+    synchronized (pending) {
+      concept.attempts++;
+      if (concept.attempts >= maxAttempts) {
+        Logger.getLogger(PostActionMaintenanceQueue.class)
+            .error("Post-action maintenance gave up on project " + projectId
+                + ", concept " + conceptId + " after " + concept.attempts
+                + " attempts");
+        if (!failed.containsKey(projectId)) {
+          failed.put(projectId, new LinkedHashMap<>());
+        }
+        failed.get(projectId).put(conceptId, concept);
+        return;
+      }
+      concept.notBefore = System.currentTimeMillis()
+          + (delay << Math.min(concept.attempts, 16));
+      if (!pending.containsKey(projectId)) {
+        pending.put(projectId, new LinkedHashMap<>());
+      }
+      pending.get(projectId).putIfAbsent(conceptId, concept);
+    }
+  }
+
+  /**
+   * Returns the concepts whose maintenance failed every attempt.
+   *
+   * @return the failed concept ids, by project id
+   */
+  public static Map<Long, Set<Long>> getFailedConceptIds() {
+    final Map<Long, Set<Long>> ids = new HashMap<>();
+    synchronized (pending) {
+      for (final Map.Entry<Long, Map<Long, PendingConcept>> entry : failed
+          .entrySet()) {
+        ids.put(entry.getKey(), new HashSet<>(entry.getValue().keySet()));
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Re-queues the concepts whose maintenance failed every attempt, e.g. after
+   * the cause has been fixed.
+   *
+   * @return the number of concepts re-queued
+   */
+  public static int retryFailed() {
+    int ct = 0;
+    synchronized (pending) {
+      startExecutor();
+      for (final Map.Entry<Long, Map<Long, PendingConcept>> entry : failed
+          .entrySet()) {
+        for (final Map.Entry<Long, PendingConcept> conceptEntry : entry
+            .getValue().entrySet()) {
+          conceptEntry.getValue().attempts = 0;
+          conceptEntry.getValue().notBefore = 0;
+          if (!pending.containsKey(entry.getKey())) {
+            pending.put(entry.getKey(), new LinkedHashMap<>());
+          }
+          pending.get(entry.getKey()).putIfAbsent(conceptEntry.getKey(),
+              conceptEntry.getValue());
+          ct++;
+        }
+      }
+      failed.clear();
+    }
+    return ct;
+  }
+
+  /**
+   * Returns the number of concepts waiting for maintenance.
+   *
+   * @return the queue depth
+   */
+  public static int getQueueDepth() {
+    synchronized (pending) {
+      int depth = 0;
+      for (final Map<Long, PendingConcept> projectPending : pending.values()) {
+        depth += projectPending.size();
+      }
+      return depth;
+    }
+  }
+
+  /**
+   * Returns the time from enqueue to commit of the oldest concept in the most
+   * recent batch.
+   *
+   * @return the latency (ms)
+   */
+  public static long getLastLatency() {
+    return lastLatency.get();
+  }
+
+  /**
+   * Returns the max latency seen.
+   *
+   * @return the max latency (ms)
+   */
+  public static long getMaxLatency() {
+    return maxLatency.get();
+  }
+
+  /**
+   * Returns the number of concepts maintained in the background.
+   *
+   * @return the processed count
+   */
+  public static long getProcessedCount() {
+    return processedCt.get();
+  }
+
+  /**
+   * Waits until all queued concepts (including those waiting to be retried)
+   * have been maintained or have failed, e.g. for an algorithm whose later
+   * steps rely on tracking record status.
+   *
+   * @param timeout the max time to wait (ms)
+   * @return <code>true</code> if the queue emptied, <code>false</code> if the
+   *         timeout passed first
+   * @throws Exception the exception
+   */
+  public static boolean awaitEmpty(long timeout) throws Exception {
+    final long deadline = System.currentTimeMillis() + timeout;
+    while (getQueueDepth() > 0 || inProgress.get() > 0) {
+      if (System.currentTimeMillis() >= deadline) {
+        return false;
+      }
+      Thread.sleep(100);
+    }
+    return true;
+  }
+
+  /**
+   * Process the queue, one batch per project at a time. Concepts waiting out
+   * a retry backoff are left for a later pass.
+   */
+  private static void processQueue() {
+    while (true) {
+      Long projectId = null;
+      final Map<Long, PendingConcept> batch = new LinkedHashMap<>();
+      synchronized (pending) {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<Long, Map<Long, PendingConcept>>> iter =
+            pending.entrySet().iterator();
+        while (iter.hasNext() && batch.isEmpty()) {
+          final Map.Entry<Long, Map<Long, PendingConcept>> entry =
+              iter.next();
+          projectId = entry.getKey();
+          final Iterator<Map.Entry<Long, PendingConcept>> conceptIter =
+              entry.getValue().entrySet().iterator();
+          while (conceptIter.hasNext() && batch.size() < batchSize) {
+            final Map.Entry<Long, PendingConcept> conceptEntry =
+                conceptIter.next();
+            if (conceptEntry.getValue().notBefore <= now) {
+              batch.put(conceptEntry.getKey(), conceptEntry.getValue());
+              conceptIter.remove();
+            }
+          }
+          if (entry.getValue().isEmpty()) {
+            iter.remove();
+          }
+        }
+        if (batch.isEmpty()) {
+          return;
+        }
+        inProgress.addAndGet(batch.size());
+      }
+
+      try {
+        batchProcessor.process(projectId, batch);
+      } catch (Exception e) {
+        Logger.getLogger(PostActionMaintenanceQueue.class)
+            .warn("Post-action maintenance failed for project " + projectId
+                + ", concepts " + batch.keySet(), e);
+        if (batch.size() == 1) {
+          final Map.Entry<Long, PendingConcept> entry =
+              batch.entrySet().iterator().next();
+          requeue(projectId, entry.getKey(), entry.getValue());
+        } else {
+          // Retry one at a time, so one bad concept does not hold up the rest
+          for (final Map.Entry<Long, PendingConcept> entry : batch
+              .entrySet()) {
+            try {
+              batchProcessor.process(projectId, Collections
+                  .singletonMap(entry.getKey(), entry.getValue()));
+            } catch (Exception e2) {
+              Logger.getLogger(PostActionMaintenanceQueue.class)
+                  .warn("Post-action maintenance failed for project "
+                      + projectId + ", concept " + entry.getKey(), e2);
+              requeue(projectId, entry.getKey(), entry.getValue());
+            }
+          }
+        }
+      } finally {
+        inProgress.addAndGet(-batch.size());
+      }
+    }
+  }
+
+  /**
+   * Maintain a batch of concepts in a single transaction.
+   *
+   * @param projectId the project id
+   * @param batch the batch
+   * @throws Exception the exception
+   */
+  private static void processBatch(Long projectId,
+    Map<Long, PendingConcept> batch) throws Exception {
+
+    // Group by user so changes are attributed as they were before
+    final Map<String, Set<Long>> userConceptIds = new LinkedHashMap<>();
+    long oldest = Long.MAX_VALUE;
+    for (final Map.Entry<Long, PendingConcept> entry : batch.entrySet()) {
+      if (!userConceptIds.containsKey(entry.getValue().userName)) {
+        userConceptIds.put(entry.getValue().userName, new HashSet<>());
+      }
+      userConceptIds.get(entry.getValue().userName).add(entry.getKey());
+      oldest = Math.min(oldest, entry.getValue().enqueued);
+    }
+
+    final WorkflowServiceJpa service = new WorkflowServiceJpa();
+    try {
+      service.setMolecularActionFlag(false);
+      service.setTransactionPerOperation(false);
+      service.beginTransaction();
+      final Project project = service.getProject(projectId);
+      for (final Map.Entry<String, Set<Long>> entry : userConceptIds
+          .entrySet()) {
+        service.setLastModifiedBy(entry.getKey());
+        maintainConcepts(service, project, entry.getValue(), true);
+      }
+      service.commit();
+    } catch (Exception e) {
+      service.rollback();
+      throw e;
+    } finally {
+      service.close();
+    }
+
+    // Drop report fragments cached before the maintenance was committed
+    ReportFragmentCache.invalidate(batch.keySet());
+
+    final long latency = System.currentTimeMillis() - oldest;
+    lastLatency.set(latency);
+    maxLatency.accumulateAndGet(latency, Math::max);
+    processedCt.addAndGet(batch.size());
+    Logger.getLogger(PostActionMaintenanceQueue.class)
+        .debug("  post-action maintenance project = " + projectId
+            + ", concepts = " + batch.size() + ", latency = " + latency
+            + " ms, depth = " + getQueueDepth());
+  }
+
+  /**
+   * Maintain the concepts within the service's current transaction: recompute
+   * the workflow status of tracking records referencing them and their
+   * preferred names, and refresh their deep relationships.
+   *
+   * @param service the service
+   * @param project the project
+   * @param conceptIds the concept ids
+   * @param backgroundFlag whether this runs after the action committed, in
+   *          which case a new preferred name does not change the concept's
+   *          last modified date (the editor would otherwise see the concept
+   *          as stale on their next action)
+   * @throws Exception the exception
+   */
+  public static void maintainConcepts(WorkflowServiceJpa service,
+    Project project, Collection<Long> conceptIds, boolean backgroundFlag)
+    throws Exception {
+
+    final List<Concept> concepts = new ArrayList<>();
+    for (final Long conceptId : conceptIds) {
+      concepts.add(service.getConcept(conceptId));
+    }
+
+    // Only concepts that exist and contain atoms will need to go through this
+    // process
+    final Set<Long> recordsSeen = new HashSet<>();
+    for (final Concept c : concepts) {
+      if (c != null && !c.getAtoms().isEmpty()) {
+
+        //
+        // Recompute tracking record workflow status
+        //
+
+        // Any tracking record that references this concept may potentially be
+        // updated.
+        final TrackingRecordList records =
+            service.findTrackingRecordsForConcept(project, c, null, null);
+
+        // Set trackingRecord to READY_FOR_PUBLICATION if all contained
+        // concepts and atoms are all set to READY_FOR_PUBLICATION.
+        if (records != null) {
+          for (final TrackingRecord record : records.getObjects()) {
+            if (!recordsSeen.contains(record.getId())) {
+              final WorkflowStatus status =
+                  service.computeTrackingRecordStatus(record, false);
+              if (record.getWorkflowStatus() != status) {
+                record.setWorkflowStatus(status);
+                service.updateTrackingRecord(record);
+              }
+              recordsSeen.add(record.getId());
+            }
+
+          }
+        }
+
+        //
+        // Recompute the concept's preferred name
+        //
+        final String name = service
+            .getComputePreferredNameHandler(c.getTerminology())
+            .computePreferredName(c.getAtoms(), service
+                .getPrecedenceList(c.getTerminology(), c.getVersion()));
+        // Skip the update (and its reindex) if the name did not change
+        if (name != null && !name.equals(c.getName())) {
+          c.setName(name);
+          final boolean lastModifiedFlag = service.isLastModifiedFlag();
+          service.setLastModifiedFlag(lastModifiedFlag && !backgroundFlag);
+          try {
+            service.updateConcept(c);
+          } finally {
+            service.setLastModifiedFlag(lastModifiedFlag);
+          }
+        }
+      }
+    }
+
+    // Keep the deep relationship projection table current (this also covers
+    // concepts removed by the action, e.g. the merged-away concept)
+    DeepRelationshipUtility.refreshConcepts(service.getEntityManager(),
+        conceptIds);
+  }
+
+  /**
+   * Maintains a batch of queued concepts.
+   */
+  interface BatchProcessor {
+
+    /**
+     * Process the batch.
+     *
+     * @param projectId the project id
+     * @param batch the batch
+     * @throws Exception the exception
+     */
+    void process(Long projectId, Map<Long, PendingConcept> batch)
+      throws Exception;
+  }
+
+  /**
+   * A queued concept.
+   */
+  static class PendingConcept {
+
+    /** The user name. */
+    String userName;
+
+    /** The enqueue time. */
+    private final long enqueued;
+
+    /** The number of failed attempts. */
+    private int attempts = 0;
+
+    /** The earliest time of the next attempt. */
+    private long notBefore = 0;
+
+    /**
+     * Instantiates a {@link PendingConcept} from the specified parameters.
+     *
+     * @param userName the user name
+     * @param enqueued the enqueued
+     */
+    public PendingConcept(String userName, long enqueued) {
+      this.userName = userName;
+      this.enqueued = enqueued;
+    }
+  }
+}
@@ -13,6 +13,7 @@ import com.wci.umls.server.AlgorithmParameter;
 import com.wci.umls.server.ValidationResult;
 import com.wci.umls.server.jpa.ValidationResultJpa;
 import com.wci.umls.server.jpa.algo.AbstractInsertMaintReleaseAlgorithm;
+import com.wci.umls.server.jpa.services.helper.DeepRelationshipUtility;
 
 /**
  * Implementation of an algorithm to rebuild the deepRels fact table
@@ -66,8 +67,9 @@ public class BuildDeepRelTablesAlgorithm
     final Session session = manager.unwrap(Session.class);    
     
     // The rebuild involves:
-    // Truncating the 2 tables
+    // Truncating the 3 tables
     // 6 separate insertion queries to be performed in sequence
+    // Insertion queries for the deep relationship projection table
 
     String query = "TRUNCATE TABLE deep_atom_relationships;";
     logInfo("Performing: " + query);
@@ -124,6 +126,20 @@ public class BuildDeepRelTablesAlgorithm
     jpaQuery = getEntityManager().createNativeQuery(query);
     jpaQuery.executeUpdate();
 
+    query = "TRUNCATE TABLE " + DeepRelationshipUtility.TABLE + ";";
+    logInfo("Performing: " + query);
+    commitClearBegin();
+    jpaQuery = getEntityManager().createNativeQuery(query);
+    jpaQuery.executeUpdate();
+
+    for (final String insert : DeepRelationshipUtility
+        .getInsertQueries(false)) {
+      logInfo("Performing: " + insert);
+      commitClearBegin();
+      jpaQuery = getEntityManager().createNativeQuery(insert);
+      jpaQuery.executeUpdate();
+    }
+
     commitClearBegin();
 
     logInfo("Finished " + getName());
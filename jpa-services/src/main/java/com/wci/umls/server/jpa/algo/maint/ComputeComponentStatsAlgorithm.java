@@ -0,0 +1,95 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.algo.maint;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import com.wci.umls.server.AlgorithmParameter;
+import com.wci.umls.server.ValidationResult;
+import com.wci.umls.server.jpa.ValidationResultJpa;
+import com.wci.umls.server.jpa.algo.AbstractInsertMaintReleaseAlgorithm;
+import com.wci.umls.server.jpa.services.helper.ComponentStatsUtility;
+
+/**
+ * Implementation of an algorithm to recompute the maintained component stats
+ * for all terminologies, reconciling any drift from incremental updates.
+ */
+public class ComputeComponentStatsAlgorithm
+    extends AbstractInsertMaintReleaseAlgorithm {
+
+  /**
+   * Instantiates an empty {@link ComputeComponentStatsAlgorithm}.
+   *
+   * @throws Exception if anything goes wrong
+   */
+  public ComputeComponentStatsAlgorithm() throws Exception {
+    super();
+    setActivityId(UUID.randomUUID().toString());
+    setWorkId("COMPONENTSTATS");
+    setLastModifiedBy("admin");
+  }
+
+  /* see superclass */
+  @Override
+  public ValidationResult checkPreconditions() throws Exception {
+    final ValidationResult validationResult = new ValidationResultJpa();
+    if (!ComponentStatsUtility.isEnabled()) {
+      validationResult.addError("Component stats table is not enabled: "
+          + ComponentStatsUtility.ENABLED_PROPERTY);
+    }
+    return validationResult;
+  }
+
+  /* see superclass */
+  @Override
+  public void compute() throws Exception {
+    logInfo("Starting " + getName());
+    fireProgressEvent(0, "Starting...");
+
+    // No Molecular actions will be generated by this algorithm
+    setMolecularActionFlag(false);
+
+    commitClearBegin();
+    ComponentStatsUtility.recompute(getEntityManager(), null, null);
+    commitClearBegin();
+
+    fireProgressEvent(100, "Finished");
+    logInfo("Finished " + getName());
+  }
+
+  /* see superclass */
+  @Override
+  public void reset() throws Exception {
+    logInfo("Starting RESET " + getName());
+    // n/a - No reset
+    logInfo("Finished RESET " + getName());
+  }
+
+  /* see superclass */
+  @Override
+  public void checkProperties(Properties p) throws Exception {
+    // n/a
+  }
+
+  /* see superclass */
+  @Override
+  public void setProperties(Properties p) throws Exception {
+    // n/a
+  }
+
+  /* see superclass */
+  @Override
+  public List<AlgorithmParameter> getParameters() throws Exception {
+    return super.getParameters();
+  }
+
+  /* see superclass */
+  @Override
+  public String getDescription() {
+    return "Recompute the component stats table";
+  }
+
+}
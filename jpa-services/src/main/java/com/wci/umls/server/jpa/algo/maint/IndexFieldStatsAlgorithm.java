@@ -0,0 +1,203 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.algo.maint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.hibernate.search.SearchFactory;
+import org.hibernate.search.annotations.Indexed;
+import org.hibernate.search.jpa.Search;
+import org.reflections.Reflections;
+
+import com.wci.umls.server.AlgorithmParameter;
+import com.wci.umls.server.ValidationResult;
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.jpa.AlgorithmParameterJpa;
+import com.wci.umls.server.jpa.ValidationResultJpa;
+import com.wci.umls.server.jpa.algo.AbstractInsertMaintReleaseAlgorithm;
+
+/**
+ * Implementation of an algorithm to report the size of the lucene index of
+ * each indexed class, per field: the number of documents with the field,
+ * distinct terms, term bytes, postings (term/document pairs) and positions.
+ * Postings and positions dominate the index size, so their share of the
+ * index's total is reported too, to weigh the fields of an index profile
+ * (e.g. the "index.atom.fields" properties) against their cost.
+ */
+public class IndexFieldStatsAlgorithm
+    extends AbstractInsertMaintReleaseAlgorithm {
+
+  /** The indexed objects. */
+  private String indexedObjects;
+
+  /**
+   * Instantiates an empty {@link IndexFieldStatsAlgorithm}.
+   *
+   * @throws Exception if anything goes wrong
+   */
+  public IndexFieldStatsAlgorithm() throws Exception {
+    super();
+    setActivityId(UUID.randomUUID().toString());
+    setWorkId("INDEXSTATS");
+    setLastModifiedBy("admin");
+  }
+
+  /**
+   * Sets the indexed objects.
+   *
+   * @param indexedObjects the indexed objects
+   */
+  public void setIndexedObjects(String indexedObjects) {
+    this.indexedObjects = indexedObjects;
+  }
+
+  /* see superclass */
+  @Override
+  public ValidationResult checkPreconditions() throws Exception {
+    return new ValidationResultJpa();
+  }
+
+  /* see superclass */
+  @Override
+  public void compute() throws Exception {
+    logInfo("Starting " + getName());
+    fireProgressEvent(0, "Starting...");
+
+    // Collect the classes, all indexed classes by default
+    final Set<String> objects = new HashSet<>();
+    if (!ConfigUtility.isEmpty(indexedObjects)) {
+      objects.addAll(
+          Arrays.asList(indexedObjects.replaceAll(" ", "").split(",")));
+    }
+    final List<Class<?>> classes = new ArrayList<>();
+    for (final Class<?> clazz : new Reflections()
+        .getTypesAnnotatedWith(Indexed.class)) {
+      if (objects.isEmpty() || objects.contains(clazz.getSimpleName())) {
+        classes.add(clazz);
+      }
+    }
+
+    final SearchFactory searchFactory =
+        Search.getFullTextEntityManager(getEntityManager())
+            .getSearchFactory();
+    int i = 0;
+    for (final Class<?> clazz : classes) {
+      checkCancel();
+      final IndexReader reader =
+          searchFactory.getIndexReaderAccessor().open(clazz);
+      try {
+        logStats(clazz, reader);
+      } finally {
+        searchFactory.getIndexReaderAccessor().close(reader);
+      }
+      fireProgressEvent((int) (++i * 100.0 / classes.size()),
+          clazz.getSimpleName());
+    }
+
+    fireProgressEvent(100, "Finished");
+    logInfo("Finished " + getName());
+  }
+
+  /**
+   * Log the field stats of an index.
+   *
+   * @param clazz the clazz
+   * @param reader the reader
+   * @throws Exception the exception
+   */
+  private void logStats(Class<?> clazz, IndexReader reader) throws Exception {
+    logInfo("  " + clazz.getSimpleName() + " docs = " + reader.numDocs()
+        + ", deleted = " + reader.numDeletedDocs());
+    final Fields fields = MultiFields.getFields(reader);
+    if (fields == null) {
+      return;
+    }
+
+    // Gather per field stats: docs, terms, term bytes, postings, positions
+    final Map<String, long[]> stats = new TreeMap<>();
+    long total = 0;
+    for (final String field : fields) {
+      final Terms terms = fields.terms(field);
+      if (terms == null) {
+        continue;
+      }
+      long termCt = 0;
+      long termBytes = 0;
+      final TermsEnum termsEnum = terms.iterator(null);
+      BytesRef term;
+      while ((term = termsEnum.next()) != null) {
+        termCt++;
+        termBytes += term.length;
+      }
+      final long[] fieldStats = new long[] {
+          terms.getDocCount(), termCt, termBytes, terms.getSumDocFreq(),
+          Math.max(0, terms.getSumTotalTermFreq())
+      };
+      stats.put(field, fieldStats);
+      total += fieldStats[3] + fieldStats[4];
+    }
+
+    logInfo("    field\tdocs\tterms\tterm bytes\tpostings\tpositions\t%");
+    for (final Map.Entry<String, long[]> entry : stats.entrySet()) {
+      final long[] s = entry.getValue();
+      final double pct =
+          total == 0 ? 0 : Math.round((s[3] + s[4]) * 1000.0 / total) / 10.0;
+      logInfo("    " + entry.getKey() + "\t" + s[0] + "\t" + s[1] + "\t"
+          + s[2] + "\t" + s[3] + "\t" + s[4] + "\t" + pct);
+    }
+  }
+
+  /* see superclass */
+  @Override
+  public void reset() throws Exception {
+    logInfo("Starting RESET " + getName());
+    // n/a - No reset
+    logInfo("Finished RESET " + getName());
+  }
+
+  /* see superclass */
+  @Override
+  public void checkProperties(Properties p) throws Exception {
+    // n/a
+  }
+
+  /* see superclass */
+  @Override
+  public void setProperties(Properties p) throws Exception {
+    if (p.getProperty("indexedObjects") != null) {
+      indexedObjects = p.getProperty("indexedObjects");
+    }
+  }
+
+  /* see superclass */
+  @Override
+  public List<AlgorithmParameter> getParameters() throws Exception {
+    final List<AlgorithmParameter> params = super.getParameters();
+    params.add(new AlgorithmParameterJpa("Indexed Objects", "indexedObjects",
+        "Comma-separated list of simple object class names to report on.", "",
+        255, AlgorithmParameter.Type.STRING, ""));
+    return params;
+  }
+
+  /* see superclass */
+  @Override
+  public String getDescription() {
+    return "Report lucene index size per field";
+  }
+
+}
@@ -95,7 +95,7 @@ public class LexicalClassAssignmentAlgorithm extends AbstractAlgorithm {
       fireProgressEvent(10, "Collect atoms");
 
       // 1. Rank all atoms in (project) precedence order and iterate through
-      final Map<Long, String> atomRankMap = new HashMap<>(20000);
+      final Map<Long, Long> atomRankMap = new HashMap<>(20000);
       // Normalization is only for English
       final List<Long> atomIds = executeSingleComponentIdQuery(
           "select a.id from ConceptJpa c join c.atoms a where c.terminology = :terminology "
@@ -113,7 +113,7 @@ public class LexicalClassAssignmentAlgorithm extends AbstractAlgorithm {
       ct = 0;
       for (final Long atomId : atomIds) {
         final Atom atom = getAtom(atomId);
-        final String rank = new String(prefHandler.getRank(atom, list));
+        final long rank = prefHandler.getPackedRank(atom, list);
         Long id = new Long(atom.getId());
         atomRankMap.put(id, rank);
         logAndCommit(++ct, RootService.logCt, RootService.commitCt);
@@ -122,8 +122,11 @@ public class LexicalClassAssignmentAlgorithm extends AbstractAlgorithm {
       fireProgressEvent(20, "Assign LUIs");
 
       // Sort all atoms
-      Collections.sort(atomIds,
-          (a1, a2) -> atomRankMap.get(a1).compareTo(atomRankMap.get(a2)));
+      // (ties by descending id, same order as the previous string ranks)
+      Collections.sort(atomIds, (a1, a2) -> {
+        final int result = atomRankMap.get(a1).compareTo(atomRankMap.get(a2));
+        return result != 0 ? result : a2.compareTo(a1);
+      });
 
       // Clear memory.
       atomRankMap.clear();
@@ -15,6 +15,7 @@ import com.wci.umls.server.jpa.ValidationResultJpa;
 import com.wci.umls.server.jpa.algo.AbstractAlgorithm;
 import com.wci.umls.server.jpa.algo.action.AbstractMolecularAction;
 import com.wci.umls.server.jpa.algo.action.ApproveMolecularAction;
+import com.wci.umls.server.jpa.algo.action.PostActionMaintenanceQueue;
 import com.wci.umls.server.jpa.algo.action.UpdateConceptMolecularAction;
 import com.wci.umls.server.model.content.Concept;
 import com.wci.umls.server.model.workflow.Checklist;
@@ -162,6 +163,14 @@ public class StampingAlgorithm extends AbstractAlgorithm {
         }
       }
 
+      // Make sure tracking records reflect the stamped concepts
+      if (PostActionMaintenanceQueue.isEnabled()
+          && !PostActionMaintenanceQueue.awaitEmpty(10 * 60 * 1000)) {
+        logWarn("  post-action maintenance still running, tracking record"
+            + " status may lag, queue depth = "
+            + PostActionMaintenanceQueue.getQueueDepth());
+      }
+
       logInfo("  project = " + getProject().getId());
       logInfo("  workId = " + getWorkId());
       logInfo("  activityId = " + getActivityId());
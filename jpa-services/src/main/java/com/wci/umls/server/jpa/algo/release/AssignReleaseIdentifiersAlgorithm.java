@@ -105,7 +105,7 @@ public class AssignReleaseIdentifiersAlgorithm extends AbstractAlgorithm {
     // Rank all atoms
 
     // 1. Rank all atoms in (project) precedence order and iterate through
-    final Map<Long, String> atomRankMap = new HashMap<>(20000);
+    final Map<Long, Long> atomRankMap = new HashMap<>(20000);
     final Map<Long, Long> atomConceptMap = new HashMap<>(20000);
     // Get conceptId/atomId - unpublishable concepts need CUI assignments also
     final javax.persistence.Query query = manager
@@ -130,7 +130,7 @@ public class AssignReleaseIdentifiersAlgorithm extends AbstractAlgorithm {
     for (final Object[] result : ids) {
       final Atom atom = getAtom(Long.valueOf(result[1].toString()));
       final Long conceptId = Long.valueOf(result[0].toString());
-      final String rank = new String(prefHandler.getRank(atom, list));
+      final long rank = prefHandler.getPackedRank(atom, list);
       final Long id = new Long(atom.getId());
       atomRankMap.put(id, rank);
       atomConceptMap.put(atom.getId(), conceptId);
@@ -139,8 +139,11 @@ public class AssignReleaseIdentifiersAlgorithm extends AbstractAlgorithm {
     }
 
     // Sort all atoms
-    Collections.sort(atomIds,
-        (a1, a2) -> atomRankMap.get(a1).compareTo(atomRankMap.get(a2)));
+    // (ties by descending id, same order as the previous string ranks)
+    Collections.sort(atomIds, (a1, a2) -> {
+      final int result = atomRankMap.get(a1).compareTo(atomRankMap.get(a2));
+      return result != 0 ? result : a2.compareTo(a1);
+    });
     // Clear memory.
     atomRankMap.clear();
     updateProgress();
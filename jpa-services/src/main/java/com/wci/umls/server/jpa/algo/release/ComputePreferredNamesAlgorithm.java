@@ -3,9 +3,19 @@
  */
 package com.wci.umls.server.jpa.algo.release;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.hibernate.search.jpa.FullTextEntityManager;
+import org.hibernate.search.jpa.Search;
 
 import com.wci.umls.server.ValidationResult;
 import com.wci.umls.server.helpers.ConfigUtility;
@@ -16,16 +26,24 @@ import com.wci.umls.server.jpa.algo.AbstractAlgorithm;
 import com.wci.umls.server.jpa.content.ConceptJpa;
 import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.Concept;
-import com.wci.umls.server.services.RootService;
 import com.wci.umls.server.services.handlers.ComputePreferredNameHandler;
 
 /**
  * Algorithm for computing preferred names and publication status for a project
- * terminology. TODO: change this package to "rel" => "release (fix config
- * files)
+ * terminology. Concepts are partitioned into id batches that worker threads
+ * load (with their atoms) and evaluate in parallel; only changed concepts are
+ * written back and reindexed. TODO: change this package to "rel" => "release
+ * (fix config files)
  */
 public class ComputePreferredNamesAlgorithm extends AbstractAlgorithm {
 
+  /** The number of worker threads. */
+  private int threadCt =
+      Math.min(8, Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+  /** The number of concepts per batch. */
+  private int batchSize = 1000;
+
   /**
    * Instantiates an empty {@link ComputePreferredNamesAlgorithm}.
    *
@@ -66,6 +84,8 @@ public class ComputePreferredNamesAlgorithm extends AbstractAlgorithm {
   @Override
   public void compute() throws Exception {
     logInfo("Starting " + getName());
+    logInfo("  threads = " + threadCt);
+    logInfo("  batch size = " + batchSize);
 
     // Configure algorithm
     final ComputePreferredNameHandler handler =
@@ -73,6 +93,8 @@ public class ComputePreferredNamesAlgorithm extends AbstractAlgorithm {
     setMolecularActionFlag(false);
     final PrecedenceList list = getPrecedenceList(getProject().getTerminology(),
         getProject().getVersion());
+    // Cache the list in the (shared) handler before the workers use it
+    handler.computePreferredName(new ArrayList<>(), list);
 
     // 1. Collect all atoms from project concepts
     // Normalization is only for English
@@ -83,64 +105,127 @@ public class ComputePreferredNamesAlgorithm extends AbstractAlgorithm {
         false);
     commitClearBegin();
 
-    // Iterate through each concept
-    int objectCt = 0;
-    int updatedCt = 0;
-    int prevProgress = 0;
-    int totalCt = conceptIds.size();
-    final int progressCheck = (int) (totalCt / 200.0) + 1;
-    for (final Long id : conceptIds) {
-      final Concept concept = getConcept(id);
-
-      // if something changed, update the concept
-      if (isChanged(concept, handler, list)) {
-        updateConcept(concept);
-        // // Reindex the concept relationships because the name changed
-        // for (final ConceptRelationship rel : concept.getRelationships()) {
-        // updateRelationship(rel);
-        // }
-        // for (final ConceptRelationship rel : concept
-        // .getInverseRelationships()) {
-        // updateRelationship(rel);
-        // }
-        updatedCt++;
-      }
+    // Partition into id ranges
+    final List<Long> sortedIds = new ArrayList<>(conceptIds);
+    Collections.sort(sortedIds);
+    final List<List<Long>> batches = new ArrayList<>();
+    for (int i = 0; i < sortedIds.size(); i += batchSize) {
+      batches.add(
+          sortedIds.subList(i, Math.min(i + batchSize, sortedIds.size())));
+    }
+
+    // 2. Compute names in parallel, each worker with its own entity manager
+    final AtomicInteger nextBatch = new AtomicInteger(0);
+    final AtomicInteger objectCt = new AtomicInteger(0);
+    final List<ConceptChange> changes =
+        Collections.synchronizedList(new ArrayList<>());
+    final Thread[] threads = new Thread[threadCt];
+    final Exception[] exceptions = new Exception[threadCt];
+    for (int i = 0; i < threadCt; i++) {
+      final int index = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          ComputePreferredNamesAlgorithm service = null;
+          try {
+            service = new ComputePreferredNamesAlgorithm();
+            service.setTransactionPerOperation(false);
+            service.beginTransaction();
+            final EntityManager workerManager = service.getEntityManager();
+
+            int batch;
+            while ((batch = nextBatch.getAndIncrement()) < batches.size()) {
+              checkCancel();
+              @SuppressWarnings("unchecked")
+              final List<Concept> concepts = workerManager
+                  .createQuery("select distinct c from ConceptJpa c "
+                      + "left join fetch c.atoms where c.id in (:ids)")
+                  .setParameter("ids", batches.get(batch)).getResultList();
+              for (final Concept concept : concepts) {
+                final ConceptChange change = getChange(concept, handler, list);
+                if (change != null) {
+                  changes.add(change);
+                }
+              }
+              objectCt.addAndGet(batches.get(batch).size());
+              // Nothing was modified, just release the batch
+              workerManager.clear();
+            }
+            service.rollback();
+          } catch (Exception e) {
+            exceptions[index] = e;
+          } finally {
+            try {
+              if (service != null) {
+                service.close();
+              }
+            } catch (Exception e) {
+              exceptions[index] = e;
+            }
+          }
+        }
+      });
+      threads[i].start();
+    }
 
-      // progress/cancel
-      if (objectCt % progressCheck == 0) {
-        int currentProgress = (int) ((100.0 * objectCt / totalCt));
+    // Wait for threads, reporting progress (computing is most of the work)
+    int prevProgress = 0;
+    for (final Thread thread : threads) {
+      while (thread.isAlive()) {
+        thread.join(1000);
+        final int currentProgress =
+            (int) ((80.0 * objectCt.get() / Math.max(1, conceptIds.size())));
         if (currentProgress > prevProgress) {
           fireProgressEvent(currentProgress,
               "Progress: " + currentProgress + "%");
           prevProgress = currentProgress;
         }
-        checkCancel();
       }
+    }
 
-      // log/commit
-      logAndCommit(objectCt++, RootService.logCt, RootService.commitCt);
+    // Report exceptions
+    for (final Exception e : exceptions) {
+      if (e != null) {
+        throw e;
+      }
+    }
+    checkCancel();
 
+    // 3. Write only the changed concepts back, in bulk
+    final List<Long> changedIds = new ArrayList<>(changes.size());
+    for (int i = 0; i < changes.size(); i += batchSize) {
+      final List<ConceptChange> batch =
+          changes.subList(i, Math.min(i + batchSize, changes.size()));
+      updateConcepts(batch);
+      for (final ConceptChange change : batch) {
+        changedIds.add(change.id);
+      }
+      commitClearBegin();
     }
-    commitClearBegin();
+    fireProgressEvent(90, "Progress: 90%");
+
+    // 4. Reindex the changed concepts (bulk updates bypass Hibernate Search)
+    reindexConcepts(changedIds);
 
     fireProgressEvent(100, "Finished - 100%");
-    logInfo("  concept count = " + objectCt);
-    logInfo("  concepts updated = " + updatedCt);
+    logInfo("  concept count = " + objectCt.get());
+    logInfo("  concepts updated = " + changes.size());
     logInfo("Finished " + getName());
 
   }
 
   /**
-   * Helper.
+   * Returns the change to the concept preferred name and publishable flag, or
+   * null if nothing changed. The concept itself is not modified.
    *
    * @param concept the concept
    * @param handler the handler
    * @param list the list
-   * @return true, if successful
+   * @return the change
    * @throws Exception the exception
    */
   @SuppressWarnings("static-method")
-  private boolean isChanged(Concept concept,
+  private ConceptChange getChange(Concept concept,
     ComputePreferredNameHandler handler, PrecedenceList list) throws Exception {
 
     // Calculate publishable
@@ -155,10 +240,10 @@ public class ComputePreferredNamesAlgorithm extends AbstractAlgorithm {
     }
     if (concept.isPublishable() != publishable) {
       updateConcept = true;
-      concept.setPublishable(publishable);
     }
 
     // If there are atoms, recompute the preferred name
+    String name = concept.getName();
     if (hasAtoms) {
       final String computedName =
           handler.computePreferredName(concept.getAtoms(), list);
@@ -169,11 +254,74 @@ public class ComputePreferredNamesAlgorithm extends AbstractAlgorithm {
 
       if (!computedName.equals(concept.getName())) {
         updateConcept = true;
-        concept.setName(computedName);
+        name = computedName;
       }
     }
 
-    return updateConcept;
+    return updateConcept ? new ConceptChange(concept.getId(), name, publishable)
+        : null;
+  }
+
+  /**
+   * Update the concepts with a single UPDATE ... CASE statement.
+   *
+   * @param batch the batch
+   * @throws Exception the exception
+   */
+  private void updateConcepts(List<ConceptChange> batch) throws Exception {
+    final StringBuilder names = new StringBuilder();
+    final StringBuilder publishables = new StringBuilder();
+    final StringBuilder ids = new StringBuilder();
+    for (int i = 0; i < batch.size(); i++) {
+      names.append(" WHEN :id").append(i).append(" THEN :name").append(i);
+      publishables.append(" WHEN :id").append(i).append(" THEN :publishable")
+          .append(i);
+      ids.append(i == 0 ? "" : ", ").append(":id").append(i);
+    }
+    final Query query = getEntityManager()
+        .createNativeQuery("UPDATE concepts SET name = CASE id" + names
+            + " END, publishable = CASE id" + publishables + " END"
+            + (isLastModifiedFlag()
+                ? ", lastModified = :lastModified, "
+                    + "lastModifiedBy = :lastModifiedBy"
+                : "")
+            + " WHERE id IN (" + ids + ")");
+    for (int i = 0; i < batch.size(); i++) {
+      final ConceptChange change = batch.get(i);
+      query.setParameter("id" + i, change.id);
+      query.setParameter("name" + i, change.name);
+      query.setParameter("publishable" + i, change.publishable);
+    }
+    if (isLastModifiedFlag()) {
+      query.setParameter("lastModified", new Date());
+      query.setParameter("lastModifiedBy", getLastModifiedBy());
+    }
+    query.executeUpdate();
+  }
+
+  /**
+   * Reindex the concepts.
+   *
+   * @param ids the ids
+   * @throws Exception the exception
+   */
+  private void reindexConcepts(List<Long> ids) throws Exception {
+    final FullTextEntityManager fullTextEntityManager =
+        Search.getFullTextEntityManager(getEntityManager());
+    for (int i = 0; i < ids.size(); i += batchSize) {
+      checkCancel();
+      @SuppressWarnings("unchecked")
+      final List<Concept> concepts = getEntityManager()
+          .createQuery("select c from ConceptJpa c where c.id in (:ids)")
+          .setParameter("ids",
+              ids.subList(i, Math.min(i + batchSize, ids.size())))
+          .getResultList();
+      for (final Concept concept : concepts) {
+        fullTextEntityManager.index(concept);
+      }
+      fullTextEntityManager.flushToIndexes();
+      commitClearBegin();
+    }
   }
 
   /* see superclass */
@@ -195,7 +343,12 @@ public class ComputePreferredNamesAlgorithm extends AbstractAlgorithm {
   /* see superclass */
   @Override
   public void setProperties(Properties p) throws Exception {
-    // n/a
+    if (p.getProperty("threadCt") != null) {
+      threadCt = Integer.parseInt(p.getProperty("threadCt"));
+    }
+    if (p.getProperty("batchSize") != null) {
+      batchSize = Integer.parseInt(p.getProperty("batchSize"));
+    }
   }
 
   /* see superclass */
@@ -203,4 +356,32 @@ public class ComputePreferredNamesAlgorithm extends AbstractAlgorithm {
   public String getDescription() {
     return ConfigUtility.getNameFromClass(getClass());
   }
+
+  /**
+   * A computed change to a concept.
+   */
+  private static class ConceptChange {
+
+    /** The concept id. */
+    private final Long id;
+
+    /** The preferred name. */
+    private final String name;
+
+    /** The publishable flag. */
+    private final boolean publishable;
+
+    /**
+     * Instantiates a {@link ConceptChange} from the specified parameters.
+     *
+     * @param id the id
+     * @param name the name
+     * @param publishable the publishable
+     */
+    public ConceptChange(Long id, String name, boolean publishable) {
+      this.id = id;
+      this.name = name;
+      this.publishable = publishable;
+    }
+  }
 }
@@ -3,9 +3,11 @@
  */
 package com.wci.umls.server.jpa.algo.release;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -13,9 +15,15 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.persistence.Query;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
 import com.google.common.io.Files;
 import com.wci.umls.server.ValidationResult;
 import com.wci.umls.server.helpers.ConfigUtility;
@@ -23,13 +31,13 @@ import com.wci.umls.server.helpers.FieldedStringTokenizer;
 import com.wci.umls.server.jpa.ValidationResultJpa;
 import com.wci.umls.server.jpa.algo.AbstractInsertMaintReleaseAlgorithm;
 import com.wci.umls.server.jpa.algo.FileSorter;
-import com.wci.umls.server.model.content.Atom;
-import com.wci.umls.server.model.content.Concept;
 import com.wci.umls.server.model.meta.Language;
 import com.wci.umls.server.services.handlers.NormalizedStringHandler;
 
 /**
- * Algorithm to write the RRF index files.
+ * Algorithm to write the RRF index files. Atom tuples are streamed with a
+ * single projection query and tokenized/normalized by worker threads; the
+ * files are then externally sorted, which also removes duplicate rows.
  */
 public class WriteRrfIndexFilesAlgorithm
     extends AbstractInsertMaintReleaseAlgorithm {
@@ -40,6 +48,13 @@ public class WriteRrfIndexFilesAlgorithm
   /** The dir. */
   private File dir = null;
 
+  /** The number of worker threads. */
+  private int threadCt =
+      Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+  /** The number of rows handed to a worker at a time. */
+  private static final int CHUNK_SIZE = 5000;
+
   /**
    * Instantiates an empty {@link WriteRrfIndexFilesAlgorithm}.
    *
@@ -61,123 +76,173 @@ public class WriteRrfIndexFilesAlgorithm
   @Override
   public void compute() throws Exception {
     logInfo("Starting " + getName());
+    logInfo("  threads = " + threadCt);
 
     openWriters();
 
     // initialize progress monitoring
-    Query query = manager.createQuery("select count(*) from ConceptJpa c "
+    final Query query = manager.createQuery("select count(*) from ConceptJpa c "
         + "where c.publishable = true and terminology = :terminology");
     query.setParameter("terminology", getProject().getTerminology());
-    setSteps(Integer.parseInt(query.getSingleResult().toString()));
+    final int totalCt = Integer.parseInt(query.getSingleResult().toString());
 
     final NormalizedStringHandler handler = getNormalizedStringHandler();
 
-    // process one concept at a time
-    query = getEntityManager().createQuery(
-        "select a.id from ConceptJpa a WHERE a.publishable = true and "
-            + "terminology = :terminology order by a.terminologyId");
-    query.setParameter("terminology", getProject().getTerminology());
-    @SuppressWarnings("unchecked")
-    final List<Long> conceptIds = query.getResultList();
-    for (final Long conceptId : conceptIds) {
-      final Concept c = getConcept(conceptId);
-
-      // caching to support only unique rows in output
-      final Set<String> seen = new HashSet<>();
-      final Set<String> wordsSeen = new HashSet<>();
-
-      for (final Atom atom : c.getAtoms()) {
-        if (atom.isPublishable()) {
-
-          // MRXNS_ENG.RRF
-
-          // 0 LAT Abbreviation of language of the string (always ENG in this
-          // edition of the Metathesaurus)
-          // 1 NSTR Normalized string in lowercase
-          // 2 CUI Concept identifier
-          // 3 LUI Term identifier
-          // 4 SUI String identifier
-          final String normalizedString =
-              handler.getNormalizedString(atom.getName());
-
-          if (atom.getLanguage().equals("ENG")
-              && !seen.contains("MRXNS" + atom.getStringClassId())
-              && !ConfigUtility.isEmpty(normalizedString)) {
-
-            final StringBuilder sb = new StringBuilder();
-            // 0 LAT
-            sb.append("ENG").append("|");
-            // 1 NSTR
-            sb.append(normalizedString).append("|");
-            // 2 CUI
-            sb.append(c.getTerminologyId()).append("|");
-            // 3 LUI
-            sb.append(atom.getLexicalClassId()).append("|");
-            // 4 SUI
-            sb.append(atom.getStringClassId()).append("|");
-            sb.append("\n");
-            writerMap.get("MRXNS_ENG.RRF").write(sb.toString());
-            seen.add("MRXNS" + atom.getStringClassId());
-
-            // MRXNW_ENG.RRF
-            for (final String word : FieldedStringTokenizer
-                .split(normalizedString, ConfigUtility.PUNCTUATION)) {
-              
-              if (!ConfigUtility.isEmpty(word) && !wordsSeen
-                  .contains("MRXNW" + word + atom.getStringClassId())) {
-                final StringBuilder sb2 = new StringBuilder();
-                // 0 LAT
-                sb2.append("ENG").append("|");
-                // 1 WORD
-                sb2.append(word).append("|");
-                // 2 CUI
-                sb2.append(c.getTerminologyId()).append("|");
-                // 3 LUI
-                sb2.append(atom.getLexicalClassId()).append("|");
-                // 4 SUI
-                sb2.append(atom.getStringClassId()).append("|");
-                sb2.append("\n");
-                writerMap.get("MRXNW_ENG.RRF").write(sb2.toString());
-                wordsSeen.add("MRXNW" + word + atom.getStringClassId());
+    // Workers tokenize and normalize chunks of rows; an empty chunk is the
+    // signal to stop
+    final BlockingQueue<List<Object[]>> queue =
+        new ArrayBlockingQueue<>(threadCt * 2);
+    final Thread[] threads = new Thread[threadCt];
+    final Exception[] exceptions = new Exception[threadCt];
+    for (int i = 0; i < threadCt; i++) {
+      final int index = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            List<Object[]> chunk;
+            while (!(chunk = queue.take()).isEmpty()) {
+              for (final Object[] row : chunk) {
+                writeRows(row, handler);
               }
             }
-          }
-
-          if (!seen.contains("MRXW" + atom.getStringClassId())) {
-            // for all languages write MRXW_<language>.RRF
-            for (final String word : FieldedStringTokenizer
-                .split(atom.getName(), ConfigUtility.PUNCTUATION)) {
-              if (!ConfigUtility.isEmpty(word) && !wordsSeen.
-                  contains("MRXW_" + atom.getLanguage() + word
-                  + atom.getStringClassId())) {
-                final StringBuilder sb = new StringBuilder();
-                // 0 LAT
-                sb.append(atom.getLanguage()).append("|");
-                // 1 WORD
-                sb.append(word).append("|");
-                // 2 CUI
-                sb.append(c.getTerminologyId()).append("|");
-                // 3 LUI
-                sb.append(atom.getLexicalClassId()).append("|");
-                // 4 SUI
-                sb.append(atom.getStringClassId()).append("|");
-                sb.append("\n");
-                writerMap.get("MRXW_" + atom.getLanguage() + ".RRF")
-                    .write(sb.toString());
-                wordsSeen.add("MRXW_" + atom.getLanguage() + word
-                    + atom.getStringClassId());
+          } catch (Exception e) {
+            exceptions[index] = e;
+            // Keep draining so the reader is never blocked
+            try {
+              while (!queue.take().isEmpty()) {
+                // n/a
               }
+            } catch (InterruptedException e2) {
+              // n/a
             }
-            seen.add("MRXW" + atom.getStringClassId());
           }
         }
+      });
+      threads[i].start();
+    }
+
+    // Stream (SUI, LUI, CUI, LAT, name) tuples of publishable atoms
+    final Session session = manager.unwrap(Session.class);
+    final org.hibernate.Query hQuery = session.createQuery(
+        "select a.stringClassId, a.lexicalClassId, c.terminologyId, "
+            + "a.language, a.name, c.id from ConceptJpa c join c.atoms a "
+            + "where c.publishable = true and c.terminology = :terminology "
+            + "and a.publishable = true order by c.id");
+    hQuery.setParameter("terminology", getProject().getTerminology());
+    hQuery.setReadOnly(true).setFetchSize(2000).setCacheable(false);
+    final ScrollableResults results = hQuery.scroll(ScrollMode.FORWARD_ONLY);
+
+    // Only the first atom of each string in a concept produces rows
+    final Set<String> seen = new HashSet<>();
+    Long prevConceptId = null;
+    int objectCt = 0;
+    int prevProgress = 0;
+    List<Object[]> chunk = new ArrayList<>(CHUNK_SIZE);
+    try {
+      while (results.next()) {
+        final Object[] row = results.get();
+        final Long conceptId = (Long) row[5];
+        if (!conceptId.equals(prevConceptId)) {
+          seen.clear();
+          prevConceptId = conceptId;
+          objectCt++;
+          final int currentProgress = (int) ((100.0 * objectCt / totalCt));
+          if (currentProgress > prevProgress) {
+            checkCancel();
+            fireProgressEvent(currentProgress,
+                "Progress: " + currentProgress + "%");
+            prevProgress = currentProgress;
+          }
+        }
+        if (!seen.add((String) row[0])) {
+          continue;
+        }
+        chunk.add(row);
+        if (chunk.size() == CHUNK_SIZE) {
+          queue.put(chunk);
+          chunk = new ArrayList<>(CHUNK_SIZE);
+        }
+      }
+      if (!chunk.isEmpty()) {
+        queue.put(chunk);
+      }
+    } finally {
+      results.close();
+      // Stop the workers
+      for (int i = 0; i < threadCt; i++) {
+        queue.put(new ArrayList<>());
+      }
+      for (final Thread thread : threads) {
+        thread.join();
+      }
+    }
+
+    // Report exceptions
+    for (final Exception e : exceptions) {
+      if (e != null) {
+        throw e;
       }
-      updateProgress();
     }
+
     closeWriters();
     logInfo("Finished " + getName());
   }
 
+  /**
+   * Write the index file rows for one (SUI, LUI, CUI, LAT, name) tuple.
+   * Duplicate rows are removed when the files are sorted.
+   *
+   * @param row the row
+   * @param handler the handler
+   * @throws Exception the exception
+   */
+  private void writeRows(Object[] row, NormalizedStringHandler handler)
+    throws Exception {
+    final String sui = (String) row[0];
+    final String lui = (String) row[1];
+    final String cui = (String) row[2];
+    final String language = (String) row[3];
+    final String name = (String) row[4];
+    final String suffix = "|" + cui + "|" + lui + "|" + sui + "|\n";
+
+    if (language.equals("ENG")) {
+      // MRXNS_ENG.RRF
+
+      // 0 LAT Abbreviation of language of the string (always ENG in this
+      // edition of the Metathesaurus)
+      // 1 NSTR Normalized string in lowercase
+      // 2 CUI Concept identifier
+      // 3 LUI Term identifier
+      // 4 SUI String identifier
+      final String normalizedString = handler.getNormalizedString(name, sui);
+      if (!ConfigUtility.isEmpty(normalizedString)) {
+        writerMap.get("MRXNS_ENG.RRF")
+            .write("ENG|" + normalizedString + suffix);
+
+        // MRXNW_ENG.RRF
+        final StringBuilder sb = new StringBuilder();
+        for (final String word : FieldedStringTokenizer
+            .split(normalizedString, ConfigUtility.PUNCTUATION)) {
+          if (!ConfigUtility.isEmpty(word)) {
+            sb.append("ENG|").append(word).append(suffix);
+          }
+        }
+        writerMap.get("MRXNW_ENG.RRF").write(sb.toString());
+      }
+    }
+
+    // for all languages write MRXW_<language>.RRF
+    final StringBuilder sb = new StringBuilder();
+    for (final String word : FieldedStringTokenizer.split(name,
+        ConfigUtility.PUNCTUATION)) {
+      if (!ConfigUtility.isEmpty(word)) {
+        sb.append(language).append("|").append(word).append(suffix);
+      }
+    }
+    writerMap.get("MRXW_" + language + ".RRF").write(sb.toString());
+  }
+
   /* see superclass */
   @Override
   public void reset() throws Exception {
@@ -198,7 +263,9 @@ public class WriteRrfIndexFilesAlgorithm
   /* see superclass */
   @Override
   public void setProperties(Properties p) throws Exception {
-    // n/a
+    if (p.getProperty("threadCt") != null) {
+      threadCt = Integer.parseInt(p.getProperty("threadCt"));
+    }
   }
 
   /**
@@ -211,16 +278,16 @@ public class WriteRrfIndexFilesAlgorithm
         + getProcess().getInputPath() + "/" + getProcess().getVersion() + "/"
         + "META");
 
-    writerMap.put("MRXNS_ENG.RRF",
-        new PrintWriter(new FileWriter(new File(dir, "MRXNS_ENG.RRF"))));
+    writerMap.put("MRXNS_ENG.RRF", new PrintWriter(new BufferedWriter(
+        new FileWriter(new File(dir, "MRXNS_ENG.RRF")))));
 
-    writerMap.put("MRXNW_ENG.RRF",
-        new PrintWriter(new FileWriter(new File(dir, "MRXNW_ENG.RRF"))));
+    writerMap.put("MRXNW_ENG.RRF", new PrintWriter(new BufferedWriter(
+        new FileWriter(new File(dir, "MRXNW_ENG.RRF")))));
     for (Language lat : getLanguages(getProject().getTerminology(),
         getProject().getVersion()).getObjects()) {
       writerMap.put("MRXW_" + lat.getAbbreviation() + ".RRF",
-          new PrintWriter(new FileWriter(
-              new File(dir, "MRXW_" + lat.getAbbreviation() + ".RRF"))));
+          new PrintWriter(new BufferedWriter(new FileWriter(
+              new File(dir, "MRXW_" + lat.getAbbreviation() + ".RRF")))));
     }
   }
 
@@ -235,12 +302,13 @@ public class WriteRrfIndexFilesAlgorithm
       writer.close();
     }
 
-    // sort files
+    // sort files, dropping duplicate rows
     for (String writerName : writerMap.keySet()) {
       File inputFile = new File(dir, writerName);
       File outputFile = new File(dir, writerName + ".sorted");
       FileSorter.sortFile(inputFile.getAbsolutePath(),
-          outputFile.getAbsolutePath(), ConfigUtility.getByteComparator());
+          outputFile.getAbsolutePath(), ConfigUtility.getByteComparator(),
+          true);
     }
 
     // move sorted files into orig files
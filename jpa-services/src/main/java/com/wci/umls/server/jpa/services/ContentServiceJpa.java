@@ -11,8 +11,10 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
@@ -22,14 +24,12 @@ import javax.persistence.metamodel.EntityType;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.classic.QueryParserBase;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
-import org.hibernate.search.SearchFactory;
+import org.hibernate.Session;
 import org.hibernate.search.jpa.FullTextEntityManager;
 import org.hibernate.search.jpa.FullTextQuery;
 import org.hibernate.search.jpa.Search;
@@ -122,7 +122,13 @@ import com.wci.umls.server.jpa.helpers.content.TreeJpa;
 import com.wci.umls.server.jpa.helpers.content.TreePositionListJpa;
 import com.wci.umls.server.jpa.meta.AbstractAbbreviation;
 import com.wci.umls.server.jpa.services.handlers.EclExpressionHandler;
+import com.wci.umls.server.jpa.services.helper.AutocompleteUtility;
+import com.wci.umls.server.jpa.services.helper.ComponentStatsUtility;
+import com.wci.umls.server.jpa.services.helper.ContentHashUtility;
+import com.wci.umls.server.jpa.services.helper.DeepRelationshipUtility;
 import com.wci.umls.server.jpa.services.helper.IndexUtility;
+import com.wci.umls.server.jpa.services.helper.IndexWriteBehindQueue;
+import com.wci.umls.server.jpa.services.validation.ConceptValidationEngine;
 import com.wci.umls.server.model.actions.AtomicAction;
 import com.wci.umls.server.model.actions.MolecularAction;
 import com.wci.umls.server.model.content.Atom;
@@ -157,6 +163,7 @@ import com.wci.umls.server.services.handlers.ExpressionHandler;
 import com.wci.umls.server.services.handlers.IdentifierAssignmentHandler;
 import com.wci.umls.server.services.handlers.NormalizedStringHandler;
 import com.wci.umls.server.services.handlers.SearchHandler;
+import com.wci.umls.server.services.handlers.ValidationCheck;
 
 /**
  * JPA enabled implementation of the content service.
@@ -180,6 +187,37 @@ public class ContentServiceJpa extends MetadataServiceJpa
   /** The normalized string handler. */
   private static NormalizedStringHandler normalizedStringHandler = null;
 
+  /** The tree cache depth - only nodes this close to the root are cached. */
+  private static int treeCacheDepth = 5;
+
+  /** The tree cache - upper-level tree nodes shared across requests. */
+  private static final Map<String, Tree> treeCache =
+      Collections.synchronizedMap(new LinkedHashMap<String, Tree>(1000, .75f,
+          true) {
+        private static final long serialVersionUID = 4096851378102957261L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Tree> eldest) {
+          return size() > 5000;
+        }
+      });
+
+  /** The tree child cache depth - child lists are cached near the root. */
+  private static int treeChildCacheDepth = 2;
+
+  /** The tree child cache - ordered child tree position ids by parent path. */
+  private static final Map<String, List<Long>> treeChildCache =
+      Collections.synchronizedMap(new LinkedHashMap<String, List<Long>>(1000,
+          .75f, true) {
+        private static final long serialVersionUID = -1283609457391823456L;
+
+        @Override
+        protected boolean removeEldestEntry(
+          Map.Entry<String, List<Long>> eldest) {
+          return size() > 10000;
+        }
+      });
+
   static {
     init();
   }
@@ -194,6 +232,17 @@ public class ContentServiceJpa extends MetadataServiceJpa
         queryTimeout = Integer.parseInt(ConfigUtility.getConfigProperties()
             .getProperty("javax.persistence.query.timeout"));
       }
+      if (ConfigUtility.getConfigProperties()
+          .containsKey("content.service.tree.cache.depth")) {
+        treeCacheDepth = Integer.parseInt(ConfigUtility.getConfigProperties()
+            .getProperty("content.service.tree.cache.depth"));
+      }
+      if (ConfigUtility.getConfigProperties()
+          .containsKey("content.service.tree.child.cache.depth")) {
+        treeChildCacheDepth = Integer.parseInt(ConfigUtility
+            .getConfigProperties()
+            .getProperty("content.service.tree.child.cache.depth"));
+      }
 
       if (config == null)
         config = ConfigUtility.getConfigProperties();
@@ -2534,6 +2583,7 @@ public class ContentServiceJpa extends MetadataServiceJpa
 
     // if no expression, or expression with results, perform lucene query
     if (exprResults == null || exprResults.size() > 0) {
+      flushWriteBehind(clazz);
       luceneResults = searchHandler.getQueryResults(terminology, version,
           branch, query, "atoms.nameSort", clazz, localPfs, totalCt, manager);
     }
@@ -2571,6 +2621,7 @@ public class ContentServiceJpa extends MetadataServiceJpa
     boolean luceneQueryFlag = false;
     if (luceneQuery != null && !luceneQuery.equals("")) {
       SearchHandler searchHandler = getSearchHandler("");
+      flushWriteBehind(clazz);
       luceneQueryClasses.addAll(searchHandler.getQueryResults(null, null,
           branch, luceneQuery, "atomsName.sort", clazz, pfs, totalCt, manager));
       luceneQueryFlag = true;
@@ -2707,9 +2758,22 @@ public class ContentServiceJpa extends MetadataServiceJpa
     if (terminology == null || version == null || searchTerm == null) {
       return new StringList();
     }
+
+    // Use the autocomplete suggester if one has been built
+    final List<String> suggestions = AutocompleteUtility.lookup(clazz,
+        terminology, version, searchTerm, 20);
+    if (suggestions != null) {
+      final StringList list = new StringList();
+      list.setObjects(suggestions);
+      list.setTotalCount(suggestions.size());
+      return list;
+    }
+
     final String TITLE_EDGE_NGRAM_INDEX = "atoms.edgeNGramName";
     final String TITLE_NGRAM_INDEX = "atoms.nGramName";
 
+    flushWriteBehind(clazz);
+
     final FullTextEntityManager fullTextEntityManager =
         Search.getFullTextEntityManager(manager);
     final QueryBuilder titleQB = fullTextEntityManager.getSearchFactory()
@@ -2752,6 +2816,20 @@ public class ContentServiceJpa extends MetadataServiceJpa
     return list;
   }
 
+  /**
+   * Indexes the current user's concept edits still queued for write-behind,
+   * if a search for the class can return concepts. Other users' edits are
+   * indexed by the write-behind queue within its window.
+   *
+   * @param clazz the class being searched
+   * @throws Exception the exception
+   */
+  private void flushWriteBehind(Class<?> clazz) throws Exception {
+    if (clazz.isAssignableFrom(ConceptJpa.class)) {
+      IndexWriteBehindQueue.flush(getLastModifiedBy());
+    }
+  }
+
   /* see superclass */
   @Override
   public SearchResultList findCodeSearchResults(String terminology,
@@ -3164,6 +3242,25 @@ public class ContentServiceJpa extends MetadataServiceJpa
     String version, String branch) throws Exception {
     Logger.getLogger(getClass()).info("Content Service - getComponentStats");
     assert branch != null;
+
+    // Use the maintained counters, computing them on first use
+    if (ComponentStatsUtility.isEnabled()) {
+      Map<String, Integer> stats =
+          ComponentStatsUtility.getStats(manager, terminology, version);
+      if (stats.isEmpty()) {
+        if (getTransactionPerOperation()) {
+          tx = manager.getTransaction();
+          tx.begin();
+        }
+        ComponentStatsUtility.recompute(manager, terminology, version);
+        if (getTransactionPerOperation()) {
+          tx.commit();
+        }
+        stats = ComponentStatsUtility.getStats(manager, terminology, version);
+      }
+      return stats;
+    }
+
     final Map<String, Integer> stats = new TreeMap<>();
     for (final EntityType<?> type : manager.getMetamodel().getEntities()) {
       final String jpaTable = type.getName();
@@ -3273,6 +3370,7 @@ public class ContentServiceJpa extends MetadataServiceJpa
 
       molecularAction.getAtomicActions().add(newAtomicAction);
 
+      ComponentStatsUtility.update(manager, newComponent, 1);
     }
     return newComponent;
 
@@ -3297,6 +3395,12 @@ public class ContentServiceJpa extends MetadataServiceJpa
       final T oldComponent = getComponent(newComponent.getId(),
           (Class<T>) newComponent.getClass());
 
+      // Track obsolete changes in the component stats
+      if (oldComponent.isObsolete() != newComponent.isObsolete()) {
+        ComponentStatsUtility.update(manager, newComponent, 0,
+            newComponent.isObsolete() ? -1 : 1);
+      }
+
       // Create an atomic action when old value is different from new value.
       // For fields annotated with @Column
       final List<Method> columnMethods =
@@ -3401,6 +3505,29 @@ public class ContentServiceJpa extends MetadataServiceJpa
     // handle as a normal "has last modified"
     updateHasLastModified(newComponent);
 
+    // the component no longer matches the source row it was loaded from
+    removeContentHash(newComponent);
+  }
+
+  /**
+   * Removes the content hash of an edited or removed component, so delta
+   * loaders do not skip its next source row as unchanged.
+   *
+   * @param component the component
+   * @throws Exception the exception
+   */
+  private void removeContentHash(Component component) throws Exception {
+    if (!ContentHashUtility.isEnabled() || component == null) {
+      return;
+    }
+    if (getTransactionPerOperation()) {
+      tx = manager.getTransaction();
+      tx.begin();
+      ContentHashUtility.remove(manager, component);
+      tx.commit();
+    } else {
+      ContentHashUtility.remove(manager, component);
+    }
   }
 
   /**
@@ -3491,7 +3618,11 @@ public class ContentServiceJpa extends MetadataServiceJpa
       molecularAction.getAtomicActions().add(newAtomicAction);
     }
 
-    removeHasLastModified(id, clazz);
+    final T component = removeHasLastModified(id, clazz);
+    if (isMolecularActionFlag()) {
+      ComponentStatsUtility.update(manager, component, -1);
+    }
+    removeContentHash(component);
   }
 
   /* see superclass */
@@ -3544,7 +3675,6 @@ public class ContentServiceJpa extends MetadataServiceJpa
     boolean inverseFlag, boolean includeConceptRels, boolean preferredOnly,
     boolean includeSelfReferential, PfsParameter pfs) throws Exception {
 
-    // TODO: this could probably all be made faster with some more indexing
     Logger.getLogger(getClass())
         .debug("Content Service - find deep relationships for concept "
             + conceptId + "/" + terminology + "/" + version + "/" + filter);
@@ -3570,164 +3700,44 @@ public class ContentServiceJpa extends MetadataServiceJpa
           getConcept(conceptId, terminology, version, branch);
       final List<Object[]> results = new ArrayList<>();
 
-      String queryStr = null;
-      javax.persistence.Query query = null;
-      if (includeConceptRels) {
-        queryStr = "select a.id, a.terminologyId, a.terminology, a.version, "
-            + "a.relationshipType, a.additionalRelationshipType, "
-            + (inverseFlag ? "a.from.terminologyId" : "a.to.terminologyId")
-            + ", a.obsolete, a.suppressible, a.published, a.publishable, "
-            + (inverseFlag ? "a.from.name " : "a.to.name ") + ", "
-            + (inverseFlag ? "a.from.id " : "a.to.id ") + ", a.workflowStatus "
-            + ", a.lastModifiedBy, a.lastModified "
-            + "from ConceptRelationshipJpa a " + "where "
-            + (inverseFlag ? "a.to" : "a.from") + ".id = :conceptId "
-            + relTypeClause + suppressibleClause;
-        query = manager.createQuery(queryStr);
-        query.setParameter("conceptId", concept.getId());
-        results.addAll(query.getResultList());
-      }
-
-      queryStr = "select a.id, a.terminologyId, a.terminology, a.version, "
-          + "a.relationshipType, a.additionalRelationshipType, c2.terminologyId, "
-          + "a.obsolete, a.suppressible, a.published, a.publishable, "
-          // + (inverseFlag ? "a.from.name " : "a.to.name ") + ", c2.id "
-          + "c2.name, c2.id " + ", a.workflowStatus "
-          + ", a.lastModifiedBy, a.lastModified "
-          + "from AtomRelationshipJpa a, ConceptJpa c2 join c2.atoms ca "
-          + "where c2.terminology = :terminology and c2.version = :version and "
-          + (inverseFlag ? "a.from.id in (ca.id) " : "a.to.id in (ca.id) ")
-          + " and " + (inverseFlag ? "a.to" : "a.from") + ".id in (:atomIds)"
-          + relTypeClause + suppressibleClause;
-      query = manager.createQuery(queryStr);
-      query.setParameter("terminology", terminology);
-      query.setParameter("version", version);
-      final Set<Long> atomIds = new HashSet<>();
-      for (final Atom atom : concept.getAtoms()) {
-        atomIds.add(atom.getId());
-      }
-      // If the concept has no atom ids, just put a bogus one so the query works
-      if (atomIds.isEmpty()) {
-        atomIds.add(-1L);
+      // Use the deep relationship projection table if it is maintained
+      if (DeepRelationshipUtility.isEnabled()) {
+        // Page and count in the database unless the results must first be
+        // filtered or reduced to preferred rels in memory (the query drops
+        // duplicates the same way the set below does)
+        final boolean dbPagingFlag = !preferredOnly
+            && ConfigUtility.isEmpty(filter)
+            && DeepRelationshipUtility.isSortSupported(pfs);
+        results.addAll(DeepRelationshipUtility
+            .getQuery(manager, concept.getId(), inverseFlag,
+                includeConceptRels, !suppressibleClause.isEmpty(),
+                includeSelfReferential, dbPagingFlag ? pfs : null, false)
+            .getResultList());
+
+        if (dbPagingFlag) {
+          final RelationshipList list = new RelationshipListJpa();
+          list.setTotalCount(((Number) DeepRelationshipUtility
+              .getQuery(manager, concept.getId(), inverseFlag,
+                  includeConceptRels, !suppressibleClause.isEmpty(),
+                  includeSelfReferential, null, true)
+              .getSingleResult()).intValue());
+          for (final Object[] result : results) {
+            list.getObjects()
+                .add(getDeepRelationship(concept, result, inverseFlag));
+          }
+          return list;
+        }
+      } else {
+        results.addAll(findConceptDeepRelationshipsHelper(concept, terminology,
+            version, inverseFlag, includeConceptRels, relTypeClause,
+            suppressibleClause));
       }
-      query.setParameter("atomIds", atomIds);
-      results.addAll(query.getResultList());
-
-      queryStr = "select a.id, a.terminologyId, a.terminology, a.version, "
-          + "a.relationshipType, a.additionalRelationshipType, c2.terminologyId,       "
-          + "a.obsolete, a.suppressible, a.published, a.publishable, "
-          // + (inverseFlag ? "a.from.name " : "a.to.name ") + ", c2.id "
-          + "c2.name, c2.id " + ", a.workflowStatus "
-          + ", a.lastModifiedBy, a.lastModified "
-          + "from ConceptRelationshipJpa a, ConceptJpa b, AtomJpa c, "
-          + "ConceptJpa d, AtomJpa e, ConceptJpa c2 join c2.atoms ca "
-          + "where a." + (inverseFlag ? "to" : "from") + ".id = b.id "
-          + "and b.terminologyId = c.conceptId "
-          + "and b.terminology = c.terminology and b.version = c.version "
-          + "and b.name = c.name and c.id in (:atomIds) " + "and a."
-          + (inverseFlag ? "from" : "to") + ".id = d.id "
-          + "and d.terminologyId = e.conceptId "
-          + "and d.terminology = e.terminology and d.version = e.version "
-          + "and d.name = e.name "
-          + "and c2.terminology = :terminology and c2.version = :version and "
-          + (inverseFlag ? "e.id in (ca.id) " : "e.id in (ca.id) ")
-          + relTypeClause + suppressibleClause;
-      query = manager.createQuery(queryStr);
-      query.setParameter("terminology", terminology);
-      query.setParameter("version", version);
-      query.setParameter("atomIds", atomIds);
-      results.addAll(query.getResultList());
-
-      queryStr = "select a.id, a.terminologyId, a.terminology, a.version, "
-          + "a.relationshipType, a.additionalRelationshipType, c2.terminologyId,       "
-          + "a.obsolete, a.suppressible, a.published, a.publishable, "
-          // + (inverseFlag ? "a.from.name " : "a.to.name ") + ", c2.id "
-          + "c2.name, c2.id " + ", a.workflowStatus "
-          + ", a.lastModifiedBy, a.lastModified "
-          + "from DescriptorRelationshipJpa a, DescriptorJpa b, AtomJpa c, "
-          + "DescriptorJpa d, AtomJpa e, ConceptJpa c2 join c2.atoms ca "
-          + "where a." + (inverseFlag ? "to" : "from") + ".id = b.id "
-          + "and b.terminologyId = c.descriptorId "
-          + "and b.terminology = c.terminology and b.version = c.version "
-          + "and b.name = c.name and c.id in (:atomIds) " + "and a."
-          + (inverseFlag ? "from" : "to") + ".id = d.id "
-          + "and d.terminologyId = e.descriptorId "
-          + "and d.terminology = e.terminology and d.version = e.version "
-          + "and d.name = e.name "
-          + "and c2.terminology = :terminology and c2.version = :version and "
-          + (inverseFlag ? "e.id in (ca.id) " : "e.id in (ca.id) ")
-          + relTypeClause + suppressibleClause;
-      query = manager.createQuery(queryStr);
-      query.setParameter("terminology", terminology);
-      query.setParameter("version", version);
-      query.setParameter("atomIds", atomIds);
-      results.addAll(query.getResultList());
-
-      queryStr = "select a.id, a.terminologyId, a.terminology, a.version, "
-          + "a.relationshipType, a.additionalRelationshipType, c2.terminologyId,       "
-          + "a.obsolete, a.suppressible, a.published, a.publishable, "
-          // + (inverseFlag ? "a.from.name " : "a.to.name ") + ", c2.id "
-          + "c2.name, c2.id " + ", a.workflowStatus "
-          + ", a.lastModifiedBy, a.lastModified "
-          + "from CodeRelationshipJpa a, CodeJpa b, AtomJpa c, "
-          + "CodeJpa d, AtomJpa e, ConceptJpa c2 join c2.atoms ca " + "where a."
-          + (inverseFlag ? "to" : "from") + ".id = b.id "
-          + "and b.terminologyId = c.codeId "
-          + "and b.terminology = c.terminology and b.version = c.version "
-          + "and b.name = c.name and c.id in (:atomIds) " + "and a."
-          + (inverseFlag ? "from" : "to") + ".id = d.id "
-          + "and d.terminologyId = e.codeId "
-          + "and d.terminology = e.terminology and d.version = e.version "
-          + "and d.name = e.name "
-          + "and c2.terminology = :terminology and c2.version = :version and "
-          + (inverseFlag ? "e.id in (ca.id) " : "e.id in (ca.id) ")
-          + relTypeClause + suppressibleClause;
-      query = manager.createQuery(queryStr);
-      query.setParameter("terminology", terminology);
-      query.setParameter("version", version);
-      query.setParameter("atomIds", atomIds);
-      results.addAll(query.getResultList());
 
       // Use a set to "uniq" them
       final Set<ConceptRelationship> conceptRels = new HashSet<>();
       for (final Object[] result : results) {
-        final ConceptRelationship relationship = new ConceptRelationshipJpa();
-        relationship.setId(Long.parseLong(result[0].toString()));
-        final Concept relatedConcept = new ConceptJpa();
-        relatedConcept.setTerminology(concept.getTerminology());
-        relatedConcept.setVersion(concept.getVersion());
-        relatedConcept.setTerminologyId(result[6].toString());
-        relatedConcept.setId(Long.valueOf(result[12].toString()));
-        relatedConcept.setName(result[11].toString());
-        if (!inverseFlag) {
-          relationship.setFrom(concept);
-          relationship.setTo(relatedConcept);
-        } else {
-          relationship.setTo(concept);
-          relationship.setFrom(relatedConcept);
-        }
-        relationship.setTerminologyId(result[1].toString());
-        relationship.setTerminology(result[2].toString());
-        relationship.setVersion(result[3].toString());
-        relationship.setRelationshipType(result[4].toString());
-        relationship.setHierarchical(result[4].toString().equals("CHD")
-            || result[4].toString().equals("subClassOf"));
-        relationship.setAdditionalRelationshipType(result[5].toString());
-        relationship.setObsolete(result[7].toString().equals("true"));
-        relationship.setSuppressible(result[8].toString().equals("true"));
-        relationship.setPublished(result[9].toString().equals("true"));
-        relationship.setPublishable(result[10].toString().equals("true"));
-        relationship
-            .setWorkflowStatus(WorkflowStatus.valueOf(result[13].toString()));
-        // Force atom-rel demotions to not be equivalent to concept rels.
-        // This is a hack, but is required for concept rels and atom rels to
-        // both show up on ConceptReports
-        if (relationship.getWorkflowStatus().equals(WorkflowStatus.DEMOTION)) {
-          relationship.setTerminologyId(String.valueOf(relationship.getId()));
-        }
-        relationship.setLastModifiedBy(result[14].toString());
-        relationship.setLastModified(
-            new Date(((java.sql.Timestamp) result[15]).getTime()));
+        final ConceptRelationship relationship =
+            getDeepRelationship(concept, result, inverseFlag);
 
         // handle self-referential
         if (includeSelfReferential || !relationship.getFrom().getId()
@@ -3782,6 +3792,199 @@ public class ContentServiceJpa extends MetadataServiceJpa
     }
   }
 
+  /**
+   * Find concept deep relationships by querying the concept, atom, code, and
+   * descriptor relationship tables directly.
+   *
+   * @param concept the concept
+   * @param terminology the terminology
+   * @param version the version
+   * @param inverseFlag the inverse flag
+   * @param includeConceptRels the include concept rels
+   * @param relTypeClause the rel type clause
+   * @param suppressibleClause the suppressible clause
+   * @return the result rows
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("unchecked")
+  private List<Object[]> findConceptDeepRelationshipsHelper(Concept concept,
+    String terminology, String version, boolean inverseFlag,
+    boolean includeConceptRels, String relTypeClause,
+    String suppressibleClause) throws Exception {
+    final List<Object[]> results = new ArrayList<>();
+
+    String queryStr = null;
+    javax.persistence.Query query = null;
+    if (includeConceptRels) {
+      queryStr = "select a.id, a.terminologyId, a.terminology, a.version, "
+          + "a.relationshipType, a.additionalRelationshipType, "
+          + (inverseFlag ? "a.from.terminologyId" : "a.to.terminologyId")
+          + ", a.obsolete, a.suppressible, a.published, a.publishable, "
+          + (inverseFlag ? "a.from.name " : "a.to.name ") + ", "
+          + (inverseFlag ? "a.from.id " : "a.to.id ") + ", a.workflowStatus "
+          + ", a.lastModifiedBy, a.lastModified "
+          + "from ConceptRelationshipJpa a " + "where "
+          + (inverseFlag ? "a.to" : "a.from") + ".id = :conceptId "
+          + relTypeClause + suppressibleClause;
+      query = manager.createQuery(queryStr);
+      query.setParameter("conceptId", concept.getId());
+      results.addAll(query.getResultList());
+    }
+
+    queryStr = "select a.id, a.terminologyId, a.terminology, a.version, "
+        + "a.relationshipType, a.additionalRelationshipType, c2.terminologyId, "
+        + "a.obsolete, a.suppressible, a.published, a.publishable, "
+        // + (inverseFlag ? "a.from.name " : "a.to.name ") + ", c2.id "
+        + "c2.name, c2.id " + ", a.workflowStatus "
+        + ", a.lastModifiedBy, a.lastModified "
+        + "from AtomRelationshipJpa a, ConceptJpa c2 join c2.atoms ca "
+        + "where c2.terminology = :terminology and c2.version = :version and "
+        + (inverseFlag ? "a.from.id in (ca.id) " : "a.to.id in (ca.id) ")
+        + " and " + (inverseFlag ? "a.to" : "a.from") + ".id in (:atomIds)"
+        + relTypeClause + suppressibleClause;
+    query = manager.createQuery(queryStr);
+    query.setParameter("terminology", terminology);
+    query.setParameter("version", version);
+    final Set<Long> atomIds = new HashSet<>();
+    for (final Atom atom : concept.getAtoms()) {
+      atomIds.add(atom.getId());
+    }
+    // If the concept has no atom ids, just put a bogus one so the query works
+    if (atomIds.isEmpty()) {
+      atomIds.add(-1L);
+    }
+    query.setParameter("atomIds", atomIds);
+    results.addAll(query.getResultList());
+
+    queryStr = "select a.id, a.terminologyId, a.terminology, a.version, "
+        + "a.relationshipType, a.additionalRelationshipType, c2.terminologyId,       "
+        + "a.obsolete, a.suppressible, a.published, a.publishable, "
+        // + (inverseFlag ? "a.from.name " : "a.to.name ") + ", c2.id "
+        + "c2.name, c2.id " + ", a.workflowStatus "
+        + ", a.lastModifiedBy, a.lastModified "
+        + "from ConceptRelationshipJpa a, ConceptJpa b, AtomJpa c, "
+        + "ConceptJpa d, AtomJpa e, ConceptJpa c2 join c2.atoms ca "
+        + "where a." + (inverseFlag ? "to" : "from") + ".id = b.id "
+        + "and b.terminologyId = c.conceptId "
+        + "and b.terminology = c.terminology and b.version = c.version "
+        + "and b.name = c.name and c.id in (:atomIds) " + "and a."
+        + (inverseFlag ? "from" : "to") + ".id = d.id "
+        + "and d.terminologyId = e.conceptId "
+        + "and d.terminology = e.terminology and d.version = e.version "
+        + "and d.name = e.name "
+        + "and c2.terminology = :terminology and c2.version = :version and "
+        + (inverseFlag ? "e.id in (ca.id) " : "e.id in (ca.id) ")
+        + relTypeClause + suppressibleClause;
+    query = manager.createQuery(queryStr);
+    query.setParameter("terminology", terminology);
+    query.setParameter("version", version);
+    query.setParameter("atomIds", atomIds);
+    results.addAll(query.getResultList());
+
+    queryStr = "select a.id, a.terminologyId, a.terminology, a.version, "
+        + "a.relationshipType, a.additionalRelationshipType, c2.terminologyId,       "
+        + "a.obsolete, a.suppressible, a.published, a.publishable, "
+        // + (inverseFlag ? "a.from.name " : "a.to.name ") + ", c2.id "
+        + "c2.name, c2.id " + ", a.workflowStatus "
+        + ", a.lastModifiedBy, a.lastModified "
+        + "from DescriptorRelationshipJpa a, DescriptorJpa b, AtomJpa c, "
+        + "DescriptorJpa d, AtomJpa e, ConceptJpa c2 join c2.atoms ca "
+        + "where a." + (inverseFlag ? "to" : "from") + ".id = b.id "
+        + "and b.terminologyId = c.descriptorId "
+        + "and b.terminology = c.terminology and b.version = c.version "
+        + "and b.name = c.name and c.id in (:atomIds) " + "and a."
+        + (inverseFlag ? "from" : "to") + ".id = d.id "
+        + "and d.terminologyId = e.descriptorId "
+        + "and d.terminology = e.terminology and d.version = e.version "
+        + "and d.name = e.name "
+        + "and c2.terminology = :terminology and c2.version = :version and "
+        + (inverseFlag ? "e.id in (ca.id) " : "e.id in (ca.id) ")
+        + relTypeClause + suppressibleClause;
+    query = manager.createQuery(queryStr);
+    query.setParameter("terminology", terminology);
+    query.setParameter("version", version);
+    query.setParameter("atomIds", atomIds);
+    results.addAll(query.getResultList());
+
+    queryStr = "select a.id, a.terminologyId, a.terminology, a.version, "
+        + "a.relationshipType, a.additionalRelationshipType, c2.terminologyId,       "
+        + "a.obsolete, a.suppressible, a.published, a.publishable, "
+        // + (inverseFlag ? "a.from.name " : "a.to.name ") + ", c2.id "
+        + "c2.name, c2.id " + ", a.workflowStatus "
+        + ", a.lastModifiedBy, a.lastModified "
+        + "from CodeRelationshipJpa a, CodeJpa b, AtomJpa c, "
+        + "CodeJpa d, AtomJpa e, ConceptJpa c2 join c2.atoms ca " + "where a."
+        + (inverseFlag ? "to" : "from") + ".id = b.id "
+        + "and b.terminologyId = c.codeId "
+        + "and b.terminology = c.terminology and b.version = c.version "
+        + "and b.name = c.name and c.id in (:atomIds) " + "and a."
+        + (inverseFlag ? "from" : "to") + ".id = d.id "
+        + "and d.terminologyId = e.codeId "
+        + "and d.terminology = e.terminology and d.version = e.version "
+        + "and d.name = e.name "
+        + "and c2.terminology = :terminology and c2.version = :version and "
+        + (inverseFlag ? "e.id in (ca.id) " : "e.id in (ca.id) ")
+        + relTypeClause + suppressibleClause;
+    query = manager.createQuery(queryStr);
+    query.setParameter("terminology", terminology);
+    query.setParameter("version", version);
+    query.setParameter("atomIds", atomIds);
+    results.addAll(query.getResultList());
+
+    return results;
+  }
+
+  /**
+   * Returns the deep relationship for a result row.
+   *
+   * @param concept the concept
+   * @param result the result
+   * @param inverseFlag the inverse flag
+   * @return the deep relationship
+   * @throws Exception the exception
+   */
+  private ConceptRelationship getDeepRelationship(Concept concept,
+    Object[] result, boolean inverseFlag) throws Exception {
+    final ConceptRelationship relationship = new ConceptRelationshipJpa();
+    relationship.setId(Long.parseLong(result[0].toString()));
+    final Concept relatedConcept = new ConceptJpa();
+    relatedConcept.setTerminology(concept.getTerminology());
+    relatedConcept.setVersion(concept.getVersion());
+    relatedConcept.setTerminologyId(result[6].toString());
+    relatedConcept.setId(Long.valueOf(result[12].toString()));
+    relatedConcept.setName(result[11].toString());
+    if (!inverseFlag) {
+      relationship.setFrom(concept);
+      relationship.setTo(relatedConcept);
+    } else {
+      relationship.setTo(concept);
+      relationship.setFrom(relatedConcept);
+    }
+    relationship.setTerminologyId(result[1].toString());
+    relationship.setTerminology(result[2].toString());
+    relationship.setVersion(result[3].toString());
+    relationship.setRelationshipType(result[4].toString());
+    relationship.setHierarchical(result[4].toString().equals("CHD")
+        || result[4].toString().equals("subClassOf"));
+    relationship.setAdditionalRelationshipType(result[5].toString());
+    relationship.setObsolete(result[7].toString().equals("true"));
+    relationship.setSuppressible(result[8].toString().equals("true"));
+    relationship.setPublished(result[9].toString().equals("true"));
+    relationship.setPublishable(result[10].toString().equals("true"));
+    relationship
+        .setWorkflowStatus(WorkflowStatus.valueOf(result[13].toString()));
+    // Force atom-rel demotions to not be equivalent to concept rels.
+    // This is a hack, but is required for concept rels and atom rels to
+    // both show up on ConceptReports
+    if (relationship.getWorkflowStatus().equals(WorkflowStatus.DEMOTION)) {
+      relationship.setTerminologyId(String.valueOf(relationship.getId()));
+    }
+    relationship.setLastModifiedBy(result[14].toString());
+    relationship.setLastModified(
+        new Date(((java.sql.Timestamp) result[15]).getTime()));
+    return relationship;
+  }
+
   /* see superclass */
   @Override
   public RelationshipList findDescriptorRelationships(String descriptorId,
@@ -4043,7 +4246,6 @@ public class ContentServiceJpa extends MetadataServiceJpa
   }
 
   /* see superclass */
-
   @SuppressWarnings("unchecked")
   @Override
   public Tree getTreeForTreePosition(TreePosition<?> treePosition)
@@ -4053,112 +4255,92 @@ public class ContentServiceJpa extends MetadataServiceJpa
             + treePosition.getNode().getId() + ", "
             + treePosition.getAncestorPath());
 
-    Long tpId = treePosition.getNode().getId();
+    final Long tpId = treePosition.getNode().getId();
 
     // Determine type
-    Class<?> clazz = treePosition.getClass();
+    final Class<?> clazz = treePosition.getClass();
     Logger.getLogger(getClass()).debug("  type = " + clazz.getName());
 
-    // tree to return
-    Tree tree = null;
-
-    // the current tree variables (ancestor path and local tree)
-    // initially top-level
-    String partAncPath = "";
-    // initially the empty tree
-    Tree parentTree = tree;
+    // this is necessary because additionalRelationshipType is not indexed
+    final String treePositionRela =
+        ConfigUtility.isEmpty(treePosition.getAdditionalRelationshipType())
+            ? "" : treePosition.getAdditionalRelationshipType();
+    final String cachePrefix = clazz.getName() + "|"
+        + treePosition.getTerminology() + "|" + treePosition.getVersion() + "|"
+        + treePositionRela + "|";
 
-    // Prepare lucene
-    final FullTextEntityManager fullTextEntityManager =
-        Search.getFullTextEntityManager(manager);
-    final SearchFactory searchFactory =
-        fullTextEntityManager.getSearchFactory();
-    final QueryParser queryParser = new MultiFieldQueryParser(
-        IndexUtility.getIndexedFieldNames(clazz, true).toArray(new String[] {}),
-        searchFactory.getAnalyzer(clazz));
+    // Determine the (nodeId, ancestorPath) of each position along the path,
+    // using cached upper-level nodes where available
     final String fullAncPath = treePosition.getAncestorPath()
         + (treePosition.getAncestorPath().isEmpty() ? "" : "~") + tpId;
-    // Iterate over ancestor path
-    for (final String pathPart : fullAncPath.split("~")) {
-      final Long partId = Long.parseLong(pathPart);
-
-      final StringBuilder finalQuery = new StringBuilder();
-      finalQuery.append("nodeId:" + partId + " AND terminology:"
-          + treePosition.getTerminology() + " AND version:"
-          + treePosition.getVersion() + " AND ");
-      if (partAncPath.isEmpty()) {
-        // query for empty value
-        finalQuery.append("NOT ancestorPath:[* TO *]");
+    final String[] pathParts = fullAncPath.split("~");
+    final Tree[] pathTrees = new Tree[pathParts.length];
+    final Map<String, Integer> lookupMap = new HashMap<>();
+    final Set<Long> nodeIds = new HashSet<>();
+    final Set<String> ancestorPaths = new HashSet<>();
+    String partAncPath = "";
+    for (int i = 0; i < pathParts.length; i++) {
+      final String key = pathParts[i] + "|" + partAncPath;
+      final Tree cachedTree =
+          i < treeCacheDepth ? treeCache.get(cachePrefix + key) : null;
+      if (cachedTree != null) {
+        pathTrees[i] = new TreeJpa(cachedTree);
       } else {
-        finalQuery.append("ancestorPath:\"" + partAncPath + "\"");
+        lookupMap.put(key, i);
+        nodeIds.add(Long.parseLong(pathParts[i]));
+        ancestorPaths.add(partAncPath);
       }
+      partAncPath += (partAncPath.equals("") ? "" : "~");
+      partAncPath += pathParts[i];
+    }
 
-      // Prepare the manager and lucene query
-
-      final Query luceneQuery = queryParser.parse(finalQuery.toString());
-      final FullTextQuery fullTextQuery =
-          fullTextEntityManager.createFullTextQuery(luceneQuery, clazz);
-
-      // // projection approach -- don't want to have to instantiate node Jpa
-      // object (could be faster)
-      // fullTextQuery.setProjection("nodeId", "nodeTerminologyId", "nodeName",
-      // "childCt", "ancestorPath");
-      //
-      // List<Object[]> results = fullTextQuery.getResultList();
-      //
-      // if (fullTextQuery.getResultSize() != 1) {
-      // throw new Exception("Unexpected number of results: "
-      // + fullTextQuery.getResultSize());
-      // }
-      // Object[] result = results.get(0);
-      //
-      // // fill in the tree object
-      // partTree.setId((Long) result[0]);
-      // partTree.setTerminologyId((String) result[1]);
-      // partTree.setName((String) result[2]);
-      // partTree.setChildCt((Integer) result[3]);
-      // partTree.setAncestorPath((String) result[4]);
-      // partTree.setTerminology(treePosition.getTerminology());
-      // partTree.setVersion(treePosition.getVersion());
-
-      // this is necessary because additionalRelationshipType is not indexed
-      TreePosition<?> treepos = null;
-      int ct = 0;
-      final String treePositionRela =
-          ConfigUtility.isEmpty(treePosition.getAdditionalRelationshipType())
-              ? "" : treePosition.getAdditionalRelationshipType();
-      for (final TreePosition<?> tp : (List<TreePosition<?>>) fullTextQuery
+    // Fetch all remaining positions (and their nodes) in a single query
+    if (!lookupMap.isEmpty()) {
+      final javax.persistence.Query query = manager.createQuery("select a from "
+          + clazz.getName() + " a join fetch a.node "
+          + "where a.terminology = :terminology and a.version = :version "
+          + "and a.node.id in (:nodeIds) "
+          + "and (a.ancestorPath in (:ancestorPaths) or a.ancestorPath is null)");
+      query.setParameter("terminology", treePosition.getTerminology());
+      query.setParameter("version", treePosition.getVersion());
+      query.setParameter("nodeIds", nodeIds);
+      query.setParameter("ancestorPaths", ancestorPaths);
+      for (final TreePosition<?> tp : (List<TreePosition<?>>) query
           .getResultList()) {
         final String tpRela =
             ConfigUtility.isEmpty(tp.getAdditionalRelationshipType()) ? ""
                 : tp.getAdditionalRelationshipType();
-        if (tpRela.equals(treePositionRela)) {
-          ct++;
-          treepos = tp;
+        final String key = tp.getNode().getId() + "|"
+            + (tp.getAncestorPath() == null ? "" : tp.getAncestorPath());
+        final Integer index = lookupMap.get(key);
+        if (index == null || !tpRela.equals(treePositionRela)) {
+          continue;
+        }
+        if (pathTrees[index] != null) {
+          throw new Exception("Unexpected number of results: 2, " + key + ", "
+              + clazz);
+        }
+        pathTrees[index] = new TreeJpa(tp);
+        if (index < treeCacheDepth) {
+          treeCache.put(cachePrefix + key, new TreeJpa(pathTrees[index]));
         }
       }
+    }
 
-      // original approach
-      if (ct != 1) {
-        throw new Exception("Unexpected number of results: " + ct + ", "
-            + partId + ", " + partAncPath + ", " + clazz);
-      }
-
-      final Tree partTree = new TreeJpa(treepos);
-
-      if (tree == null) {
-        tree = partTree;
+    // Assemble the tree
+    Tree tree = null;
+    Tree parentTree = null;
+    for (int i = 0; i < pathTrees.length; i++) {
+      if (pathTrees[i] == null) {
+        throw new Exception("Unexpected number of results: 0, " + pathParts[i]
+            + ", " + fullAncPath + ", " + clazz);
       }
-
-      if (parentTree != null) {
-        parentTree.addChild(partTree);
+      if (parentTree == null) {
+        tree = pathTrees[i];
+      } else {
+        parentTree.addChild(pathTrees[i]);
       }
-
-      // set parent tree to the just constructed
-      parentTree = partTree;
-
-      partAncPath += (partAncPath.equals("") ? "" : "~");
-      partAncPath += pathPart;
+      parentTree = pathTrees[i];
     }
 
     return tree;
@@ -4213,6 +4395,12 @@ public class ContentServiceJpa extends MetadataServiceJpa
     final String fullAncPath = treePosition.getAncestorPath()
         + (treePosition.getAncestorPath().isEmpty() ? "" : "~") + tpId;
 
+    // Serve the default (name) ordering from the child index
+    if (isTreeChildIndexSupported(pfs)) {
+      return findTreePositionChildrenHelper(treePosition.getTerminology(),
+          treePosition.getVersion(), fullAncPath, clazz, pfs);
+    }
+
     final String query = "ancestorPath:\"" + fullAncPath + "\"";
 
     final SearchHandler searchHandler = getSearchHandler(terminology);
@@ -4256,6 +4444,219 @@ public class ContentServiceJpa extends MetadataServiceJpa
     return list;
   }
 
+  /**
+   * Indicates whether tree position children for the pfs can be served from
+   * the child index, i.e. ordered by node name with no query restriction.
+   *
+   * @param pfs the pfs
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   */
+  private static boolean isTreeChildIndexSupported(PfsParameter pfs) {
+    if (pfs == null) {
+      return true;
+    }
+    return ConfigUtility.isEmpty(pfs.getQueryRestriction())
+        && (pfs.getSortFields() == null || pfs.getSortFields().isEmpty())
+        && (ConfigUtility.isEmpty(pfs.getSortField())
+            || pfs.getSortField().equals("nodeName"));
+  }
+
+  /**
+   * Find tree position children helper. Children are ordered by node name and
+   * paged in the database. For positions near the root (see
+   * content.service.tree.child.cache.depth), the ordered child ids are cached
+   * and only the requested page is loaded.
+   *
+   * @param terminology the terminology
+   * @param version the version
+   * @param ancestorPath the ancestor path of the children
+   * @param clazz the clazz
+   * @param pfs the pfs
+   * @return the tree position list
+   * @throws Exception the exception
+   */
+  @SuppressWarnings({
+      "rawtypes", "unchecked"
+  })
+  private TreePositionList findTreePositionChildrenHelper(String terminology,
+    String version, String ancestorPath, Class<? extends TreePosition> clazz,
+    PfsParameter pfs) throws Exception {
+
+    final boolean ascending = pfs == null || pfs.isAscending();
+    final int startIndex =
+        (pfs == null || pfs.getStartIndex() < 0) ? 0 : pfs.getStartIndex();
+    final int maxResults = (pfs == null || pfs.getMaxResults() < 0)
+        ? Integer.MAX_VALUE : pfs.getMaxResults();
+
+    final TreePositionList list = new TreePositionListJpa();
+    final int depth = ancestorPath.split("~").length;
+    if (depth <= treeChildCacheDepth) {
+      final List<Long> childIds =
+          getTreePositionChildIds(terminology, version, ancestorPath, clazz);
+      list.setTotalCount(childIds.size());
+
+      // Determine the ids of the requested page
+      final List<Long> pageIds = new ArrayList<>();
+      for (int i = startIndex; i < childIds.size()
+          && pageIds.size() < maxResults; i++) {
+        pageIds.add(
+            childIds.get(ascending ? i : childIds.size() - 1 - i));
+      }
+      if (pageIds.isEmpty()) {
+        return list;
+      }
+
+      // Load the page and put it back in order
+      final javax.persistence.Query query = manager.createQuery("select a from "
+          + clazz.getName() + " a join fetch a.node where a.id in (:ids)");
+      query.setParameter("ids", pageIds);
+      final Map<Long, TreePosition> positionMap = new HashMap<>();
+      for (final TreePosition tp : (List<TreePosition>) query
+          .getResultList()) {
+        positionMap.put(tp.getId(), tp);
+      }
+      for (final Long id : pageIds) {
+        if (positionMap.containsKey(id)) {
+          list.getObjects().add(positionMap.get(id));
+        }
+      }
+      return list;
+    }
+
+    // Count and page in the database
+    final javax.persistence.Query ctQuery =
+        manager.createQuery("select count(*) from " + clazz.getName()
+            + " a where a.terminology = :terminology "
+            + "and a.version = :version and a.ancestorPath = :ancestorPath");
+    ctQuery.setParameter("terminology", terminology);
+    ctQuery.setParameter("version", version);
+    ctQuery.setParameter("ancestorPath", ancestorPath);
+    list.setTotalCount(((Long) ctQuery.getSingleResult()).intValue());
+
+    final javax.persistence.Query query = manager.createQuery("select a from "
+        + clazz.getName() + " a join fetch a.node n "
+        + "where a.terminology = :terminology and a.version = :version "
+        + "and a.ancestorPath = :ancestorPath order by n.name "
+        + (ascending ? "asc" : "desc") + ", a.id");
+    query.setParameter("terminology", terminology);
+    query.setParameter("version", version);
+    query.setParameter("ancestorPath", ancestorPath);
+    query.setFirstResult(startIndex);
+    if (maxResults != Integer.MAX_VALUE) {
+      query.setMaxResults(maxResults);
+    }
+    list.setObjects(query.getResultList());
+    return list;
+  }
+
+  /**
+   * Returns the ids of the tree positions with the specified ancestor path,
+   * ordered by node name. Results are cached.
+   *
+   * @param terminology the terminology
+   * @param version the version
+   * @param ancestorPath the ancestor path
+   * @param clazz the clazz
+   * @return the tree position child ids
+   * @throws Exception the exception
+   */
+  @SuppressWarnings({
+      "rawtypes", "unchecked"
+  })
+  private List<Long> getTreePositionChildIds(String terminology,
+    String version, String ancestorPath, Class<? extends TreePosition> clazz)
+    throws Exception {
+    final String key = clazz.getName() + "|" + terminology + "|" + version
+        + "|" + ancestorPath;
+    List<Long> childIds = treeChildCache.get(key);
+    if (childIds == null) {
+      final javax.persistence.Query query = manager.createQuery("select a.id "
+          + "from " + clazz.getName() + " a join a.node n "
+          + "where a.terminology = :terminology and a.version = :version "
+          + "and a.ancestorPath = :ancestorPath order by n.name, a.id");
+      query.setParameter("terminology", terminology);
+      query.setParameter("version", version);
+      query.setParameter("ancestorPath", ancestorPath);
+      childIds = Collections.unmodifiableList(query.getResultList());
+      treeChildCache.put(key, childIds);
+    }
+    return childIds;
+  }
+
+  /**
+   * Warm the tree child cache for the upper levels of the hierarchy of each
+   * loaded terminology.
+   *
+   * @throws Exception the exception
+   */
+  @SuppressWarnings({
+      "rawtypes", "unchecked"
+  })
+  public void warmTreeChildCache() throws Exception {
+    for (final Terminology terminology : getTerminologies().getObjects()) {
+      if (terminology.getOrganizingClassType() == null) {
+        continue;
+      }
+      final Class<? extends TreePosition> clazz;
+      switch (terminology.getOrganizingClassType()) {
+        case CONCEPT:
+          clazz = ConceptTreePositionJpa.class;
+          break;
+        case DESCRIPTOR:
+          clazz = DescriptorTreePositionJpa.class;
+          break;
+        case CODE:
+          clazz = CodeTreePositionJpa.class;
+          break;
+        default:
+          continue;
+      }
+      Logger.getLogger(getClass()).info("  Warm tree child cache - "
+          + terminology.getTerminology() + ", " + terminology.getVersion());
+
+      // Start from the roots and walk down to the cache depth
+      final javax.persistence.Query query = manager.createQuery(
+          "select a.node.id from " + clazz.getName() + " a "
+              + "where a.terminology = :terminology and a.version = :version "
+              + "and (a.ancestorPath = '' or a.ancestorPath is null)");
+      query.setParameter("terminology", terminology.getTerminology());
+      query.setParameter("version", terminology.getVersion());
+      List<String> paths = new ArrayList<>();
+      for (final Long nodeId : (List<Long>) query.getResultList()) {
+        paths.add(nodeId.toString());
+      }
+      for (int depth = 1; depth <= treeChildCacheDepth
+          && !paths.isEmpty(); depth++) {
+        final List<String> nextPaths = new ArrayList<>();
+        for (final String path : paths) {
+          final List<Long> childIds =
+              getTreePositionChildIds(terminology.getTerminology(),
+                  terminology.getVersion(), path, clazz);
+          if (depth < treeChildCacheDepth && !childIds.isEmpty()) {
+            final javax.persistence.Query nodeQuery =
+                manager.createQuery("select a.node.id from " + clazz.getName()
+                    + " a where a.id in (:ids)");
+            nodeQuery.setParameter("ids", childIds);
+            for (final Long nodeId : (List<Long>) nodeQuery.getResultList()) {
+              nextPaths.add(path + "~" + nodeId);
+            }
+          }
+        }
+        paths = nextPaths;
+      }
+      manager.clear();
+    }
+  }
+
+  /**
+   * Clear the cache of upper-level tree nodes and child lists. This must be
+   * called whenever tree positions are recomputed or removed.
+   */
+  public static void clearTreeCache() {
+    treeCache.clear();
+    treeChildCache.clear();
+  }
+
   /* see superclass */
   @Override
   public GeneralConceptAxiom addGeneralConceptAxiom(GeneralConceptAxiom axiom)
@@ -4922,19 +5323,31 @@ public class ContentServiceJpa extends MetadataServiceJpa
   public Set<Long> validateConcepts(Project project, String check,
     Set<Long> conceptIds) throws Exception {
     Logger.getLogger(getClass()).info("  Validate all concepts");
-    final Set<Long> failures = new HashSet<>();
+    final Map<String, ValidationCheck> checks = new LinkedHashMap<>();
     for (final String key : getValidationHandlersMap().keySet()) {
       if (project.getValidationChecks().contains(key)
           && (check == null || check.equals(key))) {
-        final Set<Long> failedCheck =
-            getValidationHandlersMap().get(key).validateConcepts(conceptIds,
-                project.getTerminology(), project.getVersion(), this);
-        Logger.getLogger(getClass())
-            .info("    " + key + " ct = " + failedCheck.size());
-        failures.addAll(failedCheck);
+        checks.put(key, getValidationHandlersMap().get(key));
       }
     }
-    return failures;
+
+    // Run the checks concurrently, each task with its own service, unless
+    // this service holds changes not yet flushed that the checks must see
+    // (changes already flushed should be committed before validating)
+    final ConceptValidationEngine engine = new ConceptValidationEngine(checks,
+        project.getTerminology(), project.getVersion(), this);
+    engine.setConcurrent(getTransactionPerOperation() || tx == null
+        || !tx.isActive() || !manager.unwrap(Session.class).isDirty());
+    final Properties config = ConfigUtility.getConfigProperties();
+    if (config.getProperty("validation.service.threads") != null) {
+      engine.setThreadCt(
+          Integer.parseInt(config.getProperty("validation.service.threads")));
+    }
+    if (config.getProperty("validation.service.partition.size") != null) {
+      engine.setPartitionSize(Integer
+          .parseInt(config.getProperty("validation.service.partition.size")));
+    }
+    return engine.validate(conceptIds);
   }
 
   /* see superclass */
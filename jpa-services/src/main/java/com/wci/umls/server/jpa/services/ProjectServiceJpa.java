@@ -22,6 +22,7 @@ import com.wci.umls.server.helpers.ProjectList;
 import com.wci.umls.server.helpers.content.ConceptList;
 import com.wci.umls.server.jpa.ProjectJpa;
 import com.wci.umls.server.jpa.helpers.ProjectListJpa;
+import com.wci.umls.server.jpa.services.helper.AutocompleteUtility;
 import com.wci.umls.server.services.ProjectService;
 
 /**
@@ -146,6 +147,7 @@ public class ProjectServiceJpa extends RootServiceJpa
   public Project addProject(Project project) throws Exception {
     Logger.getLogger(getClass())
         .debug("Project Service - add project - " + project);
+    removeAutocompleteSuggesters(project);
     return addHasLastModified(project);
   }
 
@@ -154,9 +156,25 @@ public class ProjectServiceJpa extends RootServiceJpa
   public void updateProject(Project project) throws Exception {
     Logger.getLogger(getClass())
         .debug("Project Service - update project - " + project);
+    removeAutocompleteSuggesters(project);
     updateHasLastModified(project);
   }
 
+  /**
+   * Removes the autocomplete suggesters of the project terminology, which are
+   * not updated by molecular actions (autocomplete falls back to the concept
+   * indexes).
+   *
+   * @param project the project
+   * @throws Exception the exception
+   */
+  private void removeAutocompleteSuggesters(Project project) throws Exception {
+    if (project.getTerminology() != null && project.getVersion() != null) {
+      AutocompleteUtility.remove(project.getTerminology(),
+          project.getVersion());
+    }
+  }
+
   /* see superclass */
   @Override
   public void removeProject(Long id) throws Exception {
@@ -8,10 +8,10 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.text.WordUtils;
@@ -35,6 +35,8 @@ import com.wci.umls.server.jpa.report.ReportJpa;
 import com.wci.umls.server.jpa.report.ReportListJpa;
 import com.wci.umls.server.jpa.report.ReportResultItemJpa;
 import com.wci.umls.server.jpa.report.ReportResultJpa;
+import com.wci.umls.server.jpa.services.helper.ReportFragmentCache;
+import com.wci.umls.server.jpa.services.helper.ReportFragmentCache.Section;
 import com.wci.umls.server.jpa.services.helper.ReportsAtomComparator;
 import com.wci.umls.server.model.content.Atom;
 import com.wci.umls.server.model.content.AtomClass;
@@ -68,17 +70,6 @@ public class ReportServiceJpa extends HistoryServiceJpa
   /** The line end. */
   private final String lineEnd = "\r\n";
 
-  /** The concept contexts cache. */
-  private static final Map<Long, String> conceptContextsCache =
-      Collections.synchronizedMap(new LinkedHashMap<Long, String>(50) {
-        private static final long serialVersionUID = 2546245625L;
-
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
-          return size() > 50;
-        }
-      });
-
   /**
    * Instantiates an empty {@link ReportServiceJpa}.
    *
@@ -103,8 +94,6 @@ public class ReportServiceJpa extends HistoryServiceJpa
     PrecedenceList list, boolean decorate) throws Exception {
 
     final StringBuilder sb = new StringBuilder();
-    Tree parent = null;
-    String indent = "";
 
     // For concept-specific things, cast it if so
     final Concept concept = (comp instanceof Concept) ? ((Concept) comp) : null;
@@ -188,6 +177,138 @@ public class ReportServiceJpa extends HistoryServiceJpa
       }
     }
 
+    //
+    // Atoms (cached by precedence list, decoration and ambiguity)
+    //
+
+    // Determine ambiguous atoms
+    final Set<Long> ambiguousAtomIds = concept == null ? new HashSet<>()
+        : new HashSet<>(getAmbiguousAtomIds(concept));
+    final String atomsVariant = (list == null ? null : list.getId()) + ":"
+        + decorate + ":" + new TreeSet<>(ambiguousAtomIds);
+    String atomsReport = concept == null ? null
+        : ReportFragmentCache.get(concept.getId(), Section.ATOMS,
+            atomsVariant);
+    if (atomsReport == null) {
+      atomsReport =
+          getAtomsReport(comp, concept, list, decorate, ambiguousAtomIds);
+      if (concept != null) {
+        ReportFragmentCache.put(concept.getId(), Section.ATOMS, atomsVariant,
+            atomsReport, new HashSet<>());
+      }
+    }
+    sb.append(atomsReport);
+
+    //
+    // Notes
+    //
+    StringBuilder notesBuffer = new StringBuilder();
+    String notesLabel = "CONCEPT NOTE(S)";
+    notesBuffer.append(notesLabel);
+    for (final Note note : concept.getNotes()) {
+      notesBuffer.append(lineEnd)
+          .append(
+              WordUtils.wrap(
+                  "  - " + note.getLastModifiedBy() + "/"
+                      + note.getLastModified() + "  " + note.getNote(),
+                  65, "\r\n    ", true));
+    }
+    if (notesBuffer.toString().length() > notesLabel.length()) {
+      sb.append(notesBuffer.toString());
+      sb.append(lineEnd);
+    }
+
+    notesBuffer = new StringBuilder();
+    notesLabel = "ATOM NOTE(S)";
+    notesBuffer.append(notesLabel);
+    for (final Atom atom : concept.getAtoms()) {
+      for (final Note note : atom.getNotes()) {
+        notesBuffer.append(lineEnd)
+            .append(
+                WordUtils.wrap(
+                    "  - " + note.getLastModifiedBy() + "/"
+                        + note.getLastModified() + "  " + note.getNote(),
+                    65, "\r\n    ", true));
+      }
+    }
+    if (notesBuffer.toString().length() > notesLabel.length()) {
+      sb.append(notesBuffer.toString());
+      sb.append(lineEnd);
+    }
+    sb.append(lineEnd);
+
+    //
+    // Relationships (cached by decoration)
+    //
+    final String relsVariant = String.valueOf(decorate);
+    String relsReport = concept == null ? null
+        : ReportFragmentCache.get(concept.getId(), Section.RELATIONSHIPS,
+            relsVariant);
+    if (relsReport == null) {
+      final Set<Long> relatedConceptIds = new HashSet<>();
+      relsReport =
+          getRelationshipsReport(comp, concept, decorate, relatedConceptIds);
+      if (concept != null) {
+        ReportFragmentCache.put(concept.getId(), Section.RELATIONSHIPS,
+            relsVariant, relsReport, relatedConceptIds);
+      }
+    }
+    sb.append(relsReport);
+
+    //
+    // CONTEXTS
+    //
+
+    // Check cache
+    String contexts =
+        ReportFragmentCache.get(concept.getId(), Section.CONTEXTS, "");
+    if (contexts == null) {
+      contexts = getContextsReport(concept);
+      ReportFragmentCache.put(concept.getId(), Section.CONTEXTS, "", contexts,
+          new HashSet<>());
+    }
+    sb.append(contexts);
+
+    if (comp.getLastModified() != null && comp.getLastModifiedBy() != null) {
+      if (comp instanceof Concept) {
+        sb.append("Concept");
+      } else if (comp instanceof Descriptor) {
+        sb.append("Descriptor");
+      } else if (comp instanceof Code) {
+        sb.append("Code");
+      }
+      sb.append(" was last touched on ").append(comp.getLastModified())
+          .append(" by ").append(comp.getLastModifiedBy()).append(".")
+          .append(lineEnd);
+    }
+    if (concept != null) {
+      if (concept.getLastApproved() != null
+          && concept.getLastApprovedBy() != null) {
+        sb.append("Concept was last approved on ")
+            .append(concept.getLastApproved()).append(" by ")
+            .append(concept.getLastApprovedBy()).append(".").append(lineEnd);
+      }
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Returns the definitions, SOS and atoms sections of the report.
+   *
+   * @param comp the comp
+   * @param concept the concept, or null
+   * @param list the list
+   * @param decorate the decorate
+   * @param ambiguousAtomIds the ambiguous atom ids
+   * @return the atoms report
+   * @throws Exception the exception
+   */
+  private String getAtomsReport(AtomClass comp, Concept concept,
+    PrecedenceList list, boolean decorate, Set<Long> ambiguousAtomIds)
+    throws Exception {
+    final StringBuilder sb = new StringBuilder();
+
     //
     // Sort atoms
     //
@@ -242,10 +363,6 @@ public class ReportServiceJpa extends HistoryServiceJpa
     // Atoms
     //
 
-    // Determine ambiguous atoms
-    final Set<Long> ambiguousAtomIds = concept == null ? new HashSet<>()
-        : new HashSet<>(getAmbiguousAtomIds(concept));
-
     sb.append(lineEnd).append("ATOMS").append(lineEnd);
 
     String prev_lui = "";
@@ -368,43 +485,22 @@ public class ReportServiceJpa extends HistoryServiceJpa
     }
     sb.append(lineEnd);
 
-    //
-    // Notes
-    //
-    StringBuilder notesBuffer = new StringBuilder();
-    String notesLabel = "CONCEPT NOTE(S)";
-    notesBuffer.append(notesLabel);
-    for (final Note note : concept.getNotes()) {
-      notesBuffer.append(lineEnd)
-          .append(
-              WordUtils.wrap(
-                  "  - " + note.getLastModifiedBy() + "/"
-                      + note.getLastModified() + "  " + note.getNote(),
-                  65, "\r\n    ", true));
-    }
-    if (notesBuffer.toString().length() > notesLabel.length()) {
-      sb.append(notesBuffer.toString());
-      sb.append(lineEnd);
-    }
+    return sb.toString();
+  }
 
-    notesBuffer = new StringBuilder();
-    notesLabel = "ATOM NOTE(S)";
-    notesBuffer.append(notesLabel);
-    for (final Atom atom : concept.getAtoms()) {
-      for (final Note note : atom.getNotes()) {
-        notesBuffer.append(lineEnd)
-            .append(
-                WordUtils.wrap(
-                    "  - " + note.getLastModifiedBy() + "/"
-                        + note.getLastModified() + "  " + note.getNote(),
-                    65, "\r\n    ", true));
-      }
-    }
-    if (notesBuffer.toString().length() > notesLabel.length()) {
-      sb.append(notesBuffer.toString());
-      sb.append(lineEnd);
-    }
-    sb.append(lineEnd);
+  /**
+   * Returns the relationships sections of the report.
+   *
+   * @param comp the comp
+   * @param concept the concept, or null
+   * @param decorate the decorate
+   * @param relatedConceptIds the related concept ids, filled in
+   * @return the relationships report
+   * @throws Exception the exception
+   */
+  private String getRelationshipsReport(AtomClass comp, Concept concept,
+    boolean decorate, Set<Long> relatedConceptIds) throws Exception {
+    final StringBuilder sb = new StringBuilder();
 
     //
     // RELATIONSHIPS
@@ -433,6 +529,14 @@ public class ReportServiceJpa extends HistoryServiceJpa
               comp.getVersion(), Branch.ROOT, null, true, null).getObjects();
     }
 
+    // The report shows the names and states of the related concepts
+    if (concept != null) {
+      for (final Relationship<?, ?> rel : relList) {
+        relatedConceptIds.add(rel.getFrom().getId());
+        relatedConceptIds.add(rel.getTo().getId());
+      }
+    }
+
     // Lexical Relationships
     final List<AtomRelationship> lexicalRelationships = new ArrayList<>();
     // double for loop over atoms and then each atom's relationships
@@ -580,136 +684,113 @@ public class ReportServiceJpa extends HistoryServiceJpa
       sb.append(getRelationshipsReport(contextRelationships));
     }
 
-    //
-    // CONTEXTS
-    //
-
-    // Check cache
-    final String contexts = getCachedContexts(concept.getId());
-    if (contexts != null) {
-      sb.append(contexts);
-    }
+    return sb.toString();
+  }
 
-    else {
+  /**
+   * Returns the contexts section of the report.
+   *
+   * @param concept the concept
+   * @return the contexts report
+   * @throws Exception the exception
+   */
+  private String getContextsReport(Concept concept) throws Exception {
+    Tree parent = null;
+    String indent = "";
 
-      final StringBuilder cxtBuilder = new StringBuilder();
-      boolean firstContext = true;
+    final StringBuilder cxtBuilder = new StringBuilder();
+    boolean firstContext = true;
 
-      final TreePositionList treePositionList = findConceptDeepTreePositions(
-          concept.getTerminologyId(), concept.getTerminology(),
-          concept.getVersion(), Branch.ROOT, null, new PfsParameterJpa());
+    final TreePositionList treePositionList = findConceptDeepTreePositions(
+        concept.getTerminologyId(), concept.getTerminology(),
+        concept.getVersion(), Branch.ROOT, null, new PfsParameterJpa());
 
-      // display context for each tree position
-      for (final TreePosition<?> treePos : treePositionList.getObjects()) {
+    // display context for each tree position
+    for (final TreePosition<?> treePos : treePositionList.getObjects()) {
 
-        // Write header
-        if (firstContext) {
-          cxtBuilder.append("CONTEXTS").append(lineEnd);
-          firstContext = false;
-        }
+      // Write header
+      if (firstContext) {
+        cxtBuilder.append("CONTEXTS").append(lineEnd);
+        firstContext = false;
+      }
 
-        cxtBuilder.append(getTerminologyAndVersion(treePos.getNode()));
-        cxtBuilder.append("/");
+      cxtBuilder.append(getTerminologyAndVersion(treePos.getNode()));
+      cxtBuilder.append("/");
 
-        if (treePos.getNode() instanceof Atom) {
-          cxtBuilder.append(((Atom) treePos.getNode()).getCodeId());
+      if (treePos.getNode() instanceof Atom) {
+        cxtBuilder.append(((Atom) treePos.getNode()).getCodeId());
+      } else {
+        cxtBuilder.append(treePos.getNode().getTerminologyId());
+      }
+      cxtBuilder.append(lineEnd);
+
+      final Tree tree = getTreeForTreePosition(treePos);
+
+      // ancestors
+      indent = "";
+      cxtBuilder.append(tree.getNodeName()).append(lineEnd);
+      indent += "  ";
+      indent = printAncestors(cxtBuilder, tree, null, indent);
+      // "parent" is the tree position above the bottom one
+      parent = tree;
+      while (parent.getChildren().size() > 0) {
+        if (parent.getChildren().get(0).getChildren().size() > 0) {
+          parent = parent.getChildren().get(0);
         } else {
-          cxtBuilder.append(treePos.getNode().getTerminologyId());
-        }
-        cxtBuilder.append(lineEnd);
-
-        final Tree tree = getTreeForTreePosition(treePos);
-
-        // ancestors
-        indent = "";
-        cxtBuilder.append(tree.getNodeName()).append(lineEnd);
-        indent += "  ";
-        indent = printAncestors(cxtBuilder, tree, null, indent);
-        // "parent" is the tree position above the bottom one
-        parent = tree;
-        while (parent.getChildren().size() > 0) {
-          if (parent.getChildren().get(0).getChildren().size() > 0) {
-            parent = parent.getChildren().get(0);
-          } else {
-            break;
-          }
+          break;
         }
+      }
 
-        TreePositionList siblings = null;
-        TreePositionList children = null;
-        final PfsParameter childPfs = new PfsParameterJpa();
-        childPfs.setStartIndex(0);
-        childPfs.setMaxResults(10);
+      TreePositionList siblings = null;
+      TreePositionList children = null;
+      final PfsParameter childPfs = new PfsParameterJpa();
+      childPfs.setStartIndex(0);
+      childPfs.setMaxResults(10);
 
-        if (treePos.getChildCt() > 0) {
-          children = findTreePositionChildren(treePos.getNode().getId(), null,
-              null, null, Branch.ROOT, treePos.getClass(), childPfs);
-        } else {
-          children = new TreePositionListJpa();
-        }
+      if (treePos.getChildCt() > 0) {
+        children = findTreePositionChildren(treePos.getNode().getId(), null,
+            null, null, Branch.ROOT, treePos.getClass(), childPfs);
+      } else {
+        children = new TreePositionListJpa();
+      }
 
-        siblings = findTreePositionChildren(parent.getNodeId(), null, null,
-            null, Branch.ROOT, treePos.getClass(), new PfsParameterJpa());
+      siblings = findTreePositionChildren(parent.getNodeId(), null, null,
+          null, Branch.ROOT, treePos.getClass(), new PfsParameterJpa());
 
-        // siblings & self node
-        indent = indent.substring(0, indent.length() - 2);
-        Collections.sort(siblings.getObjects(), (t1, t2) -> t1.getNode()
-            .getName().compareTo(t2.getNode().getName()));
+      // siblings & self node
+      indent = indent.substring(0, indent.length() - 2);
+      Collections.sort(siblings.getObjects(), (t1, t2) -> t1.getNode()
+          .getName().compareTo(t2.getNode().getName()));
 
-        indent += "  ";
-        for (TreePosition<?> siblingPosition : siblings.getObjects()) {
-          cxtBuilder.append(indent);
-          if (siblingPosition.getNode().getName()
-              .equals(treePos.getNode().getName())) {
-            cxtBuilder.append("<b>");
-          }
-          cxtBuilder.append(siblingPosition.getNode().getName());
-          if (siblingPosition.getNode().getName()
-              .equals(treePos.getNode().getName())) {
-            cxtBuilder.append("</b>").append(lineEnd);
-
-            // children
-            indent += "  ";
-            printChildren(cxtBuilder, treePos, children, indent);
-            if (children.getTotalCount() > 10) {
-              cxtBuilder.append(indent).append(
-                  "..." + (children.getTotalCount() - 10) + " more ...");
-            }
-            indent = indent.substring(0, indent.length() - 2);
-          } else if (siblingPosition.getChildCt() > 0) {
-            cxtBuilder.append(" +").append(lineEnd);
-          } else {
-            cxtBuilder.append(lineEnd);
+      indent += "  ";
+      for (TreePosition<?> siblingPosition : siblings.getObjects()) {
+        cxtBuilder.append(indent);
+        if (siblingPosition.getNode().getName()
+            .equals(treePos.getNode().getName())) {
+          cxtBuilder.append("<b>");
+        }
+        cxtBuilder.append(siblingPosition.getNode().getName());
+        if (siblingPosition.getNode().getName()
+            .equals(treePos.getNode().getName())) {
+          cxtBuilder.append("</b>").append(lineEnd);
+
+          // children
+          indent += "  ";
+          printChildren(cxtBuilder, treePos, children, indent);
+          if (children.getTotalCount() > 10) {
+            cxtBuilder.append(indent).append(
+                "..." + (children.getTotalCount() - 10) + " more ...");
           }
+          indent = indent.substring(0, indent.length() - 2);
+        } else if (siblingPosition.getChildCt() > 0) {
+          cxtBuilder.append(" +").append(lineEnd);
+        } else {
+          cxtBuilder.append(lineEnd);
         }
-        cxtBuilder.append(lineEnd);
       }
-      cacheContexts(concept.getId(), cxtBuilder.toString());
-      sb.append(cxtBuilder.toString());
+      cxtBuilder.append(lineEnd);
     }
-
-    if (comp.getLastModified() != null && comp.getLastModifiedBy() != null) {
-      if (comp instanceof Concept) {
-        sb.append("Concept");
-      } else if (comp instanceof Descriptor) {
-        sb.append("Descriptor");
-      } else if (comp instanceof Code) {
-        sb.append("Code");
-      }
-      sb.append(" was last touched on ").append(comp.getLastModified())
-          .append(" by ").append(comp.getLastModifiedBy()).append(".")
-          .append(lineEnd);
-    }
-    if (concept != null) {
-      if (concept.getLastApproved() != null
-          && concept.getLastApprovedBy() != null) {
-        sb.append("Concept was last approved on ")
-            .append(concept.getLastApproved()).append(" by ")
-            .append(concept.getLastApprovedBy()).append(".").append(lineEnd);
-      }
-    }
-
-    return sb.toString();
+    return cxtBuilder.toString();
   }
 
   private Object handleHtmlSymbols(String name) {
@@ -950,35 +1031,6 @@ public class ReportServiceJpa extends HistoryServiceJpa
         + (t.getVersion().equals("latest") ? "" : ("_" + t.getVersion()));
   }
 
-  /**
-   * Returns the cached contexts.
-   *
-   * @param conceptId the concept id
-   * @return the cached contexts
-   */
-  @SuppressWarnings("static-method")
-  private String getCachedContexts(Long conceptId) {
-    synchronized (conceptContextsCache) {
-      if (conceptContextsCache.containsKey(conceptId)) {
-        return conceptContextsCache.get(conceptId);
-      }
-    }
-    return null;
-  }
-
-  /**
-   * Cache contexts.
-   *
-   * @param conceptId the concept id
-   * @param contexts the contexts
-   */
-  @SuppressWarnings("static-method")
-  private void cacheContexts(Long conceptId, String contexts) {
-    synchronized (conceptContextsCache) {
-      conceptContextsCache.put(conceptId, contexts);
-    }
-  }
-
   /* see superclass */
   @Override
   public Report getReport(Long reportId) throws Exception {
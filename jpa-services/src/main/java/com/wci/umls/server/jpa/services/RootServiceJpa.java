@@ -18,6 +18,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -56,19 +57,24 @@ import com.wci.umls.server.jpa.actions.AtomicActionListJpa;
 import com.wci.umls.server.jpa.actions.MolecularActionJpa;
 import com.wci.umls.server.jpa.actions.MolecularActionListJpa;
 import com.wci.umls.server.jpa.algo.action.AbstractMolecularAction;
+import com.wci.umls.server.jpa.algo.action.PostActionMaintenanceQueue;
 import com.wci.umls.server.jpa.content.ConceptJpa;
+import com.wci.umls.server.jpa.helpers.DeferredIndexingInterceptor;
 import com.wci.umls.server.jpa.helpers.LogEntryJpa;
 import com.wci.umls.server.jpa.helpers.PfsParameterJpa;
 import com.wci.umls.server.jpa.helpers.TypeKeyValueJpa;
 import com.wci.umls.server.jpa.helpers.TypeKeyValueListJpa;
 import com.wci.umls.server.jpa.services.helper.IndexUtility;
+import com.wci.umls.server.jpa.services.helper.IndexWriteBehindQueue;
+import com.wci.umls.server.jpa.services.helper.ReportFragmentCache;
+import com.wci.umls.server.jpa.services.helper.UserProfileCache;
+import com.wci.umls.server.jpa.services.helper.UserProfileCache.UserProfile;
 import com.wci.umls.server.model.actions.AtomicAction;
 import com.wci.umls.server.model.actions.AtomicActionList;
 import com.wci.umls.server.model.actions.MolecularAction;
 import com.wci.umls.server.model.actions.MolecularActionList;
 import com.wci.umls.server.model.content.Component;
 import com.wci.umls.server.services.RootService;
-import com.wci.umls.server.services.SecurityService;
 import com.wci.umls.server.services.handlers.SearchHandler;
 import com.wci.umls.server.services.handlers.ValidationCheck;
 
@@ -108,6 +114,10 @@ public abstract class RootServiceJpa implements RootService {
   /** The validation handlers. */
   private static Map<String, ValidationCheck> validationHandlersMap = null;
 
+  /** The validation pipelines, by list of validation check names. */
+  private static Map<List<String>, List<ValidationCheck>> pipelineMap =
+      new ConcurrentHashMap<>();
+
   static {
     init();
   }
@@ -155,6 +165,8 @@ public abstract class RootServiceJpa implements RootService {
     }
 
     validationHandlersMap = new HashMap<>();
+    pipelineMap = new ConcurrentHashMap<>();
+    UserProfileCache.clear();
     try {
       if (config == null)
         config = ConfigUtility.getConfigProperties();
@@ -224,6 +236,8 @@ public abstract class RootServiceJpa implements RootService {
           .info("Setting root service entity manager factory.");
       final Properties config = ConfigUtility.getConfigProperties();
       factory = Persistence.createEntityManagerFactory("TermServiceDS", config);
+      // Cached parsers hold analyzers of the old search factory
+      IndexUtility.clearQueryCaches();
     }
   }
 
@@ -1428,30 +1442,53 @@ public abstract class RootServiceJpa implements RootService {
   @Override
   public ValidationResult validateAction(MolecularActionAlgorithm action) {
     final ValidationResult result = new ValidationResultJpa();
-    for (final String key : getValidationHandlersMap().keySet()) {
-      List<String> validationChecks = null;
-      // If action algorithm has checks specified, use them
-      if (action.getValidationChecks() != null) {
-        validationChecks = action.getValidationChecks();
-      }
-      // Otherwise use project default validation checks
-      else {
-        validationChecks = action.getProject().getValidationChecks();
-      }
+    // If action algorithm has checks specified, use them
+    // Otherwise use project default validation checks
+    final List<String> validationChecks = action.getValidationChecks() != null
+        ? action.getValidationChecks()
+        : action.getProject().getValidationChecks();
+    if (validationChecks == null) {
+      return result;
+    }
 
-      if (validationChecks != null && validationChecks.contains(key)) {
-        result
-            .merge(getValidationHandlersMap().get(key).validateAction(action));
-      }
+    for (final ValidationCheck check : getValidationPipeline(
+        validationChecks)) {
+      result.merge(check.validateAction(action));
     }
 
     return result;
   }
 
+  /**
+   * Returns the validation handlers for the check names, in handler map order.
+   * Pipelines are built once per distinct list of check names.
+   *
+   * @param validationChecks the validation check names
+   * @return the validation pipeline
+   */
+  @SuppressWarnings("static-method")
+  private List<ValidationCheck> getValidationPipeline(
+    List<String> validationChecks) {
+    List<ValidationCheck> pipeline = pipelineMap.get(validationChecks);
+    if (pipeline == null) {
+      pipeline = new ArrayList<>();
+      for (final Entry<String, ValidationCheck> entry : validationHandlersMap
+          .entrySet()) {
+        if (validationChecks.contains(entry.getKey())) {
+          pipeline.add(entry.getValue());
+        }
+      }
+      // Copy the key, the action's list may change later
+      pipelineMap.put(new ArrayList<>(validationChecks), pipeline);
+    }
+    return pipeline;
+  }
+
   /* see superclass */
   @Override
   public void refreshCaches() throws Exception {
     init();
+    ReportFragmentCache.clear();
     closeFactory();
     openFactory();
   }
@@ -1491,21 +1528,15 @@ public abstract class RootServiceJpa implements RootService {
             && !action.isOverrideWarnings())) {
 
       // IF the user is level 5 editor or greater, make all errors into warnings
-      final SecurityService service = new SecurityServiceJpa();
-      try {
-        final User user = service.getUser(userName);
-        if (user != null && user.getEditorLevel() >= 5) {
-          for (final String error : validationResult.getErrors()) {
-            if (!validationResult.getWarnings().contains(error)) {
-              validationResult.getWarnings().add(error);
-            }
-            validationResult.getErrors().clear();
+      final UserProfile user =
+          UserProfileCache.getProfile(action.getEntityManager(), userName);
+      if (user != null && user.getEditorLevel() >= 5) {
+        for (final String error : validationResult.getErrors()) {
+          if (!validationResult.getWarnings().contains(error)) {
+            validationResult.getWarnings().add(error);
           }
+          validationResult.getErrors().clear();
         }
-      } catch (Exception e) {
-        throw e;
-      } finally {
-        service.close();
       }
 
       // Check again in case all errors were turned into warnings and we're
@@ -1522,21 +1553,48 @@ public abstract class RootServiceJpa implements RootService {
     //
     // Perform the action
     //
-    action.compute();
+    // Outside of batch mode, concept index updates can be deferred to the
+    // write-behind queue
+    final boolean writeBehind = !batchMode && IndexWriteBehindQueue.isEnabled();
+    if (writeBehind) {
+      DeferredIndexingInterceptor.beginDeferring();
+    }
+    try {
+      action.compute();
 
-    // If not in batch mode, create log entries and commit
-    if (!batchMode) {
-      // create the log entries
-      action.logAction();
+      // If not in batch mode, create log entries and commit
+      if (!batchMode) {
+        // create the log entries
+        action.logAction();
 
-      // commit (also removes the lock)
-      action.commit();
+        // commit (also removes the lock)
+        action.commit();
+      }
+    } finally {
+      if (writeBehind) {
+        IndexWriteBehindQueue.enqueue(
+            DeferredIndexingInterceptor.endDeferring(),
+            action.getLastModifiedBy());
+      }
     }
 
+    // Drop cached report fragments built from the affected concepts
+    ReportFragmentCache.invalidate(action.getMaintenanceConceptIds());
+
     // Perform post-action maintenance on affected concept(s)
     // DO this in a separate transaction - maybe some issues with
+    // Outside of batch mode the action is committed, so this can be
+    // handed off to the background queue if enabled (which drops the
+    // fragments again once the maintenance is committed)
     if (performMaintanence) {
-      action.postActionMaintenance();
+      if (!batchMode && PostActionMaintenanceQueue.isEnabled()) {
+        PostActionMaintenanceQueue.enqueue(action.getProject().getId(),
+            action.getMaintenanceConceptIds(), userName);
+      } else {
+        action.postActionMaintenance();
+        // Drop fragments cached while maintenance was running
+        ReportFragmentCache.invalidate(action.getMaintenanceConceptIds());
+      }
     }
 
     // no errors/warnings at this point.
@@ -6,8 +6,10 @@ package com.wci.umls.server.jpa.services;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.NoResultException;
 
@@ -23,6 +25,8 @@ import com.wci.umls.server.helpers.UserList;
 import com.wci.umls.server.jpa.UserJpa;
 import com.wci.umls.server.jpa.UserPreferencesJpa;
 import com.wci.umls.server.jpa.helpers.UserListJpa;
+import com.wci.umls.server.jpa.services.helper.UserProfileCache;
+import com.wci.umls.server.jpa.services.helper.UserProfileCache.UserProfile;
 import com.wci.umls.server.services.ProjectService;
 import com.wci.umls.server.services.SecurityService;
 import com.wci.umls.server.services.handlers.SecurityServiceHandler;
@@ -47,6 +51,12 @@ public class SecurityServiceJpa extends RootServiceJpa
   /** The timeout. */
   private static int timeout;
 
+  /**
+   * The user names whose cached profiles to invalidate when the current
+   * transaction ends (when not using transaction per operation).
+   */
+  private final Set<String> invalidatedUserNames = new HashSet<>();
+
   static {
     init();
   }
@@ -239,11 +249,11 @@ public class SecurityServiceJpa extends RootServiceJpa
     if (username == null) {
       throw new LocalException("Unable to find user for the AuthToken");
     }
-    User user = getUser(username);
-    if (user == null) {
+    final UserProfile profile = UserProfileCache.getProfile(manager, username);
+    if (profile == null) {
       return UserRole.VIEWER;
     }
-    return user.getApplicationRole();
+    return profile.getApplicationRole();
   }
 
   /* see superclass */
@@ -306,6 +316,8 @@ public class SecurityServiceJpa extends RootServiceJpa
         tx.rollback();
       }
       throw e;
+    } finally {
+      invalidateProfile(user.getUserName());
     }
 
     return user;
@@ -340,6 +352,10 @@ public class SecurityServiceJpa extends RootServiceJpa
         tx.rollback();
       }
       throw e;
+    } finally {
+      if (mu != null) {
+        invalidateProfile(mu.getUserName());
+      }
     }
 
   }
@@ -363,6 +379,55 @@ public class SecurityServiceJpa extends RootServiceJpa
         tx.rollback();
       }
       throw e;
+    } finally {
+      invalidateProfile(user.getUserName());
+    }
+  }
+
+  /**
+   * Invalidates the cached profile of a changed user once the change has
+   * committed (or rolled back), so a concurrent lookup cannot cache the old
+   * row again after the invalidation. With transaction per operation the
+   * change has already ended; otherwise this waits for commit or rollback.
+   *
+   * @param userName the user name
+   */
+  private void invalidateProfile(String userName) {
+    if (getTransactionPerOperation()) {
+      UserProfileCache.invalidate(userName);
+    } else {
+      invalidatedUserNames.add(userName);
+    }
+  }
+
+  /**
+   * Invalidates the cached profiles of the users changed in the transaction
+   * that just ended.
+   */
+  private void invalidateProfiles() {
+    for (final String userName : invalidatedUserNames) {
+      UserProfileCache.invalidate(userName);
+    }
+    invalidatedUserNames.clear();
+  }
+
+  /* see superclass */
+  @Override
+  public void commit() throws Exception {
+    try {
+      super.commit();
+    } finally {
+      invalidateProfiles();
+    }
+  }
+
+  /* see superclass */
+  @Override
+  public void rollback() throws Exception {
+    try {
+      super.rollback();
+    } finally {
+      invalidateProfiles();
     }
   }
 
@@ -500,6 +565,7 @@ public class SecurityServiceJpa extends RootServiceJpa
   public void refreshCaches() throws Exception {
     super.refreshCaches();
     init();
+    UserProfileCache.clear();
     validateInit();
   }
 
@@ -39,6 +39,7 @@ import com.wci.umls.server.jpa.helpers.PfsParameterJpa;
 import com.wci.umls.server.jpa.helpers.TrackingRecordListJpa;
 import com.wci.umls.server.jpa.helpers.WorkflowConfigListJpa;
 import com.wci.umls.server.jpa.helpers.WorklistListJpa;
+import com.wci.umls.server.jpa.services.helper.ReportFragmentCache;
 import com.wci.umls.server.jpa.workflow.ChecklistJpa;
 import com.wci.umls.server.jpa.workflow.TrackingRecordJpa;
 import com.wci.umls.server.jpa.workflow.WorkflowBinDefinitionJpa;
@@ -1115,6 +1116,12 @@ public class WorkflowServiceJpa extends HistoryServiceJpa
     // Perform the action
     Worklist r = handler.performWorkflowAction(project, worklist, userName,
         role, action, this);
+
+    // Warm the report cache for the worklist's concepts
+    if (action == WorkflowAction.ASSIGN
+        && ReportFragmentCache.isPrecompute()) {
+      ReportFragmentCache.precompute(project.getId(), worklist.getName());
+    }
     return r;
   }
 
@@ -4,16 +4,17 @@
 package com.wci.umls.server.jpa.services.handlers;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.ArrayUtil;
 
 import com.wci.umls.server.jpa.AbstractConfigurable;
 import com.wci.umls.server.services.handlers.NormalizedStringHandler;
@@ -21,41 +22,94 @@ import com.wci.umls.server.services.handlers.NormalizedStringHandler;
 /**
  * Implements a normalized string handler based on the Lucune
  * {@link StandardAnalyzer}.
+ *
+ * The handler is shared by all services, so a single analyzer is used (Lucene
+ * reuses its token stream components per thread) and each thread keeps its
+ * own token buffers. Tokens are copied into a char buffer and sorted by index,
+ * so normalizing a string allocates only the result. An optional bounded
+ * cache of normalized strings keyed by string class id (SUI) can be enabled
+ * with the "cacheSize" property.
  */
 public class LuceneNormalizedStringHandler extends AbstractConfigurable
     implements NormalizedStringHandler {
 
+  /** The analyzer. */
+  private final StandardAnalyzer analyzer = new StandardAnalyzer();
+
+  /** The per-thread token buffers. */
+  private final ThreadLocal<TokenBuffer> buffers =
+      new ThreadLocal<TokenBuffer>() {
+        @Override
+        protected TokenBuffer initialValue() {
+          return new TokenBuffer();
+        }
+      };
+
+  /** The normalized string cache, keyed by string class id. */
+  private Map<String, String> cache = null;
+
   /* see superclass */
+  @SuppressWarnings("serial")
   @Override
   public void setProperties(Properties p) throws Exception {
-    // n/a
+    if (p != null && p.getProperty("cacheSize") != null) {
+      final int cacheSize = Integer.parseInt(p.getProperty("cacheSize"));
+      if (cacheSize > 0) {
+        cache = Collections.synchronizedMap(
+            // Access order, so the least recently used entry is evicted
+            new LinkedHashMap<String, String>(cacheSize, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(
+                Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+              }
+            });
+      }
+    }
   }
 
   /* see superclass */
   @Override
   public String getNormalizedString(String string) {
-    List<String> result = new ArrayList<String>();
-    StandardAnalyzer analyzer = new StandardAnalyzer();
-    try {
-      TokenStream stream = analyzer.tokenStream(null, new StringReader(string));
+    final TokenBuffer buffer = buffers.get();
+    buffer.clear();
+    try (final TokenStream stream = analyzer.tokenStream(null, string)) {
+      final CharTermAttribute term =
+          stream.addAttribute(CharTermAttribute.class);
       stream.reset();
       while (stream.incrementToken()) {
-        result.add(stream.getAttribute(CharTermAttribute.class).toString());
+        buffer.add(term.buffer(), term.length());
       }
+      stream.end();
     } catch (IOException e) {
       // not thrown b/c we're using a string reader...
       throw new RuntimeException(e);
-    } finally {
-      analyzer.close();
     }
-    Collections.sort(result);
-    StringBuilder normalizedString = new StringBuilder();
-    Iterator<String> iter = result.iterator();
-    while (iter.hasNext()) {
-      normalizedString.append(iter.next()).append(iter.hasNext() ? " " : "");
+    return buffer.sortAndJoin();
+  }
+
+  /* see superclass */
+  @Override
+  public String getNormalizedString(String string, String stringClassId) {
+    if (cache == null || stringClassId == null) {
+      return getNormalizedString(string);
     }
-    return normalizedString.toString();
+    String normalizedString = cache.get(stringClassId);
+    if (normalizedString == null) {
+      normalizedString = getNormalizedString(string);
+      cache.put(stringClassId, normalizedString);
+    }
+    return normalizedString;
+  }
 
+  /* see superclass */
+  @Override
+  public List<String> normalizeAll(Iterable<String> strings) {
+    final List<String> results = new ArrayList<>();
+    for (final String string : strings) {
+      results.add(getNormalizedString(string));
+    }
+    return results;
   }
 
   /* see superclass */
@@ -64,4 +118,106 @@ public class LuceneNormalizedStringHandler extends AbstractConfigurable
     return "Lucene Normalized String Handler";
   }
 
+  /**
+   * Reusable token storage for one thread. Tokens are appended to a single
+   * char buffer and sorted by index, comparing chars the same way as
+   * {@link String#compareTo(String)}.
+   */
+  private static class TokenBuffer {
+
+    /** The token chars. */
+    private char[] chars = new char[256];
+
+    /** The token start offsets. */
+    private int[] starts = new int[32];
+
+    /** The token lengths. */
+    private int[] lengths = new int[32];
+
+    /** The sorted token order. */
+    private int[] order = new int[32];
+
+    /** The number of tokens. */
+    private int size = 0;
+
+    /** The char buffer position. */
+    private int pos = 0;
+
+    /** The result builder. */
+    private final StringBuilder sb = new StringBuilder();
+
+    /**
+     * Clear.
+     */
+    public void clear() {
+      size = 0;
+      pos = 0;
+    }
+
+    /**
+     * Adds the token.
+     *
+     * @param token the token
+     * @param length the length
+     */
+    public void add(char[] token, int length) {
+      chars = ArrayUtil.grow(chars, pos + length);
+      if (size == starts.length) {
+        starts = ArrayUtil.grow(starts, size + 1);
+        lengths = ArrayUtil.grow(lengths, size + 1);
+        order = ArrayUtil.grow(order, size + 1);
+      }
+      System.arraycopy(token, 0, chars, pos, length);
+      starts[size] = pos;
+      lengths[size] = length;
+      order[size] = size;
+      pos += length;
+      size++;
+    }
+
+    /**
+     * Sort the tokens and join them with single spaces.
+     *
+     * @return the joined tokens
+     */
+    public String sortAndJoin() {
+      // Insertion sort - strings have few tokens
+      for (int i = 1; i < size; i++) {
+        final int index = order[i];
+        int j = i - 1;
+        while (j >= 0 && compare(order[j], index) > 0) {
+          order[j + 1] = order[j];
+          j--;
+        }
+        order[j + 1] = index;
+      }
+      sb.setLength(0);
+      for (int i = 0; i < size; i++) {
+        if (i > 0) {
+          sb.append(' ');
+        }
+        sb.append(chars, starts[order[i]], lengths[order[i]]);
+      }
+      return sb.toString();
+    }
+
+    /**
+     * Compare two tokens.
+     *
+     * @param a the first token index
+     * @param b the second token index
+     * @return the comparison
+     */
+    private int compare(int a, int b) {
+      final int len = Math.min(lengths[a], lengths[b]);
+      for (int k = 0; k < len; k++) {
+        final char c1 = chars[starts[a] + k];
+        final char c2 = chars[starts[b] + k];
+        if (c1 != c2) {
+          return c1 - c2;
+        }
+      }
+      return lengths[a] - lengths[b];
+    }
+  }
 }
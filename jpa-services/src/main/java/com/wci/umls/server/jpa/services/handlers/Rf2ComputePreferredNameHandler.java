@@ -59,15 +59,9 @@ public class Rf2ComputePreferredNameHandler
     }
   }
 
-  /**
-   * Returns the rank.
-   *
-   * @param atom the atom
-   * @param list the list
-   * @return the rank
-   */
+  /* see superclass */
   @Override
-  public String getRank(Atom atom, PrecedenceList list) {
+  public long getPackedRank(Atom atom, PrecedenceList list) {
 
     // [active][LangPreferred][SyOrFn]
     // active = 2, obsolete = 1
@@ -89,7 +83,14 @@ public class Rf2ComputePreferredNameHandler
             .indexOf(dpnAcceptabilityId) != -1 ? 2 : 1;
       }
     }
-    return "" + active + langPreferred + syOrFn;
+    return active * 100 + langPreferred * 10 + syOrFn;
+  }
+
+  /* see superclass */
+  @Override
+  protected long getIdRank(Atom atom, PrecedenceList list) {
+    // No tie-breaking, atoms with equal ranks keep their order
+    return 0L;
   }
 
 }
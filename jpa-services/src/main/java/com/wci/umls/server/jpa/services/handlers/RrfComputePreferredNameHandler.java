@@ -4,6 +4,7 @@
 package com.wci.umls.server.jpa.services.handlers;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -25,8 +26,9 @@ import com.wci.umls.server.services.handlers.ComputePreferredNameHandler;
 public class RrfComputePreferredNameHandler extends AbstractConfigurable
     implements ComputePreferredNameHandler {
 
-  /** The tty rank map. */
-  private static Map<Long, Map<String, String>> ttyRankMap = new HashMap<>();
+  /** The tty rank map, list id -> terminology -> tty -> rank. */
+  private static Map<Long, Map<String, Map<String, Integer>>> ttyRankMap =
+      new HashMap<>();
 
   /** The terminology rank map. */
   private static Map<Long, Map<String, String>> terminologyRankMap =
@@ -47,17 +49,17 @@ public class RrfComputePreferredNameHandler extends AbstractConfigurable
     cacheList(list);
     // Use ranking algorithm from MetamorphoSys
     // [tbr][termgroupRank][lrr][inverse SUI][inverse AUI]
-    // LRR isn't available here so just don't worry about it.
-    String maxRank = "";
+    long maxRank = 0;
+    long maxIdRank = 0;
     Atom maxAtom = null;
     for (final Atom atom : atoms) {
-      final String rank = getRank(atom, list);
-      if (maxAtom == null) {
-        maxAtom = atom;
-        maxRank = rank;
-      } else if (rank.compareTo(maxRank) > 0) {
+      final long rank = getPackedRank(atom, list);
+      final long idRank = getIdRank(atom, list);
+      if (maxAtom == null || rank > maxRank
+          || (rank == maxRank && idRank > maxIdRank)) {
         maxAtom = atom;
         maxRank = rank;
+        maxIdRank = idRank;
       }
     }
 
@@ -74,68 +76,113 @@ public class RrfComputePreferredNameHandler extends AbstractConfigurable
 
     cacheList(list);
 
-    final List<Atom> sortedAtoms = new ArrayList<>(atoms);
-    // Get each atom rank
-    final Map<Atom, String> atomRanks = new HashMap<>();
+    // Compute each atom rank once, then sort on the packed keys
+    final RankedAtom[] rankedAtoms = new RankedAtom[atoms.size()];
+    int i = 0;
     for (final Atom atom : atoms) {
-      final String rank = getRank(atom, list);
-      atomRanks.put(atom, rank);
+      rankedAtoms[i++] = new RankedAtom(atom, getPackedRank(atom, list),
+          getIdRank(atom, list));
     }
-    // Sort by atom rank - this works because atom ranks are designed to be
-    // fixed-length strings that are directly comparable where higher 
-    // values are ranked better
-    Collections.sort(sortedAtoms, new Comparator<Atom>() {
-      @Override
-      public int compare(Atom o1, Atom o2) {
-        return atomRanks.get(o2).compareTo(atomRanks.get(o1));
-      }
-    });
+    // Stable, so atoms with equal ranks keep their order
+    Arrays.sort(rankedAtoms);
 
+    final List<Atom> sortedAtoms = new ArrayList<>(rankedAtoms.length);
+    for (final RankedAtom rankedAtom : rankedAtoms) {
+      sortedAtoms.add(rankedAtom.atom);
+    }
     return sortedAtoms;
   }
 
   /**
-   * Returns the rank.
+   * Returns the rank as a fixed length string of the packed rank and id rank,
+   * so that ranks of different atoms are directly comparable as strings and
+   * higher values are better.
    *
    * @param atom the atom
    * @param list the list
    * @return the rank
    * @throws Exception the exception
    */
-  @SuppressWarnings("static-method")
   public String getRank(final Atom atom, final PrecedenceList list)
     throws Exception {
+    final String rank = "0000000000000000000" + getPackedRank(atom, list);
+    final String idRank = "0000000000000000000" + getIdRank(atom, list);
+    return rank.substring(rank.length() - 19)
+        + idRank.substring(idRank.length() - 19);
+  }
+
+  /**
+   * Returns the rank of the atom packed into a long. Higher values are
+   * better. From the high bits down:
+   * [publishable][!obsolete][!suppressible][tty rank (14 bits)]
+   * [lrr (4 bits)][10000000000 - SUI (38 bits)].
+   * Ties are broken by {@link #getIdRank(Atom, PrecedenceList)}.
+   *
+   * @param atom the atom
+   * @param list the list
+   * @return the packed rank
+   * @throws Exception the exception
+   */
+  public long getPackedRank(final Atom atom, final PrecedenceList list)
+    throws Exception {
 
     // Bail if no list specified or found
     if (list == null) {
-      return "000000000000000000000000000";
+      return 0L;
     }
 
     // Fail if list hasn't been cached
-    if (!ttyRankMap.containsKey(list.getId())) {
+    final Map<String, Map<String, Integer>> ttyRanks =
+        ttyRankMap.get(list.getId());
+    if (ttyRanks == null) {
       throw new Exception(
           "Unexpected condition, list is not cached - " + list.getId());
     }
 
-    final Map<String, String> ttyRanks = ttyRankMap.get(list.getId());
-    // Compute the rank as a fixed length string
-    // [publishable][obsolete][suppressible][tty rank][lrr][SUI][atomId]
-    // Higher values are better.
-    if (!atom.getStringClassId().isEmpty()) {
-      return "" +(atom.isPublishable() ? 1 : 0) +(atom.isObsolete() ? 0 : 1)
-          + (atom.isSuppressible() ? 0 : 1)
-          + ttyRanks.get(atom.getTerminology() + "/" + atom.getTermType())
-          + atom.getLastPublishedRank()
-          + +(10000000000L
-              - Long.parseLong(atom.getStringClassId().substring(1)))
-          + (100000000000L - atom.getId());
-    } else {
-      return "" +(atom.isPublishable() ? 1 : 0) + (atom.isObsolete() ? 0 : 1)
-          + (atom.isSuppressible() ? 0 : 1)
-          + ttyRanks.get(atom.getTerminology() + "/" + atom.getTermType())
-          + atom.getLastPublishedRank() + (100000000000L - atom.getId());
+    long rank = atom.isPublishable() ? 1L : 0L;
+    rank = (rank << 1) | (atom.isObsolete() ? 0L : 1L);
+    rank = (rank << 1) | (atom.isSuppressible() ? 0L : 1L);
+
+    // Term types not in the precedence list rank lowest
+    final Map<String, Integer> terminologyTtys =
+        ttyRanks.get(atom.getTerminology());
+    final Integer ttyRank = terminologyTtys == null ? null
+        : terminologyTtys.get(atom.getTermType());
+    if (ttyRank != null && ttyRank >= 1 << 14) {
+      throw new Exception("Term type rank does not fit in 14 bits - "
+          + atom.getTerminology() + "/" + atom.getTermType() + ", "
+          + ttyRank);
     }
+    rank = (rank << 14) | (ttyRank == null ? 0L : ttyRank);
+
+    final String lrr = atom.getLastPublishedRank();
+    rank = (rank << 4) | (lrr != null && lrr.length() == 1
+        && Character.isDigit(lrr.charAt(0)) ? lrr.charAt(0) - '0' : 0L);
 
+    final String sui = atom.getStringClassId();
+    final long suiRank = sui == null || sui.isEmpty() ? 0L
+        : 10000000000L - Long.parseLong(sui.substring(1));
+    if (suiRank < 0 || suiRank >= 1L << 38) {
+      throw new Exception("SUI does not fit in 38 bits - " + sui);
+    }
+    rank = (rank << 38) | suiRank;
+    return rank;
+  }
+
+  /**
+   * Returns the id rank, used to break ties in the packed rank (lower ids are
+   * better).
+   *
+   * @param atom the atom
+   * @param list the list
+   * @return the id rank
+   */
+  @SuppressWarnings("static-method")
+  protected long getIdRank(final Atom atom, final PrecedenceList list) {
+    if (list == null || atom.getId() == null) {
+      return 0L;
+    }
+    return Long.MAX_VALUE - atom.getId();
   }
 
   /**
@@ -196,8 +243,18 @@ public class RrfComputePreferredNameHandler extends AbstractConfigurable
     if (ttyRankMap.containsKey(list.getId())) {
       return;
     }
-    // Otherwise, build the TTY map
-    final Map<String, String> ttyRanks = list.getTermTypeRankMap();
+    // Otherwise, build the TTY map, keyed by terminology then tty
+    final Map<String, Map<String, Integer>> ttyRanks = new HashMap<>();
+    for (final Map.Entry<String, String> entry : list.getTermTypeRankMap()
+        .entrySet()) {
+      final int index = entry.getKey().lastIndexOf('/');
+      final String terminology = entry.getKey().substring(0, index);
+      if (!ttyRanks.containsKey(terminology)) {
+        ttyRanks.put(terminology, new HashMap<>());
+      }
+      ttyRanks.get(terminology).put(entry.getKey().substring(index + 1),
+          Integer.valueOf(entry.getValue()));
+    }
     ttyRankMap.put(list.getId(), ttyRanks);
 
     // Otherwise, build the terminology map
@@ -242,4 +299,39 @@ public class RrfComputePreferredNameHandler extends AbstractConfigurable
     return sortedRels;
   }
 
+  /**
+   * An atom with its packed rank keys, sorted best first.
+   */
+  private static class RankedAtom implements Comparable<RankedAtom> {
+
+    /** The atom. */
+    private final Atom atom;
+
+    /** The rank. */
+    private final long rank;
+
+    /** The id rank. */
+    private final long idRank;
+
+    /**
+     * Instantiates a {@link RankedAtom} from the specified parameters.
+     *
+     * @param atom the atom
+     * @param rank the rank
+     * @param idRank the id rank
+     */
+    public RankedAtom(Atom atom, long rank, long idRank) {
+      this.atom = atom;
+      this.rank = rank;
+      this.idRank = idRank;
+    }
+
+    /* see superclass */
+    @Override
+    public int compareTo(RankedAtom o) {
+      final int result = Long.compare(o.rank, rank);
+      return result != 0 ? result : Long.compare(o.idRank, idRank);
+    }
+  }
+
 }
@@ -0,0 +1,264 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.services.helper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+
+import com.wci.umls.server.helpers.ConfigUtility;
+
+/**
+ * Manages the per terminology/version autocomplete suggesters. Each suggester
+ * is a small side index (under the "autocomplete" folder of the index base)
+ * holding the distinct atom names of one component type, weighted by term type
+ * rank, so autocomplete lookups never touch the database or the main indexes.
+ * Suggesters are built by the AutocompleteIndexingAlgorithm. A suggester
+ * rebuilt by another process (e.g. an admin run of the algorithm) is picked
+ * up by this one within the refresh interval. Molecular actions do not update
+ * suggesters, so none are kept for a terminology edited by a project.
+ */
+public class AutocompleteUtility {
+
+  /** The open suggesters, keyed by type/terminology/version. */
+  private static Map<String, AnalyzingInfixSuggester> suggesters =
+      new ConcurrentHashMap<>();
+
+  /** The last refresh times of the open suggesters, keyed like them. */
+  private static Map<String, Long> refreshTimes = new ConcurrentHashMap<>();
+
+  /** The min prefix chars for edge ngram lookups. */
+  private static final int MIN_PREFIX_CHARS = 1;
+
+  /** The interval between refreshes of a suggester from its side index. */
+  private static final long REFRESH_INTERVAL = 60000;
+
+  /**
+   * Returns the suggestions for the search term, or null if no suggester has
+   * been built for this type, terminology, and version.
+   *
+   * @param clazz the component class
+   * @param terminology the terminology
+   * @param version the version
+   * @param searchTerm the search term
+   * @param maxResults the max results
+   * @return the suggestions
+   * @throws Exception the exception
+   */
+  public static List<String> lookup(Class<?> clazz, String terminology,
+    String version, String searchTerm, int maxResults) throws Exception {
+    final AnalyzingInfixSuggester suggester =
+        getSuggester(clazz, terminology, version, false);
+    if (suggester == null) {
+      return null;
+    }
+    refresh(clazz, terminology, version, suggester);
+    final List<String> results = new ArrayList<>();
+    for (final LookupResult result : suggester.lookup(searchTerm, maxResults,
+        true, false)) {
+      results.add(result.key.toString());
+    }
+    return results;
+  }
+
+  /**
+   * Builds (or rebuilds) the suggester from the distinct names and their
+   * weights. The entries are consumed as they are read, so they can be
+   * streamed rather than held in memory.
+   *
+   * @param clazz the component class
+   * @param terminology the terminology
+   * @param version the version
+   * @param nameWeights the name weight entries
+   * @throws Exception the exception
+   */
+  public static void build(Class<?> clazz, String terminology, String version,
+    Iterator<Map.Entry<String, Long>> nameWeights) throws Exception {
+    final AnalyzingInfixSuggester suggester =
+        getSuggester(clazz, terminology, version, true);
+    suggester.build(new NameWeightIterator(nameWeights));
+    Logger.getLogger(AutocompleteUtility.class)
+        .info("  Build autocomplete suggester " + clazz.getSimpleName() + ", "
+            + terminology + ", " + version + " = " + suggester.getCount());
+  }
+
+  /**
+   * Refreshes the suggester from its side index if the refresh interval has
+   * passed, so a rebuild by another process becomes visible.
+   *
+   * @param clazz the component class
+   * @param terminology the terminology
+   * @param version the version
+   * @param suggester the suggester
+   * @throws Exception the exception
+   */
+  private static void refresh(Class<?> clazz, String terminology,
+    String version, AnalyzingInfixSuggester suggester) throws Exception {
+    final String key =
+        clazz.getSimpleName() + "/" + terminology + "/" + version;
+    final long now = System.currentTimeMillis();
+    final Long last = refreshTimes.get(key);
+    if (last == null) {
+      refreshTimes.put(key, now);
+    } else if (now - last > REFRESH_INTERVAL) {
+      refreshTimes.put(key, now);
+      suggester.refresh();
+    }
+  }
+
+  /**
+   * Closes and removes the suggesters for the terminology and version.
+   *
+   * @param terminology the terminology
+   * @param version the version
+   * @throws Exception the exception
+   */
+  public static void remove(String terminology, String version)
+    throws Exception {
+    for (final String key : new ArrayList<>(suggesters.keySet())) {
+      if (key.endsWith("/" + terminology + "/" + version)) {
+        suggesters.remove(key).close();
+        refreshTimes.remove(key);
+      }
+    }
+    final File base = new File(getBaseDirectoryName());
+    if (base.exists()) {
+      for (final File typeDir : base.listFiles()) {
+        final File dir = new File(typeDir, terminology + "/" + version);
+        if (dir.exists()) {
+          ConfigUtility.deleteDirectory(dir);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the suggester, opening an existing side index if needed.
+   *
+   * @param clazz the component class
+   * @param terminology the terminology
+   * @param version the version
+   * @param create whether to create the side index if it does not exist
+   * @return the suggester
+   * @throws Exception the exception
+   */
+  private static synchronized AnalyzingInfixSuggester getSuggester(
+    Class<?> clazz, String terminology, String version, boolean create)
+    throws Exception {
+    final String key =
+        clazz.getSimpleName() + "/" + terminology + "/" + version;
+    if (suggesters.containsKey(key)) {
+      return suggesters.get(key);
+    }
+    final File dir = new File(getBaseDirectoryName() + "/" + key);
+    if (!create && !dir.exists()) {
+      return null;
+    }
+    dir.mkdirs();
+    final Directory directory = FSDirectory.open(dir);
+    if (!create && !DirectoryReader.indexExists(directory)) {
+      directory.close();
+      return null;
+    }
+    final AnalyzingInfixSuggester suggester = new AnalyzingInfixSuggester(
+        Version.LATEST, directory, new StandardAnalyzer(CharArraySet.EMPTY_SET),
+        new StandardAnalyzer(CharArraySet.EMPTY_SET), MIN_PREFIX_CHARS);
+    suggesters.put(key, suggester);
+    return suggester;
+  }
+
+  /**
+   * Returns the base directory name.
+   *
+   * @return the base directory name
+   * @throws Exception the exception
+   */
+  private static String getBaseDirectoryName() throws Exception {
+    return ConfigUtility.getBaseIndexDirectory() + "/autocomplete";
+  }
+
+  /**
+   * Input iterator over name to weight entries.
+   */
+  private static class NameWeightIterator implements InputIterator {
+
+    /** The iterator. */
+    private Iterator<Map.Entry<String, Long>> iterator;
+
+    /** The current entry. */
+    private Map.Entry<String, Long> current;
+
+    /**
+     * Instantiates a {@link NameWeightIterator} from the specified parameters.
+     *
+     * @param iterator the name weight entries
+     */
+    public NameWeightIterator(Iterator<Map.Entry<String, Long>> iterator) {
+      this.iterator = iterator;
+    }
+
+    /* see superclass */
+    @Override
+    public BytesRef next() {
+      if (!iterator.hasNext()) {
+        return null;
+      }
+      current = iterator.next();
+      return new BytesRef(current.getKey());
+    }
+
+    /* see superclass */
+    @Override
+    public Comparator<BytesRef> getComparator() {
+      return null;
+    }
+
+    /* see superclass */
+    @Override
+    public long weight() {
+      return current.getValue();
+    }
+
+    /* see superclass */
+    @Override
+    public BytesRef payload() {
+      return null;
+    }
+
+    /* see superclass */
+    @Override
+    public boolean hasPayloads() {
+      return false;
+    }
+
+    /* see superclass */
+    @Override
+    public Set<BytesRef> contexts() {
+      return null;
+    }
+
+    /* see superclass */
+    @Override
+    public boolean hasContexts() {
+      return false;
+    }
+  }
+}
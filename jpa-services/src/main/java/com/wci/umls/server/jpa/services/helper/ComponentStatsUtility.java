@@ -0,0 +1,260 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.services.helper;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Hibernate;
+
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.jpa.content.AbstractComponent;
+import com.wci.umls.server.jpa.meta.AbstractAbbreviation;
+import com.wci.umls.server.model.content.Component;
+
+/**
+ * Maintains per terminology/version/type component counters in the
+ * "component_stats" table so component statistics can be returned without
+ * scanning the content tables. Counters are recomputed in bulk after loads and
+ * adjusted incrementally as molecular actions add and remove components. Each
+ * counter is split over several slot rows (summed when read), and each
+ * adjustment goes to a random slot, so concurrent edits of one terminology do
+ * not all wait on the same row. The table has a unique (terminology, version,
+ * type, slot) key; see import.sql and patchData20171101.sql.
+ */
+public class ComponentStatsUtility {
+
+  /** The stats table name. */
+  public static final String TABLE = "component_stats";
+
+  /** The config property that enables the stats table. */
+  public static final String ENABLED_PROPERTY =
+      "content.service.component.stats.table";
+
+  /** The number of slot rows adjustments are spread over. */
+  private static final int SLOTS = 8;
+
+  /** The enabled flag. */
+  private static Boolean enabled = null;
+
+  /**
+   * Indicates whether the stats table is enabled.
+   *
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   * @throws Exception the exception
+   */
+  public static boolean isEnabled() throws Exception {
+    if (enabled == null) {
+      enabled = "true".equals(
+          ConfigUtility.getConfigProperties().getProperty(ENABLED_PROPERTY));
+    }
+    return enabled;
+  }
+
+  /**
+   * Returns the stats for the terminology and version (or summed across all
+   * terminologies if null), in the form used by the content service. Returns
+   * an empty map if no counters have been computed yet.
+   *
+   * @param manager the manager
+   * @param terminology the terminology
+   * @param version the version
+   * @return the stats
+   * @throws Exception the exception
+   */
+  public static Map<String, Integer> getStats(EntityManager manager,
+    String terminology, String version) throws Exception {
+    final Query query = manager.createNativeQuery(
+        "SELECT type, SUM(total), SUM(active), MAX(component) FROM " + TABLE
+            + (terminology != null
+                ? " WHERE terminology = :terminology AND version = :version"
+                : "")
+            + " GROUP BY type");
+    if (terminology != null) {
+      query.setParameter("terminology", terminology);
+      query.setParameter("version", version);
+    }
+    final Map<String, Integer> stats = new TreeMap<>();
+    for (final Object row : query.getResultList()) {
+      final Object[] result = (Object[]) row;
+      final String type = result[0].toString();
+      stats.put("Total " + type, ((Number) result[1]).intValue());
+      // Only report active counts for components
+      if (((Number) result[3]).intValue() == 1) {
+        stats.put("Non-obsolete " + type, ((Number) result[2]).intValue());
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Recompute the counters for the terminology and version (or for all
+   * terminologies if null) with one grouped count per content table. Loaders
+   * call this once at the end instead of maintaining counts row by row.
+   *
+   * @param manager the manager
+   * @param terminology the terminology
+   * @param version the version
+   * @throws Exception the exception
+   */
+  public static void recompute(EntityManager manager, String terminology,
+    String version) throws Exception {
+    if (!isEnabled()) {
+      return;
+    }
+    Logger.getLogger(ComponentStatsUtility.class).info(
+        "Recompute component stats - " + terminology + ", " + version);
+    remove(manager, terminology, version);
+
+    for (final EntityType<?> type : manager.getMetamodel().getEntities()) {
+      final String jpaTable = type.getName();
+      // Skip audit trail tables
+      if (jpaTable.toUpperCase().indexOf("_AUD") != -1) {
+        continue;
+      }
+      final boolean component = AbstractComponent.class
+          .isAssignableFrom(type.getBindableJavaType());
+      if (!component && !AbstractAbbreviation.class
+          .isAssignableFrom(type.getBindableJavaType())) {
+        continue;
+      }
+
+      final Query query = manager.createQuery("select terminology, version, "
+          + "count(*), "
+          + (component ? "sum(case when obsolete = false then 1 else 0 end)"
+              : "count(*)")
+          + " from " + jpaTable
+          + (terminology != null
+              ? " where terminology = :terminology and version = :version" : "")
+          + " group by terminology, version");
+      if (terminology != null) {
+        query.setParameter("terminology", terminology);
+        query.setParameter("version", version);
+      }
+      for (final Object row : query.getResultList()) {
+        final Object[] result = (Object[]) row;
+        insert(manager, (String) result[0], (String) result[1], jpaTable, 0,
+            ((Number) result[2]).intValue(), ((Number) result[3]).intValue(),
+            component);
+      }
+    }
+  }
+
+  /**
+   * Removes the counters for the terminology and version (or all counters if
+   * null).
+   *
+   * @param manager the manager
+   * @param terminology the terminology
+   * @param version the version
+   * @throws Exception the exception
+   */
+  public static void remove(EntityManager manager, String terminology,
+    String version) throws Exception {
+    if (!isEnabled()) {
+      return;
+    }
+    final Query query = manager.createNativeQuery("DELETE FROM " + TABLE
+        + (terminology != null
+            ? " WHERE terminology = :terminology AND version = :version" : ""));
+    if (terminology != null) {
+      query.setParameter("terminology", terminology);
+      query.setParameter("version", version);
+    }
+    query.executeUpdate();
+  }
+
+  /**
+   * Adjusts the counters for an added (delta 1) or removed (delta -1)
+   * component. Counters for terminologies that have not been computed yet are
+   * left alone; they are computed in full on first use.
+   *
+   * @param manager the manager
+   * @param component the component
+   * @param delta the delta
+   * @throws Exception the exception
+   */
+  public static void update(EntityManager manager, Component component,
+    int delta) throws Exception {
+    update(manager, component, delta, component.isObsolete() ? 0 : delta);
+  }
+
+  /**
+   * Adjusts the counters for a component.
+   *
+   * @param manager the manager
+   * @param component the component
+   * @param totalDelta the total delta
+   * @param activeDelta the active delta
+   * @throws Exception the exception
+   */
+  public static void update(EntityManager manager, Component component,
+    int totalDelta, int activeDelta) throws Exception {
+    if (!isEnabled() || (totalDelta == 0 && activeDelta == 0)) {
+      return;
+    }
+    final String type = manager.getMetamodel()
+        .entity((Class<?>) Hibernate.getClass(component)).getName();
+    final int slot = ThreadLocalRandom.current().nextInt(SLOTS);
+    final int ct = manager
+        .createNativeQuery("UPDATE " + TABLE
+            + " SET total = total + :total, active = active + :active"
+            + " WHERE terminology = :terminology AND version = :version"
+            + " AND type = :type AND slot = :slot")
+        .setParameter("total", totalDelta).setParameter("active", activeDelta)
+        .setParameter("terminology", component.getTerminology())
+        .setParameter("version", component.getVersion())
+        .setParameter("type", type).setParameter("slot", slot)
+        .executeUpdate();
+
+    // First adjustment in this slot of an already-computed terminology
+    if (ct == 0) {
+      final Number existing = (Number) manager
+          .createNativeQuery("SELECT count(*) FROM " + TABLE
+              + " WHERE terminology = :terminology AND version = :version")
+          .setParameter("terminology", component.getTerminology())
+          .setParameter("version", component.getVersion()).getSingleResult();
+      if (existing.intValue() > 0) {
+        insert(manager, component.getTerminology(), component.getVersion(),
+            type, slot, totalDelta, activeDelta, true);
+      }
+    }
+  }
+
+  /**
+   * Inserts a counter slot row, adding to it if a concurrent transaction
+   * inserted it first.
+   *
+   * @param manager the manager
+   * @param terminology the terminology
+   * @param version the version
+   * @param type the type
+   * @param slot the slot
+   * @param total the total
+   * @param active the active
+   * @param component the component flag
+   * @throws Exception the exception
+   */
+  private static void insert(EntityManager manager, String terminology,
+    String version, String type, int slot, int total, int active,
+    boolean component) throws Exception {
+    manager
+        .createNativeQuery("INSERT INTO " + TABLE
+            + " (terminology, version, type, slot, total, active, component)"
+            + " VALUES (:terminology, :version, :type, :slot, :total,"
+            + " :active, " + (component ? "1" : "0")
+            + ") ON DUPLICATE KEY UPDATE"
+            + " total = total + VALUES(total), active = active + VALUES(active)")
+        .setParameter("terminology", terminology)
+        .setParameter("version", version).setParameter("type", type)
+        .setParameter("slot", slot).setParameter("total", total)
+        .setParameter("active", active).executeUpdate();
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.services.helper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.apache.log4j.Logger;
+
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.model.content.Component;
+
+/**
+ * Maintains a per terminology/version hash of the source row each component
+ * was last loaded from in the "content_hashes" table, so delta loaders can
+ * skip rows that have not changed without loading the component. Hashes
+ * describe the source data, not the database, so ContentServiceJpa removes a
+ * component's hash whenever it updates or removes the component (the delta
+ * loader then records the hash again, in the same transaction, for rows it
+ * loads).
+ */
+public class ContentHashUtility {
+
+  /** The hashes table name. */
+  public static final String TABLE = "content_hashes";
+
+  /** The config property that enables the hashes table. */
+  public static final String ENABLED_PROPERTY = "loader.delta.content.hash";
+
+  /** The number of rows per insert statement. */
+  private static final int BATCH_SIZE = 1000;
+
+  /** The enabled flag. */
+  private static Boolean enabled = null;
+
+  /**
+   * Indicates whether the hashes table is enabled.
+   *
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   * @throws Exception the exception
+   */
+  public static boolean isEnabled() throws Exception {
+    if (enabled == null) {
+      enabled = "true".equals(
+          ConfigUtility.getConfigProperties().getProperty(ENABLED_PROPERTY));
+    }
+    return enabled;
+  }
+
+  /**
+   * Returns the hashes for the terminology and version, by terminology id.
+   *
+   * @param manager the manager
+   * @param terminology the terminology
+   * @param version the version
+   * @return the hashes
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("unchecked")
+  public static Map<String, Long> getHashes(EntityManager manager,
+    String terminology, String version) throws Exception {
+    final Query query = manager.createNativeQuery(
+        "SELECT terminologyId, hash FROM " + TABLE
+            + " WHERE terminology = :terminology AND version = :version");
+    query.setParameter("terminology", terminology);
+    query.setParameter("version", version);
+    final Map<String, Long> hashes = new HashMap<>();
+    for (final Object[] result : (List<Object[]>) query.getResultList()) {
+      hashes.put(result[0].toString(), ((Number) result[1]).longValue());
+    }
+    return hashes;
+  }
+
+  /**
+   * Saves the hashes for the terminology and version, replacing any previous
+   * hashes for the same terminology ids. Call within the transaction that
+   * loads the corresponding rows, so a hash is only saved if its row is.
+   *
+   * @param manager the manager
+   * @param terminology the terminology
+   * @param version the version
+   * @param hashes the hashes, by terminology id
+   * @throws Exception the exception
+   */
+  public static void putHashes(EntityManager manager, String terminology,
+    String version, Map<String, Long> hashes) throws Exception {
+    Logger.getLogger(ContentHashUtility.class).info("Save content hashes - "
+        + terminology + ", " + version + ", " + hashes.size());
+    final List<Map.Entry<String, Long>> entries =
+        new ArrayList<>(hashes.entrySet());
+    for (int i = 0; i < entries.size(); i += BATCH_SIZE) {
+      final List<Map.Entry<String, Long>> batch =
+          entries.subList(i, Math.min(i + BATCH_SIZE, entries.size()));
+      final StringBuilder values = new StringBuilder();
+      for (int j = 0; j < batch.size(); j++) {
+        values.append(j == 0 ? "" : ", ").append("(:terminology, :version, :id")
+            .append(j).append(", ").append(batch.get(j).getValue()).append(")");
+      }
+      // Upsert on the (terminology, version, terminologyId) unique key
+      final Query insert = manager.createNativeQuery("INSERT INTO " + TABLE
+          + " (terminology, version, terminologyId, hash) VALUES " + values
+          + " ON DUPLICATE KEY UPDATE hash = VALUES(hash)");
+      insert.setParameter("terminology", terminology);
+      insert.setParameter("version", version);
+      for (int j = 0; j < batch.size(); j++) {
+        insert.setParameter("id" + j, batch.get(j).getKey());
+      }
+      insert.executeUpdate();
+    }
+  }
+
+  /**
+   * Removes the hashes for the terminology and version.
+   *
+   * @param manager the manager
+   * @param terminology the terminology
+   * @param version the version
+   * @throws Exception the exception
+   */
+  public static void remove(EntityManager manager, String terminology,
+    String version) throws Exception {
+    if (!isEnabled()) {
+      return;
+    }
+    manager
+        .createNativeQuery("DELETE FROM " + TABLE
+            + " WHERE terminology = :terminology AND version = :version")
+        .setParameter("terminology", terminology)
+        .setParameter("version", version).executeUpdate();
+  }
+
+  /**
+   * Removes the hash for the component, e.g. because it was edited.
+   *
+   * @param manager the manager
+   * @param component the component
+   * @throws Exception the exception
+   */
+  public static void remove(EntityManager manager, Component component)
+    throws Exception {
+    if (!isEnabled()) {
+      return;
+    }
+    manager
+        .createNativeQuery("DELETE FROM " + TABLE
+            + " WHERE terminology = :terminology AND version = :version"
+            + " AND terminologyId = :terminologyId")
+        .setParameter("terminology", component.getTerminology())
+        .setParameter("version", component.getVersion())
+        .setParameter("terminologyId", component.getTerminologyId())
+        .executeUpdate();
+  }
+
+  /**
+   * Returns the hash of a source row (64-bit FNV-1a).
+   *
+   * @param row the row
+   * @return the hash
+   */
+  public static long hash(String row) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < row.length(); i++) {
+      hash ^= row.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,403 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.services.helper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.apache.log4j.Logger;
+
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.helpers.PfsParameter;
+
+/**
+ * Maintains and queries the denormalized "deep relationship" projection
+ * table. Each row is a relationship (concept, atom, code, or descriptor level)
+ * already resolved to a pair of concepts within the same terminology/version
+ * and projected to the columns displayed by the relationships tab. Rows are
+ * stored in both directions (keyed by concept_id and inverse) so a deep
+ * relationship lookup is a single indexed range scan.
+ */
+public class DeepRelationshipUtility {
+
+  /** The projection table name. */
+  public static final String TABLE = "deep_concept_rel_projections";
+
+  /** The config property that enables the projection table. */
+  public static final String ENABLED_PROPERTY =
+      "content.service.deep.relationships.table";
+
+  /** The selected columns, in the order expected by the content service. */
+  private static final String SELECT_COLUMNS =
+      "relationship_id, terminologyId, terminology, version, "
+          + "relationshipType, additionalRelationshipType, "
+          + "related_terminologyId, obsolete, suppressible, published, "
+          + "publishable, related_name, related_concept_id, workflowStatus, "
+          + "lastModifiedBy, lastModified";
+
+  /** The pfs sort field to column map. */
+  private static final Map<String, String> sortColumnMap = new HashMap<>();
+
+  static {
+    sortColumnMap.put("id", "relationship_id");
+    sortColumnMap.put("terminologyId", "terminologyId");
+    sortColumnMap.put("terminology", "terminology");
+    sortColumnMap.put("version", "version");
+    sortColumnMap.put("relationshipType", "relationshipType");
+    sortColumnMap.put("additionalRelationshipType",
+        "additionalRelationshipType");
+    sortColumnMap.put("obsolete", "obsolete");
+    sortColumnMap.put("suppressible", "suppressible");
+    sortColumnMap.put("published", "published");
+    sortColumnMap.put("publishable", "publishable");
+    sortColumnMap.put("workflowStatus", "workflowStatus");
+    sortColumnMap.put("lastModified", "lastModified");
+    sortColumnMap.put("lastModifiedBy", "lastModifiedBy");
+  }
+
+  /** The enabled flag. */
+  private static Boolean enabled = null;
+
+  /**
+   * Indicates whether the projection table is enabled.
+   *
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   * @throws Exception the exception
+   */
+  public static boolean isEnabled() throws Exception {
+    if (enabled == null) {
+      enabled = "true".equals(
+          ConfigUtility.getConfigProperties().getProperty(ENABLED_PROPERTY));
+    }
+    return enabled;
+  }
+
+  /**
+   * Sets the enabled flag, overriding the config property (e.g. to compare
+   * the projection against the relationship tables).
+   *
+   * @param enabled the enabled flag
+   */
+  public static void setEnabled(boolean enabled) {
+    DeepRelationshipUtility.enabled = enabled;
+  }
+
+  /**
+   * Returns the insert queries that populate the projection table. If the
+   * restriction flag is set, the queries expect a "conceptIds" parameter and
+   * only produce rows for relationships touching those concepts. Each
+   * restricted query is the union of a select restricted on either side, so
+   * each half can be driven by an index (an "OR" across both sides cannot).
+   *
+   * @param restrictFlag the restrict flag
+   * @return the insert queries
+   */
+  public static List<String> getInsertQueries(boolean restrictFlag) {
+    final List<String> queries = new ArrayList<>();
+    for (final boolean inverse : new boolean[] {
+        false, true
+    }) {
+      for (final String type : new String[] {
+          "CONCEPT", "ATOM", "SOURCE_CONCEPT", "CODE", "DESCRIPTOR"
+      }) {
+        final String select = getSelectClause(inverse, type)
+            + getFromWhereClause(inverse, type);
+        queries.add(getInsertClause() + " " + (restrictFlag
+            ? select + " AND c1.id IN (:conceptIds) UNION " + select
+                + " AND c2.id IN (:conceptIds)"
+            : select));
+      }
+    }
+    return queries;
+  }
+
+  /**
+   * Returns the from and where clauses selecting the relationships of a type,
+   * resolved to a pair of concepts "c1" and "c2".
+   *
+   * @param inverse the inverse
+   * @param type the type
+   * @return the from and where clauses
+   */
+  private static String getFromWhereClause(boolean inverse, String type) {
+    // Column names of the "near" and "far" side for this direction
+    final String near = inverse ? "to_id" : "from_id";
+    final String far = inverse ? "from_id" : "to_id";
+
+    // Concept relationships
+    if (type.equals("CONCEPT")) {
+      return " FROM concept_relationships a, concepts c1, concepts c2"
+          + " WHERE a." + near + " = c1.id AND a." + far + " = c2.id"
+          + " AND a.relationshipType NOT IN ('AQ','QB')";
+    }
+
+    // Atom relationships, resolved to concepts of the same terminology
+    if (type.equals("ATOM")) {
+      return " FROM atom_relationships a, concepts_atoms ca1, concepts c1,"
+          + " concepts_atoms ca2, concepts c2"
+          + " WHERE a." + near + " = ca1.atoms_id AND ca1.concepts_id = c1.id"
+          + " AND a." + far + " = ca2.atoms_id AND ca2.concepts_id = c2.id"
+          + " AND c1.terminology = c2.terminology"
+          + " AND c1.version = c2.version"
+          + " AND a.relationshipType NOT IN ('AQ','QB')";
+    }
+
+    // Source concept, code, and descriptor relationships, resolved through
+    // the atoms matching the component name
+    final String lower = type.replace("SOURCE_", "").toLowerCase();
+    final String table = lower + "s";
+    final String idField = lower + "Id";
+    return " FROM " + lower + "_relationships a, " + table
+        + " b, atoms c, concepts_atoms ca1, concepts c1, " + table
+        + " d, atoms e, concepts_atoms ca2, concepts c2"
+        + " WHERE a." + near + " = b.id"
+        + " AND b.terminologyId = c." + idField
+        + " AND b.terminology = c.terminology"
+        + " AND b.version = c.version AND b.name = c.name"
+        + " AND c.id = ca1.atoms_id AND ca1.concepts_id = c1.id"
+        + " AND a." + far + " = d.id AND d.terminologyId = e." + idField
+        + " AND d.terminology = e.terminology"
+        + " AND d.version = e.version AND d.name = e.name"
+        + " AND e.id = ca2.atoms_id AND ca2.concepts_id = c2.id"
+        + " AND c1.terminology = c2.terminology"
+        + " AND c1.version = c2.version"
+        + " AND a.relationshipType NOT IN ('AQ','QB')";
+  }
+
+  /**
+   * Returns the insert clause.
+   *
+   * @return the insert clause
+   */
+  private static String getInsertClause() {
+    return "INSERT INTO " + TABLE + " (concept_id, inverse, relationship_id,"
+        + " component_type, terminologyId, terminology, version,"
+        + " relationshipType, additionalRelationshipType, obsolete,"
+        + " suppressible, published, publishable, workflowStatus,"
+        + " lastModifiedBy, lastModified, related_concept_id,"
+        + " related_terminologyId, related_name)";
+  }
+
+  /**
+   * Returns the select clause.
+   *
+   * @param inverse the inverse
+   * @param type the type
+   * @return the select clause
+   */
+  private static String getSelectClause(boolean inverse, String type) {
+    return "SELECT DISTINCT c1.id, " + (inverse ? "1" : "0") + ", a.id, '"
+        + type + "', a.terminologyId, a.terminology, a.version,"
+        + " a.relationshipType, a.additionalRelationshipType, a.obsolete,"
+        + " a.suppressible, a.published, a.publishable, a.workflowStatus,"
+        + " a.lastModifiedBy, a.lastModified, c2.id, c2.terminologyId,"
+        + " c2.name";
+  }
+
+  /**
+   * Refresh the projection rows for relationships touching the specified
+   * concepts. This is called after molecular actions so the table stays
+   * current with editing.
+   *
+   * @param manager the manager
+   * @param conceptIds the concept ids
+   * @throws Exception the exception
+   */
+  public static void refreshConcepts(EntityManager manager,
+    Collection<Long> conceptIds) throws Exception {
+    if (!isEnabled() || conceptIds.isEmpty()) {
+      return;
+    }
+    Logger.getLogger(DeepRelationshipUtility.class)
+        .debug("Refresh deep relationships for concepts " + conceptIds);
+
+    // Make pending changes (e.g. recomputed names) visible to the native SQL
+    manager.flush();
+    // One delete per indexed column, rather than an "OR" across both
+    for (final String column : new String[] {
+        "concept_id", "related_concept_id"
+    }) {
+      manager
+          .createNativeQuery(
+              "DELETE FROM " + TABLE + " WHERE " + column + " IN (:conceptIds)")
+          .setParameter("conceptIds", conceptIds).executeUpdate();
+    }
+    for (final String insert : getInsertQueries(true)) {
+      manager.createNativeQuery(insert).setParameter("conceptIds", conceptIds)
+          .executeUpdate();
+    }
+  }
+
+  /**
+   * Indicates whether the pfs sort can be performed by the database.
+   *
+   * @param pfs the pfs
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   */
+  public static boolean isSortSupported(PfsParameter pfs) {
+    if (pfs == null) {
+      return true;
+    }
+    if (pfs.getSortFields() != null && !pfs.getSortFields().isEmpty()
+        && ConfigUtility.isEmpty(pfs.getSortField())) {
+      for (final String field : pfs.getSortFields()) {
+        if (getSortColumn(field) == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return ConfigUtility.isEmpty(pfs.getSortField())
+        || getSortColumn(pfs.getSortField()) != null;
+  }
+
+  /**
+   * Returns the sort column for a pfs sort field. Names of the related concept
+   * ("toName", "fromTerminologyId", etc.) map to the related columns.
+   *
+   * @param sortField the sort field
+   * @return the sort column
+   */
+  private static String getSortColumn(String sortField) {
+    if (sortField.matches("(to|from)Name")) {
+      return "related_name";
+    }
+    if (sortField.matches("(to|from)TerminologyId")) {
+      return "related_terminologyId";
+    }
+    if (sortField.matches("(to|from)Id")) {
+      return "related_concept_id";
+    }
+    return sortColumnMap.get(sortField);
+  }
+
+  /**
+   * Builds the native query for rows of the specified concept. Rows that
+   * would be equal as relationships (same terminology, terminology id,
+   * relationship types, flags, and related concept) are reduced to the one
+   * with the lowest component type and relationship id, so paging and
+   * counting in the database agree with the in-memory de-duplication. When
+   * not paging, rows come in that order so the first of each kept by a set is
+   * the same row.
+   *
+   * @param manager the manager
+   * @param conceptId the concept id
+   * @param inverseFlag the inverse flag
+   * @param includeConceptRels the include concept rels
+   * @param suppressibleFlag whether to exclude suppressible rows
+   * @param includeSelfReferential the include self referential
+   * @param pfs the pfs, or null for unsorted and unpaged results
+   * @param countFlag the count flag
+   * @return the query
+   * @throws Exception the exception
+   */
+  public static Query getQuery(EntityManager manager, Long conceptId,
+    boolean inverseFlag, boolean includeConceptRels, boolean suppressibleFlag,
+    boolean includeSelfReferential, PfsParameter pfs, boolean countFlag)
+    throws Exception {
+
+    final StringBuilder sb = new StringBuilder();
+    sb.append("SELECT ")
+        .append(countFlag ? "count(*)" : SELECT_COLUMNS).append(" FROM ")
+        .append(TABLE).append(" t WHERE t.concept_id = :conceptId")
+        .append(" AND t.inverse = ").append(inverseFlag ? "1" : "0")
+        .append(getFilterClause("t", includeConceptRels, suppressibleFlag,
+            includeSelfReferential));
+    if (countFlag || pfs != null) {
+      // Drop duplicates of a lower row, found by the related terminology id
+      // index (a NULL safe comparison of the other columns of the key)
+      sb.append(" AND NOT EXISTS (SELECT 1 FROM ").append(TABLE)
+          .append(" u WHERE u.concept_id = t.concept_id")
+          .append(" AND u.inverse = t.inverse")
+          .append(" AND u.related_terminologyId = t.related_terminologyId")
+          .append(getFilterClause("u", includeConceptRels, suppressibleFlag,
+              includeSelfReferential));
+      for (final String column : new String[] {
+          "related_name", "terminology", "relationshipType",
+          "additionalRelationshipType", "obsolete", "suppressible"
+      }) {
+        sb.append(" AND u.").append(column).append(" <=> t.").append(column);
+      }
+      sb.append(" AND ").append(getKeyTerminologyId("u")).append(" <=> ")
+          .append(getKeyTerminologyId("t"))
+          .append(" AND (u.component_type < t.component_type")
+          .append(" OR (u.component_type = t.component_type")
+          .append(" AND u.relationship_id < t.relationship_id)))");
+    }
+
+    if (!countFlag && pfs == null) {
+      sb.append(" ORDER BY component_type, relationship_id");
+    } else if (!countFlag) {
+      final List<String> sortFields = new ArrayList<>();
+      if (!ConfigUtility.isEmpty(pfs.getSortField())) {
+        sortFields.add(pfs.getSortField());
+      } else if (pfs.getSortFields() != null) {
+        sortFields.addAll(pfs.getSortFields());
+      }
+      sb.append(" ORDER BY ");
+      for (final String sortField : sortFields) {
+        sb.append(getSortColumn(sortField))
+            .append(pfs.isAscending() ? " ASC, " : " DESC, ");
+      }
+      // Break ties on the row key, so pages neither overlap nor skip rows
+      sb.append("component_type, relationship_id");
+    }
+
+    final Query query = manager.createNativeQuery(sb.toString());
+    query.setParameter("conceptId", conceptId);
+    if (!countFlag && pfs != null && pfs.getStartIndex() > -1
+        && pfs.getMaxResults() > -1) {
+      query.setFirstResult(pfs.getStartIndex());
+      query.setMaxResults(pfs.getMaxResults());
+    }
+    return query;
+  }
+
+  /**
+   * Returns the clause applying the row filters to a table alias.
+   *
+   * @param alias the alias
+   * @param includeConceptRels the include concept rels
+   * @param suppressibleFlag whether to exclude suppressible rows
+   * @param includeSelfReferential the include self referential
+   * @return the filter clause
+   */
+  private static String getFilterClause(String alias,
+    boolean includeConceptRels, boolean suppressibleFlag,
+    boolean includeSelfReferential) {
+    final StringBuilder sb = new StringBuilder();
+    if (!includeConceptRels) {
+      sb.append(" AND ").append(alias).append(".component_type != 'CONCEPT'");
+    }
+    if (suppressibleFlag) {
+      sb.append(" AND ").append(alias).append(".suppressible = 0");
+    }
+    if (!includeSelfReferential) {
+      sb.append(" AND ").append(alias)
+          .append(".related_concept_id != ").append(alias)
+          .append(".concept_id");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the terminology id a row is compared by: demotions take their
+   * relationship id, so they are never equal to the relationship they demote
+   * (see the content service).
+   *
+   * @param alias the alias
+   * @return the key terminology id expression
+   */
+  private static String getKeyTerminologyId(String alias) {
+    return "(CASE WHEN " + alias + ".workflowStatus = 'DEMOTION' THEN CAST("
+        + alias + ".relationship_id AS CHAR) ELSE " + alias
+        + ".terminologyId END)";
+  }
+}
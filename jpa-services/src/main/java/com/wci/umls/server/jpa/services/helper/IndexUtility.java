@@ -6,8 +6,10 @@ package com.wci.umls.server.jpa.services.helper;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -22,30 +24,44 @@ import javax.persistence.OneToOne;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FieldCacheRangeFilter;
 import org.apache.lucene.search.FieldComparator;
 import org.apache.lucene.search.FieldComparatorSource;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
 import org.hibernate.search.SearchFactory;
 import org.hibernate.search.annotations.Analyze;
 import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.Fields;
 import org.hibernate.search.annotations.Indexed;
 import org.hibernate.search.annotations.IndexedEmbedded;
+import org.hibernate.search.backend.PurgeAllLuceneWork;
+import org.hibernate.search.engine.spi.EntityIndexBinding;
+import org.hibernate.search.indexes.spi.IndexManager;
 import org.hibernate.search.jpa.FullTextEntityManager;
 import org.hibernate.search.jpa.FullTextQuery;
 import org.hibernate.search.jpa.Search;
+import org.hibernate.search.spi.SearchIntegrator;
 import org.reflections.Reflections;
 import org.reflections.util.ConfigurationBuilder;
 
 import com.wci.umls.server.helpers.ConfigUtility;
 import com.wci.umls.server.helpers.LocalException;
 import com.wci.umls.server.helpers.PfsParameter;
+import com.wci.umls.server.jpa.helpers.SortableStringBridge;
+import com.wci.umls.server.jpa.helpers.TerminologyShardIdentifierProvider;
 
 /**
  * Performs utility functions relating to Lucene indexes and Hibernate Search.
@@ -78,6 +94,13 @@ public class IndexUtility {
   private static Map<Class<?>, List<Method>> allOneToManyGetMethods =
       new HashMap<>();
 
+  /** The parsed query cache, by class name and query. */
+  private static Map<String, Query> queryCache = null;
+
+  /** The per-thread query parsers, by class (parsers are not thread safe). */
+  private static volatile ThreadLocal<Map<Class<?>, QueryParser>> queryParsers =
+      ThreadLocal.withInitial(HashMap::new);
+
   // Initialize the field names maps
   static {
     try {
@@ -569,15 +592,6 @@ public class IndexUtility {
     final SearchFactory searchFactory =
         fullTextEntityManager.getSearchFactory();
 
-    Query luceneQuery;
-    final QueryParser queryParser = new MultiFieldQueryParser(
-        IndexUtility.getIndexedFieldNames(clazz, true).toArray(new String[] {}),
-        searchFactory.getAnalyzer(clazz));
-
-    // preserve capitalization from incoming query (in order to correctly match
-    // capitalized terms)
-    queryParser.setLowercaseExpandedTerms(false);
-
     // construct the query
     final String finalQuery = (pfsQuery.toString().startsWith(" AND "))
         ? pfsQuery.toString().substring(5) : pfsQuery.toString();
@@ -588,53 +602,43 @@ public class IndexUtility {
       Logger.getLogger(IndexUtility.class)
           .info("  query = " + finalQuery + ", " + pfs);
     }
-    try {
-      luceneQuery = queryParser.parse(finalQuery);
-    } catch (ParseException e) {
-      throw new LocalException("Unable to parse query");
-    }
 
-    // Validate query terms
-    luceneQuery = luceneQuery.rewrite(fullTextEntityManager.getSearchFactory()
-        .getIndexReaderAccessor().open(clazz));
-    final Set<Term> terms = new HashSet<>();
-    luceneQuery.extractTerms(terms);
-    for (final Term t : terms) {
-      if (t.field() != null && !t.field().isEmpty() && !IndexUtility
-          .getIndexedFieldNames(clazz, false).contains(t.field())) {
-        throw new ParseException(
-            "Query references invalid field name " + t.field() + ", "
-                + IndexUtility.getIndexedFieldNames(clazz, false));
+    // Parse (and validate query terms), or reuse a previous parse
+    final String cacheKey = clazz.getName() + " " + finalQuery.trim();
+    Query luceneQuery = getQueryCache().get(cacheKey);
+    if (luceneQuery == null) {
+      try {
+        luceneQuery = getQueryParser(clazz, searchFactory).parse(finalQuery);
+      } catch (ParseException e) {
+        // Report invalid fields as such
+        if (e.getCause() instanceof InvalidFieldException) {
+          throw (InvalidFieldException) e.getCause();
+        }
+        throw new LocalException("Unable to parse query");
       }
+      getQueryCache().put(cacheKey, luceneQuery);
     }
+    // Queries are mutable, give each caller its own copy
+    luceneQuery = luceneQuery.clone();
+    final Query parsedQuery = luceneQuery;
 
-    fullTextQuery =
-        fullTextEntityManager.createFullTextQuery(luceneQuery, clazz);
-
+    Sort sort = null;
     if (pfs != null) {
-      // if start index and max results are set, set paging
-      if (pfs.getStartIndex() >= 0 && pfs.getMaxResults() >= 0) {
-        fullTextQuery.setFirstResult(pfs.getStartIndex());
-        fullTextQuery.setMaxResults(pfs.getMaxResults());
-      }
 
       if (pfs.getSortField() != null && !pfs.getSortField().isEmpty()
           && pfs.getSortField().equals("RANDOM")) {
 
         // Randomly sort
-        final Sort sort =
-            new Sort(new SortField("", new FieldComparatorSource() {
-
-              @Override
-              public FieldComparator<Long> newComparator(String fieldname,
-                int numHits, int sortPos, boolean reversed) throws IOException {
-                return new RandomOrderFieldComparator(numHits, fieldname, null,
-                    null);
-              }
+        sort = new Sort(new SortField("", new FieldComparatorSource() {
 
-            }));
+          @Override
+          public FieldComparator<Long> newComparator(String fieldname,
+            int numHits, int sortPos, boolean reversed) throws IOException {
+            return new RandomOrderFieldComparator(numHits, fieldname, null,
+                null);
+          }
 
-        fullTextQuery.setSort(sort);
+        }));
 
         // if sort specified (single or multi-field sort), set sorting
       } else if ((pfs.getSortFields() != null && !pfs.getSortFields().isEmpty())
@@ -724,15 +728,191 @@ public class IndexUtility {
           sortFields.add(sortField);
         }
 
+        // Resume after the previous page
+        if (pfs.getSearchAfter() != null) {
+          luceneQuery = applySearchAfter(luceneQuery, sortFields, pfs);
+        }
+
         final SortField[] sfs = sortFields.toArray(new SortField[] {});
-        fullTextQuery.setSort(new Sort(sfs));
+        sort = new Sort(sfs);
+
+      }
 
+      if (pfs.getSearchAfter() != null && sort == null) {
+        throw new LocalException(
+            "Search after paging requires a sort field other than RANDOM");
       }
+    }
 
+    fullTextQuery =
+        fullTextEntityManager.createFullTextQuery(luceneQuery, clazz);
+    if (isShardedByTerminology(fullTextEntityManager, clazz)) {
+      selectTerminologyShard(fullTextQuery, parsedQuery);
+    }
+
+    if (pfs != null) {
+      // if start index (or a search after cursor) and max results are set,
+      // set paging - a cursor already skips the previous pages
+      if ((pfs.getStartIndex() >= 0 || pfs.getSearchAfter() != null)
+          && pfs.getMaxResults() >= 0) {
+        fullTextQuery.setFirstResult(
+            pfs.getSearchAfter() == null ? pfs.getStartIndex() : 0);
+        fullTextQuery.setMaxResults(pfs.getMaxResults());
+      }
+      if (sort != null) {
+        fullTextQuery.setSort(sort);
+      }
     }
     return fullTextQuery;
   }
 
+  /**
+   * Restricts the query to results sorting after the search after value (and,
+   * among results with that value, after the search after id). The filters
+   * read the sort field through the field cache, which is backed by doc
+   * values for fields indexed with {@link SortableStringBridge}, so the cost
+   * does not depend on how deep the page is.
+   *
+   * @param query the query
+   * @param sortFields the sort fields, to which an id tiebreaker is added
+   * @param pfs the pfs
+   * @return the restricted query
+   * @throws Exception the exception
+   */
+  private static Query applySearchAfter(Query query,
+    List<SortField> sortFields, PfsParameter pfs) throws Exception {
+    if (sortFields.size() != 1) {
+      throw new LocalException(
+          "Search after paging requires a single sort field");
+    }
+    final SortField sortField = sortFields.get(0);
+    final String field = sortField.getField();
+    final String value = pfs.getSearchAfter();
+    final boolean ascending = !sortField.getReverse();
+
+    // Results strictly after the value, and results equal to it
+    Filter after = null;
+    Query equal = null;
+    if (sortField.getType() == SortField.Type.LONG) {
+      final Long longValue = Long.valueOf(value);
+      after = ascending
+          ? FieldCacheRangeFilter.newLongRange(field, longValue, null, false,
+              true)
+          : FieldCacheRangeFilter.newLongRange(field, null, longValue, true,
+              false);
+      equal = new ConstantScoreQuery(FieldCacheRangeFilter
+          .newLongRange(field, longValue, longValue, true, true));
+    } else {
+      after = ascending
+          ? FieldCacheRangeFilter.newStringRange(field, value, null, false,
+              true)
+          : FieldCacheRangeFilter.newStringRange(field, null, value, true,
+              false);
+      equal = new TermQuery(new Term(field, value));
+    }
+
+    final BooleanQuery cursor = new BooleanQuery();
+    cursor.add(new ConstantScoreQuery(after), Occur.SHOULD);
+    if (pfs.getSearchAfterId() != null) {
+      // Break ties by id, sorted in the same direction
+      sortFields.add(new SortField("id", SortField.Type.LONG, !ascending));
+      final BooleanQuery tie = new BooleanQuery();
+      tie.add(equal, Occur.MUST);
+      tie.add(new ConstantScoreQuery(ascending
+          ? FieldCacheRangeFilter.newLongRange("id", pfs.getSearchAfterId(),
+              null, false, true)
+          : FieldCacheRangeFilter.newLongRange("id", null,
+              pfs.getSearchAfterId(), true, false)),
+          Occur.MUST);
+      cursor.add(tie, Occur.SHOULD);
+    }
+
+    final BooleanQuery restricted = new BooleanQuery();
+    restricted.add(query, Occur.MUST);
+    restricted.add(cursor, Occur.MUST);
+    return restricted;
+  }
+
+  /**
+   * Restricts the query to the terminology shard of a sharded index (see
+   * {@link TerminologyShardIdentifierProvider}) when the query requires a
+   * terminology and version, e.g. "... AND terminology:X AND version:Y".
+   *
+   * @param fullTextQuery the full text query
+   * @param query the parsed query
+   */
+  private static void selectTerminologyShard(FullTextQuery fullTextQuery,
+    Query query) {
+    if (!(query instanceof BooleanQuery)) {
+      return;
+    }
+    String terminology = null;
+    String version = null;
+    for (final BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+      if (clause.getOccur() == Occur.MUST
+          && clause.getQuery() instanceof TermQuery) {
+        final Term term = ((TermQuery) clause.getQuery()).getTerm();
+        if (term.field().equals("terminology")) {
+          terminology = term.text();
+        } else if (term.field().equals("version")) {
+          version = term.text();
+        }
+      }
+    }
+    if (terminology != null && version != null) {
+      fullTextQuery
+          .enableFullTextFilter(TerminologyShardIdentifierProvider.FILTER_NAME)
+          .setParameter("terminology", terminology)
+          .setParameter("version", version);
+    }
+  }
+
+  /**
+   * Indicates whether the index of the class is sharded by terminology.
+   *
+   * @param manager the manager
+   * @param clazz the clazz
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   */
+  public static boolean isShardedByTerminology(EntityManager manager,
+    Class<?> clazz) {
+    final EntityIndexBinding binding =
+        Search.getFullTextEntityManager(manager).getSearchFactory()
+            .unwrap(SearchIntegrator.class).getIndexBinding(clazz);
+    return binding != null && binding.getShardIdentifierProvider()
+        instanceof TerminologyShardIdentifierProvider;
+  }
+
+  /**
+   * Removes all documents of the class from its terminology shard, e.g. when
+   * the terminology is removed or before the shard is reindexed.
+   *
+   * @param manager the manager
+   * @param clazz the clazz
+   * @param terminology the terminology
+   * @param version the version
+   * @return <code>true</code> if the shard existed, <code>false</code>
+   *         otherwise
+   */
+  public static boolean purgeTerminologyShard(EntityManager manager,
+    Class<?> clazz, String terminology, String version) {
+    final String suffix = "." + TerminologyShardIdentifierProvider
+        .getShardIdentifier(terminology, version);
+    for (final IndexManager indexManager : Search
+        .getFullTextEntityManager(manager).getSearchFactory()
+        .unwrap(SearchIntegrator.class).getIndexBinding(clazz)
+        .getIndexManagers()) {
+      if (indexManager.getIndexName().endsWith(suffix)) {
+        Logger.getLogger(IndexUtility.class)
+            .info("  Purge shard " + indexManager.getIndexName());
+        indexManager.performOperations(
+            Collections.singletonList(new PurgeAllLuceneWork(clazz)), null);
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Returns the methods for @OneToMany annotated fields.
    *
@@ -796,4 +976,181 @@ public class IndexUtility {
 
   }
 
+  /**
+   * Returns the parsed query cache, sized by "index.query.cache.size"
+   * (default 1000).
+   *
+   * @return the query cache
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("serial")
+  private static synchronized Map<String, Query> getQueryCache()
+    throws Exception {
+    if (queryCache == null) {
+      final String prop = ConfigUtility.getConfigProperties()
+          .getProperty("index.query.cache.size");
+      final int cacheSize = prop != null ? Integer.parseInt(prop) : 1000;
+      queryCache = Collections.synchronizedMap(
+          new LinkedHashMap<String, Query>(cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+              Map.Entry<String, Query> eldest) {
+              return size() > cacheSize;
+            }
+          });
+    }
+    return queryCache;
+  }
+
+  /**
+   * Clears the parsed queries and the query parsers of all threads, e.g. after
+   * the entity manager factory (and so the search factory and its analyzers)
+   * is replaced.
+   */
+  public static synchronized void clearQueryCaches() {
+    queryCache = null;
+    // A new thread local, as other threads' parsers cannot be removed
+    queryParsers = ThreadLocal.withInitial(HashMap::new);
+  }
+
+  /**
+   * Returns this thread's query parser for the class. Parsers search all
+   * string fields by default and reject fields that are not indexed.
+   *
+   * @param clazz the clazz
+   * @param searchFactory the search factory
+   * @return the query parser
+   * @throws Exception the exception
+   */
+  private static QueryParser getQueryParser(Class<?> clazz,
+    SearchFactory searchFactory) throws Exception {
+    final Map<Class<?>, QueryParser> parsers = queryParsers.get();
+    QueryParser queryParser = parsers.get(clazz);
+    if (queryParser == null) {
+      queryParser = new ValidatingQueryParser(
+          IndexUtility.getIndexedFieldNames(clazz, true)
+              .toArray(new String[] {}),
+          searchFactory.getAnalyzer(clazz),
+          IndexUtility.getIndexedFieldNames(clazz, false));
+
+      // preserve capitalization from incoming query (in order to correctly
+      // match capitalized terms)
+      queryParser.setLowercaseExpandedTerms(false);
+      parsers.put(clazz, queryParser);
+    }
+    return queryParser;
+  }
+
+  /**
+   * Indicates a query references a field that is not indexed.
+   */
+  @SuppressWarnings("serial")
+  private static class InvalidFieldException extends ParseException {
+
+    /**
+     * Instantiates a {@link InvalidFieldException} from the specified
+     * parameters.
+     *
+     * @param message the message
+     */
+    public InvalidFieldException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * A multi-field query parser that validates field names as it parses, so
+   * that invalid fields are caught without rewriting the query against an
+   * index reader.
+   */
+  private static class ValidatingQueryParser extends MultiFieldQueryParser {
+
+    /** The valid field names. */
+    private final Set<String> validFields;
+
+    /**
+     * Instantiates a {@link ValidatingQueryParser} from the specified
+     * parameters.
+     *
+     * @param fields the default fields
+     * @param analyzer the analyzer
+     * @param validFields the valid fields
+     */
+    public ValidatingQueryParser(String[] fields, Analyzer analyzer,
+      Set<String> validFields) {
+      super(fields, analyzer);
+      this.validFields = validFields;
+    }
+
+    /**
+     * Check the field name.
+     *
+     * @param field the field
+     * @throws ParseException the parse exception
+     */
+    private void checkField(String field) throws ParseException {
+      if (field != null && !field.isEmpty() && !validFields.contains(field)) {
+        throw new InvalidFieldException("Query references invalid field name "
+            + field + ", " + validFields);
+      }
+    }
+
+    /* see superclass */
+    @Override
+    protected Query getFieldQuery(String field, String queryText,
+      boolean quoted) throws ParseException {
+      checkField(field);
+      return super.getFieldQuery(field, queryText, quoted);
+    }
+
+    /* see superclass */
+    @Override
+    protected Query getFieldQuery(String field, String queryText, int slop)
+      throws ParseException {
+      checkField(field);
+      return super.getFieldQuery(field, queryText, slop);
+    }
+
+    /* see superclass */
+    @Override
+    protected Query getRangeQuery(String field, String part1, String part2,
+      boolean startInclusive, boolean endInclusive) throws ParseException {
+      checkField(field);
+      return super.getRangeQuery(field, part1, part2, startInclusive,
+          endInclusive);
+    }
+
+    /* see superclass */
+    @Override
+    protected Query getPrefixQuery(String field, String termStr)
+      throws ParseException {
+      checkField(field);
+      return super.getPrefixQuery(field, termStr);
+    }
+
+    /* see superclass */
+    @Override
+    protected Query getWildcardQuery(String field, String termStr)
+      throws ParseException {
+      checkField(field);
+      return super.getWildcardQuery(field, termStr);
+    }
+
+    /* see superclass */
+    @Override
+    protected Query getFuzzyQuery(String field, String termStr,
+      float minSimilarity) throws ParseException {
+      checkField(field);
+      return super.getFuzzyQuery(field, termStr, minSimilarity);
+    }
+
+    /* see superclass */
+    @Override
+    protected Query getRegexpQuery(String field, String termStr)
+      throws ParseException {
+      checkField(field);
+      return super.getRegexpQuery(field, termStr);
+    }
+  }
+
 }
@@ -0,0 +1,559 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.services.helper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+
+import org.apache.log4j.Logger;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.search.jpa.FullTextEntityManager;
+import org.hibernate.search.jpa.Search;
+
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.jpa.content.ConceptJpa;
+import com.wci.umls.server.jpa.helpers.DeferredIndexingInterceptor;
+import com.wci.umls.server.jpa.services.ContentServiceJpa;
+
+/**
+ * Write-behind index updates for concepts edited by molecular actions. When
+ * enabled, actions defer concept index updates (see
+ * {@link DeferredIndexingInterceptor}) and queue the concept ids here. A
+ * background thread reindexes the queued concepts in batches every window, so
+ * a concept edited several times within the window is reindexed once. Each
+ * queued concept remembers the users who edited it, and a concept search
+ * first reindexes the searching user's own queued concepts (see
+ * {@link #flush(String)}), so users see their own edits right away and
+ * everyone else's within the window. Concepts that fail to index are retried
+ * with a backoff and, after the max attempts, kept as failed until
+ * {@link #retryFailed()}.
+ */
+public class IndexWriteBehindQueue {
+
+  /** The config property that enables write-behind index updates. */
+  public static final String ENABLED_PROPERTY = "index.write.behind";
+
+  /** The config property for the window between queue passes (ms). */
+  public static final String WINDOW_PROPERTY = "index.write.behind.window";
+
+  /** The config property for the max number of concepts per transaction. */
+  public static final String BATCH_SIZE_PROPERTY =
+      "index.write.behind.batch.size";
+
+  /** The config property for the max attempts to index a concept. */
+  public static final String MAX_ATTEMPTS_PROPERTY =
+      "index.write.behind.max.attempts";
+
+  /** The enabled flag. */
+  private static Boolean enabled = null;
+
+  /** The window. */
+  private static long window = 2000;
+
+  /** The batch size. */
+  private static int batchSize = 100;
+
+  /** The max attempts. */
+  private static int maxAttempts = 5;
+
+  /** The executor, started on first use. */
+  private static ScheduledExecutorService executor = null;
+
+  /** The pending concepts, by concept id. */
+  private static final Map<Long, PendingConcept> pending =
+      new LinkedHashMap<>();
+
+  /** The concepts that failed every attempt, by concept id. */
+  private static final Map<Long, PendingConcept> failed =
+      new LinkedHashMap<>();
+
+  /**
+   * The index lock, held while taking and indexing a batch so a flush waits
+   * for a batch the background thread is still indexing.
+   */
+  private static final Object indexLock = new Object();
+
+  /** The number of concepts currently being indexed. */
+  private static final AtomicInteger inProgress = new AtomicInteger(0);
+
+  /** The users of the batch being indexed. Callers synchronize on pending. */
+  private static final Set<String> inProgressUsers = new HashSet<>();
+
+  /** The number of concepts reindexed. */
+  private static final AtomicLong processedCt = new AtomicLong(0);
+
+  /** The lag of the most recent batch (ms). */
+  private static final AtomicLong lastLag = new AtomicLong(0);
+
+  /** The max lag seen (ms). */
+  private static final AtomicLong maxLag = new AtomicLong(0);
+
+  /** The batch processor (replaced by unit tests). */
+  static BatchProcessor batchProcessor = IndexWriteBehindQueue::processBatch;
+
+  /**
+   * Indicates whether write-behind index updates are enabled.
+   *
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   * @throws Exception the exception
+   */
+  public static boolean isEnabled() throws Exception {
+    if (enabled == null) {
+      final Properties config = ConfigUtility.getConfigProperties();
+      if (config.getProperty(WINDOW_PROPERTY) != null) {
+        window = Long.parseLong(config.getProperty(WINDOW_PROPERTY));
+      }
+      if (config.getProperty(BATCH_SIZE_PROPERTY) != null) {
+        batchSize = Integer.parseInt(config.getProperty(BATCH_SIZE_PROPERTY));
+      }
+      if (config.getProperty(MAX_ATTEMPTS_PROPERTY) != null) {
+        maxAttempts =
+            Integer.parseInt(config.getProperty(MAX_ATTEMPTS_PROPERTY));
+      }
+      enabled = "true".equals(config.getProperty(ENABLED_PROPERTY));
+    }
+    return enabled;
+  }
+
+  /**
+   * Configures the queue without reading the config properties, e.g. for
+   * unit tests. Stops the executor (the next enqueue starts one with the new
+   * window) and empties the queue.
+   *
+   * @param window the window between queue passes (ms)
+   * @param batchSize the batch size
+   * @param maxAttempts the max attempts
+   */
+  static void configure(long window, int batchSize, int maxAttempts) {
+    synchronized (pending) {
+      if (executor != null) {
+        executor.shutdownNow();
+        executor = null;
+      }
+      IndexWriteBehindQueue.window = window;
+      IndexWriteBehindQueue.batchSize = batchSize;
+      IndexWriteBehindQueue.maxAttempts = maxAttempts;
+      pending.clear();
+      failed.clear();
+      enabled = true;
+    }
+  }
+
+  /**
+   * Queues the concepts edited by the user for reindexing. Concepts already
+   * waiting keep their original enqueue time and add the user.
+   *
+   * @param conceptIds the concept ids
+   * @param userName the user name
+   */
+  public static void enqueue(Collection<Long> conceptIds, String userName) {
+    if (conceptIds.isEmpty()) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    synchronized (pending) {
+      startExecutor();
+      for (final Long conceptId : conceptIds) {
+        PendingConcept concept = pending.get(conceptId);
+        if (concept == null) {
+          concept = new PendingConcept(now);
+          pending.put(conceptId, concept);
+        }
+        if (userName != null) {
+          concept.userNames.add(userName);
+        }
+      }
+    }
+  }
+
+  /**
+   * Start the executor, if not started yet. Callers synchronize on pending.
+   */
+  private static void startExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "index-write-behind");
+        thread.setDaemon(true);
+        return thread;
+      });
+      executor.scheduleWithFixedDelay(() -> processQueue(), window, window,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Reindexes the concepts queued by the user now (except those waiting out
+   * a retry backoff), so the user's concept searches see their own edits.
+   * If the background thread is indexing a batch with the user's concepts,
+   * waits for it first. Concepts queued only by other users are left to the
+   * background thread. Indexing failures are queued for retry rather than
+   * failing the search.
+   *
+   * @param userName the user name
+   * @throws Exception the exception
+   */
+  public static void flush(String userName) throws Exception {
+    if (!isEnabled() || userName == null || !isPending(userName)) {
+      return;
+    }
+    synchronized (indexLock) {
+      Map<Long, PendingConcept> batch;
+      while (!(batch = takeBatch(userName)).isEmpty()) {
+        processBatchOrRequeue(batch);
+      }
+    }
+  }
+
+  /**
+   * Indicates whether concepts queued by the user are waiting or being
+   * indexed.
+   *
+   * @param userName the user name
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   */
+  private static boolean isPending(String userName) {
+    synchronized (pending) {
+      if (inProgressUsers.contains(userName)) {
+        return true;
+      }
+      for (final PendingConcept concept : pending.values()) {
+        if (concept.userNames.contains(userName)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Re-queue a concept that failed to index, after a backoff that doubles
+   * with each attempt. A concept that was queued again in the meantime is
+   * left to that entry. After the max attempts the concept is moved to the
+   * failed set.
+   *
+   * @param conceptId the concept id
+   * @param concept the pending concept
+   */
+  private static void requeue(Long conceptId, PendingConcept concept) {
+    synchronized (pending) {
+      concept.attempts++;
+      if (concept.attempts >= maxAttempts) {
+        Logger.getLogger(IndexWriteBehindQueue.class)
+            .error("Index write-behind gave up on concept " + conceptId
+                + " after " + concept.attempts + " attempts");
+        failed.put(conceptId, concept);
+        return;
+      }
+      concept.notBefore = System.currentTimeMillis()
+          + (window << Math.min(concept.attempts, 16));
+      final PendingConcept queued = pending.putIfAbsent(conceptId, concept);
+      if (queued != null) {
+        queued.userNames.addAll(concept.userNames);
+      }
+    }
+  }
+
+  /**
+   * Returns the concepts that failed to index on every attempt. Their index
+   * documents are stale until they are retried or the index is rebuilt.
+   *
+   * @return the failed concept ids
+   */
+  public static Set<Long> getFailedConceptIds() {
+    synchronized (pending) {
+      return new HashSet<>(failed.keySet());
+    }
+  }
+
+  /**
+   * Re-queues the concepts that failed to index on every attempt, e.g. after
+   * the cause has been fixed.
+   *
+   * @return the number of concepts re-queued
+   */
+  public static int retryFailed() {
+    synchronized (pending) {
+      startExecutor();
+      for (final Map.Entry<Long, PendingConcept> entry : failed.entrySet()) {
+        entry.getValue().attempts = 0;
+        entry.getValue().notBefore = 0;
+        final PendingConcept queued =
+            pending.putIfAbsent(entry.getKey(), entry.getValue());
+        if (queued != null) {
+          queued.userNames.addAll(entry.getValue().userNames);
+        }
+      }
+      final int ct = failed.size();
+      failed.clear();
+      return ct;
+    }
+  }
+
+  /**
+   * Waits until all queued concepts (including those waiting to be retried)
+   * have been reindexed or have failed.
+   *
+   * @param timeout the max time to wait (ms)
+   * @return <code>true</code> if the queue emptied, <code>false</code> if the
+   *         timeout passed first
+   * @throws Exception the exception
+   */
+  public static boolean awaitEmpty(long timeout) throws Exception {
+    final long deadline = System.currentTimeMillis() + timeout;
+    while (getQueueDepth() > 0 || inProgress.get() > 0) {
+      if (System.currentTimeMillis() >= deadline) {
+        return false;
+      }
+      Thread.sleep(100);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of concepts waiting to be reindexed.
+   *
+   * @return the queue depth
+   */
+  public static int getQueueDepth() {
+    synchronized (pending) {
+      return pending.size();
+    }
+  }
+
+  /**
+   * Returns how long the oldest waiting concept has been queued.
+   *
+   * @return the queue lag (ms)
+   */
+  public static long getQueueLag() {
+    synchronized (pending) {
+      if (pending.isEmpty()) {
+        return 0;
+      }
+      long oldest = Long.MAX_VALUE;
+      for (final PendingConcept concept : pending.values()) {
+        oldest = Math.min(oldest, concept.enqueued);
+      }
+      return System.currentTimeMillis() - oldest;
+    }
+  }
+
+  /**
+   * Returns the time from enqueue to index of the oldest concept in the most
+   * recent batch.
+   *
+   * @return the lag (ms)
+   */
+  public static long getLastLag() {
+    return lastLag.get();
+  }
+
+  /**
+   * Returns the max lag seen.
+   *
+   * @return the max lag (ms)
+   */
+  public static long getMaxLag() {
+    return maxLag.get();
+  }
+
+  /**
+   * Returns the number of concepts reindexed.
+   *
+   * @return the processed count
+   */
+  public static long getProcessedCount() {
+    return processedCt.get();
+  }
+
+  /**
+   * Process the queue, one batch at a time. Concepts waiting out a retry
+   * backoff are left for a later pass.
+   */
+  private static void processQueue() {
+    while (true) {
+      synchronized (indexLock) {
+        final Map<Long, PendingConcept> batch = takeBatch(null);
+        if (batch.isEmpty()) {
+          return;
+        }
+        processBatchOrRequeue(batch);
+      }
+    }
+  }
+
+  /**
+   * Takes the next batch of concepts due for indexing off the queue. Callers
+   * hold the index lock.
+   *
+   * @param userName the user whose concepts to take, or null for all
+   * @return the batch, empty if none are due
+   */
+  private static Map<Long, PendingConcept> takeBatch(String userName) {
+    final Map<Long, PendingConcept> batch = new LinkedHashMap<>();
+    synchronized (pending) {
+      final long now = System.currentTimeMillis();
+      final Iterator<Map.Entry<Long, PendingConcept>> iter =
+          pending.entrySet().iterator();
+      while (iter.hasNext() && batch.size() < batchSize) {
+        final Map.Entry<Long, PendingConcept> entry = iter.next();
+        if (entry.getValue().notBefore <= now && (userName == null
+            || entry.getValue().userNames.contains(userName))) {
+          batch.put(entry.getKey(), entry.getValue());
+          inProgressUsers.addAll(entry.getValue().userNames);
+          iter.remove();
+        }
+      }
+      inProgress.addAndGet(batch.size());
+    }
+    return batch;
+  }
+
+  /**
+   * Index a batch. If a batch of several concepts fails, retry each concept
+   * on its own, so one bad concept does not hold up the rest, and re-queue
+   * those that fail.
+   *
+   * @param batch the batch
+   */
+  private static void processBatchOrRequeue(Map<Long, PendingConcept> batch) {
+    try {
+      batchProcessor.process(batch);
+    } catch (Exception e) {
+      Logger.getLogger(IndexWriteBehindQueue.class)
+          .warn("Index write-behind failed for concepts " + batch.keySet(), e);
+      if (batch.size() == 1) {
+        final Map.Entry<Long, PendingConcept> entry =
+            batch.entrySet().iterator().next();
+        requeue(entry.getKey(), entry.getValue());
+      } else {
+        for (final Map.Entry<Long, PendingConcept> entry : batch
+            .entrySet()) {
+          try {
+            batchProcessor.process(
+                Collections.singletonMap(entry.getKey(), entry.getValue()));
+          } catch (Exception e2) {
+            Logger.getLogger(IndexWriteBehindQueue.class).warn(
+                "Index write-behind failed for concept " + entry.getKey(), e2);
+            requeue(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+    } finally {
+      synchronized (pending) {
+        inProgressUsers.clear();
+        inProgress.addAndGet(-batch.size());
+      }
+    }
+  }
+
+  /**
+   * Reindex a batch of concepts in a single transaction, purging the
+   * documents of concepts that no longer exist.
+   *
+   * @param batch the pending concepts, by concept id
+   * @throws Exception the exception
+   */
+  private static void processBatch(Map<Long, PendingConcept> batch)
+    throws Exception {
+    if (batch.isEmpty()) {
+      return;
+    }
+    final ContentServiceJpa service = new ContentServiceJpa();
+    try {
+      final EntityManager manager = service.getEntityManager();
+      manager.unwrap(Session.class).setCacheMode(CacheMode.IGNORE);
+      final FullTextEntityManager fullTextEntityManager =
+          Search.getFullTextEntityManager(manager);
+      manager.getTransaction().begin();
+      final List<Long> conceptIds = new ArrayList<>(batch.keySet());
+      for (final Long conceptId : conceptIds) {
+        final ConceptJpa concept = manager.find(ConceptJpa.class, conceptId);
+        if (concept == null) {
+          fullTextEntityManager.purge(ConceptJpa.class, conceptId);
+        } else {
+          fullTextEntityManager.index(concept);
+        }
+      }
+      fullTextEntityManager.flushToIndexes();
+      manager.getTransaction().commit();
+    } catch (Exception e) {
+      if (service.getEntityManager().getTransaction().isActive()) {
+        service.getEntityManager().getTransaction().rollback();
+      }
+      throw e;
+    } finally {
+      service.close();
+    }
+
+    long oldest = Long.MAX_VALUE;
+    for (final PendingConcept concept : batch.values()) {
+      oldest = Math.min(oldest, concept.enqueued);
+    }
+    final long lag = System.currentTimeMillis() - oldest;
+    lastLag.set(lag);
+    maxLag.accumulateAndGet(lag, Math::max);
+    processedCt.addAndGet(batch.size());
+    Logger.getLogger(IndexWriteBehindQueue.class)
+        .debug("  index write-behind concepts = " + batch.size() + ", lag = "
+            + lag + " ms, depth = " + getQueueDepth());
+  }
+
+  /**
+   * Reindexes a batch of queued concepts.
+   */
+  interface BatchProcessor {
+
+    /**
+     * Process the batch.
+     *
+     * @param batch the pending concepts, by concept id
+     * @throws Exception the exception
+     */
+    void process(Map<Long, PendingConcept> batch) throws Exception;
+  }
+
+  /**
+   * A queued concept.
+   */
+  static class PendingConcept {
+
+    /** The users who edited the concept. */
+    final Set<String> userNames = new HashSet<>();
+
+    /** The enqueue time. */
+    private final long enqueued;
+
+    /** The number of failed attempts. */
+    private int attempts = 0;
+
+    /** The earliest time of the next attempt. */
+    private long notBefore = 0;
+
+    /**
+     * Instantiates a {@link PendingConcept} from the specified parameters.
+     *
+     * @param enqueued the enqueued
+     */
+    public PendingConcept(long enqueued) {
+      this.enqueued = enqueued;
+    }
+  }
+}
@@ -0,0 +1,298 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.services.helper;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.wci.umls.server.Project;
+import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.helpers.PrecedenceList;
+import com.wci.umls.server.jpa.services.ReportServiceJpa;
+import com.wci.umls.server.model.content.Concept;
+
+/**
+ * Caches the expensive sections of concept reports (atoms, relationships and
+ * contexts) by concept, section and variant (e.g. precedence list and
+ * decoration). The cache is concurrent and bounded by the size of the cached
+ * text. Each fragment records the concepts it was built from, and
+ * {@link #invalidate(Collection)} (called after every molecular action and
+ * again once its post-action maintenance is committed) drops all fragments
+ * built from any of the given concepts. Batch writers (loaders and
+ * maintenance algorithms) do not invalidate, so fragments also expire a
+ * fixed time after they are cached. Reports for the concepts of a worklist
+ * can also be precomputed in the background when the worklist is assigned.
+ */
+public class ReportFragmentCache {
+
+  /** The config property for the cache size (MB of text). */
+  public static final String SIZE_PROPERTY = "report.cache.size.mb";
+
+  /** The config property for the fragment time to live (minutes). */
+  public static final String TTL_PROPERTY = "report.cache.ttl.minutes";
+
+  /** The config property that enables precomputing worklist reports. */
+  public static final String PRECOMPUTE_PROPERTY = "report.cache.precompute";
+
+  /**
+   * The report sections that are cached.
+   */
+  public enum Section {
+
+    /** The definitions, SOS and atoms. */
+    ATOMS,
+
+    /** The lexical and concept relationships. */
+    RELATIONSHIPS,
+
+    /** The contexts. */
+    CONTEXTS
+  }
+
+  /** The fragments, by key. */
+  private static Cache<String, Fragment> fragments = null;
+
+  /** The keys of the fragments built from each concept, by concept id. */
+  private static final Map<Long, Set<String>> dependents =
+      new ConcurrentHashMap<>();
+
+  /** The precompute flag. */
+  private static Boolean precompute = null;
+
+  /** The precompute executor, started on first use. */
+  private static ExecutorService executor = null;
+
+  /**
+   * Returns the fragments, creating the cache on first use.
+   *
+   * @return the fragments
+   * @throws Exception the exception
+   */
+  private static synchronized Cache<String, Fragment> getFragments()
+    throws Exception {
+    if (fragments == null) {
+      final Properties config = ConfigUtility.getConfigProperties();
+      long sizeMb = 64;
+      if (config.getProperty(SIZE_PROPERTY) != null) {
+        sizeMb = Long.parseLong(config.getProperty(SIZE_PROPERTY));
+      }
+      long ttlMinutes = 10;
+      if (config.getProperty(TTL_PROPERTY) != null) {
+        ttlMinutes = Long.parseLong(config.getProperty(TTL_PROPERTY));
+      }
+      precompute = "true".equals(config.getProperty(PRECOMPUTE_PROPERTY));
+      // Weigh by chars, two bytes each
+      fragments = CacheBuilder.newBuilder()
+          .maximumWeight(sizeMb * 1024 * 1024 / 2)
+          .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+          .weigher((String key, Fragment fragment) -> key.length()
+              + fragment.text.length())
+          .removalListener((RemovalListener<String, Fragment>) removal -> {
+            // A replaced fragment's key is still live
+            if (removal.getCause() == RemovalCause.REPLACED) {
+              return;
+            }
+            for (final Long conceptId : removal.getValue().conceptIds) {
+              dependents.computeIfPresent(conceptId, (id, keys) -> {
+                keys.remove(removal.getKey());
+                return keys.isEmpty() ? null : keys;
+              });
+            }
+          }).build();
+    }
+    return fragments;
+  }
+
+  /**
+   * Returns the cached fragment.
+   *
+   * @param conceptId the concept id
+   * @param section the section
+   * @param variant the variant
+   * @return the fragment, or null if not cached
+   * @throws Exception the exception
+   */
+  public static String get(Long conceptId, Section section, String variant)
+    throws Exception {
+    final Fragment fragment =
+        getFragments().getIfPresent(getKey(conceptId, section, variant));
+    return fragment == null ? null : fragment.text;
+  }
+
+  /**
+   * Caches the fragment.
+   *
+   * @param conceptId the concept id
+   * @param section the section
+   * @param variant the variant
+   * @param text the text
+   * @param conceptIds the ids of other concepts the fragment was built from
+   * @throws Exception the exception
+   */
+  public static void put(Long conceptId, Section section, String variant,
+    String text, Collection<Long> conceptIds) throws Exception {
+    final String key = getKey(conceptId, section, variant);
+    final Set<Long> ids = new HashSet<>(conceptIds);
+    ids.add(conceptId);
+    for (final Long id : ids) {
+      dependents.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet())
+          .add(key);
+    }
+    getFragments().put(key, new Fragment(text, ids));
+  }
+
+  /**
+   * Drops the fragments built from any of the concepts.
+   *
+   * @param conceptIds the concept ids
+   * @throws Exception the exception
+   */
+  public static void invalidate(Collection<Long> conceptIds)
+    throws Exception {
+    for (final Long conceptId : conceptIds) {
+      final Set<String> keys = dependents.remove(conceptId);
+      if (keys != null) {
+        getFragments().invalidateAll(keys);
+      }
+    }
+  }
+
+  /**
+   * Clears the cache.
+   *
+   * @throws Exception the exception
+   */
+  public static void clear() throws Exception {
+    getFragments().invalidateAll();
+    dependents.clear();
+  }
+
+  /**
+   * Indicates whether worklist reports are precomputed on assignment.
+   *
+   * @return <code>true</code> if so, <code>false</code> otherwise
+   * @throws Exception the exception
+   */
+  public static boolean isPrecompute() throws Exception {
+    getFragments();
+    return precompute;
+  }
+
+  /**
+   * Precomputes the reports of the concepts of a worklist in the background,
+   * one concept at a time, with the project's precedence list.
+   *
+   * @param projectId the project id
+   * @param worklistName the worklist name
+   */
+  public static synchronized void precompute(Long projectId,
+    String worklistName) {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "report-precompute");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    executor.submit(() -> {
+      try {
+        precomputeWorklist(projectId, worklistName);
+      } catch (Exception e) {
+        Logger.getLogger(ReportFragmentCache.class).error(
+            "Report precompute failed for worklist " + worklistName, e);
+      }
+    });
+  }
+
+  /**
+   * Precompute the reports of the concepts of a worklist.
+   *
+   * @param projectId the project id
+   * @param worklistName the worklist name
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("unchecked")
+  private static void precomputeWorklist(Long projectId, String worklistName)
+    throws Exception {
+    final ReportServiceJpa service = new ReportServiceJpa();
+    try {
+      final List<Long> conceptIds = service.getEntityManager()
+          .createQuery("select distinct c.id from TrackingRecordJpa t "
+              + "join t.concepts c where t.project.id = :projectId "
+              + "and t.worklistName = :worklistName")
+          .setParameter("projectId", projectId)
+          .setParameter("worklistName", worklistName).getResultList();
+      Logger.getLogger(ReportFragmentCache.class).debug(
+          "  precompute reports " + worklistName + ", " + conceptIds.size());
+      for (final Long conceptId : conceptIds) {
+        final Project project = service.getProject(projectId);
+        final Concept concept = service.getConcept(conceptId);
+        if (concept != null) {
+          service.getGraphResolutionHandler(concept.getTerminology())
+              .resolve(concept);
+          PrecedenceList list = project.getPrecedenceList();
+          if (list == null) {
+            list = service.getPrecedenceList(concept.getTerminology(),
+                concept.getVersion());
+          }
+          service.getConceptReport(project, concept, list, true);
+        }
+        // Release the concept
+        service.getEntityManager().clear();
+      }
+    } finally {
+      service.close();
+    }
+  }
+
+  /**
+   * Returns the key.
+   *
+   * @param conceptId the concept id
+   * @param section the section
+   * @param variant the variant
+   * @return the key
+   */
+  private static String getKey(Long conceptId, Section section,
+    String variant) {
+    return conceptId + ":" + section + ":" + variant;
+  }
+
+  /**
+   * A cached fragment.
+   */
+  private static class Fragment {
+
+    /** The text. */
+    private final String text;
+
+    /** The ids of the concepts the fragment was built from. */
+    private final Set<Long> conceptIds;
+
+    /**
+     * Instantiates a {@link Fragment} from the specified parameters.
+     *
+     * @param text the text
+     * @param conceptIds the concept ids
+     */
+    public Fragment(String text, Set<Long> conceptIds) {
+      this.text = text;
+      this.conceptIds = conceptIds;
+    }
+  }
+}
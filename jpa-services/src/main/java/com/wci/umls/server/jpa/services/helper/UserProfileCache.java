@@ -0,0 +1,161 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.services.helper;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+
+import com.wci.umls.server.UserRole;
+
+/**
+ * Caches the parts of a user needed for authorization checks (application
+ * role and editor level) by user name, so the security layer and molecular
+ * actions can check them without loading the user through a new service on
+ * every call. Entries are invalidated by the security service once a change
+ * to a user commits. A lookup that raced with an invalidation does not cache
+ * what it read. The cache is per JVM, so changes made through another server
+ * are only seen when entries expire, {@link #TTL} ms after being loaded.
+ */
+public class UserProfileCache {
+
+  /** The time to live of a cached profile (ms). */
+  public static final long TTL = 60000;
+
+  /** The profiles, by user name. */
+  private static Map<String, UserProfile> profiles = new ConcurrentHashMap<>();
+
+  /** The number of invalidations, to detect lookups racing with them. */
+  private static AtomicLong invalidationCt = new AtomicLong(0);
+
+  /**
+   * Returns the profile for the user name, loading it with the manager on a
+   * cache miss.
+   *
+   * @param manager the manager
+   * @param userName the user name
+   * @return the profile, or null if there is no such user
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("unchecked")
+  public static UserProfile getProfile(EntityManager manager, String userName)
+    throws Exception {
+    UserProfile profile = profiles.get(userName);
+    if (profile == null
+        || System.currentTimeMillis() - profile.loaded > TTL) {
+      final long ct = invalidationCt.get();
+      final List<Object[]> results = manager
+          .createQuery("select u.id, u.applicationRole, u.editorLevel "
+              + "from UserJpa u where userName = :userName")
+          .setParameter("userName", userName).getResultList();
+      if (results.isEmpty()) {
+        return null;
+      }
+      final Object[] result = results.get(0);
+      profile = new UserProfile((Long) result[0], userName,
+          (UserRole) result[1], ((Number) result[2]).intValue());
+      // Don't cache a row read before a concurrent invalidation
+      if (invalidationCt.get() == ct) {
+        profiles.put(userName, profile);
+      }
+    }
+    return profile;
+  }
+
+  /**
+   * Invalidates the profile for the user name.
+   *
+   * @param userName the user name
+   */
+  public static void invalidate(String userName) {
+    if (userName != null) {
+      invalidationCt.incrementAndGet();
+      profiles.remove(userName);
+    }
+  }
+
+  /**
+   * Clears all profiles.
+   */
+  public static void clear() {
+    invalidationCt.incrementAndGet();
+    profiles.clear();
+  }
+
+  /**
+   * An immutable snapshot of a user.
+   */
+  public static class UserProfile {
+
+    /** The id. */
+    private final Long id;
+
+    /** The user name. */
+    private final String userName;
+
+    /** The application role. */
+    private final UserRole applicationRole;
+
+    /** The editor level. */
+    private final int editorLevel;
+
+    /** The load time. */
+    private final long loaded = System.currentTimeMillis();
+
+    /**
+     * Instantiates a {@link UserProfile} from the specified parameters.
+     *
+     * @param id the id
+     * @param userName the user name
+     * @param applicationRole the application role
+     * @param editorLevel the editor level
+     */
+    public UserProfile(Long id, String userName, UserRole applicationRole,
+      int editorLevel) {
+      this.id = id;
+      this.userName = userName;
+      this.applicationRole = applicationRole;
+      this.editorLevel = editorLevel;
+    }
+
+    /**
+     * Returns the id.
+     *
+     * @return the id
+     */
+    public Long getId() {
+      return id;
+    }
+
+    /**
+     * Returns the user name.
+     *
+     * @return the user name
+     */
+    public String getUserName() {
+      return userName;
+    }
+
+    /**
+     * Returns the application role.
+     *
+     * @return the application role
+     */
+    public UserRole getApplicationRole() {
+      return applicationRole;
+    }
+
+    /**
+     * Returns the editor level.
+     *
+     * @return the editor level
+     */
+    public int getEditorLevel() {
+      return editorLevel;
+    }
+  }
+}
@@ -3,6 +3,7 @@
  */
 package com.wci.umls.server.jpa.services.validation;
 
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
@@ -49,6 +50,13 @@ public abstract class AbstractValidationCheck implements ValidationCheck {
     return new HashSet<>();
   }
 
+  /* see superclass */
+  @Override
+  public Set<ConceptData> getConceptData() {
+    // by default, validateConcepts is used
+    return EnumSet.noneOf(ConceptData.class);
+  }
+
   /* see superclass */
   @Override
   public ValidationResult validate(Descriptor descriptor) {
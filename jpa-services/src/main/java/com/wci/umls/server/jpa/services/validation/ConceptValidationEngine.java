@@ -0,0 +1,344 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.services.validation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+
+import org.apache.log4j.Logger;
+
+import com.wci.umls.server.jpa.services.ContentServiceJpa;
+import com.wci.umls.server.model.content.Atom;
+import com.wci.umls.server.model.content.Concept;
+import com.wci.umls.server.services.handlers.ValidationCheck;
+import com.wci.umls.server.services.handlers.ValidationCheck.ConceptData;
+
+/**
+ * Validates a set of concepts against several checks concurrently. Checks
+ * with their own bulk implementation of
+ * {@link ValidationCheck#validateConcepts} each run as one task. Checks that
+ * declare {@link ValidationCheck#getConceptData()} are instead run over
+ * partitions of the concept ids: each partition fetches the union of the data
+ * needed by those checks once and feeds every concept to all of them. Every
+ * task uses its own service (and entity manager), so tasks only see committed
+ * data; when the caller has uncommitted changes, run with concurrency off and
+ * everything runs on the caller's service instead. Per-check failure counts
+ * and times are kept for reporting.
+ */
+public class ConceptValidationEngine {
+
+  /** The checks, by key. */
+  private final Map<String, ValidationCheck> checks;
+
+  /** The terminology. */
+  private final String terminology;
+
+  /** The version. */
+  private final String version;
+
+  /** The caller's service. */
+  private final ContentServiceJpa service;
+
+  /** The concurrent flag. */
+  private boolean concurrent = true;
+
+  /** The thread count. */
+  private int threadCt =
+      Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  /** The partition size. */
+  private int partitionSize = 1000;
+
+  /** The failures, by check key. */
+  private final Map<String, Set<Long>> checkFailures =
+      new ConcurrentHashMap<>();
+
+  /** The times (ns), by check key. */
+  private final Map<String, AtomicLong> checkTimes = new ConcurrentHashMap<>();
+
+  /**
+   * Instantiates a {@link ConceptValidationEngine} from the specified
+   * parameters.
+   *
+   * @param checks the checks, by key
+   * @param terminology the terminology
+   * @param version the version
+   * @param service the caller's service
+   */
+  public ConceptValidationEngine(Map<String, ValidationCheck> checks,
+    String terminology, String version, ContentServiceJpa service) {
+    this.checks = checks;
+    this.terminology = terminology;
+    this.version = version;
+    this.service = service;
+  }
+
+  /**
+   * Indicates whether checks run concurrently, each task with its own
+   * service. Turn this off when the caller's service has uncommitted changes
+   * the checks must see.
+   *
+   * @param concurrent the concurrent flag
+   */
+  public void setConcurrent(boolean concurrent) {
+    this.concurrent = concurrent;
+  }
+
+  /**
+   * Sets the thread count.
+   *
+   * @param threadCt the thread count
+   */
+  public void setThreadCt(int threadCt) {
+    this.threadCt = threadCt;
+  }
+
+  /**
+   * Sets the partition size.
+   *
+   * @param partitionSize the partition size
+   */
+  public void setPartitionSize(int partitionSize) {
+    this.partitionSize = partitionSize;
+  }
+
+  /**
+   * Validates the concepts.
+   *
+   * @param conceptIds the concept ids
+   * @return the ids of concepts failing any check
+   * @throws Exception the exception
+   */
+  public Set<Long> validate(Set<Long> conceptIds) throws Exception {
+
+    // Split checks by how they run
+    final Map<String, ValidationCheck> bulkChecks = new LinkedHashMap<>();
+    final Map<String, ValidationCheck> partitionChecks = new LinkedHashMap<>();
+    final Set<ConceptData> conceptData = EnumSet.noneOf(ConceptData.class);
+    for (final Map.Entry<String, ValidationCheck> entry : checks.entrySet()) {
+      checkFailures.put(entry.getKey(),
+          Collections.synchronizedSet(new HashSet<>()));
+      checkTimes.put(entry.getKey(), new AtomicLong(0));
+      if (entry.getValue().getConceptData().isEmpty()) {
+        bulkChecks.put(entry.getKey(), entry.getValue());
+      } else {
+        partitionChecks.put(entry.getKey(), entry.getValue());
+        conceptData.addAll(entry.getValue().getConceptData());
+      }
+    }
+
+    // Partition the ids
+    final List<Long> ids = new ArrayList<>(conceptIds);
+    Collections.sort(ids);
+    final List<List<Long>> partitions = new ArrayList<>();
+    if (!partitionChecks.isEmpty()) {
+      for (int i = 0; i < ids.size(); i += partitionSize) {
+        partitions
+            .add(ids.subList(i, Math.min(i + partitionSize, ids.size())));
+      }
+    }
+    final AtomicInteger nextPartition = new AtomicInteger(0);
+
+    if (!concurrent) {
+      // Run everything on the caller's service (and transaction)
+      for (final Map.Entry<String, ValidationCheck> entry : bulkChecks
+          .entrySet()) {
+        runBulkCheck(entry.getKey(), entry.getValue(), conceptIds, service);
+      }
+      runPartitionChecks(partitionChecks, conceptData, partitions,
+          nextPartition, service, false);
+    } else {
+      final List<Future<?>> futures = new ArrayList<>();
+      final ExecutorService executor = Executors.newFixedThreadPool(threadCt);
+      try {
+        for (final Map.Entry<String, ValidationCheck> entry : bulkChecks
+            .entrySet()) {
+          futures.add(executor.submit(() -> {
+            final ContentServiceJpa taskService = new ContentServiceJpa();
+            try {
+              runBulkCheck(entry.getKey(), entry.getValue(), conceptIds,
+                  taskService);
+            } finally {
+              taskService.close();
+            }
+            return null;
+          }));
+        }
+        for (int i = 0; i < Math.min(threadCt, partitions.size()); i++) {
+          futures.add(executor.submit(() -> {
+            final ContentServiceJpa taskService = new ContentServiceJpa();
+            try {
+              runPartitionChecks(partitionChecks, conceptData, partitions,
+                  nextPartition, taskService, true);
+            } finally {
+              taskService.close();
+            }
+            return null;
+          }));
+        }
+
+        // Wait for all tasks, failing on the first exception
+        for (final Future<?> future : futures) {
+          future.get();
+        }
+      } finally {
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+      }
+    }
+
+    final Set<Long> failures = new HashSet<>();
+    for (final String key : checks.keySet()) {
+      Logger.getLogger(getClass())
+          .info("    " + key + " ct = " + checkFailures.get(key).size()
+              + ", time = " + getCheckTime(key) + " ms");
+      failures.addAll(checkFailures.get(key));
+    }
+    return failures;
+  }
+
+  /**
+   * Run a check with its own bulk implementation.
+   *
+   * @param key the key
+   * @param check the check
+   * @param conceptIds the concept ids
+   * @param taskService the service to run on
+   * @throws Exception the exception
+   */
+  private void runBulkCheck(String key, ValidationCheck check,
+    Set<Long> conceptIds, ContentServiceJpa taskService) throws Exception {
+    final long start = System.nanoTime();
+    checkFailures.get(key).addAll(
+        check.validateConcepts(conceptIds, terminology, version, taskService));
+    checkTimes.get(key).addAndGet(System.nanoTime() - start);
+  }
+
+  /**
+   * Run the per-concept checks over partitions until none are left.
+   *
+   * @param partitionChecks the partition checks
+   * @param conceptData the concept data to fetch
+   * @param partitions the partitions
+   * @param nextPartition the next partition
+   * @param taskService the service to run on
+   * @param clear whether to clear the entity manager after each partition
+   * @throws Exception the exception
+   */
+  private void runPartitionChecks(Map<String, ValidationCheck> partitionChecks,
+    Set<ConceptData> conceptData, List<List<Long>> partitions,
+    AtomicInteger nextPartition, ContentServiceJpa taskService, boolean clear)
+    throws Exception {
+    final EntityManager manager = taskService.getEntityManager();
+    int partition;
+    while ((partition = nextPartition.getAndIncrement()) < partitions
+        .size()) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      for (final Concept concept : fetchConcepts(manager, conceptData,
+          partitions.get(partition))) {
+        for (final Map.Entry<String, ValidationCheck> entry : partitionChecks
+            .entrySet()) {
+          final long start = System.nanoTime();
+          if (!entry.getValue().validate(concept).isValid()) {
+            checkFailures.get(entry.getKey()).add(concept.getId());
+          }
+          checkTimes.get(entry.getKey()).addAndGet(System.nanoTime() - start);
+        }
+      }
+      // Release the partition (never the caller's pending changes)
+      if (clear) {
+        manager.clear();
+      }
+    }
+  }
+
+  /**
+   * Fetch the concepts with the requested data. Each collection is fetched
+   * with its own query (to avoid fetching multiple bags at once); all
+   * queries populate the same concept instances.
+   *
+   * @param manager the manager
+   * @param conceptData the concept data
+   * @param ids the ids
+   * @return the concepts
+   */
+  @SuppressWarnings("unchecked")
+  private List<Concept> fetchConcepts(EntityManager manager,
+    Set<ConceptData> conceptData, List<Long> ids) {
+    final boolean atoms = conceptData.contains(ConceptData.ATOMS)
+        || conceptData.contains(ConceptData.ATOM_RELATIONSHIPS);
+    final List<Concept> concepts = manager
+        .createQuery("select distinct c from ConceptJpa c "
+            + (atoms ? "left join fetch c.atoms " : "")
+            + "where c.id in (:ids)")
+        .setParameter("ids", ids).getResultList();
+    if (conceptData.contains(ConceptData.RELATIONSHIPS)) {
+      manager
+          .createQuery("select distinct c from ConceptJpa c "
+              + "left join fetch c.relationships where c.id in (:ids)")
+          .setParameter("ids", ids).getResultList();
+    }
+    if (conceptData.contains(ConceptData.SEMANTIC_TYPES)) {
+      manager
+          .createQuery("select distinct c from ConceptJpa c "
+              + "left join fetch c.semanticTypes where c.id in (:ids)")
+          .setParameter("ids", ids).getResultList();
+    }
+    if (conceptData.contains(ConceptData.ATOM_RELATIONSHIPS)) {
+      final List<Long> atomIds = new ArrayList<>();
+      for (final Concept concept : concepts) {
+        for (final Atom atom : concept.getAtoms()) {
+          atomIds.add(atom.getId());
+        }
+      }
+      // Concepts can have many atoms, keep the IN list bounded
+      for (int i = 0; i < atomIds.size(); i += partitionSize) {
+        manager
+            .createQuery("select distinct a from AtomJpa a "
+                + "left join fetch a.relationships where a.id in (:ids)")
+            .setParameter("ids",
+                atomIds.subList(i, Math.min(i + partitionSize, atomIds.size())))
+            .getResultList();
+      }
+    }
+    return concepts;
+  }
+
+  /**
+   * Returns the ids of concepts failing the check.
+   *
+   * @param key the check key
+   * @return the check failures
+   */
+  public Set<Long> getCheckFailures(String key) {
+    return checkFailures.get(key);
+  }
+
+  /**
+   * Returns the time spent in the check.
+   *
+   * @param key the check key
+   * @return the check time (ms)
+   */
+  public long getCheckTime(String key) {
+    return TimeUnit.NANOSECONDS.toMillis(checkTimes.get(key).get());
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.algo.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.wci.umls.server.helpers.LocalException;
+
+/**
+ * Unit testing for {@link ConceptLockManager}.
+ */
+public class ConceptLockManagerUnitTest {
+
+  /**
+   * Test that a held concept times out for other threads and is available
+   * again once released.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testTimeout() throws Exception {
+    final ConceptLockManager manager = new ConceptLockManager(64, 200);
+    final CountDownLatch locked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Thread holder = new Thread(() -> {
+      try (final ConceptLockManager.Locks locks =
+          manager.lock(Arrays.asList(1L, 2L))) {
+        locked.countDown();
+        release.await();
+      } catch (Exception e) {
+        // n/a
+      }
+    });
+    holder.start();
+    locked.await();
+
+    try {
+      manager.lock(Arrays.asList(2L, 3L));
+      fail("Expected lock timeout");
+    } catch (LocalException e) {
+      // expected
+    }
+    assertEquals(1, manager.getTimeoutCount());
+    assertEquals(1, manager.getContentionCount());
+    assertEquals(1L, manager.getConceptContentionMap().get(2L).longValue());
+    assertTrue(manager.getMaxWaitTime() >= 150);
+
+    release.countDown();
+    holder.join();
+    manager.lock(Arrays.asList(2L, 3L)).close();
+  }
+
+  /**
+   * Test that threads locking overlapping concepts in different orders do not
+   * deadlock.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testNoDeadlock() throws Exception {
+    final ConceptLockManager manager = new ConceptLockManager(16, 10000);
+    final AtomicInteger done = new AtomicInteger(0);
+    final Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      final long offset = i;
+      threads[i] = new Thread(() -> {
+        try {
+          for (int j = 0; j < 1000; j++) {
+            try (final ConceptLockManager.Locks locks =
+                manager.lock(Arrays.asList((j + offset) % 40,
+                    (j * 7 + offset) % 40, (40 - j - offset) % 40))) {
+              // n/a
+            }
+          }
+          done.incrementAndGet();
+        } catch (Exception e) {
+          // n/a
+        }
+      });
+      threads[i].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(threads.length, done.get());
+    assertEquals(0, manager.getTimeoutCount());
+  }
+
+  /**
+   * Test that the contended concepts tracked stay bounded.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testContentionBounded() throws Exception {
+    // One stripe, so a held concept contends with every other concept
+    final ConceptLockManager manager = new ConceptLockManager(1, 1);
+    final CountDownLatch locked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Thread holder = new Thread(() -> {
+      try (final ConceptLockManager.Locks locks =
+          manager.lock(Arrays.asList(0L))) {
+        locked.countDown();
+        release.await();
+      } catch (Exception e) {
+        // n/a
+      }
+    });
+    holder.start();
+    locked.await();
+
+    final int ct = ConceptLockManager.MAX_CONTENDED_CONCEPTS + 100;
+    for (long i = 1; i <= ct; i++) {
+      try {
+        manager.lock(Arrays.asList(i));
+        fail("Expected lock timeout");
+      } catch (LocalException e) {
+        // expected
+      }
+    }
+    release.countDown();
+    holder.join();
+
+    assertEquals(ct, manager.getContentionCount());
+    assertTrue(manager.getConceptContentionMap()
+        .size() <= ConceptLockManager.MAX_CONTENDED_CONCEPTS);
+    // The most recent concept is still tracked
+    assertEquals(1L,
+        manager.getConceptContentionMap().get((long) ct).longValue());
+  }
+}
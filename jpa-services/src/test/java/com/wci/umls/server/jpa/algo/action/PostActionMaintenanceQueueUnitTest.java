@@ -0,0 +1,143 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.algo.action;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit testing for {@link PostActionMaintenanceQueue}, with the database work
+ * replaced by a recording batch processor.
+ */
+public class PostActionMaintenanceQueueUnitTest {
+
+  /** The delay between queue passes (ms). */
+  private static final long DELAY = 50;
+
+  /** The max attempts. */
+  private static final int MAX_ATTEMPTS = 3;
+
+  /** The original batch processor. */
+  private static PostActionMaintenanceQueue.BatchProcessor original;
+
+  /**
+   * Setup class.
+   */
+  @BeforeClass
+  public static void setupClass() {
+    original = PostActionMaintenanceQueue.batchProcessor;
+    PostActionMaintenanceQueue.configure(DELAY, 100, MAX_ATTEMPTS);
+  }
+
+  /**
+   * Test that concepts queued again before they are maintained are maintained
+   * once, attributed to the latest user.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testCoalescing() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Long> processed =
+        Collections.synchronizedList(new ArrayList<>());
+    final Map<Long, String> users =
+        Collections.synchronizedMap(new HashMap<>());
+    PostActionMaintenanceQueue.batchProcessor = (projectId, batch) -> {
+      // Hold the worker on the first concept while the others are queued
+      if (batch.containsKey(0L)) {
+        started.countDown();
+        release.await();
+      }
+      batch.forEach((conceptId, concept) -> {
+        processed.add(conceptId);
+        users.put(conceptId, concept.userName);
+      });
+    };
+
+    PostActionMaintenanceQueue.enqueue(10L, Arrays.asList(0L), "a");
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    PostActionMaintenanceQueue.enqueue(10L, Arrays.asList(1L, 2L), "a");
+    PostActionMaintenanceQueue.enqueue(10L, Arrays.asList(1L), "b");
+    PostActionMaintenanceQueue.enqueue(10L, Arrays.asList(1L), "c");
+    assertEquals(2, PostActionMaintenanceQueue.getQueueDepth());
+    release.countDown();
+    assertTrue(PostActionMaintenanceQueue.awaitEmpty(5000));
+
+    assertEquals(Arrays.asList(0L, 1L, 2L), processed);
+    assertEquals("c", users.get(1L));
+    assertEquals("a", users.get(2L));
+  }
+
+  /**
+   * Test that a failed batch is retried concept by concept, and that a concept
+   * that keeps failing is retried with a doubling backoff and then kept in
+   * the failed set until retried.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testRetryAndBackoff() throws Exception {
+    final Set<Long> processed = Collections.synchronizedSet(new HashSet<>());
+    final List<Long> attemptTimes =
+        Collections.synchronizedList(new ArrayList<>());
+    PostActionMaintenanceQueue.batchProcessor = (projectId, batch) -> {
+      if (batch.containsKey(3L)) {
+        if (batch.size() == 1) {
+          attemptTimes.add(System.currentTimeMillis());
+        }
+        throw new Exception("Bad concept");
+      }
+      processed.addAll(batch.keySet());
+    };
+
+    PostActionMaintenanceQueue.enqueue(20L, Arrays.asList(1L, 2L, 3L), "a");
+    assertTrue(PostActionMaintenanceQueue.awaitEmpty(5000));
+
+    // The good concepts went through on their own
+    assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), processed);
+
+    // The bad one was tried once per attempt, each wait twice the last
+    assertEquals(MAX_ATTEMPTS, attemptTimes.size());
+    final long firstWait = attemptTimes.get(1) - attemptTimes.get(0);
+    final long secondWait = attemptTimes.get(2) - attemptTimes.get(1);
+    assertTrue("First wait " + firstWait, firstWait >= DELAY << 1);
+    assertTrue("Second wait " + secondWait, secondWait >= DELAY << 2);
+    assertEquals(Collections.singleton(3L),
+        PostActionMaintenanceQueue.getFailedConceptIds().get(20L));
+
+    // Retry once the cause is fixed
+    PostActionMaintenanceQueue.batchProcessor =
+        (projectId, batch) -> processed.addAll(batch.keySet());
+    assertTrue(PostActionMaintenanceQueue.retryFailed() >= 1);
+    assertTrue(PostActionMaintenanceQueue.awaitEmpty(5000));
+    assertTrue(processed.contains(3L));
+    assertFalse(
+        PostActionMaintenanceQueue.getFailedConceptIds().containsKey(20L));
+  }
+
+  /**
+   * Teardown class.
+   */
+  @AfterClass
+  public static void teardownClass() {
+    PostActionMaintenanceQueue.batchProcessor = original;
+  }
+}
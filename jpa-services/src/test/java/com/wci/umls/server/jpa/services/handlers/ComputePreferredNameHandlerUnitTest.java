@@ -0,0 +1,207 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.services.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.wci.umls.server.helpers.KeyValuePair;
+import com.wci.umls.server.helpers.KeyValuePairList;
+import com.wci.umls.server.jpa.content.AtomJpa;
+import com.wci.umls.server.jpa.helpers.PrecedenceListJpa;
+import com.wci.umls.server.model.content.Atom;
+
+/**
+ * Tests and benchmarks the {@link RrfComputePreferredNameHandler} packed atom
+ * ranks against the previous string ranks.
+ */
+public class ComputePreferredNameHandlerUnitTest {
+
+  /** The handler. */
+  private static RrfComputePreferredNameHandler handler = null;
+
+  /** The precedence list. */
+  private static PrecedenceListJpa list = null;
+
+  /** The concepts, each a list of atoms. */
+  private static List<List<Atom>> concepts = new ArrayList<>();
+
+  /**
+   * Setup.
+   *
+   * @throws Exception the exception
+   */
+  @BeforeClass
+  public static void setup() throws Exception {
+    handler = new RrfComputePreferredNameHandler();
+
+    final String[] terminologies = new String[] {
+        "MTH", "SNOMEDCT_US", "MSH", "NCI"
+    };
+    final String[] termTypes = new String[] {
+        "PN", "PT", "SY", "FN", "MH", "ET"
+    };
+    final KeyValuePairList precedence = new KeyValuePairList();
+    for (final String terminology : terminologies) {
+      for (final String termType : termTypes) {
+        precedence.addKeyValuePair(new KeyValuePair(terminology, termType));
+      }
+    }
+    list = new PrecedenceListJpa();
+    list.setId(1L);
+    list.setPrecedence(precedence);
+
+    final Random random = new Random(1L);
+    long id = 1L;
+    for (int i = 0; i < 2000; i++) {
+      final List<Atom> atoms = new ArrayList<>();
+      for (int j = 0; j < 1 + random.nextInt(50); j++) {
+        final AtomJpa atom = new AtomJpa();
+        atom.setId(id++);
+        atom.setName("Atom " + atom.getId());
+        atom.setTerminology(
+            terminologies[random.nextInt(terminologies.length)]);
+        atom.setTermType(termTypes[random.nextInt(termTypes.length)]);
+        atom.setPublishable(random.nextInt(10) > 0);
+        atom.setObsolete(random.nextInt(10) == 0);
+        atom.setSuppressible(random.nextInt(5) == 0);
+        atom.setLastPublishedRank("" + random.nextInt(10));
+        atom.setStringClassId("S" + (1000000 + random.nextInt(9000000)));
+        atoms.add(atom);
+      }
+      concepts.add(atoms);
+    }
+    handler.cacheList(list);
+  }
+
+  /**
+   * Test that atom order and preferred names match the previous string ranks.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testSortAtoms() throws Exception {
+    for (final List<Atom> atoms : concepts) {
+      final List<Atom> expected = getLegacySortedAtoms(atoms);
+      assertEquals(expected, handler.sortAtoms(atoms, list));
+      assertEquals(expected.get(0).getName(),
+          handler.computePreferredName(atoms, list));
+    }
+  }
+
+  /**
+   * Test that ranks which do not fit their packed bits are rejected.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testPackedRankOverflow() throws Exception {
+    final AtomJpa atom = new AtomJpa();
+    atom.setId(1L);
+    atom.setTerminology("MTH");
+    atom.setTermType("PN");
+    atom.setStringClassId("S" + 10000000001L);
+    try {
+      handler.getPackedRank(atom, list);
+      fail("Expected SUI overflow");
+    } catch (Exception e) {
+      // n/a
+    }
+
+    // A precedence list with a term type rank beyond 14 bits
+    final PrecedenceListJpa bigList = new PrecedenceListJpa() {
+      @Override
+      public Map<String, String> getTermTypeRankMap() {
+        final Map<String, String> ttyRanks = new HashMap<>();
+        ttyRanks.put("MTH/PN", "" + (1 << 14));
+        ttyRanks.put("MTH/SY", "" + ((1 << 14) - 1));
+        return ttyRanks;
+      }
+    };
+    bigList.setId(2L);
+    handler.cacheList(bigList);
+    atom.setStringClassId("S0000001");
+    try {
+      handler.getPackedRank(atom, bigList);
+      fail("Expected term type rank overflow");
+    } catch (Exception e) {
+      // n/a
+    }
+    atom.setTermType("SY");
+    handler.getPackedRank(atom, bigList);
+  }
+
+  /**
+   * Benchmark the handler against the previous string ranks.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testBenchmark() throws Exception {
+    // warm up
+    for (final List<Atom> atoms : concepts) {
+      getLegacySortedAtoms(atoms);
+      handler.sortAtoms(atoms, list);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 10; i++) {
+      for (final List<Atom> atoms : concepts) {
+        getLegacySortedAtoms(atoms);
+      }
+    }
+    final long legacy = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < 10; i++) {
+      for (final List<Atom> atoms : concepts) {
+        handler.sortAtoms(atoms, list);
+      }
+    }
+    final long current = System.nanoTime() - start;
+
+    Logger.getLogger(getClass())
+        .info("  legacy = " + (legacy / 1000000) + " ms, handler = "
+            + (current / 1000000) + " ms for " + (concepts.size() * 10)
+            + " concepts");
+  }
+
+  /**
+   * Returns the atoms sorted by the previous string ranks.
+   *
+   * @param atoms the atoms
+   * @return the sorted atoms
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("static-method")
+  private List<Atom> getLegacySortedAtoms(List<Atom> atoms) throws Exception {
+    final Map<String, String> ttyRanks = list.getTermTypeRankMap();
+    final Map<Atom, String> atomRanks = new HashMap<>();
+    for (final Atom atom : atoms) {
+      atomRanks.put(atom,
+          "" + (atom.isPublishable() ? 1 : 0) + (atom.isObsolete() ? 0 : 1)
+              + (atom.isSuppressible() ? 0 : 1)
+              + ttyRanks.get(atom.getTerminology() + "/" + atom.getTermType())
+              + atom.getLastPublishedRank()
+              + (10000000000L
+                  - Long.parseLong(atom.getStringClassId().substring(1)))
+              + (100000000000L - atom.getId()));
+    }
+    final List<Atom> sortedAtoms = new ArrayList<>(atoms);
+    Collections.sort(sortedAtoms,
+        (o1, o2) -> atomRanks.get(o2).compareTo(atomRanks.get(o1)));
+    return sortedAtoms;
+  }
+}
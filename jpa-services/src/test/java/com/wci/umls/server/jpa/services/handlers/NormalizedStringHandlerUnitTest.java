@@ -0,0 +1,134 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.services.handlers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests and benchmarks the {@link LuceneNormalizedStringHandler} against the
+ * previous one-analyzer-per-call implementation.
+ */
+public class NormalizedStringHandlerUnitTest {
+
+  /** The handler. */
+  private static LuceneNormalizedStringHandler handler = null;
+
+  /** The sample strings. */
+  private static List<String> strings = new ArrayList<>();
+
+  /**
+   * Setup.
+   *
+   * @throws Exception the exception
+   */
+  @BeforeClass
+  public static void setup() throws Exception {
+    handler = new LuceneNormalizedStringHandler();
+    final Properties p = new Properties();
+    p.setProperty("cacheSize", "1000");
+    handler.setProperties(p);
+
+    final String[] samples = new String[] {
+        "Malignant neoplasm of breast", "Breast, Malignant Neoplasm of",
+        "Heart attack", "Myocardial infarction (disorder)",
+        "1,2-Dipalmitoyl-sn-glycero-3-phosphocholine", "Zebra Zebra apple",
+        "the quick brown fox jumps over the lazy dog", "", "A",
+        "Ünïcödé strings and UPPER case", "tumor, dermoid; ovary (benign)"
+    };
+    for (int i = 0; i < 10000; i++) {
+      strings.add(samples[i % samples.length] + " " + i);
+    }
+  }
+
+  /**
+   * Test that normalization matches the previous implementation.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testNormalizedString() throws Exception {
+    for (final String string : strings) {
+      assertEquals(getLegacyNormalizedString(string),
+          handler.getNormalizedString(string));
+    }
+    assertEquals(handler.normalizeAll(strings).size(), strings.size());
+    assertEquals(handler.getNormalizedString("Heart attack", "S0000001"),
+        handler.getNormalizedString("Heart attack"));
+  }
+
+  /**
+   * Benchmark the handler against the previous implementation.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testBenchmark() throws Exception {
+    // warm up
+    for (final String string : strings) {
+      getLegacyNormalizedString(string);
+      handler.getNormalizedString(string);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 10; i++) {
+      for (final String string : strings) {
+        getLegacyNormalizedString(string);
+      }
+    }
+    final long legacy = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < 10; i++) {
+      handler.normalizeAll(strings);
+    }
+    final long current = System.nanoTime() - start;
+
+    Logger.getLogger(getClass())
+        .info("  legacy = " + (legacy / 1000000) + " ms, handler = "
+            + (current / 1000000) + " ms for " + (strings.size() * 10)
+            + " strings");
+  }
+
+  /**
+   * Returns the normalized string as computed before the handler reused its
+   * analyzer and token buffers.
+   *
+   * @param string the string
+   * @return the normalized string
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("static-method")
+  private String getLegacyNormalizedString(String string) throws Exception {
+    final List<String> result = new ArrayList<String>();
+    try (final StandardAnalyzer analyzer = new StandardAnalyzer()) {
+      final TokenStream stream =
+          analyzer.tokenStream(null, new StringReader(string));
+      stream.reset();
+      while (stream.incrementToken()) {
+        result.add(stream.getAttribute(CharTermAttribute.class).toString());
+      }
+    }
+    Collections.sort(result);
+    final StringBuilder normalizedString = new StringBuilder();
+    final Iterator<String> iter = result.iterator();
+    while (iter.hasNext()) {
+      normalizedString.append(iter.next()).append(iter.hasNext() ? " " : "");
+    }
+    return normalizedString.toString();
+  }
+}
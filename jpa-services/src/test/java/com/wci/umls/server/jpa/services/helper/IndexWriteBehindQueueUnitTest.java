@@ -0,0 +1,207 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.jpa.services.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit testing for {@link IndexWriteBehindQueue}, with the indexing replaced
+ * by a recording batch processor.
+ */
+public class IndexWriteBehindQueueUnitTest {
+
+  /** The window between queue passes (ms). */
+  private static final long WINDOW = 50;
+
+  /** The max attempts. */
+  private static final int MAX_ATTEMPTS = 3;
+
+  /** The original batch processor. */
+  private static IndexWriteBehindQueue.BatchProcessor original;
+
+  /**
+   * Setup class.
+   */
+  @BeforeClass
+  public static void setupClass() {
+    original = IndexWriteBehindQueue.batchProcessor;
+  }
+
+  /**
+   * Test that a flush indexes only the concepts the user queued, including
+   * those also queued by others.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testFlushOwnConcepts() throws Exception {
+    // A window long enough that the background thread stays out of the way
+    IndexWriteBehindQueue.configure(60000, 100, MAX_ATTEMPTS);
+    final List<Long> processed =
+        Collections.synchronizedList(new ArrayList<>());
+    IndexWriteBehindQueue.batchProcessor =
+        batch -> processed.addAll(batch.keySet());
+
+    IndexWriteBehindQueue.enqueue(Arrays.asList(1L, 2L), "a");
+    IndexWriteBehindQueue.enqueue(Arrays.asList(3L), "b");
+    IndexWriteBehindQueue.enqueue(Arrays.asList(2L), "b");
+
+    IndexWriteBehindQueue.flush("c");
+    assertTrue(processed.isEmpty());
+
+    IndexWriteBehindQueue.flush("a");
+    assertEquals(Arrays.asList(1L, 2L), processed);
+    assertEquals(1, IndexWriteBehindQueue.getQueueDepth());
+
+    IndexWriteBehindQueue.flush("b");
+    assertEquals(Arrays.asList(1L, 2L, 3L), processed);
+    assertEquals(0, IndexWriteBehindQueue.getQueueDepth());
+  }
+
+  /**
+   * Test that a flush waits for a batch the background thread is indexing
+   * only if the batch has the user's concepts.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testFlushWaitsForOwnBatch() throws Exception {
+    IndexWriteBehindQueue.configure(WINDOW, 100, MAX_ATTEMPTS);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Set<Long> processed = Collections.synchronizedSet(new HashSet<>());
+    IndexWriteBehindQueue.batchProcessor = batch -> {
+      // Hold the background thread on the first concept
+      if (batch.containsKey(0L)) {
+        started.countDown();
+        release.await();
+      }
+      processed.addAll(batch.keySet());
+    };
+
+    IndexWriteBehindQueue.enqueue(Arrays.asList(0L), "a");
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    // Another user's search goes right ahead
+    final Thread other = flushInThread("b");
+    other.join(5000);
+    assertFalse(other.isAlive());
+
+    // The user's own search waits for the batch
+    final Thread own = flushInThread("a");
+    own.join(200);
+    assertTrue(own.isAlive());
+    release.countDown();
+    own.join(5000);
+    assertFalse(own.isAlive());
+    assertTrue(processed.contains(0L));
+  }
+
+  /**
+   * Test that the background thread indexes every user's concepts within the
+   * window.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testBackgroundIndexing() throws Exception {
+    IndexWriteBehindQueue.configure(WINDOW, 100, MAX_ATTEMPTS);
+    final Set<Long> processed = Collections.synchronizedSet(new HashSet<>());
+    IndexWriteBehindQueue.batchProcessor =
+        batch -> processed.addAll(batch.keySet());
+
+    IndexWriteBehindQueue.enqueue(Arrays.asList(1L, 2L), "a");
+    IndexWriteBehindQueue.enqueue(Arrays.asList(3L), "b");
+    assertTrue(IndexWriteBehindQueue.awaitEmpty(5000));
+    assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)), processed);
+  }
+
+  /**
+   * Test that a failed batch is retried concept by concept, and that a concept
+   * that keeps failing is retried with a doubling backoff and then kept in
+   * the failed set until retried.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testRetryAndBackoff() throws Exception {
+    IndexWriteBehindQueue.configure(WINDOW, 100, MAX_ATTEMPTS);
+    final Set<Long> processed = Collections.synchronizedSet(new HashSet<>());
+    final List<Long> attemptTimes =
+        Collections.synchronizedList(new ArrayList<>());
+    IndexWriteBehindQueue.batchProcessor = batch -> {
+      if (batch.containsKey(3L)) {
+        if (batch.size() == 1) {
+          attemptTimes.add(System.currentTimeMillis());
+        }
+        throw new Exception("Bad concept");
+      }
+      processed.addAll(batch.keySet());
+    };
+
+    IndexWriteBehindQueue.enqueue(Arrays.asList(1L, 2L, 3L), "a");
+    assertTrue(IndexWriteBehindQueue.awaitEmpty(5000));
+
+    // The good concepts went through on their own
+    assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), processed);
+
+    // The bad one was tried once per attempt, each wait twice the last
+    assertEquals(MAX_ATTEMPTS, attemptTimes.size());
+    final long firstWait = attemptTimes.get(1) - attemptTimes.get(0);
+    final long secondWait = attemptTimes.get(2) - attemptTimes.get(1);
+    assertTrue("First wait " + firstWait, firstWait >= WINDOW << 1);
+    assertTrue("Second wait " + secondWait, secondWait >= WINDOW << 2);
+    assertEquals(Collections.singleton(3L),
+        IndexWriteBehindQueue.getFailedConceptIds());
+
+    // Retry once the cause is fixed
+    IndexWriteBehindQueue.batchProcessor =
+        batch -> processed.addAll(batch.keySet());
+    assertEquals(1, IndexWriteBehindQueue.retryFailed());
+    assertTrue(IndexWriteBehindQueue.awaitEmpty(5000));
+    assertTrue(processed.contains(3L));
+    assertTrue(IndexWriteBehindQueue.getFailedConceptIds().isEmpty());
+  }
+
+  /**
+   * Flushes the user's concepts in a new thread.
+   *
+   * @param userName the user name
+   * @return the thread
+   */
+  private static Thread flushInThread(String userName) {
+    final Thread thread = new Thread(() -> {
+      try {
+        IndexWriteBehindQueue.flush(userName);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Teardown class.
+   */
+  @AfterClass
+  public static void teardownClass() {
+    IndexWriteBehindQueue.batchProcessor = original;
+  }
+}
@@ -21,4 +21,21 @@ public interface AlgorithmConfig extends AlgorithmInfo<ProcessConfig> {
    * @param enabled the enabled
    */
   public void setEnabled(boolean enabled);
+
+  /**
+   * Returns the dependencies, a comma-separated list of algorithm keys of
+   * earlier steps in the process that must finish before this one starts. An
+   * empty value means the step has no dependencies; null means it depends on
+   * all earlier steps (i.e. steps run in order).
+   *
+   * @return the dependencies
+   */
+  public String getDependencies();
+
+  /**
+   * Sets the dependencies.
+   *
+   * @param dependencies the dependencies
+   */
+  public void setDependencies(String dependencies);
 }
\ No newline at end of file
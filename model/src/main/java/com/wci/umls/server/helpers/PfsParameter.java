@@ -159,4 +159,36 @@ public interface PfsParameter {
    */
   public void setExpression(String expression);
 
+  /**
+   * Returns the search after value, i.e. the sort field value of the last
+   * result of the previous page. When set, results resume after that value
+   * (and after {@link #getSearchAfterId()} among equal values) and the start
+   * index is ignored, so deep pages cost the same as the first.
+   *
+   * @return the search after value
+   */
+  public String getSearchAfter();
+
+  /**
+   * Sets the search after value.
+   *
+   * @param searchAfter the search after value
+   */
+  public void setSearchAfter(String searchAfter);
+
+  /**
+   * Returns the id of the last result of the previous page, used to break
+   * ties among results with the search after value.
+   *
+   * @return the search after id
+   */
+  public Long getSearchAfterId();
+
+  /**
+   * Sets the search after id.
+   *
+   * @param searchAfterId the search after id
+   */
+  public void setSearchAfterId(Long searchAfterId);
+
 }
@@ -53,6 +53,7 @@ import com.wci.umls.server.helpers.content.TreeList;
 import com.wci.umls.server.helpers.content.TreePositionList;
 import com.wci.umls.server.helpers.meta.TerminologyList;
 import com.wci.umls.server.jpa.ComponentInfoJpa;
+import com.wci.umls.server.jpa.algo.AutocompleteIndexingAlgorithm;
 import com.wci.umls.server.jpa.algo.ClamlLoaderAlgorithm;
 import com.wci.umls.server.jpa.algo.EclConceptIndexingAlgorithm;
 import com.wci.umls.server.jpa.algo.LabelSetMarkedParentAlgorithm;
@@ -519,6 +520,7 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
     TransitiveClosureAlgorithm algo2 = null;
     TreePositionAlgorithm algo3 = null;
     LabelSetMarkedParentAlgorithm algo4 = null;
+    AutocompleteIndexingAlgorithm algo5 = null;
     try {
       final String userName = authorizeApp(securityService, authToken,
           "load rrf", UserRole.ADMINISTRATOR);
@@ -619,6 +621,16 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
         }
       }
 
+      // Autocomplete suggesters
+      for (final Terminology t : list.getObjects()) {
+        algo5 = new AutocompleteIndexingAlgorithm();
+        algo5.setLastModifiedBy(userName);
+        algo5.setTerminology(t.getTerminology());
+        algo5.setVersion(t.getVersion());
+        algo5.compute();
+        algo5.close();
+      }
+
     } catch (
 
     Exception e) {
@@ -634,6 +646,9 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
       if (algo4 != null) {
         algo4.close();
       }
+      if (algo5 != null) {
+        algo5.close();
+      }
       if (contentService != null) {
         contentService.close();
       }
@@ -665,6 +680,7 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
     LabelSetMarkedParentAlgorithm algo3 = null;
     TreePositionAlgorithm algo4 = null;
     EclConceptIndexingAlgorithm algo5 = null;
+    AutocompleteIndexingAlgorithm algo6 = null;
     try {
       final String userName = authorizeApp(securityService, authToken,
           "load delta", UserRole.ADMINISTRATOR);
@@ -732,6 +748,14 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
       algo5.compute();
       algo5.close();
 
+      // Autocomplete suggesters
+      algo6 = new AutocompleteIndexingAlgorithm();
+      algo6.setLastModifiedBy(userName);
+      algo6.setTerminology(terminology);
+      algo6.setVersion(version);
+      algo6.compute();
+      algo6.close();
+
     } catch (Exception e) {
       handleException(e, "trying to load terminology delta from RF2 directory");
     } finally {
@@ -742,6 +766,9 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
       algo3.close();
       algo4.close();
       algo5.close();
+      if (algo6 != null) {
+        algo6.close();
+      }
       contentService.close();
       securityService.close();
     }
@@ -775,6 +802,7 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
     LabelSetMarkedParentAlgorithm algo3 = null;
     TreePositionAlgorithm algo4 = null;
     EclConceptIndexingAlgorithm algo5 = null;
+    AutocompleteIndexingAlgorithm algo6 = null;
     try {
       final String userName = authorizeApp(securityService, authToken,
           "load snapshot", UserRole.ADMINISTRATOR);
@@ -839,6 +867,14 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
       algo5.compute();
       algo5.close();
 
+      // Autocomplete suggesters
+      algo6 = new AutocompleteIndexingAlgorithm();
+      algo6.setLastModifiedBy(userName);
+      algo6.setTerminology(terminology);
+      algo6.setVersion(version);
+      algo6.compute();
+      algo6.close();
+
     } catch (Exception e) {
       handleException(e,
           "trying to load terminology snapshot from RF2 directory");
@@ -852,6 +888,9 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
       }
       algo4.close();
       algo5.close();
+      if (algo6 != null) {
+        algo6.close();
+      }
       contentService.close();
       securityService.close();
     }
@@ -885,6 +924,7 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
     LabelSetMarkedParentAlgorithm algo3 = null;
     TreePositionAlgorithm algo4 = null;
     EclConceptIndexingAlgorithm algo5 = null;
+    AutocompleteIndexingAlgorithm algo6 = null;
     try {
       final String userName = authorizeApp(securityService, authToken,
           "load full", UserRole.ADMINISTRATOR);
@@ -949,6 +989,14 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
       algo5.compute();
       algo5.close();
 
+      // Autocomplete suggesters
+      algo6 = new AutocompleteIndexingAlgorithm();
+      algo6.setLastModifiedBy(userName);
+      algo6.setTerminology(terminology);
+      algo6.setVersion(version);
+      algo6.compute();
+      algo6.close();
+
     } catch (Exception e) {
       handleException(e, "trying to load terminology full from RF2 directory");
     } finally {
@@ -959,6 +1007,9 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
       algo3.close();
       algo4.close();
       algo5.close();
+      if (algo6 != null) {
+        algo6.close();
+      }
       contentService.close();
       securityService.close();
     }
@@ -1386,8 +1437,9 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
             + (pfs == null ? "empty" : pfs.toString()));
     final ContentService contentService = new ContentServiceJpa();
     try {
-      authorizeApp(securityService, authToken, "find concepts by query",
-          UserRole.VIEWER);
+      final String userName = authorizeApp(securityService, authToken,
+          "find concepts by query", UserRole.VIEWER);
+      contentService.setLastModifiedBy(userName);
 
       // Empty queries return all results
       final SearchResultList sr = contentService.findConceptSearchResults(
@@ -1430,6 +1482,7 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
     try {
       String username = authorizeApp(securityService, authToken,
           "get concepts by query", UserRole.VIEWER);
+      contentService.setLastModifiedBy(username);
 
       // Empty queries return all results
       final ConceptList cl = contentService.findConcepts(terminology, version,
@@ -1478,8 +1531,9 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
             + (pfs == null ? "empty" : pfs.toString()));
     final ContentService contentService = new ContentServiceJpa();
     try {
-      authorizeApp(securityService, authToken, "find concepts by query",
-          UserRole.VIEWER);
+      final String userName = authorizeApp(securityService, authToken,
+          "find concepts by query", UserRole.VIEWER);
+      contentService.setLastModifiedBy(userName);
 
       final SearchResultList sr = contentService
           .findConceptsForGeneralQuery(queryStr, JPQLStr, Branch.ROOT, pfs);
@@ -1547,8 +1601,9 @@ public class ContentServiceRestImpl extends RootServiceRestImpl
         + terminology + "/" + version + "/autocomplete/" + searchTerm);
     final ContentService contentService = new ContentServiceJpa();
     try {
-      authorizeApp(securityService, authToken, "find concepts by query",
-          UserRole.VIEWER);
+      final String userName = authorizeApp(securityService, authToken,
+          "find concepts by query", UserRole.VIEWER);
+      contentService.setLastModifiedBy(userName);
 
       return contentService.autocompleteConcepts(terminology, version,
           searchTerm);
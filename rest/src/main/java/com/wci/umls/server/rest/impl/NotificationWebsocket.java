@@ -6,9 +6,11 @@
  */
 package com.wci.umls.server.rest.impl;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.websocket.CloseReason;
 import javax.websocket.CloseReason.CloseCodes;
@@ -16,6 +18,8 @@ import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
 
@@ -25,6 +29,13 @@ import org.apache.log4j.Logger;
  * Websocket for asynchronous notifications. For now just messages, but could be
  * JSON representations of objects.
  * 
+ * Sending never blocks the caller: each session has a bounded outbound queue
+ * drained with the async remote, one message in flight at a time. A message
+ * identical to one still waiting in a session's queue is coalesced with it.
+ * When a queue is full the oldest waiting message is dropped, and a session
+ * whose in-flight message has not completed within the slow consumer timeout
+ * is closed.
+ * 
  * <pre>
  * Useful URL: http://www.programmingforliving.com/2013/08/websocket-with-apache-tomcat-8.html
  * Useful URL: http://www.programmingforliving.com/2013/08/websocket-tomcat-8-ServerEndpointConfig-Configurator.html
@@ -33,9 +44,35 @@ import org.apache.log4j.Logger;
 @ServerEndpoint(value = "/websocket", configurator = NotificationWebsocketConfigurator.class)
 public class NotificationWebsocket {
 
-  /** The sessions. */
-  private Set<Session> sessions =
-      Collections.synchronizedSet(new HashSet<Session>());
+  /** The max number of messages waiting per session. */
+  private static final int QUEUE_SIZE = 100;
+
+  /** The time after which a session with a message in flight is slow (ms). */
+  private static final long SLOW_CONSUMER_TIMEOUT = 30000;
+
+  /** The slow consumer timeout (ms), shortened by unit tests. */
+  long slowConsumerTimeout = SLOW_CONSUMER_TIMEOUT;
+
+  /** The sessions and their outbound queues. */
+  private Map<Session, SessionQueue> sessions = new ConcurrentHashMap<>();
+
+  /** The number of messages delivered. */
+  private final AtomicLong sentCt = new AtomicLong(0);
+
+  /** The number of messages coalesced with an identical waiting message. */
+  private final AtomicLong coalescedCt = new AtomicLong(0);
+
+  /** The number of messages dropped. */
+  private final AtomicLong droppedCt = new AtomicLong(0);
+
+  /** The number of sessions closed as slow consumers. */
+  private final AtomicLong slowConsumerCt = new AtomicLong(0);
+
+  /** The delivery latency of the most recent message (ms). */
+  private final AtomicLong lastLatency = new AtomicLong(0);
+
+  /** The max delivery latency (ms). */
+  private final AtomicLong maxLatency = new AtomicLong(0);
 
   /**
    * Instantiates an empty {@link NotificationWebsocket}.
@@ -53,9 +90,8 @@ public class NotificationWebsocket {
   public void onOpen(Session session) {
 
     // Add to sessions list
-    synchronized (sessions) {
-      sessions.add(session);
-    }
+    session.getAsyncRemote().setSendTimeout(slowConsumerTimeout);
+    sessions.put(session, new SessionQueue(session));
   }
 
   /**
@@ -93,41 +129,88 @@ public class NotificationWebsocket {
   }
 
   /**
-   * Send.
+   * Send. Queues the message for every open session and returns immediately.
    *
    * @param message the message
    */
   public void send(String message) {
-    // Remove closed sessions
-    final Set<Session> copy = new HashSet<>(sessions);
-    for (final Session session : copy) {
-      if (!session.isOpen()) {
-        sessions.remove(session);
+    final long now = System.currentTimeMillis();
+    for (final SessionQueue queue : sessions.values()) {
+      // Remove closed sessions
+      if (!queue.session.isOpen()) {
+        sessions.remove(queue.session);
+        continue;
       }
+      queue.offer(message, now);
     }
+  }
 
-    // Send message to all listeners
+  /**
+   * Returns the number of messages waiting across all sessions.
+   *
+   * @return the queue depth
+   */
+  public int getQueueDepth() {
+    int depth = 0;
+    for (final SessionQueue queue : sessions.values()) {
+      depth += queue.size();
+    }
+    return depth;
+  }
 
-    for (final Session session : new HashSet<>(sessions)) {
-      try {
+  /**
+   * Returns the number of messages delivered.
+   *
+   * @return the sent count
+   */
+  public long getSentCount() {
+    return sentCt.get();
+  }
 
-        // Send synch message
-        // TODO: performance not ideal
-        session.getBasicRemote().sendText(message);
+  /**
+   * Returns the number of messages coalesced with an identical waiting one.
+   *
+   * @return the coalesced count
+   */
+  public long getCoalescedCount() {
+    return coalescedCt.get();
+  }
 
-      } catch (Exception e) {
-        e.printStackTrace();
-        // if anything went wrong, close the session and remove it
-        try {
-          session.close(
-              new CloseReason(CloseCodes.UNEXPECTED_CONDITION, "Closing"));
-        } catch (Exception e2) {
-          // do nothing
-        }
-        sessions.remove(session);
-      }
-    }
+  /**
+   * Returns the number of messages dropped because a queue was full or the
+   * session failed.
+   *
+   * @return the dropped count
+   */
+  public long getDroppedCount() {
+    return droppedCt.get();
+  }
 
+  /**
+   * Returns the number of sessions closed as slow consumers.
+   *
+   * @return the slow consumer count
+   */
+  public long getSlowConsumerCount() {
+    return slowConsumerCt.get();
+  }
+
+  /**
+   * Returns the delivery latency of the most recent message.
+   *
+   * @return the latency (ms)
+   */
+  public long getLastLatency() {
+    return lastLatency.get();
+  }
+
+  /**
+   * Returns the max delivery latency.
+   *
+   * @return the max latency (ms)
+   */
+  public long getMaxLatency() {
+    return maxLatency.get();
   }
 
   /**
@@ -136,13 +219,133 @@ public class NotificationWebsocket {
    * @param s the s
    */
   private void closeSession(Session s) {
-    synchronized (sessions) {
+    final SessionQueue queue = sessions.remove(s);
+    if (queue != null) {
+      droppedCt.addAndGet(queue.size());
+    }
+    try {
+      s.close();
+    } catch (Throwable e) {
+      // Ignore
+    }
+  }
+
+  /**
+   * The outbound messages for one session.
+   */
+  private class SessionQueue implements SendHandler {
+
+    /** The session. */
+    private final Session session;
+
+    /** The waiting messages. */
+    private final Deque<String> messages = new ArrayDeque<>();
+
+    /** The enqueue times of the waiting messages. */
+    private final Deque<Long> times = new ArrayDeque<>();
+
+    /** The enqueue time of the message in flight, or null if idle. */
+    private Long inFlight = null;
+
+    /** The time the message in flight was sent. */
+    private long sentTime = 0;
+
+    /**
+     * Instantiates a {@link SessionQueue} from the specified parameters.
+     *
+     * @param session the session
+     */
+    public SessionQueue(Session session) {
+      this.session = session;
+    }
+
+    /**
+     * Returns the number of waiting messages.
+     *
+     * @return the size
+     */
+    public synchronized int size() {
+      return messages.size();
+    }
+
+    /**
+     * Queue the message, sending it right away if nothing is in flight.
+     *
+     * @param message the message
+     * @param time the time
+     */
+    public void offer(String message, long time) {
+      boolean slow = false;
+      synchronized (this) {
+        if (inFlight == null) {
+          send(message, time);
+          return;
+        }
+        // Coalesce bursts of identical messages (e.g. progress)
+        if (messages.contains(message)) {
+          coalescedCt.incrementAndGet();
+          return;
+        }
+        if (messages.size() == QUEUE_SIZE) {
+          messages.removeFirst();
+          times.removeFirst();
+          droppedCt.incrementAndGet();
+          slow = time - sentTime > slowConsumerTimeout;
+        }
+        messages.addLast(message);
+        times.addLast(time);
+      }
+      if (slow) {
+        Logger.getLogger(getClass())
+            .warn("Closing slow websocket session " + session.getId());
+        slowConsumerCt.incrementAndGet();
+        closeSession(session);
+      }
+    }
+
+    /**
+     * Send the message asynchronously (called while synchronized).
+     *
+     * @param message the message
+     * @param time the enqueue time
+     */
+    private void send(String message, long time) {
+      inFlight = time;
+      sentTime = System.currentTimeMillis();
       try {
-        s.close();
-      } catch (Throwable e) {
-        // Ignore
+        session.getAsyncRemote().sendText(message, this);
+      } catch (Exception e) {
+        // e.g. the session closed underneath us
+        inFlight = null;
+        droppedCt.incrementAndGet();
+      }
+    }
+
+    /* see superclass */
+    @Override
+    public void onResult(SendResult result) {
+      boolean failed = false;
+      synchronized (this) {
+        if (result.isOK()) {
+          final long latency = System.currentTimeMillis() - inFlight;
+          sentCt.incrementAndGet();
+          lastLatency.set(latency);
+          maxLatency.accumulateAndGet(latency, Math::max);
+        } else {
+          droppedCt.incrementAndGet();
+          failed = true;
+        }
+        inFlight = null;
+        if (!failed && !messages.isEmpty()) {
+          send(messages.removeFirst(), times.removeFirst());
+        }
+      }
+      // if anything went wrong, close the session and remove it
+      if (failed) {
+        Logger.getLogger(getClass()).warn("Unable to send to websocket session "
+            + session.getId() + " - " + result.getException());
+        closeSession(session);
       }
-      sessions.remove(s);
     }
   }
-}
\ No newline at end of file
+}
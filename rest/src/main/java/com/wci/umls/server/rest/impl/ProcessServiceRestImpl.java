@@ -7,12 +7,23 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import javax.ws.rs.Consumes;
@@ -98,14 +109,14 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
   private SecurityService securityService;
 
   /** The lookup process execution progress map. */
-  static Map<Long, Integer> lookupPeProgressMap = new HashMap<Long, Integer>();
+  static Map<Long, Integer> lookupPeProgressMap = new ConcurrentHashMap<>();
 
   /** The lookup algorithm execution progress map. */
-  static Map<Long, Integer> lookupAeProgressMap = new HashMap<Long, Integer>();
+  static Map<Long, Integer> lookupAeProgressMap = new ConcurrentHashMap<>();
 
-  /** The map of which algorithm a process is currently running. */
-  static Map<Long, Algorithm> processAlgorithmMap =
-      new HashMap<Long, Algorithm>();
+  /** The map of which algorithms a process is currently running. */
+  static Map<Long, Set<Algorithm>> processAlgorithmMap =
+      new ConcurrentHashMap<>();
 
   /**
    * Instantiates an empty {@link ProcessServiceRestImpl}.
@@ -1461,13 +1472,14 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
       // Verify the project
       verifyProject(processExecution, projectId);
 
-      // Find the algorithm and call cancel on it
+      // Find the running algorithms and call cancel on them
       if (processAlgorithmMap.containsKey(id)) {
         // this will throw a CancelException which will clean up all the maps
         // and mark everything as cancelled
-        processAlgorithmMap.get(id).cancel();
+        for (final Algorithm algorithm : processAlgorithmMap.get(id)) {
+          algorithm.cancel();
+        }
         // Do not close - let run thread close it
-        // processAlgorithmMap.get(id).close();
       }
 
       // fix state where server crash caused a process failure
@@ -1625,7 +1637,11 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
   }
 
   /**
-   * Run process as thread.
+   * Run process as thread. Enabled steps start as soon as the steps they
+   * depend on have finished (see {@link AlgorithmConfig#getDependencies()}),
+   * with at most "process.max.parallel.steps" algorithms running at once. All
+   * bookkeeping happens on the process thread; only the algorithms run in the
+   * pool.
    *
    * @param projectId the project id
    * @param processConfigId the process config id
@@ -1655,7 +1671,11 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
         ProcessExecution processExecution = null;
         AlgorithmExecution algorithmExecution = null;
         Algorithm algorithm = null;
-        Boolean firstRestartedAlgorithm = false;
+        ExecutorService executor = null;
+        // The running steps, by algorithm config id
+        final Map<Long, Algorithm> runningAlgorithms = new HashMap<>();
+        final Map<Long, AlgorithmExecution> runningExecutions =
+            new HashMap<>();
         try {
           processService = new ProcessServiceJpa();
           processService.setLastModifiedBy(userName);
@@ -1689,16 +1709,27 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
           // execute
           lookupPeProgressMap.put(processExecution.getId(), 0);
 
+          // If algorithms from a previous run are still tracked, close them
+          final Set<Algorithm> previousAlgorithms =
+              processAlgorithmMap.remove(processExecution.getId());
+          if (previousAlgorithms != null) {
+            for (final Algorithm previousAlgorithm : previousAlgorithms) {
+              previousAlgorithm.close();
+            }
+          }
+          final Set<Algorithm> processAlgorithms =
+              ConcurrentHashMap.newKeySet();
+          processAlgorithmMap.put(processExecution.getId(), processAlgorithms);
+
           final int enabledSteps = processConfig.getSteps().stream()
               .filter(ac -> ac.isEnabled()).collect(Collectors.toList()).size();
 
-          // Start step counter at 0
-          int stepCt = 0;
-
           // If this is a restart, find the steps that already ran
           final List<Long> previouslyCompletedAlgorithmIds = new ArrayList<>();
           AlgorithmExecution lastCompletedAlgorithm = null;
-          AlgorithmExecution algorithmToRestart = null;
+          // Steps that failed (or are being undone) are reset before running
+          final Map<Long, AlgorithmExecution> algorithmsToRestart =
+              new HashMap<>();
           if (restart) {
             final List<AlgorithmExecution> previouslyStartedAlgorithms =
                 processExecution.getSteps();
@@ -1719,8 +1750,7 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
               // If the algorithm was mid-run, save the algorithm Execution to
               // run
               else if (ae.getFailDate() != null) {
-                algorithmToRestart = ae;
-                firstRestartedAlgorithm = true;
+                algorithmsToRestart.put(ae.getAlgorithmConfigId(), ae);
               }
 
               // Track the last completed algorithm
@@ -1734,8 +1764,9 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
                 && lastCompletedAlgorithm.getFinishDate() != null) {
               previouslyCompletedAlgorithmIds
                   .remove(lastCompletedAlgorithm.getAlgorithmConfigId());
-              algorithmToRestart = lastCompletedAlgorithm;
-              firstRestartedAlgorithm = true;
+              algorithmsToRestart.put(
+                  lastCompletedAlgorithm.getAlgorithmConfigId(),
+                  lastCompletedAlgorithm);
               // If there was only one warning, and it was the step being
               // undone
               // set warning back to false;
@@ -1744,175 +1775,256 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
               }
             }
 
-            // Update the processExecution progress and step-count
-            stepCt = previouslyCompletedAlgorithmIds.size();
+            // Update the processExecution progress
             lookupPeProgressMap.put(processExecution.getId(),
-                (int) ((100 * stepCt) / enabledSteps));
+                (int) ((100 * previouslyCompletedAlgorithmIds.size())
+                    / enabledSteps));
           }
 
-          // Iterate through algorithm configs
-          int ct = 0;
-          for (final AlgorithmConfig algo : processConfig.getSteps()) {
-            ct++;
-
-            // Skip steps that are not enabled
-            if (!algo.isEnabled()) {
-              continue;
-            }
-
-            // Skip steps that completed on a previous run (if any)
-            if (restart
-                && previouslyCompletedAlgorithmIds.contains(algo.getId())) {
-              continue;
-            }
-
-            // If this is a restart, use the loaded algorithm Execution
-            if (algorithmToRestart != null && algorithmToRestart
-                .getAlgorithmConfigId().equals(algo.getId())) {
-              algorithmExecution = algorithmToRestart;
-              algorithmExecution.setFailDate(null);
-              algorithmExecution.setFinishDate(null);
-              processService.updateAlgorithmExecution(algorithmExecution);
-            }
-            // Otherwise, instantiate and configure the algorithm execution
-            else {
-              algorithmExecution = new AlgorithmExecutionJpa(algo);
-              // Create a copy of the properties to add to algorithmExecution
-              // (using same object causes shared references to a collection
-              // error
-              algorithmExecution.setProperties(
-                  new HashMap<String, String>(algo.getProperties()));
-              algorithmExecution.setProcess(processExecution);
-              algorithmExecution.setActivityId(UUID.randomUUID().toString());
-              algorithmExecution.setStartDate(new Date());
-
-              synchronized (lock) {
-                algorithmExecution =
-                    processService.addAlgorithmExecution(algorithmExecution);
-                // Add the execution to the process
-                processExecution.getSteps().add(algorithmExecution);
-                processService.updateProcessExecution(processExecution);
+          // Collect the steps to run, in order
+          final List<AlgorithmConfig> pendingSteps =
+              getPendingSteps(processConfig, previouslyCompletedAlgorithmIds);
+          final Map<Long, Set<Long>> dependencyMap =
+              getStepDependencies(processConfig);
+
+          // A "step" operation runs just the next step
+          final int maxParallelSteps =
+              step != null ? 1 : getMaxParallelSteps();
+          executor = Executors.newFixedThreadPool(maxParallelSteps);
+          final CompletionService<Long> completionService =
+              new ExecutorCompletionService<>(executor);
+
+          // Progress and timing of running steps (updated by the pool)
+          final AtomicInteger stepCt =
+              new AtomicInteger(previouslyCompletedAlgorithmIds.size());
+          final Map<Long, Integer> stepProgressMap = new ConcurrentHashMap<>();
+          final Map<Long, Long> stepTimeMap = new ConcurrentHashMap<>();
+          final Map<Long, Exception> stepExceptionMap =
+              new ConcurrentHashMap<>();
+
+          final Set<Long> finishedSteps =
+              new HashSet<>(previouslyCompletedAlgorithmIds);
+          final long startTime = System.currentTimeMillis();
+          Exception failure = null;
+          AlgorithmExecution failedExecution = null;
+          Algorithm failedAlgorithm = null;
+          boolean stepped = false;
+
+          while (!pendingSteps.isEmpty() || !runningAlgorithms.isEmpty()) {
+
+            // Start the steps whose dependencies have finished
+            for (final AlgorithmConfig algo : new ArrayList<>(pendingSteps)) {
+              if (failure != null || stepped
+                  || runningAlgorithms.size() >= maxParallelSteps) {
+                break;
+              }
+              if (!finishedSteps.containsAll(dependencyMap.get(algo.getId()))) {
+                continue;
+              }
+              pendingSteps.remove(algo);
+
+              // If this is a restart, use the loaded algorithm Execution
+              if (algorithmsToRestart.containsKey(algo.getId())) {
+                algorithmExecution = algorithmsToRestart.get(algo.getId());
+                algorithmExecution.setFailDate(null);
+                algorithmExecution.setFinishDate(null);
+                processService.updateAlgorithmExecution(algorithmExecution);
+              }
+              // Otherwise, instantiate and configure the algorithm execution
+              else {
+                algorithmExecution = new AlgorithmExecutionJpa(algo);
+                // Create a copy of the properties to add to
+                // algorithmExecution (using same object causes shared
+                // references to a collection error
+                algorithmExecution.setProperties(
+                    new HashMap<String, String>(algo.getProperties()));
+                algorithmExecution.setProcess(processExecution);
+                algorithmExecution.setActivityId(UUID.randomUUID().toString());
+                algorithmExecution.setStartDate(new Date());
+
+                synchronized (lock) {
+                  algorithmExecution =
+                      processService.addAlgorithmExecution(algorithmExecution);
+                  // Add the execution to the process
+                  processExecution.getSteps().add(algorithmExecution);
+                  processService.updateProcessExecution(processExecution);
+                }
               }
-            }
-
-            // Create and configure the algorithm
-            algorithm = processService
-                .getAlgorithmInstance(algorithmExecution.getAlgorithmKey());
-            algorithm.setProject(processExecution.getProject());
-            algorithm.setProcess(processExecution);
-            algorithm.setWorkId(processExecution.getWorkId());
-            algorithm.setActivityId(algorithmExecution.getActivityId());
-            algorithm.setLastModifiedBy(userName);
-            algorithm.setTransactionPerOperation(false);
-            algorithm.beginTransaction();
-            // Convert Map<String,String> into properties to configure
-            // algorithm
-            final Properties prop = new Properties();
-            for (final Map.Entry<String, String> entry : algorithmExecution
-                .getProperties().entrySet()) {
-              prop.setProperty(entry.getKey(), entry.getValue());
-            }
-            algorithm.setProperties(prop);
-
-            // track currently running algorithm
-            // If a previous run is already in the map, make sure to close it
-            if (processAlgorithmMap.containsKey(processExecution.getId())) {
-              processAlgorithmMap.get(processExecution.getId()).close();
-            }
-            processAlgorithmMap.put(processExecution.getId(), algorithm);
 
-            // Check preconditions (if this is not an unstep)
-            if (!(step != null && step < 0)) {
-              final ValidationResult result = algorithm.checkPreconditions();
-              if (!result.isValid()) {
-                throw new LocalException(
-                    "Algorithm " + algorithmExecution.getId()
-                        + " failed preconditions: " + FieldedStringTokenizer
-                            .join(new ArrayList<>(result.getErrors()), "\n"));
+              // Create and configure the algorithm
+              algorithm = processService
+                  .getAlgorithmInstance(algorithmExecution.getAlgorithmKey());
+              algorithm.setProject(processExecution.getProject());
+              algorithm.setProcess(processExecution);
+              algorithm.setWorkId(processExecution.getWorkId());
+              algorithm.setActivityId(algorithmExecution.getActivityId());
+              algorithm.setLastModifiedBy(userName);
+              algorithm.setTransactionPerOperation(false);
+              algorithm.beginTransaction();
+              // Convert Map<String,String> into properties to configure
+              // algorithm
+              final Properties prop = new Properties();
+              for (final Map.Entry<String, String> entry : algorithmExecution
+                  .getProperties().entrySet()) {
+                prop.setProperty(entry.getKey(), entry.getValue());
               }
-            }
+              algorithm.setProperties(prop);
+
+              // track currently running algorithms
+              processAlgorithms.add(algorithm);
+
+              // Check preconditions (if this is not an unstep)
+              if (!(step != null && step < 0)) {
+                final ValidationResult result = algorithm.checkPreconditions();
+                if (!result.isValid()) {
+                  throw new LocalException("Algorithm "
+                      + algorithmExecution.getId() + " failed preconditions: "
+                      + FieldedStringTokenizer
+                          .join(new ArrayList<>(result.getErrors()), "\n"));
+                }
+              }
+
+              final Long aeId = algorithmExecution.getId();
+
+              // algorithmExecution needs to be recast as final, so it can be
+              // modified by updateProgress
+              final AlgorithmExecution finalAlgorithmExecution =
+                  algorithmExecution;
+              final ProcessExecution processExecution2 = processExecution;
+
+              algorithm.addProgressListener(new ProgressListener() {
+                @Override
+                public void updateProgress(ProgressEvent processEvent) {
+                  if (processEvent.isWarning()) {
+                    finalAlgorithmExecution.setWarning(true);
+                    processExecution2.setWarning(true);
+                    return;
+                  }
+                  lookupAeProgressMap.put(aeId, processEvent.getPercent());
+                  stepProgressMap.put(aeId, processEvent.getPercent());
+
+                  // pe progress is the completed steps plus the scaled
+                  // progress of the running aes
+                  int runningProgress = 0;
+                  for (final Integer percent : stepProgressMap.values()) {
+                    runningProgress += percent;
+                  }
+                  lookupPeProgressMap.put(processExecution2.getId(),
+                      (int) ((100 * stepCt.get() + runningProgress)
+                          / enabledSteps));
 
-            final Long aeId = algorithmExecution.getId();
-            final int currentCt = stepCt;
-
-            // algorithmExecution needs to be recast as final, so it can be
-            // modified by updateProgress
-            final AlgorithmExecution finalAlgorithmExecution =
-                algorithmExecution;
-            final ProcessExecution processExecution2 = processExecution;
-
-            algorithm.addProgressListener(new ProgressListener() {
-              @Override
-              public void updateProgress(ProgressEvent processEvent) {
-                if (processEvent.isWarning()) {
-                  finalAlgorithmExecution.setWarning(true);
-                  processExecution2.setWarning(true);
-                  return;
                 }
-                lookupAeProgressMap.put(aeId, processEvent.getPercent());
+              });
 
-                // pe progress is the current progress plus the scaled
-                // progress of the ae
-                lookupPeProgressMap.put(processExecution2.getId(),
-                    (int) ((100 * currentCt) / enabledSteps)
-                        + (int) (processEvent.getPercent() / enabledSteps));
+              // Start progress at 0 for the algorithm
+              lookupAeProgressMap.put(aeId, 0);
 
+              // If we're in restart mode, and this algorithm failed (or is
+              // being undone), reset the algorithm.
+              if (algorithmsToRestart.containsKey(algo.getId())) {
+                algorithm.reset();
+                // Commit and reset transaction
+                algorithm.commitClearBegin();
               }
-            });
 
-            // Start progress at 0 for the algorithm
-            lookupAeProgressMap.put(algorithmExecution.getId(), 0);
+              // If stepping back, remove the algorithm execution
+              if (step != null && step < 0) {
 
-            // If we're in restart mode, and if this is the First algorithm
-            // we're running, reset the algorithm.
-            if (restart && firstRestartedAlgorithm
-                && algorithmToRestart != null) {
-              algorithm.reset();
-              // Commit and reset transaction
-              algorithm.commitClearBegin();
+                // Remove the algorithm execution from the process
+                processExecution.getSteps().remove(algorithmExecution);
+                processService.updateProcessExecution(processExecution);
+                processService.removeAlgorithmExecution(aeId);
 
-              // Don't reset on any later algorithms
-              firstRestartedAlgorithm = false;
-            }
+                // Mark algorithm as finished
+                lookupAeProgressMap.remove(aeId);
+                processAlgorithms.remove(algorithm);
 
-            // If stepping back, remove the algorithm execution
-            if (step != null && step < 0) {
+                // close the algorithm
+                algorithm.close();
+                algorithm = null;
+                stepped = true;
+                continue;
+              }
 
-              // Remove the algorithm execution from the process
-              processExecution.getSteps().remove(algorithmExecution);
-              processService.updateProcessExecution(processExecution);
-              processService
-                  .removeAlgorithmExecution(algorithmExecution.getId());
+              // Execute algorithm in the pool
+              final Long configId = algo.getId();
+              final Algorithm finalAlgorithm = algorithm;
+              runningAlgorithms.put(configId, algorithm);
+              runningExecutions.put(configId, algorithmExecution);
+              completionService.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                  final long start = System.currentTimeMillis();
+                  try {
+                    finalAlgorithm.compute();
+
+                    // Commit any changes the algorithm wants to make
+                    finalAlgorithm.commit();
+                  } catch (Exception e) {
+                    stepExceptionMap.put(configId, e);
+                  }
+                  stepTimeMap.put(configId,
+                      System.currentTimeMillis() - start);
+                  return configId;
+                }
+              });
             }
 
-            else {
-
-              // Execute algorithm
-              algorithm.compute();
-
-              // Commit any changes the algorithm wants to make
-              algorithm.commit();
-
-              // Take the number of steps completed times 100 and divided by
-              // the
-              // total number of steps
-              lookupPeProgressMap.put(processExecution.getId(),
-                  (int) ((100 * ++stepCt) / enabledSteps));
+            // Nothing running, we're either done or stuck
+            if (runningAlgorithms.isEmpty()) {
+              if (failure == null && !stepped && !pendingSteps.isEmpty()) {
+                // (not a step failure)
+                algorithmExecution = null;
+                algorithm = null;
+                throw new LocalException(
+                    "Unable to schedule remaining steps, check dependencies - "
+                        + pendingSteps.stream().map(a -> a.getName())
+                            .collect(Collectors.toList()));
+              }
+              break;
+            }
 
-              // algorithm has finished
-              algorithmExecution.setFinishDate(new Date());
-              processService.updateAlgorithmExecution(algorithmExecution);
+            // Wait for the next step to finish
+            final Long configId = completionService.take().get();
+            algorithm = runningAlgorithms.remove(configId);
+            algorithmExecution = runningExecutions.remove(configId);
+            stepProgressMap.remove(algorithmExecution.getId());
+            lookupAeProgressMap.remove(algorithmExecution.getId());
+            processAlgorithms.remove(algorithm);
+
+            if (stepExceptionMap.containsKey(configId)) {
+              // The first failure fails the process, stop the other steps
+              if (failure == null) {
+                failure = stepExceptionMap.get(configId);
+                failedExecution = algorithmExecution;
+                failedAlgorithm = algorithm;
+                for (final Algorithm runningAlgorithm : runningAlgorithms
+                    .values()) {
+                  runningAlgorithm.cancel();
+                }
+              }
+              // Steps stopped because of the failure
+              else {
+                algorithmExecution.setFailDate(new Date());
+                processService.updateAlgorithmExecution(algorithmExecution);
+                algorithm.close();
+              }
+              continue;
+            }
 
-              // Update the process execution (in case anything has been done
-              // to
-              // it by the algorithm)
-              processService.updateProcessExecution(processExecution);
+            // Take the number of steps completed times 100 and divided by the
+            // total number of steps
+            finishedSteps.add(configId);
+            lookupPeProgressMap.put(processExecution.getId(),
+                (int) ((100 * stepCt.incrementAndGet()) / enabledSteps));
 
-            }
+            // algorithm has finished
+            algorithmExecution.setFinishDate(new Date());
+            processService.updateAlgorithmExecution(algorithmExecution);
 
-            // Mark algorithm as finished
-            lookupAeProgressMap.remove(algorithmExecution.getId());
-            processAlgorithmMap.remove(processExecution.getId());
+            // Update the process execution (in case anything has been done to
+            // it by the algorithm)
+            processService.updateProcessExecution(processExecution);
 
             // close the algorithm
             algorithm.close();
@@ -1921,14 +2033,30 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
             if (step != null) {
               processExecution.setStopDate(new Date());
               processService.updateProcessExecution(processExecution);
-              break;
+              stepped = true;
             }
 
-          } // end "for algorithm config"
+          } // end "while steps"
+
+          // Report the failed step (handled below)
+          if (failure != null) {
+            algorithmExecution = failedExecution;
+            algorithm = failedAlgorithm;
+            throw failure;
+          }
 
           // Check if process has finished, mark it so
-          if (ct == processConfig.getSteps().size()
-              && (step == null || step > 0)) {
+          if (pendingSteps.isEmpty() && (step == null || step > 0)) {
+
+            // Log the critical path (the longest chain of dependent steps)
+            processService.addLogEntry(processExecution.getProject().getId(),
+                processExecution.getLastModifiedBy(),
+                processExecution.getTerminology(),
+                processExecution.getVersion(), null,
+                processExecution.getWorkId(),
+                "CRITICAL PATH " + getCriticalPathTime(processConfig,
+                    dependencyMap, stepTimeMap) + " ms, elapsed "
+                    + (System.currentTimeMillis() - startTime) + " ms");
 
             // Log starting a process
             processService.addLogEntry(processExecution.getProject().getId(),
@@ -1947,6 +2075,7 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
             // Mark process as finished
             // Note: do not remove process from the map. Will stay in at 100%
             // lookupPeProgressMap.remove(processExecution.getId());
+            processAlgorithmMap.remove(processExecution.getId());
 
             // Send email notifying about successful completion
             final String recipients = processExecution.getFeedbackEmail();
@@ -1975,9 +2104,36 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
           // Mark algorithm and process as failed
           try {
 
+            // Stop any other running steps and mark them as failed
+            for (final Algorithm runningAlgorithm : runningAlgorithms
+                .values()) {
+              runningAlgorithm.cancel();
+            }
+            if (executor != null) {
+              executor.shutdown();
+              executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            for (final AlgorithmExecution runningExecution : runningExecutions
+                .values()) {
+              if (runningExecution != algorithmExecution) {
+                runningExecution.setFailDate(new Date());
+                processService.updateAlgorithmExecution(runningExecution);
+              }
+            }
+
+            // Failures before any step started (e.g. bad dependencies)
+            if (algorithmExecution == null) {
+              processService.addLogEntry(processExecution.getProject().getId(),
+                  processExecution.getLastModifiedBy(),
+                  processExecution.getTerminology(),
+                  processExecution.getVersion(), null,
+                  processExecution.getWorkId(),
+                  "ERROR " + "Unexpected problem - " + e.getMessage());
+            }
+
             // set cancel conditions if cancel was used.
-            algorithmExecution.setFailDate(new Date());
-            if (e instanceof CancelException) {
+            else if (e instanceof CancelException) {
+              algorithmExecution.setFailDate(new Date());
 
               processService.addLogEntry(processExecution.getProject().getId(),
                   processExecution.getLastModifiedBy(),
@@ -1992,6 +2148,7 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
               algorithmExecution.setFinishDate(new Date());
               processExecution.setFinishDate(new Date());
             } else {
+              algorithmExecution.setFailDate(new Date());
               processService.addLogEntry(processExecution.getProject().getId(),
                   processExecution.getLastModifiedBy(),
                   processExecution.getTerminology(),
@@ -2000,19 +2157,24 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
                   processExecution.getWorkId(),
                   "ERROR " + "Unexpected problem - " + e.getMessage());
             }
-            processService.updateAlgorithmExecution(algorithmExecution);
+            if (algorithmExecution != null) {
+              processService.updateAlgorithmExecution(algorithmExecution);
+              lookupAeProgressMap.remove(algorithmExecution.getId());
+            }
 
             processExecution.setFailDate(new Date());
             processService.updateProcessExecution(processExecution);
             processService.saveLogToFile(projectId, processExecution);
 
-            // Remove process and algorithm from the maps
+            // Remove process and algorithms from the maps
             if (processAlgorithmMap.containsKey(processExecution.getId())) {
-              processAlgorithmMap.get(processExecution.getId()).close();
+              for (final Algorithm processAlgorithm : processAlgorithmMap
+                  .get(processExecution.getId())) {
+                processAlgorithm.close();
+              }
             }
             processAlgorithmMap.remove(processExecutionId);
             lookupPeProgressMap.remove(processExecutionId);
-            lookupAeProgressMap.remove(algorithmExecution.getId());
 
             // close the algorithm
             if (algorithm != null) {
@@ -2038,7 +2200,8 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
               ConfigUtility.sendEmail(
                   "[Terminology Server] Process Run Failed for Process: "
                       + processExecution.getName() + " at Algorithm step: "
-                      + algorithmExecution.getName(),
+                      + (algorithmExecution == null ? ""
+                          : algorithmExecution.getName()),
                   from, recipients, processService.getProcessLog(projectId,
                       processExecutionId, null),
                   config);
@@ -2053,6 +2216,9 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
           }
 
         } finally {
+          if (executor != null) {
+            executor.shutdownNow();
+          }
           try {
             processService.close();
           } catch (Exception e) {
@@ -2072,6 +2238,121 @@ public class ProcessServiceRestImpl extends RootServiceRestImpl
     }
   }
 
+  /**
+   * Returns the ids of the enabled steps each enabled step depends on, by
+   * algorithm config id. Steps without declared dependencies depend on all
+   * earlier enabled steps. Declared dependencies on disabled steps are
+   * ignored.
+   *
+   * @param processConfig the process config
+   * @return the step dependencies
+   * @throws Exception the exception
+   */
+  static Map<Long, Set<Long>> getStepDependencies(ProcessConfig processConfig)
+    throws Exception {
+    final Map<Long, Set<Long>> dependencyMap = new HashMap<>();
+    final List<AlgorithmConfig> previousSteps = new ArrayList<>();
+    for (final AlgorithmConfig algo : processConfig.getSteps()) {
+      final Set<Long> dependencies = new HashSet<>();
+      if (algo.getDependencies() == null) {
+        for (final AlgorithmConfig previous : previousSteps) {
+          if (previous.isEnabled()) {
+            dependencies.add(previous.getId());
+          }
+        }
+      } else {
+        for (final String key : algo.getDependencies().split(",")) {
+          if (key.trim().isEmpty()) {
+            continue;
+          }
+          boolean found = false;
+          for (final AlgorithmConfig previous : previousSteps) {
+            if (previous.getAlgorithmKey().equals(key.trim())) {
+              found = true;
+              if (previous.isEnabled()) {
+                dependencies.add(previous.getId());
+              }
+            }
+          }
+          if (!found) {
+            throw new LocalException("Step " + algo.getName()
+                + " depends on " + key.trim()
+                + ", which is not an earlier step");
+          }
+        }
+      }
+      dependencyMap.put(algo.getId(), dependencies);
+      previousSteps.add(algo);
+    }
+    return dependencyMap;
+  }
+
+  /**
+   * Returns the enabled steps that did not complete on a previous run, in
+   * order.
+   *
+   * @param processConfig the process config
+   * @param completedIds the ids of the steps completed on a previous run
+   * @return the pending steps
+   */
+  static List<AlgorithmConfig> getPendingSteps(ProcessConfig processConfig,
+    Collection<Long> completedIds) {
+    final List<AlgorithmConfig> pendingSteps = new ArrayList<>();
+    for (final AlgorithmConfig algo : processConfig.getSteps()) {
+      if (algo.isEnabled() && !completedIds.contains(algo.getId())) {
+        pendingSteps.add(algo);
+      }
+    }
+    return pendingSteps;
+  }
+
+  /**
+   * Returns the maximum number of steps of a process to run at once.
+   *
+   * @return the max parallel steps
+   * @throws Exception the exception
+   */
+  @SuppressWarnings("static-method")
+  private int getMaxParallelSteps() throws Exception {
+    final String value = ConfigUtility.getConfigProperties()
+        .getProperty("process.max.parallel.steps");
+    return ConfigUtility.isEmpty(value) ? 4
+        : Math.max(1, Integer.parseInt(value));
+  }
+
+  /**
+   * Returns the critical path time, the longest chain of dependent steps by
+   * elapsed time. Steps not run (e.g. completed on a previous run) count as
+   * zero.
+   *
+   * @param processConfig the process config
+   * @param dependencyMap the dependency map
+   * @param stepTimeMap the step time map
+   * @return the critical path time
+   */
+  static long getCriticalPathTime(ProcessConfig processConfig,
+    Map<Long, Set<Long>> dependencyMap, Map<Long, Long> stepTimeMap) {
+    // Dependencies are always earlier steps, so one pass in order suffices
+    final Map<Long, Long> finishMap = new HashMap<>();
+    long criticalPath = 0;
+    for (final AlgorithmConfig algo : processConfig.getSteps()) {
+      if (!dependencyMap.containsKey(algo.getId())) {
+        continue;
+      }
+      long start = 0;
+      for (final Long dependency : dependencyMap.get(algo.getId())) {
+        if (finishMap.containsKey(dependency)) {
+          start = Math.max(start, finishMap.get(dependency));
+        }
+      }
+      final long finish = start + (stepTimeMap.containsKey(algo.getId())
+          ? stepTimeMap.get(algo.getId()) : 0L);
+      finishMap.put(algo.getId(), finish);
+      criticalPath = Math.max(criticalPath, finish);
+    }
+    return criticalPath;
+  }
+
   /* see superclass */
   @GET
   @Path("{processExecutionId}/log")
@@ -17,6 +17,7 @@ import org.glassfish.jersey.server.ResourceConfig;
 import com.fasterxml.jackson.module.jaxb.JaxbAnnotationModule;
 import com.ibm.icu.util.Calendar;
 import com.wci.umls.server.helpers.ConfigUtility;
+import com.wci.umls.server.jpa.services.ContentServiceJpa;
 import com.wci.umls.server.jpa.services.MetadataServiceJpa;
 import com.wci.umls.server.services.MetadataService;
 
@@ -103,6 +104,26 @@ public class TermServerApplication extends ResourceConfig {
     // this makes Swagger honor JAXB annotations
     Json.mapper().registerModule(new JaxbAnnotationModule());
 
+    // Warm the tree child cache in the background
+    if (new ConfigureServiceRestImpl().isConfigured()) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            final ContentServiceJpa service = new ContentServiceJpa();
+            try {
+              service.warmTreeChildCache();
+            } finally {
+              service.close();
+            }
+          } catch (Exception e) {
+            Logger.getLogger(getClass())
+                .error("Unexpected error warming tree child cache", e);
+          }
+        }
+      }).start();
+    }
+
     // Set up a timer task to run at 2AM every day
     TimerTask task = new InitializationTask();
     timer = new Timer();
@@ -0,0 +1,195 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.rest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit testing for {@link NotificationWebsocket}, with a mock session whose
+ * async sends complete only when the test says so.
+ */
+public class NotificationWebsocketUnitTest {
+
+  /** The websocket. */
+  private NotificationWebsocket websocket;
+
+  /** The session. */
+  private MockSession session;
+
+  /**
+   * Setup.
+   */
+  @Before
+  public void setup() {
+    websocket = new NotificationWebsocket();
+    session = new MockSession();
+    websocket.onOpen(session.getSession());
+  }
+
+  /**
+   * Test that identical waiting messages are coalesced and the rest are sent
+   * in order, one at a time.
+   */
+  @Test
+  public void testCoalescing() {
+    websocket.send("m0");
+    websocket.send("a");
+    websocket.send("b");
+    websocket.send("a");
+    assertEquals(1, session.sent.size());
+    assertEquals(2, websocket.getQueueDepth());
+    assertEquals(1, websocket.getCoalescedCount());
+
+    session.complete(true);
+    session.complete(true);
+    session.complete(true);
+    assertEquals(3, websocket.getSentCount());
+    assertEquals(0, websocket.getQueueDepth());
+    final List<String> expected = new ArrayList<>();
+    expected.add("m0");
+    expected.add("a");
+    expected.add("b");
+    assertEquals(expected, session.sent);
+  }
+
+  /**
+   * Test that a full queue drops its oldest waiting message.
+   */
+  @Test
+  public void testDropOldest() {
+    websocket.send("m0");
+    for (int i = 0; i <= 100; i++) {
+      websocket.send("q" + i);
+    }
+    assertEquals(100, websocket.getQueueDepth());
+    assertEquals(1, websocket.getDroppedCount());
+    assertTrue(session.open);
+
+    session.complete(true);
+    assertEquals("q1", session.sent.get(1));
+  }
+
+  /**
+   * Test that a session whose message stays in flight past the timeout is
+   * closed once its queue overflows.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testSlowConsumer() throws Exception {
+    websocket.slowConsumerTimeout = 20;
+    websocket.send("m0");
+    for (int i = 0; i < 100; i++) {
+      websocket.send("q" + i);
+    }
+    Thread.sleep(50);
+    websocket.send("q100");
+
+    assertFalse(session.open);
+    assertEquals(1, websocket.getSlowConsumerCount());
+    assertEquals(0, websocket.getQueueDepth());
+
+    // Closed sessions get no more messages
+    websocket.send("m1");
+    assertEquals(1, session.sent.size());
+  }
+
+  /**
+   * Test that a failed send closes the session.
+   */
+  @Test
+  public void testFailedSend() {
+    websocket.send("m0");
+    websocket.send("m1");
+    session.complete(false);
+
+    assertFalse(session.open);
+    assertEquals(0, websocket.getSentCount());
+    assertEquals(2, websocket.getDroppedCount());
+    assertEquals(1, session.sent.size());
+  }
+
+  /**
+   * A mock session whose async remote records the sends.
+   */
+  private static class MockSession {
+
+    /** The open flag. */
+    private boolean open = true;
+
+    /** The messages sent, in order. */
+    private final List<String> sent = new ArrayList<>();
+
+    /** The handlers of sends not yet completed. */
+    private final List<SendHandler> handlers = new ArrayList<>();
+
+    /** The session. */
+    private Session session;
+
+    /**
+     * Returns the session proxy.
+     *
+     * @return the session
+     */
+    public Session getSession() {
+      final RemoteEndpoint.Async async = (RemoteEndpoint.Async) Proxy
+          .newProxyInstance(getClass().getClassLoader(), new Class<?>[] {
+              RemoteEndpoint.Async.class
+          }, (proxy, method, args) -> {
+            if (method.getName().equals("sendText")) {
+              sent.add((String) args[0]);
+              handlers.add((SendHandler) args[1]);
+            }
+            return null;
+          });
+      session = (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] {
+              Session.class
+          }, (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getAsyncRemote":
+                return async;
+              case "isOpen":
+                return open;
+              case "close":
+                open = false;
+                return null;
+              case "getId":
+                return "1";
+              case "hashCode":
+                return System.identityHashCode(proxy);
+              case "equals":
+                return proxy == args[0];
+              default:
+                return null;
+            }
+          });
+      return session;
+    }
+
+    /**
+     * Completes the oldest send in flight.
+     *
+     * @param ok whether the send succeeded
+     */
+    public void complete(boolean ok) {
+      handlers.remove(0).onResult(ok ? new SendResult()
+          : new SendResult(new Exception("Send failed")));
+    }
+  }
+}
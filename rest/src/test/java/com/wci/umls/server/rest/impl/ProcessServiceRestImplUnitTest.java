@@ -0,0 +1,204 @@
+/*
+ *    Copyright 2017 West Coast Informatics, LLC
+ */
+package com.wci.umls.server.rest.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.wci.umls.server.AlgorithmConfig;
+import com.wci.umls.server.helpers.LocalException;
+import com.wci.umls.server.jpa.AlgorithmConfigJpa;
+import com.wci.umls.server.jpa.ProcessConfigJpa;
+
+/**
+ * Unit testing of the process step scheduling helpers of
+ * {@link ProcessServiceRestImpl}.
+ */
+public class ProcessServiceRestImplUnitTest {
+
+  /**
+   * Test that steps without declared dependencies depend on all earlier
+   * enabled steps.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testDefaultDependencies() throws Exception {
+    final ProcessConfigJpa process = new ProcessConfigJpa();
+    final AlgorithmConfig a = addStep(process, 1L, "A", true, null);
+    final AlgorithmConfig b = addStep(process, 2L, "B", false, null);
+    final AlgorithmConfig c = addStep(process, 3L, "C", true, null);
+
+    final Map<Long, Set<Long>> dependencyMap =
+        ProcessServiceRestImpl.getStepDependencies(process);
+    assertEquals(Collections.emptySet(), dependencyMap.get(a.getId()));
+    assertEquals(ids(1L), dependencyMap.get(b.getId()));
+    assertEquals(ids(1L), dependencyMap.get(c.getId()));
+  }
+
+  /**
+   * Test that declared dependencies on disabled steps are ignored.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testDisabledDependency() throws Exception {
+    final ProcessConfigJpa process = new ProcessConfigJpa();
+    addStep(process, 1L, "A", true, null);
+    addStep(process, 2L, "B", false, "A");
+    final AlgorithmConfig c = addStep(process, 3L, "C", true, "A, B");
+    final AlgorithmConfig d = addStep(process, 4L, "D", true, "B");
+
+    final Map<Long, Set<Long>> dependencyMap =
+        ProcessServiceRestImpl.getStepDependencies(process);
+    assertEquals(ids(1L), dependencyMap.get(c.getId()));
+    // Only depends on a disabled step, so it can start right away
+    assertEquals(Collections.emptySet(), dependencyMap.get(d.getId()));
+  }
+
+  /**
+   * Test that unknown and later step keys are rejected.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testUnknownDependency() throws Exception {
+    ProcessConfigJpa process = new ProcessConfigJpa();
+    addStep(process, 1L, "A", true, null);
+    addStep(process, 2L, "B", true, "UNKNOWN");
+    try {
+      ProcessServiceRestImpl.getStepDependencies(process);
+      fail("Expected unknown dependency to fail");
+    } catch (LocalException e) {
+      // n/a
+    }
+
+    process = new ProcessConfigJpa();
+    addStep(process, 1L, "A", true, "B");
+    addStep(process, 2L, "B", true, null);
+    try {
+      ProcessServiceRestImpl.getStepDependencies(process);
+      fail("Expected dependency on a later step to fail");
+    } catch (LocalException e) {
+      // n/a
+    }
+  }
+
+  /**
+   * Test the critical path is the longest chain of dependent steps.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testCriticalPathTime() throws Exception {
+    final ProcessConfigJpa process = getDiamondProcess();
+    final Map<Long, Set<Long>> dependencyMap =
+        ProcessServiceRestImpl.getStepDependencies(process);
+    final Map<Long, Long> stepTimeMap = new HashMap<>();
+    stepTimeMap.put(1L, 100L);
+    stepTimeMap.put(2L, 50L);
+    stepTimeMap.put(3L, 200L);
+    stepTimeMap.put(4L, 10L);
+
+    // A, then C, then D
+    assertEquals(310L, ProcessServiceRestImpl.getCriticalPathTime(process,
+        dependencyMap, stepTimeMap));
+  }
+
+  /**
+   * Test a restart after the two parallel steps of a process failed.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testRestartTwoFailedSteps() throws Exception {
+    final ProcessConfigJpa process = getDiamondProcess();
+    final Map<Long, Set<Long>> dependencyMap =
+        ProcessServiceRestImpl.getStepDependencies(process);
+
+    // A completed, B and C failed
+    final List<AlgorithmConfig> pendingSteps =
+        ProcessServiceRestImpl.getPendingSteps(process, Arrays.asList(1L));
+    assertEquals(3, pendingSteps.size());
+    assertEquals(Long.valueOf(2L), pendingSteps.get(0).getId());
+    assertEquals(Long.valueOf(3L), pendingSteps.get(1).getId());
+    assertEquals(Long.valueOf(4L), pendingSteps.get(2).getId());
+
+    // Both failed steps can start again at once, the last waits for them
+    final Set<Long> finishedSteps = ids(1L);
+    assertTrue(finishedSteps.containsAll(dependencyMap.get(2L)));
+    assertTrue(finishedSteps.containsAll(dependencyMap.get(3L)));
+    assertFalse(finishedSteps.containsAll(dependencyMap.get(4L)));
+    finishedSteps.add(2L);
+    assertFalse(finishedSteps.containsAll(dependencyMap.get(4L)));
+    finishedSteps.add(3L);
+    assertTrue(finishedSteps.containsAll(dependencyMap.get(4L)));
+
+    // The completed step was not run, so it counts as zero
+    final Map<Long, Long> stepTimeMap = new HashMap<>();
+    stepTimeMap.put(2L, 50L);
+    stepTimeMap.put(3L, 200L);
+    stepTimeMap.put(4L, 10L);
+    assertEquals(210L, ProcessServiceRestImpl.getCriticalPathTime(process,
+        dependencyMap, stepTimeMap));
+  }
+
+  /**
+   * Returns a process where B and C depend on A, and D depends on both.
+   *
+   * @return the process
+   */
+  private static ProcessConfigJpa getDiamondProcess() {
+    final ProcessConfigJpa process = new ProcessConfigJpa();
+    addStep(process, 1L, "A", true, null);
+    addStep(process, 2L, "B", true, "A");
+    addStep(process, 3L, "C", true, "A");
+    addStep(process, 4L, "D", true, "B,C");
+    return process;
+  }
+
+  /**
+   * Adds a step to the process.
+   *
+   * @param process the process
+   * @param id the id
+   * @param key the algorithm key
+   * @param enabled the enabled flag
+   * @param dependencies the dependencies
+   * @return the step
+   */
+  private static AlgorithmConfig addStep(ProcessConfigJpa process, Long id,
+    String key, boolean enabled, String dependencies) {
+    final AlgorithmConfigJpa algo = new AlgorithmConfigJpa();
+    algo.setId(id);
+    algo.setName(key);
+    algo.setAlgorithmKey(key);
+    algo.setEnabled(enabled);
+    algo.setDependencies(dependencies);
+    process.getSteps().add(algo);
+    return algo;
+  }
+
+  /**
+   * Returns the ids as a set.
+   *
+   * @param ids the ids
+   * @return the set
+   */
+  private static Set<Long> ids(Long... ids) {
+    return new HashSet<>(Arrays.asList(ids));
+  }
+}
@@ -3,6 +3,8 @@
  */
 package com.wci.umls.server.services.handlers;
 
+import java.util.List;
+
 import com.wci.umls.server.helpers.Configurable;
 
 /**
@@ -19,4 +21,25 @@ public interface NormalizedStringHandler extends Configurable {
    */
   public String getNormalizedString(String string) throws Exception;
 
+  /**
+   * Returns the normalized string for a string with a known string class id
+   * (SUI). Implementations may cache results by string class id.
+   *
+   * @param string the string
+   * @param stringClassId the string class id
+   * @return the normalized string
+   * @throws Exception the exception
+   */
+  public String getNormalizedString(String string, String stringClassId)
+    throws Exception;
+
+  /**
+   * Returns the normalized strings, in the order of the input.
+   *
+   * @param strings the strings
+   * @return the normalized strings
+   * @throws Exception the exception
+   */
+  public List<String> normalizeAll(Iterable<String> strings) throws Exception;
+
 }
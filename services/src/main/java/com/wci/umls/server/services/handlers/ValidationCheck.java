@@ -19,6 +19,25 @@ import com.wci.umls.server.services.ContentService;
  */
 public interface ValidationCheck extends Configurable {
 
+  /**
+   * The concept data read by {@link #validate(Concept)}, fetched in bulk when
+   * concepts are validated in partitions.
+   */
+  public enum ConceptData {
+
+    /** The atoms. */
+    ATOMS,
+
+    /** The atom relationships (implies atoms). */
+    ATOM_RELATIONSHIPS,
+
+    /** The concept relationships. */
+    RELATIONSHIPS,
+
+    /** The semantic types. */
+    SEMANTIC_TYPES
+  }
+
   /**
    * Validates the concept.
    *
@@ -44,6 +63,16 @@ public interface ValidationCheck extends Configurable {
   public Set<Long> validateConcepts(Set<Long> conceptIds, String terminology,
     String version, ContentService contentService) throws Exception;
 
+  /**
+   * Returns the concept data this check needs to validate concepts one at a
+   * time. If not empty, bulk validation fetches that data for partitions of
+   * concepts and calls {@link #validate(Concept)} on each, instead of calling
+   * {@link #validateConcepts(Set, String, String, ContentService)}.
+   *
+   * @return the concept data
+   */
+  public Set<ConceptData> getConceptData();
+
   /**
    * Validates the descriptor.
    *